@@ -0,0 +1,240 @@
+/*
+ * This source file is part of Grideasy
+ * For the latest info, see https://code.google.com/p/grideasy/
+ * 
+ * Grideasy is free software: you can redistribute it
+ * and/or modify it under the terms of the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.grideasy.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarInputStream;
+
+/**
+ * A {@link ClassLoader} of a code bundle received from the server.
+ * The entries of the jar are indexed once in memory when the loader
+ * is created and the classes are defined lazily, on demand, directly
+ * from the received bytes (no temporary file is written).
+ *
+ * @author Felipe Santos
+ * @email felchs@gmail.com
+ */
+public class BundleClassLoader extends ClassLoader implements Closeable
+{
+	/**
+	 * The protocol of the URLs of the bundle resources
+	 */
+	private static final String URL_PROTOCOL = "gridbundle";
+
+	/**
+	 * The bytes of the jar entries by entry name
+	 */
+	private Map<String, byte[]> entries = new HashMap<String, byte[]>();
+
+	/**
+	 * The names of the packages defined by this loader
+	 */
+	private final Set<String> definedPackages = new HashSet<String>();
+
+	/**
+	 * Handler of the URLs of the bundle resources, reading them from memory
+	 */
+	private final URLStreamHandler urlHandler = new URLStreamHandler()
+	{
+		@Override
+		protected URLConnection openConnection(URL url) throws IOException
+		{
+			final byte[] bytes = getEntry(url.getPath().substring(1));
+			if (bytes == null)
+			{
+				throw new IOException("Resource not found in the bundle: " + url);
+			}
+
+			return new URLConnection(url)
+			{
+				@Override
+				public void connect()
+				{
+				}
+
+				@Override
+				public InputStream getInputStream()
+				{
+					return new ByteArrayInputStream(bytes);
+				}
+			};
+		}
+	};
+
+	/**
+	 * Constructor passing the jar and the parent {@link ClassLoader}
+	 *
+	 * @param jarByteArray the bytes of the code bundle jar
+	 * @param parent the parent {@link ClassLoader}
+	 * @throws IOException if the jar could not be read
+	 */
+	public BundleClassLoader(byte[] jarByteArray, ClassLoader parent) throws IOException
+	{
+		super(parent);
+
+		JarInputStream jarInputStream = new JarInputStream(new ByteArrayInputStream(jarByteArray));
+		try
+		{
+			byte[] buf = new byte[0x1000];
+			JarEntry jarEntry;
+			while ((jarEntry = jarInputStream.getNextJarEntry()) != null)
+			{
+				if (jarEntry.isDirectory())
+				{
+					continue;
+				}
+
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				int r;
+				while ((r = jarInputStream.read(buf)) != -1)
+				{
+					out.write(buf, 0, r);
+				}
+				entries.put(jarEntry.getName(), out.toByteArray());
+			}
+		}
+		finally
+		{
+			jarInputStream.close();
+		}
+	}
+
+	/**
+	 * Gets the bytes of an entry of the bundle
+	 * @param name the name of the entry
+	 * @return the bytes of the entry or null if the bundle does not have it
+	 */
+	private synchronized byte[] getEntry(String name)
+	{
+		return entries.get(name);
+	}
+
+	/**
+	 * Defines a class of the bundle the first time it is requested
+	 */
+	@Override
+	protected Class<?> findClass(String name) throws ClassNotFoundException
+	{
+		byte[] classBytes = getEntry(name.replace('.', '/') + ".class");
+		if (classBytes == null)
+		{
+			throw new ClassNotFoundException(name);
+		}
+
+		int lastDot = name.lastIndexOf('.');
+		if (lastDot > 0)
+		{
+			definePackage(name.substring(0, lastDot));
+		}
+
+		return defineClass(name, classBytes, 0, classBytes.length);
+	}
+
+	/**
+	 * Defines a package of the bundle the first time one of its classes is defined
+	 * @param packageName the name of the package
+	 */
+	private void definePackage(String packageName)
+	{
+		synchronized (definedPackages)
+		{
+			if (!definedPackages.add(packageName))
+			{
+				return;
+			}
+
+			try
+			{
+				definePackage(packageName, null, null, null, null, null, null, null);
+			}
+			catch (IllegalArgumentException e)
+			{
+				// the package was already defined by a parent
+			}
+		}
+	}
+
+	/**
+	 * Finds a resource of the bundle
+	 */
+	@Override
+	protected URL findResource(String name)
+	{
+		if (getEntry(name) == null)
+		{
+			return null;
+		}
+
+		try
+		{
+			return new URL(URL_PROTOCOL, null, -1, "/" + name, urlHandler);
+		}
+		catch (MalformedURLException e)
+		{
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Finds the resources of the bundle, a bundle has at most one resource by name
+	 */
+	@Override
+	protected Enumeration<URL> findResources(String name)
+	{
+		URL url = findResource(name);
+		if (url == null)
+		{
+			return Collections.enumeration(Collections.<URL>emptyList());
+		}
+		return Collections.enumeration(Collections.singletonList(url));
+	}
+
+	/**
+	 * Releases the bytes of the bundle.
+	 * The classes already defined keep working, but no new class can be loaded
+	 */
+	@Override
+	public synchronized void close()
+	{
+		entries = Collections.emptyMap();
+	}
+}
@@ -0,0 +1,240 @@
+/*
+ * This source file is part of Grideasy
+ * For the latest info, see https://code.google.com/p/grideasy/
+ * 
+ * Grideasy is free software: you can redistribute it
+ * and/or modify it under the terms of the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.grideasy.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of the {@link ClassLoader}'s created for the code bundles
+ * received from the server, by the key of the bundle hash.
+ * The loaders are reused across jobs and tasks, so the classes of a bundle are
+ * loaded (and compiled by the JIT) only once. When the cache is full the least
+ * recently used loader is evicted. The loaders are acquired by the batches of jobs
+ * that use them and released once their results are written, and a removed loader
+ * is unloaded only when no batch uses it anymore, since its classes are defined
+ * on demand while the jobs run.
+ *
+ * @author Felipe Santos
+ * @email felchs@gmail.com
+ */
+public class ClassLoaderCache
+{
+	/**
+	 * The default maximum number of cached {@link ClassLoader}'s
+	 */
+	public static final int DEFAULT_MAX_SIZE = 16;
+
+	/**
+	 * The maximum number of cached {@link ClassLoader}'s
+	 */
+	private final int maxSize;
+
+	/**
+	 * The cached {@link ClassLoader}'s by bundle hash in access order
+	 */
+	private final LinkedHashMap<String, ClassLoader> loaders;
+
+	/**
+	 * The number of batches of jobs using each acquired {@link ClassLoader}
+	 */
+	private final Map<ClassLoader, Integer> usages = new IdentityHashMap<ClassLoader, Integer>();
+
+	/**
+	 * Constructor with the default maximum size
+	 */
+	public ClassLoaderCache()
+	{
+		this(DEFAULT_MAX_SIZE);
+	}
+
+	/**
+	 * Constructor passing the maximum size
+	 * @param maxSize the maximum number of cached {@link ClassLoader}'s
+	 */
+	@SuppressWarnings("serial")
+	public ClassLoaderCache(int maxSize)
+	{
+		if (maxSize < 1)
+		{
+			throw new IllegalArgumentException("The class loader cache must hold at least one class loader");
+		}
+
+		this.maxSize = maxSize;
+		this.loaders = new LinkedHashMap<String, ClassLoader>(16, 0.75f, true)
+		{
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, ClassLoader> eldest)
+			{
+				if (size() > ClassLoaderCache.this.maxSize)
+				{
+					retire(eldest.getValue());
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Gets the {@link ClassLoader} of a bundle, marking it as recently used
+	 * @param bundleHash the hash of the bundle
+	 * @return the {@link ClassLoader} of the bundle or null if it is not cached
+	 */
+	public synchronized ClassLoader get(String bundleHash)
+	{
+		return loaders.get(bundleHash);
+	}
+
+	/**
+	 * Gets the {@link ClassLoader} of a bundle for a batch of jobs, marking it as
+	 * recently used. The loader is not unloaded until it is released
+	 * @param bundleHash the hash of the bundle
+	 * @return the {@link ClassLoader} of the bundle or null if it is not cached
+	 */
+	public synchronized ClassLoader acquire(String bundleHash)
+	{
+		ClassLoader loader = loaders.get(bundleHash);
+		if (loader != null)
+		{
+			Integer usage = usages.get(loader);
+			usages.put(loader, usage == null ? 1 : usage + 1);
+		}
+		return loader;
+	}
+
+	/**
+	 * Releases a {@link ClassLoader} acquired for a batch of jobs, unloading it
+	 * when it was removed from the cache and no other batch uses it
+	 * @param loader the {@link ClassLoader} to be released
+	 */
+	public synchronized void release(ClassLoader loader)
+	{
+		Integer usage = usages.get(loader);
+		if (usage == null)
+		{
+			return;
+		}
+
+		if (usage > 1)
+		{
+			usages.put(loader, usage - 1);
+			return;
+		}
+
+		usages.remove(loader);
+		if (!loaders.containsValue(loader))
+		{
+			unload(loader);
+		}
+	}
+
+	/**
+	 * Puts the {@link ClassLoader} of a bundle, evicting the least recently
+	 * used loader when the cache is full
+	 * @param bundleHash the hash of the bundle
+	 * @param loader the {@link ClassLoader} of the bundle
+	 */
+	public synchronized void put(String bundleHash, ClassLoader loader)
+	{
+		ClassLoader previous = loaders.put(bundleHash, loader);
+		if (previous != null && previous != loader)
+		{
+			retire(previous);
+		}
+	}
+
+	/**
+	 * Removes the {@link ClassLoader} of a bundle, unloading it once no batch uses it
+	 * @param bundleHash the hash of the bundle
+	 */
+	public synchronized void remove(String bundleHash)
+	{
+		ClassLoader loader = loaders.remove(bundleHash);
+		if (loader != null)
+		{
+			retire(loader);
+		}
+	}
+
+	/**
+	 * Removes all the cached {@link ClassLoader}'s, unloading each one once no batch uses it
+	 */
+	public synchronized void clear()
+	{
+		for (ClassLoader loader : loaders.values())
+		{
+			retire(loader);
+		}
+		loaders.clear();
+	}
+
+	/**
+	 * Gets the number of cached {@link ClassLoader}'s
+	 * @return the number of cached {@link ClassLoader}'s
+	 */
+	public synchronized int size()
+	{
+		return loaders.size();
+	}
+
+	/**
+	 * Unloads a {@link ClassLoader} removed from the cache, or leaves it
+	 * to be unloaded by the last release of the batches that use it
+	 * @param loader the removed {@link ClassLoader}
+	 */
+	private void retire(ClassLoader loader)
+	{
+		if (!usages.containsKey(loader))
+		{
+			unload(loader);
+		}
+	}
+
+	/**
+	 * Unloads a {@link ClassLoader} releasing its resources.
+	 * Its classes are collected (and the metaspace freed) once
+	 * no job instance references them anymore
+	 * @param loader the {@link ClassLoader} to be unloaded
+	 */
+	private void unload(ClassLoader loader)
+	{
+		if (loader instanceof Closeable)
+		{
+			try
+			{
+				((Closeable) loader).close();
+			}
+			catch (IOException e)
+			{
+				e.printStackTrace();
+			}
+		}
+	}
+}
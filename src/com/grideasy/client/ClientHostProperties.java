@@ -30,6 +30,10 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.Properties;
 
+import com.grideasy.client.io.FrameCompression;
+import com.grideasy.client.io.SharedMemorySegment;
+import com.grideasy.client.serializer.Serializers;
+
 /**
  * This class has the server info about nodes, host and ports
  * 
@@ -48,6 +52,78 @@ public class ClientHostProperties
 	 */
 	public String ip;
 	
+	/**
+	 * The maximum number of code bundle {@link ClassLoader}'s kept by the client
+	 */
+	public int classLoaderCacheSize;
+	
+	/**
+	 * The number of jobs the client executes at the same time
+	 */
+	public int parallelism;
+	
+	/**
+	 * The maximum number of received jobs waiting to be executed
+	 */
+	public int jobQueueCapacity;
+	
+	/**
+	 * Whether the jobs are executed on virtual threads or not
+	 */
+	public boolean virtualThreads;
+	
+	/**
+	 * The time in microseconds the completed results wait for more results
+	 * to be sent together, 0 to send them as soon as no other result is waiting
+	 */
+	public int resultCoalesceMicros;
+	
+	/**
+	 * The number of bytes of waiting results that are sent at once
+	 */
+	public int resultCoalesceBytes;
+	
+	/**
+	 * The compression of the frames offered to the server, {@link FrameCompression#NONE} or {@link FrameCompression#DEFLATE}
+	 */
+	public String compression;
+	
+	/**
+	 * The size from which the frames are compressed
+	 */
+	public int compressionThreshold;
+	
+	/**
+	 * The level of the compression of the frames, from 1 to 9
+	 */
+	public int compressionLevel;
+	
+	/**
+	 * The number of results written before the class descriptors are sent again
+	 */
+	public int sessionResetInterval;
+	
+	/**
+	 * The comma separated names of the serializers this client offers, in its order of preference
+	 */
+	public String serializers;
+	
+	/**
+	 * The transport of the connection to the server: "tcp", "unix", the Unix domain socket of a server
+	 * of the same host, or "shm", a shared memory slot of a server of the same host
+	 */
+	public String transport;
+	
+	/**
+	 * The path of the Unix domain socket of the server, used by the "unix" transport
+	 */
+	public String unixSocketPath;
+	
+	/**
+	 * The directory of the files of the shared memory slots of the server, used by the "shm" transport
+	 */
+	public String sharedMemoryDirectory;
+	
 	/**
 	 * Constructor that initializes the configurations of
 	 * this client. By default the configuration file is
@@ -68,5 +144,23 @@ public class ClientHostProperties
 
 		port = Integer.parseInt(prop.getProperty("port"));
 		ip = prop.getProperty("server_ip");
+		classLoaderCacheSize = Integer.parseInt(prop.getProperty("classLoaderCacheSize", String.valueOf(ClassLoaderCache.DEFAULT_MAX_SIZE)));
+		parallelism = Integer.parseInt(prop.getProperty("parallelism", String.valueOf(Runtime.getRuntime().availableProcessors())));
+		jobQueueCapacity = Integer.parseInt(prop.getProperty("jobQueueCapacity", String.valueOf(2 * parallelism)));
+		virtualThreads = Boolean.parseBoolean(prop.getProperty("virtualThreads", "false"));
+		resultCoalesceMicros = Integer.parseInt(prop.getProperty("resultCoalesceMicros", String.valueOf(JobExecutionEngine.DEFAULT_RESULT_COALESCE_MICROS)));
+		resultCoalesceBytes = Integer.parseInt(prop.getProperty("resultCoalesceBytes", String.valueOf(JobExecutionEngine.DEFAULT_RESULT_COALESCE_BYTES)));
+		compression = prop.getProperty("compression", FrameCompression.NONE).trim();
+		compressionThreshold = Integer.parseInt(prop.getProperty("compressionThreshold", String.valueOf(FrameCompression.DEFAULT_THRESHOLD)));
+		compressionLevel = Integer.parseInt(prop.getProperty("compressionLevel", String.valueOf(FrameCompression.DEFAULT_LEVEL)));
+		serializers = prop.getProperty("serializers", Serializers.DEFAULT_PREFERENCE);
+		sessionResetInterval = Integer.parseInt(prop.getProperty("sessionResetInterval", String.valueOf(SessionCodec.DEFAULT_RESET_INTERVAL)));
+		transport = prop.getProperty("transport", "tcp").trim();
+		unixSocketPath = prop.getProperty("unixSocketPath", "").trim();
+		if (unixSocketPath.length() == 0)
+		{
+			unixSocketPath = null;
+		}
+		sharedMemoryDirectory = prop.getProperty("sharedMemoryDirectory", SharedMemorySegment.DEFAULT_DIRECTORY).trim();
 	}
 }
\ No newline at end of file
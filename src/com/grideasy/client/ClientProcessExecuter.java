@@ -25,21 +25,21 @@
  */
 package com.grideasy.client;
 
-import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.Socket;
-import java.net.URL;
-import java.net.URLClassLoader;
-import java.util.ArrayList;
-import java.util.Enumeration;
-import java.util.Iterator;
-import java.util.Vector;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import com.grideasy.client.io.BufferPool;
+import com.grideasy.client.io.ByteBufferInputStream;
+import com.grideasy.client.io.FrameCompression;
+import com.grideasy.client.serializer.GridSerializer;
+import com.grideasy.client.serializer.Serializers;
+import com.grideasy.client.serializer.UnknownDescriptorException;
 
 /**
  * This class executes classes into a new class loader
@@ -49,72 +49,22 @@ import java.util.jar.JarFile;
  */
 public class ClientProcessExecuter
 {
-	/**
-	 * Lists the classes of a given {@link ClassLoader}
-	 * 
-	 * @param classLoader the {@link ClassLoader} to read classes
-	 */
-	public static void listLoadedClasses(ClassLoader classLoader) {
-	    Class<?> clazz = classLoader.getClass();
-	    while (clazz != java.lang.ClassLoader.class) {
-	        clazz = clazz.getSuperclass();
-	    }
-	    try {
-	        java.lang.reflect.Field fldClasses = clazz.getDeclaredField("classes");
-	        fldClasses.setAccessible(true);
-	        Vector<?> classes = (Vector<?>) fldClasses.get(classLoader);
-	        for (Iterator<?> iter = classes.iterator(); iter.hasNext();) {
-	            System.out.println("Loaded " + iter.next());
-	        }
-	    } catch (SecurityException e) {
-	        e.printStackTrace();
-	    } catch (IllegalArgumentException e) {
-	        e.printStackTrace();
-	    } catch (NoSuchFieldException e) {
-	        e.printStackTrace();
-	    } catch (IllegalAccessException e) {
-	        e.printStackTrace();
-	    }
-	}
-	
 	/**
 	 * Initializes a new .jar at runtime
-	 * The jar is created in the temporary directory of the
-	 * operational system, initialized on memory and deleted
-	 * after the initialization
+	 * The jar is indexed on memory by a {@link BundleClassLoader}
+	 * and its classes are loaded on demand
 	 *   
 	 * @param jarByteArray the bytes of the jars to be initialized 
 	 * @return the new {@link ClassLoader} created
 	 */
-	private URLClassLoader initNewClassLoader(byte[] jarByteArray)
+	private ClassLoader initNewClassLoader(byte[] jarByteArray)
 	{
-		URLClassLoader newClassLoader = null;
+		ClassLoader newClassLoader = null;
 		try
 		{
-			if (jarByteArray == null)
-			{
-				URL[] urls = new URL[0];
-				return URLClassLoader.newInstance(urls);
-			}
-			
-			String tmpFileName = "TempClasses" + System.currentTimeMillis();
-			File file = File.createTempFile(tmpFileName, ".jar");
-			FileOutputStream fos = new FileOutputStream(file);
-			fos.write(jarByteArray);
-			fos.close();
-			URL url = file.toURI().toURL();
-			URL[] urls = new URL[] { url };
-			newClassLoader = URLClassLoader.newInstance(urls);
-			String absolutePath = file.getAbsolutePath();
-			ArrayList<String> classNamesFromPackage = getClassNamesFromPackage(absolutePath);
-			for (String classNameFromPackage : classNamesFromPackage) 
-			{
-				String className = classNameFromPackage.replace("/", ".").replace(".class", "");
-				newClassLoader.loadClass(className);
-			}
-			file.delete();
+			newClassLoader = new BundleClassLoader(jarByteArray, getClass().getClassLoader());
 		} 
-		catch (Exception e)
+		catch (IOException e)
 		{
 			e.printStackTrace();
 		}
@@ -122,39 +72,86 @@ public class ClientProcessExecuter
 		return newClassLoader;
 	}
 	
+	///////////////////////////////////////////////////////////////////////////
+	
 	/**
-	 * Get all classes from a jar
-	 * 
-	 * @param jarFileName the jar to get the classes
-	 * @return the classes of the jar as String in a {@link ArrayList}
-	 * @throws IOException
+	 * The {@link ClassLoader}'s of the code bundles received from the server
 	 */
-	public static ArrayList<String> getClassNamesFromPackage(String jarFileName) throws IOException
-	{
-	    ArrayList<String> names = new ArrayList<String>();
-
-        Enumeration<JarEntry> jarEntries;
-        JarFile jf = new JarFile(jarFileName);
-        jarEntries = jf.entries();
-        while(jarEntries.hasMoreElements())
-        {
-        	String name = jarEntries.nextElement().getName();
-        	if (name.endsWith(".class")) 
-        	{
-        		names.add(name);
-        	}
-        }
-
-	    return names;
-	}
+	private final ClassLoaderCache classLoaderCache;
 	
-	///////////////////////////////////////////////////////////////////////////
+	/**
+	 * The client configuration of the execution of the jobs
+	 */
+	private final ClientHostProperties hostProperties;
 	
 	/**
 	 * Whether this execution is running or not
 	 */
 	private boolean running = true;
 	
+	/**
+	 * The connection of the current execution, closed on errors
+	 */
+	private Closeable connection;
+	
+	/**
+	 * The {@link BufferPool} of the received jobs, only used by the reader of the connection
+	 */
+	private final BufferPool bufferPool = new BufferPool(false);
+	
+	/**
+	 * The stream of the received jobs, only used by the reader of the connection
+	 */
+	private final ByteBufferInputStream jobStream = new ByteBufferInputStream();
+	
+	/**
+	 * The stream of the decompressed messages, only used by the reader of the connection
+	 */
+	private final ByteBufferInputStream messageStream = new ByteBufferInputStream();
+	
+	/**
+	 * Whether a job was skipped since the server last reset its serializer, only used
+	 * by the reader of the connection: the classes first named by the skipped job are
+	 * unknown, so the jobs that cannot be read meanwhile are answered as unread
+	 */
+	private boolean jobsSkipped;
+	
+	/**
+	 * The primitives of the decompressed messages, only used by the reader of the connection
+	 */
+	private final DataInputStream messageInput = new DataInputStream(messageStream);
+	
+	/**
+	 * Constructor loading the client configuration and
+	 * with a {@link ClassLoaderCache} of the configured size
+	 */
+	public ClientProcessExecuter()
+	{
+		this(new ClientHostProperties());
+	}
+	
+	/**
+	 * Constructor passing the client configuration, with a
+	 * {@link ClassLoaderCache} of the configured size
+	 * @param hostProperties the client configuration
+	 */
+	private ClientProcessExecuter(ClientHostProperties hostProperties)
+	{
+		this(hostProperties, new ClassLoaderCache(hostProperties.classLoaderCacheSize));
+	}
+	
+	/**
+	 * Constructor passing the client configuration and the {@link ClassLoaderCache}
+	 * that keeps the {@link ClassLoader}'s of the received code bundles
+	 * @param hostProperties the client configuration
+	 * @param classLoaderCache the cache of the code bundles {@link ClassLoader}'s
+	 */
+	public ClientProcessExecuter(ClientHostProperties hostProperties, ClassLoaderCache classLoaderCache)
+	{
+		this.hostProperties = hostProperties;
+		this.classLoaderCache = classLoaderCache;
+	}
+	
 	/**
 	 * Sets whether this client executer is running or not
 	 * @param running whether this client executer is running or not
@@ -175,67 +172,388 @@ public class ClientProcessExecuter
 
 	/**
 	 * Executes external program with data from a {@link Socket}
+	 * The parallelism of this client, the serializers it knows and the compression
+	 * it offers are sent to the server first, which answers the serializer and the
+	 * compression of the connection, then the received jobs are put into a {@link JobExecutionEngine} that
+	 * runs them concurrently and writes their results
 	 * 
 	 * @param in the {@link DataInputStream} of the {@link Socket}
 	 * @param os the {@link DataOutputStream} of the {@link Socket}
 	 * @param socket the {@link Socket} of external execution
 	 * @throws IOException
 	 */
-	public void execute(DataInputStream in, DataOutputStream os, Socket socket) throws IOException
+	public void execute(DataInputStream in, DataOutputStream os, final Socket socket) throws IOException
 	{
-		while (isRunning())
+		execute(in, os, new Closeable()
 		{
-			if (socket.isClosed() || !socket.isConnected())
+			@Override
+			public void close() throws IOException
 			{
-				notifyError();
-				return;
+				socket.close();
 			}
-			
-			try
+		});
+	}
+	
+	/**
+	 * Executes external program with data from a connection of any transport,
+	 * as {@link #execute(DataInputStream, DataOutputStream, Socket)} does
+	 * 
+	 * @param in the {@link DataInputStream} of the connection
+	 * @param os the {@link DataOutputStream} of the connection
+	 * @param connection the connection of external execution, closed on errors
+	 * @throws IOException
+	 */
+	public void execute(DataInputStream in, DataOutputStream os, Closeable connection) throws IOException
+	{
+		this.connection = connection;
+		
+		int parallelism = hostProperties.parallelism;
+		List<String> serializers = Serializers.getInstance().getKnown(Serializers.parsePreference(hostProperties.serializers));
+		
+		ByteArrayOutputStream hello = new ByteArrayOutputStream();
+		DataOutputStream helloOutput = new DataOutputStream(hello);
+		helloOutput.writeInt(parallelism);
+		helloOutput.writeInt(serializers.size());
+		for (String serializer : serializers)
+		{
+			helloOutput.writeUTF(serializer);
+		}
+		helloOutput.writeUTF(hostProperties.compression);
+		os.writeInt(hello.size());
+		hello.writeTo(os);
+		os.flush();
+		
+		GridSerializer codec = Serializers.getInstance().newSerializer(in.readUTF(), hostProperties.sessionResetInterval);
+		FrameCompression compression = FrameCompression.create(in.readUTF(), hostProperties.compressionThreshold, hostProperties.compressionLevel);
+		JobExecutionEngine engine = new JobExecutionEngine(this, os, codec, compression, parallelism, hostProperties.jobQueueCapacity, hostProperties.virtualThreads,
+				hostProperties.resultCoalesceMicros, hostProperties.resultCoalesceBytes);
+		engine.start();
+		
+		try
+		{
+			while (isRunning())
 			{
-				// jar bytes
-				byte[] hasJarAsByte = new byte[1];
-				in.readFully(hasJarAsByte);
-				boolean hasJar = hasJarAsByte[0] == 1;
-				byte[] jarByteArray = null;
-				if (hasJar)
+				try
 				{
-					int sz = in.readInt();
-					jarByteArray = new byte[sz];
-					in.readFully(jarByteArray);
+					readMessage(in, codec, compression, engine);
 				}
-
-				URLClassLoader newLoader = initNewClassLoader(jarByteArray);
+				catch (Exception e)
+				{
+					if (isRunning())
+					{
+						e.printStackTrace();
+						notifyError();
+					}
+				}
+			}
+		}
+		finally
+		{
+			engine.shutdown();
+			if (compression != null)
+			{
+				compression.close();
+			}
+		}
+	}
 	
-				// object
+	/**
+	 * Reads a message of jobs from the server. When the connection is compressed
+	 * the message starts with a flag: a raw message follows as it is, while a
+	 * compressed one follows with its compressed and raw sizes and is decompressed
+	 * into a pooled buffer, from which its jobs are read
+	 * 
+	 * @param in the {@link DataInputStream} of the {@link Socket}
+	 * @param codec the {@link GridSerializer} of the connection
+	 * @param compression the {@link FrameCompression} of the connection, null if it is not compressed
+	 * @param engine the {@link JobExecutionEngine} which executes the jobs
+	 * @throws Exception
+	 */
+	private void readMessage(DataInputStream in, GridSerializer codec, FrameCompression compression, JobExecutionEngine engine) throws Exception
+	{
+		if (compression == null || in.readByte() != FrameCompression.DEFLATED)
+		{
+			readJobs(in, codec, engine);
+			return;
+		}
+		
+		int compressedSize = in.readInt();
+		int rawSize = in.readInt();
+		ByteBuffer compressed = bufferPool.acquire(compressedSize);
+		ByteBuffer message = bufferPool.acquire(rawSize);
+		try
+		{
+			in.readFully(compressed.array(), compressed.arrayOffset(), compressedSize);
+			compressed.limit(compressedSize);
+			message.limit(rawSize);
+			compression.decompress(compressed, message);
+			message.flip();
+			
+			messageStream.reset(message);
+			readJobs(messageInput, codec, engine);
+		}
+		finally
+		{
+			bufferPool.release(compressed);
+			bufferPool.release(message);
+		}
+	}
+	
+	/**
+	 * Reads a batch of jobs from the server, submitting it to the {@link JobExecutionEngine},
+	 * which answers the whole batch in a single frame.
+	 * Each job is read into a pooled buffer and decoded from it in place.
+	 * The jobs of an unknown code bundle are answered as missing their bundle,
+	 * after being read through the {@link GridSerializer} anyway.
+	 * Until the first batch after the server reset its serializer, the jobs
+	 * that cannot be read are answered as unread, so they are sent again
+	 * 
+	 * @param in the {@link DataInputStream} of the {@link Socket}
+	 * @param codec the {@link GridSerializer} of the connection
+	 * @param engine the {@link JobExecutionEngine} which executes the jobs
+	 * @throws Exception
+	 */
+	private void readJobs(DataInputStream in, GridSerializer codec, JobExecutionEngine engine) throws Exception
+	{
+		int numJobs = in.readInt();
+		byte flags = in.readByte();
+		boolean lowLatency = (flags & GridProtocol.LOW_LATENCY) != 0;
+		if ((flags & GridProtocol.SESSION_RESET) != 0)
+		{
+			jobsSkipped = false;
+		}
+		
+		// jar bytes
+		byte bundleType = in.readByte();
+		String bundleHash = null;
+		ClassLoader loader = null;
+		ClassLoader bundleLoader = null;
+		if (bundleType == GridProtocol.BUNDLE_FULL)
+		{
+			bundleHash = in.readUTF();
+			int sz = in.readInt();
+			byte[] jarByteArray = new byte[sz];
+			in.readFully(jarByteArray);
+			bundleLoader = getBundleClassLoader(bundleHash, jarByteArray);
+			loader = bundleLoader != null ? bundleLoader : getClass().getClassLoader();
+		}
+		else if (bundleType == GridProtocol.BUNDLE_REF)
+		{
+			bundleHash = in.readUTF();
+			loader = bundleLoader = classLoaderCache.acquire(bundleHash);
+		}
+		else
+		{
+			loader = getClass().getClassLoader();
+		}
+
+		// objects
+		long[] requestIds = new long[numJobs];
+		GridJob[] gridJobs = new GridJob[numJobs];
+		int numUnreadJobs = 0;
+		try
+		{
+			for (int i = 0; i < numJobs; i++)
+			{
+				requestIds[i] = in.readLong();
 				int sz = in.readInt();
-				byte objInBytes[] = new byte[sz];
-				in.readFully(objInBytes);
+				ByteBuffer jobBuffer = bufferPool.acquire(sz);
+				try
+				{
+					in.readFully(jobBuffer.array(), jobBuffer.arrayOffset(), sz);
+					jobBuffer.limit(sz);
+					
+					jobStream.reset(jobBuffer);
+					if (loader == null)
+					{
+						skipJob(codec, jobStream);
+						jobsSkipped = true;
+					}
+					else if (jobsSkipped)
+					{
+						gridJobs[i] = readJobAfterSkip(codec, jobStream, loader);
+						if (gridJobs[i] == null)
+						{
+							numUnreadJobs++;
+						}
+					}
+					else
+					{
+						gridJobs[i] = (GridJob) codec.decode(jobStream, loader);
+					}
+				}
+				finally
+				{
+					bufferPool.release(jobBuffer);
+				}
+			}
+		}
+		catch (Exception e)
+		{
+			if (bundleLoader != null)
+			{
+				classLoaderCache.release(bundleLoader);
+			}
+			throw e;
+		}
+		
+		if (loader == null)
+		{
+			JobResult[] jobResults = new JobResult[numJobs];
+			for (int i = 0; i < numJobs; i++)
+			{
+				jobResults[i] = JobResult.bundleMissing(requestIds[i], bundleHash);
+			}
+			engine.submitResults(jobResults, lowLatency);
+			return;
+		}
+		
+		if (numUnreadJobs > 0)
+		{
+			JobResult[] jobResults = new JobResult[numUnreadJobs];
+			long[] readRequestIds = new long[numJobs - numUnreadJobs];
+			GridJob[] readJobs = new GridJob[numJobs - numUnreadJobs];
+			for (int i = 0, numRead = 0, numUnread = 0; i < numJobs; i++)
+			{
+				if (gridJobs[i] == null)
+				{
+					jobResults[numUnread++] = JobResult.jobUnread(requestIds[i]);
+				}
+				else
+				{
+					readRequestIds[numRead] = requestIds[i];
+					readJobs[numRead++] = gridJobs[i];
+				}
+			}
+			engine.submitResults(jobResults, lowLatency);
+			
+			if (readJobs.length == 0)
+			{
+				if (bundleLoader != null)
+				{
+					classLoaderCache.release(bundleLoader);
+				}
+				return;
+			}
+			requestIds = readRequestIds;
+			gridJobs = readJobs;
+		}
+		engine.submit(requestIds, gridJobs, lowLatency, bundleLoader);
+	}
 	
-				ByteArrayInputStream inputStream = new ByteArrayInputStream(objInBytes);
-				CustomObjectInputStream objectInputStream = new CustomObjectInputStream(inputStream, newLoader);
+	/**
+	 * Reads a job after a job was skipped. The job may refer to classes first
+	 * named by the skipped job, which are unknown, so it is not read. Any other
+	 * failure is thrown as for a job read normally
+	 * 
+	 * @param codec the {@link GridSerializer} of the connection
+	 * @param jobStream the stream of the job
+	 * @param loader the {@link ClassLoader} of the classes of the job
+	 * @return the job read or null if it refers to an unknown class
+	 * @throws IOException if the job could not be read
+	 * @throws ClassNotFoundException if a class of the job could not be found
+	 */
+	private GridJob readJobAfterSkip(GridSerializer codec, ByteBufferInputStream jobStream, ClassLoader loader) throws IOException, ClassNotFoundException
+	{
+		try
+		{
+			return (GridJob) codec.decode(jobStream, loader);
+		}
+		catch (UnknownDescriptorException e)
+		{
+			return null;
+		}
+	}
 
-				Object readObject = objectInputStream.readObject();
-				objectInputStream.close();
+	/**
+	 * Reads a job whose code bundle is unknown, so the {@link GridSerializer} of the
+	 * connection still sees the class descriptors sent with it: the server sends
+	 * them only once, and the resent job refers to them.
+	 * The job is read by the default {@link ClassLoader} and dropped, its
+	 * classes not found are expected. The classes named inside a job whose
+	 * own class is not found are never seen, so the server resets its
+	 * serializer once told the bundle is missing
+	 * 
+	 * @param codec the {@link GridSerializer} of the connection
+	 * @param jobStream the stream of the job
+	 * @throws IOException if the job could not be read
+	 */
+	private void skipJob(GridSerializer codec, ByteBufferInputStream jobStream) throws IOException
+	{
+		try
+		{
+			codec.decode(jobStream, null);
+		}
+		catch (ClassNotFoundException e)
+		{
+			// the class is in the missing bundle
+		}
+		catch (LinkageError e)
+		{
+			// a class the job refers to is in the missing bundle
+		}
+	}
 
-				GridJob gridJob = (GridJob) readObject;
-				gridJob.setOutputStream(os);
-				gridJob.callJob();
-			}
-			catch (Exception e)
+	/**
+	 * Gets the {@link ClassLoader} of a received code bundle, acquired from the
+	 * {@link ClassLoaderCache} for a batch of jobs.
+	 * The loader is created only when the bundle is not in the
+	 * {@link ClassLoaderCache} yet, otherwise the cached one is reused
+	 * 
+	 * @param bundleHash the hash of the code bundle
+	 * @param jarByteArray the bytes of the code bundle jar
+	 * @return the {@link ClassLoader} of the code bundle or null if it could not be created
+	 */
+	private ClassLoader getBundleClassLoader(String bundleHash, byte[] jarByteArray)
+	{
+		ClassLoader loader = classLoaderCache.acquire(bundleHash);
+		if (loader == null)
+		{
+			loader = initNewClassLoader(jarByteArray);
+			if (loader == null)
 			{
-				e.printStackTrace();
-				notifyError();
+				return null;
 			}
+			classLoaderCache.put(bundleHash, loader);
+			loader = classLoaderCache.acquire(bundleHash);
 		}
+		return loader;
+	}
+	
+	/**
+	 * Releases the {@link ClassLoader} of a code bundle acquired for a batch of
+	 * jobs, once the results of the batch are written
+	 * @param loader the {@link ClassLoader} of the code bundle
+	 */
+	void releaseBundleClassLoader(ClassLoader loader)
+	{
+		classLoaderCache.release(loader);
 	}
 
 	/**
 	 * Notifies an error in the execution if exists
+	 * stopping the execution and closing its connection
 	 */
-	private void notifyError()
+	void notifyError()
 	{
+		if (!isRunning())
+		{
+			return;
+		}
+		
 		setRunning(false);
 		System.out.println("The grid closed the connection.");
+		
+		try
+		{
+			if (connection != null)
+			{
+				connection.close();
+			}
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+		}
 	}
 }
@@ -25,15 +25,25 @@
  */
 package com.grideasy.client;
 
+import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.nio.channels.SocketChannel;
+
+import com.grideasy.client.io.ChannelInputStream;
+import com.grideasy.client.io.ChannelOutputStream;
+import com.grideasy.client.io.SharedMemoryInputStream;
+import com.grideasy.client.io.SharedMemoryOutputStream;
+import com.grideasy.client.io.SharedMemorySegment;
+import com.grideasy.client.io.UnixDomainSockets;
 
 /**
  * This class holds a {@link Socket} connection
- * between GridClient and GridServer
+ * between GridClient and GridServer, or a Unix domain
+ * socket or a shared memory connection to a GridServer of the same host
  */
 public class ClientSocketConnection
 {
@@ -47,11 +57,31 @@ public class ClientSocketConnection
 	 */
 	private int port;
 	
+	/**
+	 * The path of the Unix domain socket of the server, null to connect by TCP
+	 */
+	private String unixSocketPath;
+	
+	/**
+	 * The directory of the shared memory slots of the server, null to connect by socket
+	 */
+	private String sharedMemoryDirectory;
+	
 	/**
 	 * The {@link Socket} to connection
 	 */
 	private Socket socket;
 	
+	/**
+	 * The channel of a Unix domain socket connection
+	 */
+	private SocketChannel channel;
+	
+	/**
+	 * The claimed slot of a shared memory connection
+	 */
+	private SharedMemorySegment segment;
+	
 	/**
 	 * Responsible by the execution of given classes into a new class loader
 	 */
@@ -70,13 +100,39 @@ public class ClientSocketConnection
 		this.executer = executer;
 	}
 	
+	/**
+	 * Constructor of a connection by Unix domain socket
+	 * @param unixSocketPath the path of the Unix domain socket of the server
+	 * @param executer the executer of the classes
+	 */
+	public ClientSocketConnection(String unixSocketPath, ClientProcessExecuter executer)
+	{
+		this.unixSocketPath = unixSocketPath;
+		this.executer = executer;
+	}
+	
+	/**
+	 * Creates a connection by a shared memory slot of a server of the same host
+	 * @param sharedMemoryDirectory the directory of the shared memory slots of the server
+	 * @param port the port of the server, which names its slots
+	 * @param executer the executer of the classes
+	 * @return the connection by shared memory
+	 */
+	public static ClientSocketConnection forSharedMemory(String sharedMemoryDirectory, int port, ClientProcessExecuter executer)
+	{
+		ClientSocketConnection connection = new ClientSocketConnection(null, port, executer);
+		connection.sharedMemoryDirectory = sharedMemoryDirectory;
+		return connection;
+	}
+	
 	/**
 	 * Gets whether this client is connected to the server or not
 	 * @return
 	 */
 	public boolean isConnected()
 	{
-		return socket != null && socket.isConnected();
+		return (socket != null && socket.isConnected()) || (channel != null && channel.isConnected())
+				|| (segment != null && segment.getClientState() == SharedMemorySegment.CLIENT_CONNECTED);
 	}
 
 	/**
@@ -89,9 +145,21 @@ public class ClientSocketConnection
 	{
 		try
 		{
+			if (sharedMemoryDirectory != null)
+			{
+				runSharedMemory();
+				return;
+			}
+			
+			if (unixSocketPath != null)
+			{
+				runUnixDomainSocket();
+				return;
+			}
+			
 			socket = new Socket(host, port);
 
-			DataInputStream in = new DataInputStream(socket.getInputStream());
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
 			DataOutputStream os = new DataOutputStream(socket.getOutputStream());
 			
 			executer.execute(in, os, socket);
@@ -106,7 +174,7 @@ public class ClientSocketConnection
 		}
 		catch (IOException e)
 		{
-			System.out.println("Trying to connect on host: " + host + ":" + port);
+			System.out.println("Trying to connect on host: " + getAddress());
 
 			try
 			{
@@ -118,4 +186,63 @@ public class ClientSocketConnection
 			}
 		}
 	}
+	
+	/**
+	 * Runs the program via a Unix domain socket connection. The channel
+	 * is read and written by different threads at the same time, so its
+	 * streams do not hold its blocking lock
+	 * 
+	 * @throws IOException
+	 */
+	private void runUnixDomainSocket() throws IOException
+	{
+		channel = UnixDomainSockets.connect(unixSocketPath);
+		
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new ChannelInputStream(channel)));
+		DataOutputStream os = new DataOutputStream(new ChannelOutputStream(channel));
+		
+		executer.execute(in, os, channel);
+		
+		channel.close();
+		
+		System.out.println("Client finished.");
+	}
+	
+	/**
+	 * Runs the program via a shared memory slot of the server, claiming
+	 * the first free one. The jobs and the results are polled on the rings
+	 * of the slot, so they never cross the kernel
+	 * 
+	 * @throws IOException
+	 */
+	private void runSharedMemory() throws IOException
+	{
+		segment = SharedMemorySegment.claim(sharedMemoryDirectory, port);
+		if (segment == null)
+		{
+			throw new IOException("No free shared memory slot: " + getAddress());
+		}
+		
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new SharedMemoryInputStream(segment)));
+		DataOutputStream os = new DataOutputStream(new SharedMemoryOutputStream(segment));
+		
+		executer.execute(in, os, segment);
+		
+		segment.close();
+		
+		System.out.println("Client finished.");
+	}
+	
+	/**
+	 * Gets the address of the server, as configured for the transport
+	 * @return the address of the server
+	 */
+	private String getAddress()
+	{
+		if (sharedMemoryDirectory != null)
+		{
+			return sharedMemoryDirectory + " (port " + port + ")";
+		}
+		return unixSocketPath != null ? unixSocketPath : host + ":" + port;
+	}
 }
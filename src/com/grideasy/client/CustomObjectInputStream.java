@@ -47,7 +47,7 @@ public class CustomObjectInputStream extends ObjectInputStream
 	/**
 	 * Constructor passing paramters
 	 * @param in the {@link InputStream} of incoming classes and objects
-	 * @param loader custom {@link ClassLoader} which the clases will be loaded into
+	 * @param loader custom {@link ClassLoader} which the clases will be loaded into, null for the default one
 	 * @throws IOException
 	 * @throws SecurityException
 	 */
@@ -60,11 +60,16 @@ public class CustomObjectInputStream extends ObjectInputStream
 	@Override
 	protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException,	ClassNotFoundException 
 	{
+		if (loader == null)
+		{
+			return super.resolveClass(desc);
+		}
+		
 		try 
 		{
 			String className = desc.getName();
 			
-			return loader.loadClass(className);
+			return Class.forName(className, false, loader);
 		}
 		catch (Exception e) 
 		{
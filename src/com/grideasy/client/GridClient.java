@@ -28,6 +28,7 @@ package com.grideasy.client;
 import java.io.IOException;
 import java.net.Socket;
 
+
 /**
  * This class holds a instance of client execution
  * A client is responsible by receiving execution info from the
@@ -50,6 +51,12 @@ public class GridClient
 	 */
 	private ClientSocketConnection socketConnection;
 	
+	/**
+	 * The {@link ClassLoader}'s of the code bundles received by this client,
+	 * kept across connections, jobs and tasks
+	 */
+	private ClassLoaderCache classLoaderCache = new ClassLoaderCache(hostProperties.classLoaderCacheSize);
+	
 	/**
 	 * Net discover of hosts and ports form client to server
 	 */
@@ -114,7 +121,7 @@ public class GridClient
 	 */
 	protected ClientProcessExecuter getExecuter()
 	{
-		return new ClientProcessExecuter();
+		return new ClientProcessExecuter(hostProperties, classLoaderCache);
 	}
 	
 	/**
@@ -126,6 +133,26 @@ public class GridClient
 		return socketConnection != null && socketConnection.isConnected();
 	}
 	
+	/**
+	 * Gets whether this client connects to the server by its Unix domain socket,
+	 * which needs the "unix" transport and the path of the socket
+	 * @return whether this client connects to the server by its Unix domain socket
+	 */
+	private boolean isUnixTransport()
+	{
+		if (!"unix".equals(hostProperties.transport))
+		{
+			return false;
+		}
+		
+		if (hostProperties.unixSocketPath == null)
+		{
+			System.err.println("The unix transport needs the unixSocketPath, connecting by TCP.");
+			return false;
+		}
+		return true;
+	}
+	
 	/**
 	 * Starts up the grid client sending initial info from the client
 	 * This initializes the connection between client and server
@@ -133,13 +160,26 @@ public class GridClient
 	public void startUp()
 	{
 		int numWrongTries = 0;
+		boolean unixTransport = isUnixTransport();
+		boolean sharedMemoryTransport = "shm".equals(hostProperties.transport);
 		
 		while (isActive() && (MAX_WRONGPTRIES < 0 || (numWrongTries < MAX_WRONGPTRIES)))
 		{
 			String ip = netDiscover.getIp();
 			int port = netDiscover.getPort();
 
-			socketConnection = new ClientSocketConnection(ip, port, getExecuter());
+			if (sharedMemoryTransport)
+			{
+				socketConnection = ClientSocketConnection.forSharedMemory(hostProperties.sharedMemoryDirectory, port, getExecuter());
+			}
+			else if (unixTransport)
+			{
+				socketConnection = new ClientSocketConnection(hostProperties.unixSocketPath, getExecuter());
+			}
+			else
+			{
+				socketConnection = new ClientSocketConnection(ip, port, getExecuter());
+			}
 
 			try
 			{
@@ -163,6 +203,7 @@ public class GridClient
 	public void shutdown()
 	{
 		setActive(false);
+		classLoaderCache.clear();
 	}
 	
 	///////////////////////////////////////////////////////////////////////////
@@ -25,9 +25,6 @@
  */
 package com.grideasy.client;
 
-import java.io.IOException;
-import java.io.ObjectOutputStream;
-import java.io.OutputStream;
 import java.io.Serializable;
 
 /**
@@ -53,18 +50,10 @@ public abstract class GridJob implements Serializable
 	private boolean complete;
 	
 	/**
-	 * The {@link OutputStream} of connection between client and server
+	 * The priority of the dispatch of this job, kept by the server
+	 * only, null when the job has the priority of its task
 	 */
-	private OutputStream outputStream;
-	
-	/**
-	 * Sets the {@link OutputStream} of connection between client and server
-	 * @param outputStream
-	 */
-	public void setOutputStream(OutputStream outputStream)
-	{
-		this.outputStream = outputStream;
-	}
+	private transient Integer priority;
 	
 	/**
 	 * Gets whether this {@link GridJob} is complete or not
@@ -84,24 +73,42 @@ public abstract class GridJob implements Serializable
 		this.complete = complete;
 	}
 	
+	/**
+	 * Gets the priority of the dispatch of this {@link GridJob}
+	 * @return the priority of this {@link GridJob} or null if it has the priority of its task
+	 */
+	public Integer getPriority()
+	{
+		return priority;
+	}
+	
+	/**
+	 * Sets the priority of the dispatch of this {@link GridJob}, overriding the priority
+	 * of its task: the jobs of a higher priority are written to the nodes before the
+	 * waiting jobs of a lower one
+	 * @param priority the priority of this {@link GridJob} or null to have the priority of its task
+	 */
+	public void setPriority(Integer priority)
+	{
+		this.priority = priority;
+	}
+	
 	/**
 	 * Calls this job to be executed
 	 * The responsible of calling this method is by the
 	 * {@link ClientProcessExecuter}, so don't manually 
 	 * call the execution of a job
-	 * @throws IOException
+	 * @param requestId the id of the request of this job on the connection
+	 * @return the {@link JobResult} of the execution tagged with the request id
 	 */
-	protected void callJob() throws IOException
+	protected JobResult callJob(long requestId)
 	{
 		Object executionReturn = execute();
-		JobResult jobResult = new JobResult(executionReturn);
+		JobResult jobResult = new JobResult(requestId, executionReturn);
 
 		setComplete(true);
 
-		ObjectOutputStream objectOutputStream = new ObjectOutputStream(outputStream);
-		objectOutputStream.writeObject(jobResult);
-		
-		objectOutputStream.flush();
+		return jobResult;
 	}
 
 	/**
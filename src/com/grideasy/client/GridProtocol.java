@@ -0,0 +1,83 @@
+/*
+ * This source file is part of Grideasy
+ * For the latest info, see https://code.google.com/p/grideasy/
+ * 
+ * Grideasy is free software: you can redistribute it
+ * and/or modify it under the terms of the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.grideasy.client;
+
+/**
+ * Constants of the protocol between the grid server and
+ * the {@link GridClient}'s.
+ * Every message of a client is a frame made of its int length followed
+ * by its bytes: the hello first, with the parallelism of the client and
+ * the names of the serializers it knows, then the results, the results of
+ * a batch of jobs in a single frame, after their number.
+ * The server answers the hello with the name of the serializer of the
+ * connection, then writes the jobs in batches of jobs of the same task:
+ * the number of jobs, the flags of the batch and the code bundle, then
+ * each job with its request id and its size.
+ * A job of a code bundle the client does not have is skipped, so the classes
+ * first named by it are unknown by the client: the server resets its
+ * serializer once told and flags the next batch, and the jobs read meanwhile
+ * that refer to those classes are answered as unread and sent again
+ *
+ * @author Felipe Santos
+ * @email felchs@gmail.com
+ */
+public final class GridProtocol
+{
+	/**
+	 * The job has no code bundle attached
+	 */
+	public static final byte NO_BUNDLE = 0;
+
+	/**
+	 * The job is preceded by the hash and the full jar bytes of its code bundle
+	 */
+	public static final byte BUNDLE_FULL = 1;
+
+	/**
+	 * The job is preceded only by the hash of a code bundle
+	 * previously received by the client
+	 */
+	public static final byte BUNDLE_REF = 2;
+
+	/**
+	 * The flag of a batch of jobs whose results are sent as soon as they
+	 * complete, without waiting to be coalesced with other results
+	 */
+	public static final byte LOW_LATENCY = 1;
+
+	/**
+	 * The flag of the first batch of jobs encoded after the server reset
+	 * its serializer, so the batch refers to no class named before it
+	 */
+	public static final byte SESSION_RESET = 2;
+
+	/**
+	 * Private constructor, this class only holds constants
+	 */
+	private GridProtocol()
+	{
+	}
+}
@@ -0,0 +1,723 @@
+/*
+ * This source file is part of Grideasy
+ * For the latest info, see https://code.google.com/p/grideasy/
+ * 
+ * Grideasy is free software: you can redistribute it
+ * and/or modify it under the terms of the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.grideasy.client;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.grideasy.client.io.BufferPool;
+import com.grideasy.client.io.ByteBufferOutputStream;
+import com.grideasy.client.io.FrameCompression;
+import com.grideasy.client.serializer.GridSerializer;
+
+/**
+ * Executes the jobs received by a {@link ClientProcessExecuter} concurrently.
+ * The reader of the connection puts the decoded jobs into a bounded queue,
+ * a pool of threads runs them and a single writer thread sends the tagged
+ * {@link JobResult}'s back to the server, in the order the batches of jobs
+ * complete, the results of a batch in a single frame. The frames of the
+ * batches that complete close in time are coalesced in a single write,
+ * unless their task asked for low latency.
+ * An engine in the process of the server hands the results straight to
+ * a {@link JobResultListener} instead, with no writer thread.
+ *
+ * @author Felipe Santos
+ * @email felchs@gmail.com
+ */
+public class JobExecutionEngine
+{
+	/**
+	 * The results of a batch of received jobs, written once all of them are executed
+	 */
+	private static class ResultBatch
+	{
+		/**
+		 * The results of the jobs, in the order of the jobs
+		 */
+		private final JobResult[] jobResults;
+
+		/**
+		 * The number of jobs of the batch not executed yet
+		 */
+		private final AtomicInteger remainingJobs;
+
+		/**
+		 * Whether the results are sent as soon as they are written or coalesced with others
+		 */
+		private final boolean lowLatency;
+
+		/**
+		 * The {@link ClassLoader} of the code bundle of the jobs, released once the results are written, or null
+		 */
+		private final ClassLoader bundleLoader;
+
+		/**
+		 * Constructor passing fields
+		 * @param jobResults the results of the jobs, filled as they are executed
+		 * @param lowLatency whether the results are sent as soon as they are written
+		 * @param bundleLoader the {@link ClassLoader} of the code bundle of the jobs or null
+		 */
+		private ResultBatch(JobResult[] jobResults, boolean lowLatency, ClassLoader bundleLoader)
+		{
+			this.jobResults = jobResults;
+			this.remainingJobs = new AtomicInteger(jobResults.length);
+			this.lowLatency = lowLatency;
+			this.bundleLoader = bundleLoader;
+		}
+	}
+
+	/**
+	 * The default time in microseconds the completed results wait for more
+	 * results to be sent together: none, they are sent once no other is waiting
+	 */
+	public static final int DEFAULT_RESULT_COALESCE_MICROS = 0;
+
+	/**
+	 * The default number of bytes of waiting results that are sent at once
+	 */
+	public static final int DEFAULT_RESULT_COALESCE_BYTES = 8192;
+
+	/**
+	 * A received job waiting to be executed
+	 */
+	private static class ReceivedJob
+	{
+		/**
+		 * The id of the request of the job on the connection
+		 */
+		private final long requestId;
+
+		/**
+		 * The job to be executed, null to stop the thread that takes it
+		 */
+		private final GridJob gridJob;
+
+		/**
+		 * The batch of the job, null when its result is handed to a {@link JobResultListener}
+		 */
+		private final ResultBatch batch;
+
+		/**
+		 * The index of the job in its batch
+		 */
+		private final int batchIndex;
+
+		/**
+		 * Constructor passing fields
+		 * @param requestId the id of the request of the job on the connection
+		 * @param gridJob the job to be executed
+		 * @param batch the batch of the job, null when its result is handed to a {@link JobResultListener}
+		 * @param batchIndex the index of the job in its batch
+		 */
+		private ReceivedJob(long requestId, GridJob gridJob, ResultBatch batch, int batchIndex)
+		{
+			this.requestId = requestId;
+			this.gridJob = gridJob;
+			this.batch = batch;
+			this.batchIndex = batchIndex;
+		}
+	}
+
+	/**
+	 * The marker of the end of the jobs
+	 */
+	private static final ReceivedJob END_OF_JOBS = new ReceivedJob(-1, null, null, 0);
+
+	/**
+	 * The marker of the end of the results
+	 */
+	private static final ResultBatch END_OF_RESULTS = new ResultBatch(new JobResult[0], true, null);
+
+	/**
+	 * The first Java release with virtual threads. The project is compiled
+	 * for Java 17, so their builder is reached by reflection only on a JVM
+	 * from this release on
+	 */
+	private static final int VIRTUAL_THREADS_RELEASE = 21;
+
+	/**
+	 * The room for the length of a result frame and its number of results, written before the length is known
+	 */
+	private static final byte[] FRAME_HEADER_PLACEHOLDER = new byte[8];
+
+	/**
+	 * The room for the length of a result frame of a compressed connection, its flag
+	 * and its number of results or its raw size, written before the length is known
+	 */
+	private static final byte[] COMPRESSED_FRAME_HEADER_PLACEHOLDER = new byte[9];
+
+	/**
+	 * The {@link ClientProcessExecuter} which this engine executes the jobs for
+	 */
+	private final ClientProcessExecuter executer;
+
+	/**
+	 * The buffered stream of the connection where the results are written, null in process
+	 */
+	private final DataOutputStream os;
+
+	/**
+	 * The {@link GridSerializer} of the connection, encoding the results, null in process
+	 */
+	private final GridSerializer codec;
+
+	/**
+	 * The {@link FrameCompression} of the connection, null if it is not compressed or in process
+	 */
+	private final FrameCompression compression;
+
+	/**
+	 * The listener of the results of an engine in process, null when the results are written
+	 */
+	private final JobResultListener resultListener;
+
+	/**
+	 * The {@link BufferPool} of the written results, only used by the writer thread
+	 */
+	private final BufferPool bufferPool = new BufferPool(false);
+
+	/**
+	 * The stream of the written results, only used by the writer thread
+	 */
+	private final ByteBufferOutputStream resultStream = new ByteBufferOutputStream(bufferPool);
+
+	/**
+	 * The number of jobs executed at the same time
+	 */
+	private final int parallelism;
+
+	/**
+	 * Whether the jobs run on virtual threads or not
+	 */
+	private final boolean virtualThreads;
+
+	/**
+	 * The received jobs waiting to be executed
+	 */
+	private final BlockingQueue<ReceivedJob> jobsQueue;
+
+	/**
+	 * The results of the batches waiting to be written
+	 */
+	private final BlockingQueue<ResultBatch> resultsQueue = new LinkedBlockingQueue<ResultBatch>();
+
+	/**
+	 * The time in nanoseconds the written results wait for more results to be sent together
+	 */
+	private final long coalesceNanos;
+
+	/**
+	 * The number of bytes of written results that are sent at once
+	 */
+	private final int coalesceBytes;
+
+	/**
+	 * The threads executing the jobs
+	 */
+	private Thread[] jobThreads;
+
+	/**
+	 * The number of job threads not stopped yet
+	 */
+	private final AtomicInteger runningJobThreads = new AtomicInteger();
+
+	/**
+	 * The thread writing the results
+	 */
+	private Thread writerThread;
+
+	/**
+	 * Constructor passing fields
+	 *
+	 * @param executer the {@link ClientProcessExecuter} which this engine executes the jobs for
+	 * @param os the {@link DataOutputStream} where the results are written
+	 * @param codec the {@link GridSerializer} of the connection, encoding the results
+	 * @param compression the {@link FrameCompression} of the connection, null if it is not compressed
+	 * @param parallelism the number of jobs executed at the same time
+	 * @param queueCapacity the maximum number of received jobs waiting to be executed
+	 * @param virtualThreads whether the jobs run on virtual threads, when the JVM supports them
+	 * @param coalesceMicros the time in microseconds the written results wait for more results to be sent together
+	 * @param coalesceBytes the number of bytes of written results that are sent at once
+	 */
+	public JobExecutionEngine(ClientProcessExecuter executer, DataOutputStream os, GridSerializer codec, FrameCompression compression, int parallelism, int queueCapacity, boolean virtualThreads,
+			int coalesceMicros, int coalesceBytes)
+	{
+		if (parallelism < 1 || queueCapacity < 1)
+		{
+			throw new IllegalArgumentException("The parallelism and the queue capacity must be at least one");
+		}
+
+		this.executer = executer;
+		this.os = new DataOutputStream(new BufferedOutputStream(os, Math.max(DEFAULT_RESULT_COALESCE_BYTES, coalesceBytes)));
+		this.codec = codec;
+		this.compression = compression;
+		this.resultListener = null;
+		this.coalesceNanos = coalesceMicros * 1000L;
+		this.coalesceBytes = coalesceBytes;
+		this.parallelism = parallelism;
+		this.virtualThreads = virtualThreads;
+		this.jobsQueue = new ArrayBlockingQueue<ReceivedJob>(queueCapacity);
+	}
+
+	/**
+	 * Constructor of an engine in the process of the grid server,
+	 * whose results are handed to a {@link JobResultListener}
+	 *
+	 * @param resultListener the listener of the results
+	 * @param parallelism the number of jobs executed at the same time
+	 * @param queueCapacity the maximum number of received jobs waiting to be executed
+	 * @param virtualThreads whether the jobs run on virtual threads, when the JVM supports them
+	 */
+	public JobExecutionEngine(JobResultListener resultListener, int parallelism, int queueCapacity, boolean virtualThreads)
+	{
+		if (parallelism < 1 || queueCapacity < 1)
+		{
+			throw new IllegalArgumentException("The parallelism and the queue capacity must be at least one");
+		}
+
+		this.executer = null;
+		this.os = null;
+		this.codec = null;
+		this.compression = null;
+		this.resultListener = resultListener;
+		this.coalesceNanos = 0;
+		this.coalesceBytes = 0;
+		this.parallelism = parallelism;
+		this.virtualThreads = virtualThreads;
+		this.jobsQueue = new ArrayBlockingQueue<ReceivedJob>(queueCapacity);
+	}
+
+	/**
+	 * Gets the number of jobs executed at the same time
+	 * @return the number of jobs executed at the same time
+	 */
+	public int getParallelism()
+	{
+		return parallelism;
+	}
+
+	/**
+	 * Starts the threads of the jobs and the writer thread, if the results are written
+	 */
+	public void start()
+	{
+		ThreadFactory threadFactory = createThreadFactory();
+
+		runningJobThreads.set(parallelism);
+		jobThreads = new Thread[parallelism];
+		for (int i = 0; i < parallelism; i++)
+		{
+			jobThreads[i] = threadFactory.newThread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					executeJobs();
+				}
+			});
+			jobThreads[i].start();
+		}
+
+		if (resultListener != null)
+		{
+			return;
+		}
+
+		writerThread = new Thread("GridClient results writer")
+		{
+			public void run()
+			{
+				writeResults();
+			}
+		};
+		writerThread.start();
+	}
+
+	/**
+	 * Submits a received job to be executed, as a batch of its own when the result is written.
+	 * It blocks while the queue of received jobs is full
+	 *
+	 * @param requestId the id of the request of the job on the connection
+	 * @param gridJob the job to be executed
+	 * @throws InterruptedException
+	 */
+	public void submit(long requestId, GridJob gridJob) throws InterruptedException
+	{
+		jobsQueue.put(new ReceivedJob(requestId, gridJob, resultListener == null ? new ResultBatch(new JobResult[1], false, null) : null, 0));
+	}
+
+	/**
+	 * Submits a batch of received jobs to be executed, whose results are written
+	 * together once all of them are executed.
+	 * It blocks while the queue of received jobs is full
+	 *
+	 * @param requestIds the ids of the requests of the jobs on the connection
+	 * @param gridJobs the jobs to be executed
+	 * @param lowLatency whether the results are sent as soon as they are written or coalesced with others
+	 * @param bundleLoader the {@link ClassLoader} acquired for the code bundle of the jobs, released to
+	 * the {@link ClientProcessExecuter} once their results are written, or null
+	 * @throws InterruptedException
+	 */
+	public void submit(long[] requestIds, GridJob[] gridJobs, boolean lowLatency, ClassLoader bundleLoader) throws InterruptedException
+	{
+		ResultBatch batch = new ResultBatch(new JobResult[gridJobs.length], lowLatency, bundleLoader);
+		for (int i = 0; i < gridJobs.length; i++)
+		{
+			jobsQueue.put(new ReceivedJob(requestIds[i], gridJobs[i], batch, i));
+		}
+	}
+
+	/**
+	 * Submits the results of a batch to be written without executing its jobs
+	 * @param jobResults the {@link JobResult}'s to be written in a single frame
+	 * @param lowLatency whether the results are sent as soon as they are written or coalesced with others
+	 */
+	public void submitResults(JobResult[] jobResults, boolean lowLatency)
+	{
+		resultsQueue.add(new ResultBatch(jobResults, lowLatency, null));
+	}
+
+	/**
+	 * Stops the engine after the jobs already submitted are executed
+	 */
+	public void shutdown()
+	{
+		for (int i = 0; i < parallelism; i++)
+		{
+			try
+			{
+				jobsQueue.put(END_OF_JOBS);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Loop of a job thread: takes the received jobs and executes them.
+	 * A job that throws is answered with its error, so the other jobs of
+	 * the connection go on
+	 */
+	private void executeJobs()
+	{
+		while (true)
+		{
+			ReceivedJob receivedJob;
+			try
+			{
+				receivedJob = jobsQueue.take();
+			}
+			catch (InterruptedException e)
+			{
+				return;
+			}
+
+			if (receivedJob == END_OF_JOBS)
+			{
+				if (runningJobThreads.decrementAndGet() == 0 && resultListener == null)
+				{
+					resultsQueue.add(END_OF_RESULTS);
+				}
+				return;
+			}
+
+			GridJob gridJob = receivedJob.gridJob;
+			Thread thread = Thread.currentThread();
+			ClassLoader contextClassLoader = thread.getContextClassLoader();
+			thread.setContextClassLoader(gridJob.getClass().getClassLoader());
+			JobResult jobResult;
+			try
+			{
+				jobResult = gridJob.callJob(receivedJob.requestId);
+			}
+			catch (Throwable e)
+			{
+				if (resultListener != null)
+				{
+					resultListener.onJobError(receivedJob.requestId, e);
+					continue;
+				}
+				// only this job failed: its error is answered as its result
+				e.printStackTrace();
+				jobResult = JobResult.jobFailed(receivedJob.requestId, e);
+			}
+			finally
+			{
+				thread.setContextClassLoader(contextClassLoader);
+			}
+
+			if (resultListener != null)
+			{
+				resultListener.onJobResult(jobResult);
+				continue;
+			}
+			
+			ResultBatch batch = receivedJob.batch;
+			batch.jobResults[receivedJob.batchIndex] = jobResult;
+			if (batch.remainingJobs.decrementAndGet() == 0)
+			{
+				resultsQueue.add(batch);
+			}
+		}
+	}
+
+	/**
+	 * Loop of the writer thread: writes the results of the batches as they
+	 * complete, each batch in a frame prefixed by its length and made of the
+	 * number of results followed by the results, compressed from a size on
+	 * when the connection is. A batch is serialized
+	 * into a pooled buffer after room for the length and the number, so the
+	 * frame goes to the stream in a single write.
+	 * The written frames are sent together: the stream is flushed once the
+	 * coalescing time of the first unsent frame is over with no other batch
+	 * waiting, once the unsent frames reach the coalescing bytes or at once
+	 * after the frame of a low latency batch. The frames are not held when
+	 * no received job is waiting either, since the server sends the next
+	 * jobs only as the results free its window, so holding them would
+	 * leave the job threads idle
+	 */
+	private void writeResults()
+	{
+		try
+		{
+			int unsentBytes = 0;
+			long flushDeadline = 0;
+			while (true)
+			{
+				ResultBatch batch;
+				if (unsentBytes == 0)
+				{
+					batch = resultsQueue.take();
+				}
+				else
+				{
+					batch = resultsQueue.poll(flushDeadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+					if (batch == null)
+					{
+						os.flush();
+						unsentBytes = 0;
+						continue;
+					}
+				}
+				
+				if (batch == END_OF_RESULTS)
+				{
+					os.flush();
+					return;
+				}
+
+				int frameSize;
+				try
+				{
+					ByteBuffer frame = encodeResults(batch);
+					frameSize = frame.remaining();
+					os.write(frame.array(), frame.arrayOffset(), frameSize);
+					bufferPool.release(frame);
+				}
+				finally
+				{
+					if (batch.bundleLoader != null)
+					{
+						executer.releaseBundleClassLoader(batch.bundleLoader);
+					}
+				}
+				
+				if (unsentBytes == 0)
+				{
+					flushDeadline = System.nanoTime() + coalesceNanos;
+				}
+				unsentBytes += frameSize;
+
+				if (batch.lowLatency || unsentBytes >= coalesceBytes || (resultsQueue.isEmpty() && (coalesceNanos == 0 || jobsQueue.isEmpty())))
+				{
+					os.flush();
+					unsentBytes = 0;
+				}
+			}
+		}
+		catch (InterruptedException e)
+		{
+			return;
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+			executer.notifyError();
+		}
+		catch (RuntimeException e)
+		{
+			// the results can no longer be written: the connection is closed
+			e.printStackTrace();
+			executer.notifyError();
+		}
+	}
+
+	/**
+	 * Encodes the results of a batch in a frame prefixed by its length.
+	 * On a compressed connection a flag follows the length: a raw frame
+	 * goes on with the number of results and the results, while a frame
+	 * from the compression threshold on goes on with their raw size and
+	 * their compressed bytes, unless these are not smaller so the frame
+	 * stays raw
+	 *
+	 * @param batch the batch of the results
+	 * @return the pooled buffer of the frame, flipped to be read
+	 * @throws IOException if neither a result nor its error could be encoded
+	 */
+	private ByteBuffer encodeResults(ResultBatch batch) throws IOException
+	{
+		byte[] placeholder = compression != null ? COMPRESSED_FRAME_HEADER_PLACEHOLDER : FRAME_HEADER_PLACEHOLDER;
+		resultStream.reset(BufferPool.MIN_BUFFER_SIZE);
+		resultStream.write(placeholder, 0, placeholder.length);
+		for (JobResult jobResult : batch.jobResults)
+		{
+			encodeResult(jobResult);
+		}
+		
+		ByteBuffer frame = resultStream.finish();
+		frame.putInt(0, frame.remaining() - 4);
+		if (compression == null)
+		{
+			frame.putInt(4, batch.jobResults.length);
+			return frame;
+		}
+		
+		frame.put(4, FrameCompression.RAW);
+		frame.putInt(5, batch.jobResults.length);
+		if (!compression.shouldCompress(frame.remaining() - 5))
+		{
+			return frame;
+		}
+		
+		frame.position(5);
+		int rawSize = frame.remaining();
+		resultStream.reset(BufferPool.MIN_BUFFER_SIZE);
+		resultStream.write(placeholder, 0, placeholder.length);
+		if (!compression.compress(new ByteBuffer[] { frame }, resultStream))
+		{
+			bufferPool.release(resultStream.finish());
+			frame.position(0);
+			return frame;
+		}
+		bufferPool.release(frame);
+		
+		ByteBuffer compressedFrame = resultStream.finish();
+		compressedFrame.putInt(0, compressedFrame.remaining() - 4);
+		compressedFrame.put(4, FrameCompression.DEFLATED);
+		compressedFrame.putInt(5, rawSize);
+		return compressedFrame;
+	}
+
+	/**
+	 * Serializes a result of a batch. When the result cannot be serialized
+	 * its bytes are dropped from the frame and its request is answered with
+	 * the error instead, so the other results of the batch and the
+	 * connection go on
+	 *
+	 * @param jobResult the {@link JobResult} to be serialized
+	 * @throws IOException if neither the result nor its error could be encoded
+	 */
+	private void encodeResult(JobResult jobResult) throws IOException
+	{
+		int resultPosition = resultStream.size();
+		Throwable error;
+		try
+		{
+			codec.encode(jobResult, resultStream);
+			return;
+		}
+		catch (IOException e)
+		{
+			error = e;
+		}
+		catch (RuntimeException e)
+		{
+			error = e;
+		}
+		catch (StackOverflowError e)
+		{
+			// a result graph too deep to be serialized
+			error = e;
+		}
+
+		error.printStackTrace();
+		resultStream.truncate(resultPosition);
+		codec.encode(JobResult.jobFailed(jobResult.requestId, error), resultStream);
+	}
+
+	/**
+	 * Creates the {@link ThreadFactory} of the job threads.
+	 * Virtual threads are created only when requested and the JVM is from
+	 * {@link #VIRTUAL_THREADS_RELEASE} on, otherwise the jobs run on platform threads
+	 *
+	 * @return the {@link ThreadFactory} of the job threads
+	 */
+	private ThreadFactory createThreadFactory()
+	{
+		if (virtualThreads)
+		{
+			if (Runtime.version().feature() < VIRTUAL_THREADS_RELEASE)
+			{
+				System.err.println("Virtual threads need Java " + VIRTUAL_THREADS_RELEASE + ", using platform threads.");
+			}
+			else
+			{
+				try
+				{
+					// Thread.ofVirtual().factory(), not in the Java 17 API the project is compiled with
+					Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+					return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+				}
+				catch (ReflectiveOperationException e)
+				{
+					throw new IllegalStateException("The virtual threads of this JVM could not be created", e);
+				}
+			}
+		}
+
+		return new ThreadFactory()
+		{
+			private final AtomicInteger threadNumber = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable)
+			{
+				return new Thread(runnable, "GridClient job executer " + threadNumber.incrementAndGet());
+			}
+		};
+	}
+}
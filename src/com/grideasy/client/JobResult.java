@@ -40,17 +40,110 @@ public class JobResult implements Serializable
 	 */
 	private static final long serialVersionUID = 1L;
 	
+	/**
+	 * The id of the request of the job on the connection
+	 */
+	public long requestId;
+	
 	/**
 	 * The object result of the job
 	 */
 	public Object object;
+	
+	/**
+	 * The hash of the code bundle the client did not have
+	 * to execute the job, or null when the job was executed
+	 */
+	public String missingBundleHash;
+	
+	/**
+	 * Whether the job was not read by the client, since it refers to
+	 * classes named only by a job the client skipped
+	 */
+	public boolean unread;
+	
+	/**
+	 * The description of the error thrown by the job,
+	 * or null when the job did not fail
+	 */
+	public String error;
 
 	/**
-	 * Constructor passing the object result of the job
+	 * Constructor passing the request id and the object result of the job
+	 * @param requestId the id of the request of the job on the connection
 	 * @param object the object result of the job
 	 */
-	public JobResult(Object object)
+	public JobResult(long requestId, Object object)
 	{
+		this.requestId = requestId;
 		this.object = object;
 	}
+	
+	/**
+	 * Creates a result telling the server that the job could not be
+	 * executed because its code bundle is unknown by the client
+	 * @param requestId the id of the request of the job on the connection
+	 * @param bundleHash the hash of the unknown code bundle
+	 * @return the {@link JobResult} of the missing bundle
+	 */
+	public static JobResult bundleMissing(long requestId, String bundleHash)
+	{
+		JobResult jobResult = new JobResult(requestId, null);
+		jobResult.missingBundleHash = bundleHash;
+		return jobResult;
+	}
+	
+	/**
+	 * Creates a result telling the server that the job could not be read,
+	 * since it refers to classes named only by a job the client skipped
+	 * @param requestId the id of the request of the job on the connection
+	 * @return the {@link JobResult} of the unread job
+	 */
+	public static JobResult jobUnread(long requestId)
+	{
+		JobResult jobResult = new JobResult(requestId, null);
+		jobResult.unread = true;
+		return jobResult;
+	}
+	
+	/**
+	 * Creates a result telling the server that the job failed on the client,
+	 * so it is retried without the connection being closed
+	 * @param requestId the id of the request of the job on the connection
+	 * @param e the error thrown by the job
+	 * @return the {@link JobResult} of the failed job
+	 */
+	public static JobResult jobFailed(long requestId, Throwable e)
+	{
+		JobResult jobResult = new JobResult(requestId, null);
+		jobResult.error = e.toString();
+		return jobResult;
+	}
+	
+	/**
+	 * Gets whether the job failed on the client
+	 * @return whether the job failed on the client
+	 */
+	public boolean isFailed()
+	{
+		return error != null;
+	}
+	
+	/**
+	 * Gets whether the job was not read by the client
+	 * @return whether the job was not read by the client
+	 */
+	public boolean isUnread()
+	{
+		return unread;
+	}
+	
+	/**
+	 * Gets whether the job was not executed because its code bundle is unknown by the client
+	 * @return whether the job was not executed because its code bundle is unknown by the client
+	 */
+	public boolean isBundleMissing()
+	{
+		return missingBundleHash != null;
+	}
 }
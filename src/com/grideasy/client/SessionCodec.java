@@ -0,0 +1,188 @@
+/*
+ * This source file is part of Grideasy
+ * For the latest info, see https://code.google.com/p/grideasy/
+ * 
+ * Grideasy is free software: you can redistribute it
+ * and/or modify it under the terms of the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.grideasy.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import com.grideasy.client.serializer.GridSerializer;
+import com.grideasy.client.serializer.UnknownDescriptorException;
+
+/**
+ * Serializes the objects of the messages of a connection by Java serialization, caching the class
+ * descriptors for the lifetime of the connection.
+ * The first message with a class carries its full descriptor and the next
+ * ones only its id, so a message costs the bytes of its object and not the
+ * descriptors of {@link JobResult} and of the job classes again.
+ * Each message is still an independent stream, so the objects of a message
+ * never reference the objects of another one. The ids restart every
+ * reset interval messages, bounding the descriptors kept by both sides,
+ * and after a message that failed halfway, whose bytes are dropped.
+ * The encoding and the decoding are independent: each one must be used by
+ * a single thread at a time.
+ *
+ * @author Felipe Santos
+ * @email felchs@gmail.com
+ */
+public class SessionCodec implements GridSerializer
+{
+	/**
+	 * The default number of messages encoded before the class descriptors are sent again
+	 */
+	public static final int DEFAULT_RESET_INTERVAL = 1024;
+
+	/**
+	 * The number of messages encoded before the class descriptors are sent again
+	 */
+	private final int resetInterval;
+
+	/**
+	 * The ids of the class descriptors sent since the last reset
+	 */
+	private final Map<ObjectStreamClass, Integer> writtenDescriptors = new IdentityHashMap<ObjectStreamClass, Integer>();
+
+	/**
+	 * The number of messages encoded since the last reset
+	 */
+	private int numEncodedMessages;
+
+	/**
+	 * The class descriptors received by id
+	 */
+	private final Map<Integer, ObjectStreamClass> readDescriptors = new HashMap<Integer, ObjectStreamClass>();
+
+	/**
+	 * Constructor with the default reset interval
+	 */
+	public SessionCodec()
+	{
+		this(DEFAULT_RESET_INTERVAL);
+	}
+
+	/**
+	 * Constructor passing the reset interval
+	 * @param resetInterval the number of messages encoded before the class descriptors are sent again
+	 */
+	public SessionCodec(int resetInterval)
+	{
+		if (resetInterval < 1)
+		{
+			throw new IllegalArgumentException("The reset interval must be at least one");
+		}
+		this.resetInterval = resetInterval;
+	}
+
+	@Override
+	public void encode(Object object, OutputStream out) throws IOException
+	{
+		if (numEncodedMessages++ >= resetInterval)
+		{
+			writtenDescriptors.clear();
+			numEncodedMessages = 1;
+		}
+
+		ObjectOutputStream objectOutputStream = new ObjectOutputStream(out)
+		{
+			@Override
+			protected void writeClassDescriptor(ObjectStreamClass desc) throws IOException
+			{
+				Integer id = writtenDescriptors.get(desc);
+				if (id != null)
+				{
+					writeInt(id);
+					writeBoolean(false);
+					return;
+				}
+
+				id = writtenDescriptors.size();
+				writtenDescriptors.put(desc, id);
+				writeInt(id);
+				writeBoolean(true);
+				super.writeClassDescriptor(desc);
+			}
+		};
+		boolean encoded = false;
+		try
+		{
+			objectOutputStream.writeObject(object);
+			objectOutputStream.flush();
+			encoded = true;
+		}
+		finally
+		{
+			if (!encoded)
+			{
+				reset();
+			}
+		}
+	}
+
+	/**
+	 * Forgets the class descriptors sent, so the next message sends them again.
+	 * A message that failed halfway is dropped and the descriptors it
+	 * registered never reach the other side
+	 */
+	@Override
+	public void reset()
+	{
+		writtenDescriptors.clear();
+		numEncodedMessages = 0;
+	}
+
+	@Override
+	public Object decode(InputStream in, ClassLoader loader) throws IOException, ClassNotFoundException
+	{
+		CustomObjectInputStream objectInputStream = new CustomObjectInputStream(in, loader)
+		{
+			@Override
+			protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException
+			{
+				int id = readInt();
+				if (readBoolean())
+				{
+					ObjectStreamClass desc = super.readClassDescriptor();
+					readDescriptors.put(id, desc);
+					return desc;
+				}
+
+				ObjectStreamClass desc = readDescriptors.get(id);
+				if (desc == null)
+				{
+					throw new UnknownDescriptorException("Unknown class descriptor id: " + id);
+				}
+				return desc;
+			}
+		};
+
+		return objectInputStream.readObject();
+	}
+}
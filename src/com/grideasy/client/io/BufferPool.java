@@ -0,0 +1,152 @@
+/*
+ * This source file is part of Grideasy
+ * For the latest info, see https://code.google.com/p/grideasy/
+ * 
+ * Grideasy is free software: you can redistribute it
+ * and/or modify it under the terms of the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.grideasy.client.io;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A pool of {@link ByteBuffer}'s, so the frames of a connection are built
+ * and read in the same buffers over and over instead of new arrays.
+ * The buffers are kept by power of two sizes, the ones larger than
+ * {@link #MAX_POOLED_SIZE} are allocated on demand and not kept.
+ * A pool belongs to a single thread, so it has no synchronization
+ *
+ * @author Felipe Santos
+ * @email felchs@gmail.com
+ */
+public class BufferPool
+{
+	/**
+	 * The size of the smallest buffer of the pool
+	 */
+	public static final int MIN_BUFFER_SIZE = 4 * 1024;
+
+	/**
+	 * The size of the largest buffer kept by the pool
+	 */
+	public static final int MAX_POOLED_SIZE = 4 * 1024 * 1024;
+
+	/**
+	 * The maximum number of free buffers kept by size
+	 */
+	private static final int MAX_FREE_BUFFERS = 32;
+
+	///////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Whether the buffers are direct or not
+	 */
+	private final boolean direct;
+
+	/**
+	 * The free buffers by size, from {@link #MIN_BUFFER_SIZE} to {@link #MAX_POOLED_SIZE}
+	 */
+	private final List<ArrayDeque<ByteBuffer>> freeBuffers = new ArrayList<ArrayDeque<ByteBuffer>>();
+
+	/**
+	 * Constructor passing the kind of the buffers
+	 * @param direct whether the buffers are direct or not
+	 */
+	public BufferPool(boolean direct)
+	{
+		this.direct = direct;
+		for (int size = MIN_BUFFER_SIZE; size <= MAX_POOLED_SIZE; size <<= 1)
+		{
+			freeBuffers.add(new ArrayDeque<ByteBuffer>());
+		}
+	}
+
+	/**
+	 * Gets whether the buffers are direct or not
+	 * @return whether the buffers are direct or not
+	 */
+	public boolean isDirect()
+	{
+		return direct;
+	}
+
+	/**
+	 * Acquires a cleared buffer of at least a capacity
+	 * @param minCapacity the minimum capacity of the buffer
+	 * @return a cleared buffer
+	 */
+	public ByteBuffer acquire(int minCapacity)
+	{
+		if (minCapacity > MAX_POOLED_SIZE)
+		{
+			return allocate(minCapacity);
+		}
+
+		int size = MIN_BUFFER_SIZE;
+		int index = 0;
+		while (size < minCapacity)
+		{
+			size <<= 1;
+			index++;
+		}
+
+		ByteBuffer buffer = freeBuffers.get(index).poll();
+		if (buffer == null)
+		{
+			return allocate(size);
+		}
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * Releases a buffer acquired from this pool, so it can be acquired again.
+	 * The buffer must not be used after it is released
+	 * @param buffer the buffer to be released
+	 */
+	public void release(ByteBuffer buffer)
+	{
+		int capacity = buffer.capacity();
+		if (buffer.isDirect() != direct || capacity > MAX_POOLED_SIZE || capacity < MIN_BUFFER_SIZE || Integer.bitCount(capacity) != 1)
+		{
+			return;
+		}
+
+		ArrayDeque<ByteBuffer> buffers = freeBuffers.get(Integer.numberOfTrailingZeros(capacity / MIN_BUFFER_SIZE));
+		if (buffers.size() < MAX_FREE_BUFFERS)
+		{
+			buffers.push(buffer);
+		}
+	}
+
+	/**
+	 * Allocates a new buffer
+	 * @param capacity the capacity of the buffer
+	 * @return a new buffer
+	 */
+	private ByteBuffer allocate(int capacity)
+	{
+		return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+	}
+}
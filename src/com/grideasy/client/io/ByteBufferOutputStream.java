@@ -0,0 +1,145 @@
+/*
+ * This source file is part of Grideasy
+ * For the latest info, see https://code.google.com/p/grideasy/
+ * 
+ * Grideasy is free software: you can redistribute it
+ * and/or modify it under the terms of the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.grideasy.client.io;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An {@link OutputStream} writing into a buffer of a {@link BufferPool},
+ * replaced by a larger one of the pool when it is full.
+ * The stream is reused for many frames: {@link #reset(int)} starts a
+ * frame and {@link #finish()} hands its buffer over
+ *
+ * @author Felipe Santos
+ * @email felchs@gmail.com
+ */
+public class ByteBufferOutputStream extends OutputStream
+{
+	/**
+	 * The {@link BufferPool} of the buffers
+	 */
+	private final BufferPool pool;
+
+	/**
+	 * The buffer being written, null between frames
+	 */
+	private ByteBuffer buffer;
+
+	/**
+	 * Constructor passing the {@link BufferPool} of the buffers
+	 * @param pool the {@link BufferPool} of the buffers
+	 */
+	public ByteBufferOutputStream(BufferPool pool)
+	{
+		this.pool = pool;
+	}
+
+	/**
+	 * Starts a frame in a buffer of the pool, releasing the buffer of an unfinished frame
+	 * @param initialCapacity the expected size of the frame
+	 */
+	public void reset(int initialCapacity)
+	{
+		if (buffer != null)
+		{
+			pool.release(buffer);
+		}
+		buffer = pool.acquire(initialCapacity);
+	}
+
+	/**
+	 * Gets the number of bytes written since the frame started
+	 * @return the number of bytes written since the frame started
+	 */
+	public int size()
+	{
+		return buffer.position();
+	}
+
+	/**
+	 * Drops the bytes written after a size, so a message that failed
+	 * halfway is not part of the frame
+	 * @param size the number of bytes of the frame to keep
+	 */
+	public void truncate(int size)
+	{
+		buffer.position(size);
+	}
+
+	/**
+	 * Gets the buffer being written, with its position at the end of the written bytes
+	 * @return the buffer being written
+	 */
+	public ByteBuffer getBuffer()
+	{
+		return buffer;
+	}
+
+	/**
+	 * Finishes the frame, handing its buffer over
+	 * @return the buffer of the frame, flipped to be read
+	 */
+	public ByteBuffer finish()
+	{
+		ByteBuffer frame = buffer;
+		buffer = null;
+		frame.flip();
+		return frame;
+	}
+
+	/**
+	 * Makes room for a number of bytes, moving the written bytes to a larger buffer when needed
+	 * @param numBytes the number of bytes to be written
+	 */
+	private void ensureRemaining(int numBytes)
+	{
+		if (buffer.remaining() >= numBytes)
+		{
+			return;
+		}
+
+		ByteBuffer largerBuffer = pool.acquire(Math.max(buffer.capacity() * 2, buffer.position() + numBytes));
+		buffer.flip();
+		largerBuffer.put(buffer);
+		pool.release(buffer);
+		buffer = largerBuffer;
+	}
+
+	@Override
+	public void write(int b)
+	{
+		ensureRemaining(1);
+		buffer.put((byte) b);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len)
+	{
+		ensureRemaining(len);
+		buffer.put(b, off, len);
+	}
+}
@@ -0,0 +1,89 @@
+/*
+ * This source file is part of Grideasy
+ * For the latest info, see https://code.google.com/p/grideasy/
+ * 
+ * Grideasy is free software: you can redistribute it
+ * and/or modify it under the terms of the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.grideasy.client.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * An {@link InputStream} reading a blocking channel.
+ * Unlike the streams of {@link java.nio.channels.Channels}, it does not hold the
+ * blocking lock of the channel while it reads, so another thread can write the
+ * same channel at the same time
+ *
+ * @author Felipe Santos
+ * @email felchs@gmail.com
+ */
+public class ChannelInputStream extends InputStream
+{
+	/**
+	 * The channel being read
+	 */
+	private final ReadableByteChannel channel;
+
+	/**
+	 * The buffer of the reads of a single byte
+	 */
+	private final ByteBuffer singleByte = ByteBuffer.allocate(1);
+
+	/**
+	 * Constructor passing the channel
+	 * @param channel the blocking channel to be read
+	 */
+	public ChannelInputStream(ReadableByteChannel channel)
+	{
+		this.channel = channel;
+	}
+
+	@Override
+	public int read() throws IOException
+	{
+		singleByte.clear();
+		int read;
+		while ((read = channel.read(singleByte)) == 0)
+		{
+		}
+		return read < 0 ? -1 : singleByte.get(0) & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException
+	{
+		if (len == 0)
+		{
+			return 0;
+		}
+		return channel.read(ByteBuffer.wrap(b, off, len));
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		channel.close();
+	}
+}
@@ -0,0 +1,244 @@
+/*
+ * This source file is part of Grideasy
+ * For the latest info, see https://code.google.com/p/grideasy/
+ * 
+ * Grideasy is free software: you can redistribute it
+ * and/or modify it under the terms of the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.grideasy.client.io;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the work of the {@link FrameCompression}'s of the process,
+ * so the bytes the compression saves can be weighed against the
+ * time it spends. Nothing is printed: the counters are read through
+ * the getters of the singleton
+ * 
+ * @author Felipe Santos
+ * @email felchs@gmail.com
+ */
+public class CompressionStatistics
+{
+	/**
+	 * Singleton instance
+	 */
+	private static final CompressionStatistics instance = new CompressionStatistics();
+	
+	/**
+	 * Gets the singleton instance
+	 * @return the singleton instance
+	 */
+	public static CompressionStatistics getInstance()
+	{
+		return instance;
+	}
+	
+	///////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * The number of compressed frames
+	 */
+	private final AtomicLong compressedFrames = new AtomicLong();
+	
+	/**
+	 * The number of bytes of the compressed frames before the compression
+	 */
+	private final AtomicLong rawBytes = new AtomicLong();
+	
+	/**
+	 * The number of bytes of the compressed frames after the compression
+	 */
+	private final AtomicLong compressedBytes = new AtomicLong();
+	
+	/**
+	 * The time spent compressing, in nanoseconds
+	 */
+	private final AtomicLong compressNanos = new AtomicLong();
+	
+	/**
+	 * The number of frames sent raw, under the threshold of the compression
+	 */
+	private final AtomicLong skippedFrames = new AtomicLong();
+	
+	/**
+	 * The number of frames sent raw, since their compression was not smaller
+	 */
+	private final AtomicLong incompressibleFrames = new AtomicLong();
+	
+	/**
+	 * The number of decompressed frames
+	 */
+	private final AtomicLong decompressedFrames = new AtomicLong();
+	
+	/**
+	 * The time spent decompressing, in nanoseconds
+	 */
+	private final AtomicLong decompressNanos = new AtomicLong();
+	
+	/**
+	 * Private constructor of the singleton
+	 */
+	private CompressionStatistics()
+	{
+	}
+	
+	/**
+	 * Counts a compressed frame
+	 * @param numRawBytes the number of bytes of the frame before the compression
+	 * @param numCompressedBytes the number of bytes of the frame after the compression
+	 * @param nanos the time spent compressing, in nanoseconds
+	 */
+	void onCompressed(int numRawBytes, int numCompressedBytes, long nanos)
+	{
+		compressedFrames.incrementAndGet();
+		rawBytes.addAndGet(numRawBytes);
+		compressedBytes.addAndGet(numCompressedBytes);
+		compressNanos.addAndGet(nanos);
+	}
+	
+	/**
+	 * Counts a frame sent raw, under the threshold of the compression
+	 */
+	void onSkipped()
+	{
+		skippedFrames.incrementAndGet();
+	}
+	
+	/**
+	 * Counts a frame sent raw since its compression was not smaller
+	 * @param nanos the time spent compressing it anyway, in nanoseconds
+	 */
+	void onIncompressible(long nanos)
+	{
+		incompressibleFrames.incrementAndGet();
+		compressNanos.addAndGet(nanos);
+	}
+	
+	/**
+	 * Counts a decompressed frame
+	 * @param nanos the time spent decompressing, in nanoseconds
+	 */
+	void onDecompressed(long nanos)
+	{
+		decompressedFrames.incrementAndGet();
+		decompressNanos.addAndGet(nanos);
+	}
+	
+	/**
+	 * Gets the number of frames sent compressed
+	 * @return the number of frames sent compressed
+	 */
+	public long getCompressedFrames()
+	{
+		return compressedFrames.get();
+	}
+	
+	/**
+	 * Gets the number of bytes of the compressed frames before the compression
+	 * @return the number of bytes of the compressed frames before the compression
+	 */
+	public long getRawBytes()
+	{
+		return rawBytes.get();
+	}
+	
+	/**
+	 * Gets the number of bytes of the compressed frames after the compression
+	 * @return the number of bytes of the compressed frames after the compression
+	 */
+	public long getCompressedBytes()
+	{
+		return compressedBytes.get();
+	}
+	
+	/**
+	 * Gets the number of frames sent raw, under the threshold of the compression
+	 * @return the number of frames sent raw, under the threshold of the compression
+	 */
+	public long getSkippedFrames()
+	{
+		return skippedFrames.get();
+	}
+	
+	/**
+	 * Gets the number of frames sent raw, since their compression was not smaller
+	 * @return the number of frames sent raw, since their compression was not smaller
+	 */
+	public long getIncompressibleFrames()
+	{
+		return incompressibleFrames.get();
+	}
+	
+	/**
+	 * Gets the number of decompressed frames
+	 * @return the number of decompressed frames
+	 */
+	public long getDecompressedFrames()
+	{
+		return decompressedFrames.get();
+	}
+	
+	/**
+	 * Gets the number of bytes saved by the compression
+	 * @return the number of bytes saved by the compression
+	 */
+	public long getSavedBytes()
+	{
+		return rawBytes.get() - compressedBytes.get();
+	}
+	
+	/**
+	 * Gets the time spent compressing and decompressing, in nanoseconds
+	 * @return the time spent compressing and decompressing, in nanoseconds
+	 */
+	public long getSpentNanos()
+	{
+		return compressNanos.get() + decompressNanos.get();
+	}
+	
+	/**
+	 * Forgets the work counted until now
+	 */
+	public void clear()
+	{
+		compressedFrames.set(0);
+		rawBytes.set(0);
+		compressedBytes.set(0);
+		compressNanos.set(0);
+		skippedFrames.set(0);
+		incompressibleFrames.set(0);
+		decompressedFrames.set(0);
+		decompressNanos.set(0);
+	}
+	
+	@Override
+	public String toString()
+	{
+		long raw = rawBytes.get();
+		long saved = getSavedBytes();
+		return "Compression: " + compressedFrames.get() + " frames compressed from " + raw + " to " + compressedBytes.get()
+				+ " bytes, saved " + saved + " bytes (" + (raw > 0 ? saved * 100 / raw : 0) + "%) in "
+				+ compressNanos.get() / 1000 + " us, " + decompressedFrames.get() + " frames decompressed in "
+				+ decompressNanos.get() / 1000 + " us, " + skippedFrames.get() + " frames under the threshold, "
+				+ incompressibleFrames.get() + " frames not smaller compressed";
+	}
+}
@@ -0,0 +1,361 @@
+/*
+ * This source file is part of Grideasy
+ * For the latest info, see https://code.google.com/p/grideasy/
+ * 
+ * Grideasy is free software: you can redistribute it
+ * and/or modify it under the terms of the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.grideasy.client.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The compression of the frames of a connection, agreed by the server
+ * and the client when the client says hello. A frame is compressed with
+ * {@link Deflater} only from a size on, since the small ones gain little
+ * and cost the same time, and a flag before it tells how it was sent.
+ * A frame whose compressed form is not smaller is sent raw as well.
+ * An instance is used by a single thread for each direction: the writer
+ * compresses and the reader decompresses. The native memory of both is
+ * released by {@link #close()} when the connection closes. The work done
+ * is counted by the {@link CompressionStatistics}
+ * 
+ * @author Felipe Santos
+ * @email felchs@gmail.com
+ */
+public class FrameCompression
+{
+	/**
+	 * The name of no compression
+	 */
+	public static final String NONE = "none";
+	
+	/**
+	 * The name of the compression by {@link Deflater}
+	 */
+	public static final String DEFLATE = "deflate";
+	
+	/**
+	 * The flag of a frame sent as it is
+	 */
+	public static final byte RAW = 0;
+	
+	/**
+	 * The flag of a frame sent compressed, followed by its size before the compression
+	 */
+	public static final byte DEFLATED = 1;
+	
+	/**
+	 * The default size from which the frames are compressed
+	 */
+	public static final int DEFAULT_THRESHOLD = 1024;
+	
+	/**
+	 * The default level of the compression, the fastest one
+	 */
+	public static final int DEFAULT_LEVEL = Deflater.BEST_SPEED;
+	
+	/**
+	 * The size of the chunks of the compressed bytes
+	 */
+	private static final int CHUNK_SIZE = 16 * 1024;
+	
+	/**
+	 * Chooses the compression of a connection: the compression of this
+	 * side only if the other side offers it too
+	 * @param compression the compression of this side
+	 * @param offered the compression offered by the other side
+	 * @return the name of the compression of the connection
+	 */
+	public static String choose(String compression, String offered)
+	{
+		return DEFLATE.equals(compression) && DEFLATE.equals(offered) ? DEFLATE : NONE;
+	}
+	
+	/**
+	 * Creates the compression of a connection
+	 * @param compression the name of the compression of the connection
+	 * @param threshold the size from which the frames are compressed
+	 * @param level the level of the compression, from 1 to 9
+	 * @return the compression of the connection or null if its frames are not compressed
+	 */
+	public static FrameCompression create(String compression, int threshold, int level)
+	{
+		return DEFLATE.equals(compression) ? new FrameCompression(threshold, level) : null;
+	}
+	
+	///////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * The compressor of the written frames
+	 */
+	private final Deflater deflater;
+	
+	/**
+	 * The decompressor of the read frames
+	 */
+	private final Inflater inflater = new Inflater();
+	
+	/**
+	 * The size from which the frames are compressed
+	 */
+	private final int threshold;
+	
+	/**
+	 * The chunk of the compressed bytes, only used by the writer
+	 */
+	private final byte[] deflateChunk = new byte[CHUNK_SIZE];
+	
+	/**
+	 * The copy of the bytes of a direct buffer being compressed, only used by the writer
+	 */
+	private byte[] deflateInput = new byte[0];
+	
+	/**
+	 * The chunk of the decompressed bytes of a direct buffer, only used by the reader
+	 */
+	private final byte[] inflateChunk = new byte[CHUNK_SIZE];
+	
+	/**
+	 * The copy of the bytes of a direct buffer being decompressed, only used by the reader
+	 */
+	private byte[] inflateInput = new byte[0];
+	
+	/**
+	 * Whether the native memory of the compression is released or not, guarded by the {@link Deflater}
+	 */
+	private boolean deflaterEnded;
+	
+	/**
+	 * Whether the native memory of the decompression is released or not, guarded by the {@link Inflater}
+	 */
+	private boolean inflaterEnded;
+	
+	/**
+	 * Constructor passing fields
+	 * @param threshold the size from which the frames are compressed
+	 * @param level the level of the compression, from 1 to 9
+	 */
+	private FrameCompression(int threshold, int level)
+	{
+		this.threshold = threshold;
+		this.deflater = new Deflater(level);
+	}
+	
+	/**
+	 * Gets whether a frame is compressed or not, counting the frames sent raw
+	 * @param size the size of the frame
+	 * @return whether the frame is compressed or not
+	 */
+	public boolean shouldCompress(int size)
+	{
+		if (size < threshold)
+		{
+			CompressionStatistics.getInstance().onSkipped();
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Compresses the remaining bytes of some buffers as a single block,
+	 * moving their positions to their limits
+	 * @param sources the buffers to be compressed, in order
+	 * @param out the stream of the compressed bytes
+	 * @return whether the compressed bytes, with the raw size sent before them,
+	 * are fewer than the raw bytes, otherwise the frame is to be sent raw,
+	 * as it is once the compression is closed
+	 */
+	public boolean compress(ByteBuffer[] sources, ByteBufferOutputStream out)
+	{
+		synchronized (deflater)
+		{
+			return !deflaterEnded && deflate(sources, out);
+		}
+	}
+	
+	/**
+	 * Compresses the remaining bytes of some buffers, as {@link #compress(ByteBuffer[], ByteBufferOutputStream)}
+	 * @param sources the buffers to be compressed, in order
+	 * @param out the stream of the compressed bytes
+	 * @return whether the compressed bytes are fewer than the raw bytes
+	 */
+	private boolean deflate(ByteBuffer[] sources, ByteBufferOutputStream out)
+	{
+		long start = System.nanoTime();
+		int startSize = out.size();
+		int rawSize = 0;
+		
+		deflater.reset();
+		for (ByteBuffer source : sources)
+		{
+			rawSize += source.remaining();
+			if (source.hasArray())
+			{
+				deflater.setInput(source.array(), source.arrayOffset() + source.position(), source.remaining());
+			}
+			else
+			{
+				if (deflateInput.length < source.remaining())
+				{
+					deflateInput = new byte[source.remaining()];
+				}
+				int length = source.remaining();
+				source.get(deflateInput, 0, length);
+				deflater.setInput(deflateInput, 0, length);
+			}
+			while (!deflater.needsInput())
+			{
+				out.write(deflateChunk, 0, deflater.deflate(deflateChunk));
+			}
+			source.position(source.limit());
+		}
+		
+		deflater.finish();
+		while (!deflater.finished())
+		{
+			out.write(deflateChunk, 0, deflater.deflate(deflateChunk));
+		}
+		
+		int compressedSize = out.size() - startSize;
+		if (compressedSize + 4 >= rawSize)
+		{
+			CompressionStatistics.getInstance().onIncompressible(System.nanoTime() - start);
+			return false;
+		}
+		CompressionStatistics.getInstance().onCompressed(rawSize, compressedSize, System.nanoTime() - start);
+		return true;
+	}
+	
+	/**
+	 * Decompresses the remaining bytes of a buffer, moving its position to its limit
+	 * @param source the buffer of the compressed bytes
+	 * @param target the buffer of the decompressed bytes, with room for all of them
+	 * @throws IOException if the bytes are not valid compressed bytes or the compression is closed
+	 */
+	public void decompress(ByteBuffer source, ByteBuffer target) throws IOException
+	{
+		synchronized (inflater)
+		{
+			if (inflaterEnded)
+			{
+				throw new IOException("The compression of the connection is closed");
+			}
+			inflate(source, target);
+		}
+	}
+	
+	/**
+	 * Decompresses the remaining bytes of a buffer, as {@link #decompress(ByteBuffer, ByteBuffer)}
+	 * @param source the buffer of the compressed bytes
+	 * @param target the buffer of the decompressed bytes, with room for all of them
+	 * @throws IOException if the bytes are not valid compressed bytes
+	 */
+	private void inflate(ByteBuffer source, ByteBuffer target) throws IOException
+	{
+		long start = System.nanoTime();
+		
+		inflater.reset();
+		if (source.hasArray())
+		{
+			inflater.setInput(source.array(), source.arrayOffset() + source.position(), source.remaining());
+		}
+		else
+		{
+			if (inflateInput.length < source.remaining())
+			{
+				inflateInput = new byte[source.remaining()];
+			}
+			int length = source.remaining();
+			source.get(inflateInput, 0, length);
+			inflater.setInput(inflateInput, 0, length);
+		}
+		source.position(source.limit());
+		
+		try
+		{
+			if (target.hasArray())
+			{
+				while (!inflater.finished() && target.hasRemaining())
+				{
+					int inflated = inflater.inflate(target.array(), target.arrayOffset() + target.position(), target.remaining());
+					target.position(target.position() + inflated);
+					if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+					{
+						break;
+					}
+				}
+			}
+			else
+			{
+				while (!inflater.finished() && target.hasRemaining())
+				{
+					int inflated = inflater.inflate(inflateChunk, 0, Math.min(inflateChunk.length, target.remaining()));
+					target.put(inflateChunk, 0, inflated);
+					if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+					{
+						break;
+					}
+				}
+			}
+		}
+		catch (DataFormatException e)
+		{
+			throw new IOException("Invalid compressed frame: " + e.getMessage());
+		}
+		
+		if (!inflater.finished() || target.hasRemaining())
+		{
+			throw new IOException("Invalid compressed frame size");
+		}
+		
+		CompressionStatistics.getInstance().onDecompressed(System.nanoTime() - start);
+	}
+	
+	/**
+	 * Releases the native memory of the compression and of the decompression,
+	 * once the connection is closed. A frame written later is sent raw and a
+	 * frame read later fails
+	 */
+	public void close()
+	{
+		synchronized (deflater)
+		{
+			if (!deflaterEnded)
+			{
+				deflaterEnded = true;
+				deflater.end();
+			}
+		}
+		synchronized (inflater)
+		{
+			if (!inflaterEnded)
+			{
+				inflaterEnded = true;
+				inflater.end();
+			}
+		}
+	}
+}
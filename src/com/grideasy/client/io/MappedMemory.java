@@ -0,0 +1,89 @@
+/*
+ * This source file is part of Grideasy
+ * For the latest info, see https://code.google.com/p/grideasy/
+ * 
+ * Grideasy is free software: you can redistribute it
+ * and/or modify it under the terms of the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.grideasy.client.io;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Ordered and volatile access to the longs of a direct buffer, needed
+ * to publish the positions of a {@link SharedMemoryRing} to the other
+ * process: the buffer methods give no memory ordering at all.
+ * The access goes through a byte buffer view VarHandle, so each call
+ * compiles to a single memory instruction without an internal API
+ * 
+ * @author Felipe Santos
+ * @email felchs@gmail.com
+ */
+final class MappedMemory
+{
+	/**
+	 * The view of a buffer as big endian longs, indexed by byte
+	 */
+	private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+	
+	/**
+	 * Not instantiable
+	 */
+	private MappedMemory()
+	{
+	}
+	
+	/**
+	 * Reads a long with volatile semantics, seeing all the writes done before it was put
+	 * @param buffer the direct buffer of the long
+	 * @param index the index of the long in the buffer, aligned to 8 bytes
+	 * @return the value of the long
+	 */
+	static long getLongVolatile(ByteBuffer buffer, int index)
+	{
+		return (long) LONGS.getVolatile(buffer, index);
+	}
+	
+	/**
+	 * Writes a long after all the writes done before, without waiting for it to be seen
+	 * @param buffer the direct buffer of the long
+	 * @param index the index of the long in the buffer, aligned to 8 bytes
+	 * @param value the value of the long
+	 */
+	static void putLongOrdered(ByteBuffer buffer, int index, long value)
+	{
+		LONGS.setRelease(buffer, index, value);
+	}
+	
+	/**
+	 * Writes a long with volatile semantics
+	 * @param buffer the direct buffer of the long
+	 * @param index the index of the long in the buffer, aligned to 8 bytes
+	 * @param value the value of the long
+	 */
+	static void putLongVolatile(ByteBuffer buffer, int index, long value)
+	{
+		LONGS.setVolatile(buffer, index, value);
+	}
+}
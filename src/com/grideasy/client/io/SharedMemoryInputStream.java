@@ -0,0 +1,113 @@
+/*
+ * This source file is part of Grideasy
+ * For the latest info, see https://code.google.com/p/grideasy/
+ * 
+ * Grideasy is free software: you can redistribute it
+ * and/or modify it under the terms of the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.grideasy.client.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the jobs written by the server on the {@link SharedMemoryRing}
+ * of a {@link SharedMemorySegment}, waiting with a {@link SpinParkIdler}
+ * while the ring is empty. It ends when the server closes the connection
+ * 
+ * @author Felipe Santos
+ * @email felchs@gmail.com
+ */
+public class SharedMemoryInputStream extends InputStream
+{
+	/**
+	 * The segment of the connection
+	 */
+	private final SharedMemorySegment segment;
+	
+	/**
+	 * The ring of the jobs
+	 */
+	private final SharedMemoryRing ring;
+	
+	/**
+	 * The waiting of the reads
+	 */
+	private final SpinParkIdler idler = new SpinParkIdler();
+	
+	/**
+	 * The array of the reads of a single byte
+	 */
+	private final byte[] singleByte = new byte[1];
+	
+	/**
+	 * Constructor passing fields
+	 * @param segment the segment of the connection
+	 */
+	public SharedMemoryInputStream(SharedMemorySegment segment)
+	{
+		this.segment = segment;
+		this.ring = segment.getJobRing();
+	}
+	
+	@Override
+	public int read() throws IOException
+	{
+		return read(singleByte, 0, 1) < 0 ? -1 : singleByte[0] & 0xFF;
+	}
+	
+	@Override
+	public int read(byte[] bytes, int offset, int length) throws IOException
+	{
+		if (length == 0)
+		{
+			return 0;
+		}
+		
+		while (true)
+		{
+			int read = ring.poll(bytes, offset, length);
+			if (read > 0)
+			{
+				idler.reset();
+				return read;
+			}
+			
+			if (segment.getServerState() != SharedMemorySegment.SERVER_READY)
+			{
+				read = ring.poll(bytes, offset, length);
+				return read > 0 ? read : -1;
+			}
+			if (segment.getClientState() != SharedMemorySegment.CLIENT_CONNECTED)
+			{
+				throw new EOFException("Shared memory connection closed: " + segment.getFile());
+			}
+			idler.idle();
+		}
+	}
+	
+	@Override
+	public int available()
+	{
+		return ring.isEmpty() ? 0 : 1;
+	}
+}
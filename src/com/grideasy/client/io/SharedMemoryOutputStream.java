@@ -0,0 +1,101 @@
+/*
+ * This source file is part of Grideasy
+ * For the latest info, see https://code.google.com/p/grideasy/
+ * 
+ * Grideasy is free software: you can redistribute it
+ * and/or modify it under the terms of the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.grideasy.client.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes the results of the client on the {@link SharedMemoryRing} of a
+ * {@link SharedMemorySegment}, waiting with a {@link SpinParkIdler} while
+ * the ring is full. The written bytes are seen by the server at once,
+ * so flushing does nothing
+ * 
+ * @author Felipe Santos
+ * @email felchs@gmail.com
+ */
+public class SharedMemoryOutputStream extends OutputStream
+{
+	/**
+	 * The segment of the connection
+	 */
+	private final SharedMemorySegment segment;
+	
+	/**
+	 * The ring of the results
+	 */
+	private final SharedMemoryRing ring;
+	
+	/**
+	 * The waiting of the writes
+	 */
+	private final SpinParkIdler idler = new SpinParkIdler();
+	
+	/**
+	 * The array of the writes of a single byte
+	 */
+	private final byte[] singleByte = new byte[1];
+	
+	/**
+	 * Constructor passing fields
+	 * @param segment the segment of the connection
+	 */
+	public SharedMemoryOutputStream(SharedMemorySegment segment)
+	{
+		this.segment = segment;
+		this.ring = segment.getResultRing();
+	}
+	
+	@Override
+	public void write(int b) throws IOException
+	{
+		singleByte[0] = (byte) b;
+		write(singleByte, 0, 1);
+	}
+	
+	@Override
+	public void write(byte[] bytes, int offset, int length) throws IOException
+	{
+		while (length > 0)
+		{
+			int written = ring.offer(bytes, offset, length);
+			if (written > 0)
+			{
+				offset += written;
+				length -= written;
+				idler.reset();
+				continue;
+			}
+			
+			if (segment.getServerState() != SharedMemorySegment.SERVER_READY
+					|| segment.getClientState() != SharedMemorySegment.CLIENT_CONNECTED)
+			{
+				throw new IOException("Shared memory connection closed: " + segment.getFile());
+			}
+			idler.idle();
+		}
+	}
+}
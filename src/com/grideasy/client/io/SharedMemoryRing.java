@@ -0,0 +1,270 @@
+/*
+ * This source file is part of Grideasy
+ * For the latest info, see https://code.google.com/p/grideasy/
+ * 
+ * Grideasy is free software: you can redistribute it
+ * and/or modify it under the terms of the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.grideasy.client.io;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A single producer, single consumer ring of bytes in a region of a
+ * {@link SharedMemorySegment}, shared by two processes.
+ * The producer writes the bytes and then publishes its tail, the
+ * consumer reads them and then publishes its head, each position on its
+ * own cache line, so neither side ever takes a lock or makes a system call.
+ * The ring carries a stream of bytes, the frames are laid on it as on a socket.
+ * Each process has its own instance, used only as producer or only as consumer
+ * 
+ * @author Felipe Santos
+ * @email felchs@gmail.com
+ */
+public class SharedMemoryRing
+{
+	/**
+	 * The size of a cache line, the distance between the positions
+	 */
+	static final int CACHE_LINE_SIZE = 64;
+	
+	/**
+	 * The size of the positions before the bytes of a ring
+	 */
+	static final int HEADER_SIZE = 2 * CACHE_LINE_SIZE;
+	
+	///////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * The mapped memory of the {@link SharedMemorySegment}, holding the positions
+	 */
+	private final ByteBuffer memory;
+	
+	/**
+	 * The index in the memory of the number of bytes ever read
+	 */
+	private final int headIndex;
+	
+	/**
+	 * The index in the memory of the number of bytes ever written
+	 */
+	private final int tailIndex;
+	
+	/**
+	 * The bytes of this ring
+	 */
+	private final ByteBuffer data;
+	
+	/**
+	 * The number of bytes of this ring, a power of two
+	 */
+	private final int capacity;
+	
+	/**
+	 * The mask of an index in the bytes of this ring
+	 */
+	private final int mask;
+	
+	/**
+	 * Constructor passing fields
+	 * @param buffer the mapped buffer of the {@link SharedMemorySegment}
+	 * @param offset the offset of this ring in the buffer, aligned to a cache line
+	 * @param capacity the number of bytes of this ring, a power of two
+	 */
+	SharedMemoryRing(ByteBuffer buffer, int offset, int capacity)
+	{
+		if (Integer.bitCount(capacity) != 1)
+		{
+			throw new IllegalArgumentException("The capacity of a ring must be a power of two: " + capacity);
+		}
+		
+		this.memory = buffer;
+		this.headIndex = offset;
+		this.tailIndex = offset + CACHE_LINE_SIZE;
+		
+		ByteBuffer view = buffer.duplicate();
+		view.position(offset + HEADER_SIZE);
+		view.limit(offset + HEADER_SIZE + capacity);
+		this.data = view.slice();
+		this.capacity = capacity;
+		this.mask = capacity - 1;
+	}
+	
+	/**
+	 * Gets the size in a {@link SharedMemorySegment} of a ring
+	 * @param capacity the number of bytes of the ring
+	 * @return the size of the ring with its positions
+	 */
+	static int getSize(int capacity)
+	{
+		return HEADER_SIZE + capacity;
+	}
+	
+	/**
+	 * Gets the number of bytes of this ring
+	 * @return the number of bytes of this ring
+	 */
+	public int getCapacity()
+	{
+		return capacity;
+	}
+	
+	/**
+	 * Gets whether there is no byte to be read or not
+	 * @return whether there is no byte to be read or not
+	 */
+	public boolean isEmpty()
+	{
+		return MappedMemory.getLongVolatile(memory, tailIndex) == MappedMemory.getLongVolatile(memory, headIndex);
+	}
+	
+	/**
+	 * Writes as many bytes as fit in this ring. Only called by the producer
+	 * @param bytes the bytes to be written
+	 * @param offset the offset of the first byte
+	 * @param length the number of bytes to be written
+	 * @return the number of written bytes, 0 if the ring is full
+	 */
+	public int offer(byte[] bytes, int offset, int length)
+	{
+		long tail = MappedMemory.getLongVolatile(memory, tailIndex);
+		long head = MappedMemory.getLongVolatile(memory, headIndex);
+		int count = Math.min(length, capacity - (int) (tail - head));
+		if (count <= 0)
+		{
+			return 0;
+		}
+		
+		int index = (int) tail & mask;
+		int first = Math.min(count, capacity - index);
+		data.position(index);
+		data.put(bytes, offset, first);
+		if (count > first)
+		{
+			data.position(0);
+			data.put(bytes, offset + first, count - first);
+		}
+		
+		MappedMemory.putLongOrdered(memory, tailIndex, tail + count);
+		return count;
+	}
+	
+	/**
+	 * Writes as many bytes of a buffer as fit in this ring, from its position.
+	 * Only called by the producer
+	 * @param buffer the buffer of the bytes, whose position is moved past the written bytes
+	 * @return the number of written bytes, 0 if the ring is full
+	 */
+	public int offer(ByteBuffer buffer)
+	{
+		long tail = MappedMemory.getLongVolatile(memory, tailIndex);
+		long head = MappedMemory.getLongVolatile(memory, headIndex);
+		int count = Math.min(buffer.remaining(), capacity - (int) (tail - head));
+		if (count <= 0)
+		{
+			return 0;
+		}
+		
+		int index = (int) tail & mask;
+		int first = Math.min(count, capacity - index);
+		int limit = buffer.limit();
+		buffer.limit(buffer.position() + first);
+		data.position(index);
+		data.put(buffer);
+		buffer.limit(buffer.position() + count - first);
+		data.position(0);
+		data.put(buffer);
+		buffer.limit(limit);
+		
+		MappedMemory.putLongOrdered(memory, tailIndex, tail + count);
+		return count;
+	}
+	
+	/**
+	 * Reads as many bytes as there are, up to a length. Only called by the consumer
+	 * @param bytes the array of the read bytes
+	 * @param offset the offset of the first read byte in the array
+	 * @param length the maximum number of bytes to be read
+	 * @return the number of read bytes, 0 if the ring is empty
+	 */
+	public int poll(byte[] bytes, int offset, int length)
+	{
+		long head = MappedMemory.getLongVolatile(memory, headIndex);
+		long tail = MappedMemory.getLongVolatile(memory, tailIndex);
+		int count = (int) Math.min(length, tail - head);
+		if (count <= 0)
+		{
+			return 0;
+		}
+		
+		int index = (int) head & mask;
+		int first = Math.min(count, capacity - index);
+		data.position(index);
+		data.get(bytes, offset, first);
+		if (count > first)
+		{
+			data.position(0);
+			data.get(bytes, offset + first, count - first);
+		}
+		
+		MappedMemory.putLongOrdered(memory, headIndex, head + count);
+		return count;
+	}
+	
+	/**
+	 * Reads as many bytes as there are into the remaining space of a buffer.
+	 * Only called by the consumer
+	 * @param buffer the buffer of the read bytes, whose position is moved past them
+	 * @return the number of read bytes, 0 if the ring is empty
+	 */
+	public int poll(ByteBuffer buffer)
+	{
+		long head = MappedMemory.getLongVolatile(memory, headIndex);
+		long tail = MappedMemory.getLongVolatile(memory, tailIndex);
+		int count = (int) Math.min(buffer.remaining(), tail - head);
+		if (count <= 0)
+		{
+			return 0;
+		}
+		
+		int index = (int) head & mask;
+		int first = Math.min(count, capacity - index);
+		data.limit(index + first);
+		data.position(index);
+		buffer.put(data);
+		data.limit(count - first);
+		data.position(0);
+		buffer.put(data);
+		data.limit(capacity);
+		
+		MappedMemory.putLongOrdered(memory, headIndex, head + count);
+		return count;
+	}
+	
+	/**
+	 * Empties this ring. Only called while no process uses it
+	 */
+	void clear()
+	{
+		MappedMemory.putLongVolatile(memory, headIndex, 0);
+		MappedMemory.putLongVolatile(memory, tailIndex, 0);
+	}
+}
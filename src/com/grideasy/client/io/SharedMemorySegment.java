@@ -0,0 +1,361 @@
+/*
+ * This source file is part of Grideasy
+ * For the latest info, see https://code.google.com/p/grideasy/
+ * 
+ * Grideasy is free software: you can redistribute it
+ * and/or modify it under the terms of the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.grideasy.client.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+
+/**
+ * A memory mapped file shared by the server and a client of the same
+ * host, best placed on a memory file system such as /dev/shm.
+ * It holds the states of both sides and two {@link SharedMemoryRing}'s,
+ * the jobs going to the client and the results coming back.
+ * The server creates a segment per slot and the client claims a free one
+ * by locking its file, so the lock also tells the server if the client died
+ * 
+ * @author Felipe Santos
+ * @email felchs@gmail.com
+ */
+public class SharedMemorySegment implements Closeable
+{
+	/**
+	 * The default directory of the files of the segments, a memory file system
+	 */
+	public static final String DEFAULT_DIRECTORY = "/dev/shm";
+	
+	/**
+	 * The default number of bytes of each {@link SharedMemoryRing}
+	 */
+	public static final int DEFAULT_RING_CAPACITY = 1024 * 1024;
+	
+	/**
+	 * The number that starts the file of a segment
+	 */
+	private static final int MAGIC = 0x47524944;
+	
+	/**
+	 * The offset of the state of the server
+	 */
+	private static final int SERVER_STATE_OFFSET = SharedMemoryRing.CACHE_LINE_SIZE;
+	
+	/**
+	 * The offset of the state of the client
+	 */
+	private static final int CLIENT_STATE_OFFSET = 2 * SharedMemoryRing.CACHE_LINE_SIZE;
+	
+	/**
+	 * The offset of the ring of the jobs
+	 */
+	private static final int RINGS_OFFSET = 3 * SharedMemoryRing.CACHE_LINE_SIZE;
+	
+	/**
+	 * The state of a server accepting a client on the segment
+	 */
+	public static final long SERVER_READY = 1;
+	
+	/**
+	 * The state of a server that closed the connection
+	 */
+	public static final long SERVER_CLOSED = 2;
+	
+	/**
+	 * The state of a segment without client
+	 */
+	public static final long CLIENT_FREE = 0;
+	
+	/**
+	 * The state of a client connected to the segment
+	 */
+	public static final long CLIENT_CONNECTED = 1;
+	
+	/**
+	 * The state of a client that closed the connection
+	 */
+	public static final long CLIENT_CLOSED = 2;
+	
+	/**
+	 * Gets the file of a slot of the server
+	 * @param directory the directory of the files of the segments
+	 * @param port the port of the server
+	 * @param slot the number of the slot
+	 * @return the file of the segment of the slot
+	 */
+	public static File getFile(String directory, int port, int slot)
+	{
+		return new File(directory, "grideasy-" + port + "-" + slot + ".shm");
+	}
+	
+	/**
+	 * Creates the segment of a slot of the server, replacing an old one
+	 * @param file the file of the segment
+	 * @param ringCapacity the number of bytes of each {@link SharedMemoryRing}, a power of two
+	 * @return the created segment
+	 * @throws IOException if the file could not be created
+	 */
+	public static SharedMemorySegment create(File file, int ringCapacity) throws IOException
+	{
+		file.delete();
+		file.deleteOnExit();
+		
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+		randomAccessFile.setLength(RINGS_OFFSET + 2 * SharedMemoryRing.getSize(ringCapacity));
+		SharedMemorySegment segment = new SharedMemorySegment(file, randomAccessFile, ringCapacity);
+		segment.buffer.putInt(4, ringCapacity);
+		segment.buffer.putInt(0, MAGIC);
+		return segment;
+	}
+	
+	/**
+	 * Claims a free segment of a server, locking its file until the segment is closed
+	 * @param directory the directory of the files of the segments
+	 * @param port the port of the server
+	 * @return the claimed segment or null if there is no free one
+	 * @throws IOException if a file could not be mapped
+	 */
+	public static SharedMemorySegment claim(String directory, int port) throws IOException
+	{
+		for (int slot = 0; ; slot++)
+		{
+			File file = getFile(directory, port, slot);
+			if (!file.exists())
+			{
+				return null;
+			}
+			
+			RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+			FileLock lock = null;
+			try
+			{
+				lock = randomAccessFile.getChannel().tryLock();
+			}
+			catch (OverlappingFileLockException e)
+			{
+				// claimed by this process
+			}
+			
+			if (lock == null || randomAccessFile.length() < RINGS_OFFSET)
+			{
+				randomAccessFile.close();
+				continue;
+			}
+			
+			int ringCapacity = randomAccessFile.readInt() == MAGIC ? randomAccessFile.readInt() : 0;
+			SharedMemorySegment segment = ringCapacity > 0 ? new SharedMemorySegment(file, randomAccessFile, ringCapacity) : null;
+			if (segment != null && segment.getServerState() == SERVER_READY && segment.getClientState() == CLIENT_FREE)
+			{
+				segment.lock = lock;
+				segment.setClientState(CLIENT_CONNECTED);
+				return segment;
+			}
+			randomAccessFile.close();
+		}
+	}
+	
+	///////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * The file of this segment
+	 */
+	private final File file;
+	
+	/**
+	 * The opened file of this segment
+	 */
+	private final RandomAccessFile randomAccessFile;
+	
+	/**
+	 * The mapped memory of the file, kept while the segment is used
+	 */
+	private final MappedByteBuffer buffer;
+	
+	/**
+	 * The ring of the jobs, written by the server
+	 */
+	private final SharedMemoryRing jobRing;
+	
+	/**
+	 * The ring of the results, written by the client
+	 */
+	private final SharedMemoryRing resultRing;
+	
+	/**
+	 * The lock of the file held by the client, null on the server
+	 */
+	private FileLock lock;
+	
+	/**
+	 * Whether the file of this segment is closed or not
+	 */
+	private boolean closed;
+	
+	/**
+	 * Constructor passing fields, mapping the file
+	 * @param file the file of this segment
+	 * @param randomAccessFile the opened file of this segment
+	 * @param ringCapacity the number of bytes of each {@link SharedMemoryRing}
+	 * @throws IOException if the file could not be mapped
+	 */
+	private SharedMemorySegment(File file, RandomAccessFile randomAccessFile, int ringCapacity) throws IOException
+	{
+		this.file = file;
+		this.randomAccessFile = randomAccessFile;
+		this.buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, randomAccessFile.length());
+		this.buffer.order(ByteOrder.BIG_ENDIAN);
+		this.jobRing = new SharedMemoryRing(buffer, RINGS_OFFSET, ringCapacity);
+		this.resultRing = new SharedMemoryRing(buffer, RINGS_OFFSET + SharedMemoryRing.getSize(ringCapacity), ringCapacity);
+	}
+	
+	/**
+	 * Gets the file of this segment
+	 * @return the file of this segment
+	 */
+	public File getFile()
+	{
+		return file;
+	}
+	
+	/**
+	 * Gets the ring of the jobs, written by the server
+	 * @return the ring of the jobs, written by the server
+	 */
+	public SharedMemoryRing getJobRing()
+	{
+		return jobRing;
+	}
+	
+	/**
+	 * Gets the ring of the results, written by the client
+	 * @return the ring of the results, written by the client
+	 */
+	public SharedMemoryRing getResultRing()
+	{
+		return resultRing;
+	}
+	
+	/**
+	 * Gets the state of the server
+	 * @return the state of the server
+	 */
+	public long getServerState()
+	{
+		return MappedMemory.getLongVolatile(buffer, SERVER_STATE_OFFSET);
+	}
+	
+	/**
+	 * Sets the state of the server
+	 * @param state the state of the server
+	 */
+	public void setServerState(long state)
+	{
+		MappedMemory.putLongVolatile(buffer, SERVER_STATE_OFFSET, state);
+	}
+	
+	/**
+	 * Gets the state of the client
+	 * @return the state of the client
+	 */
+	public long getClientState()
+	{
+		return MappedMemory.getLongVolatile(buffer, CLIENT_STATE_OFFSET);
+	}
+	
+	/**
+	 * Sets the state of the client
+	 * @param state the state of the client
+	 */
+	public void setClientState(long state)
+	{
+		MappedMemory.putLongVolatile(buffer, CLIENT_STATE_OFFSET, state);
+	}
+	
+	/**
+	 * Gets whether a client holds the lock of the file or not,
+	 * so a client that died without closing is seen by the server
+	 * @return whether a client holds the lock of the file or not
+	 */
+	public boolean isClaimed()
+	{
+		try
+		{
+			FileLock probe = randomAccessFile.getChannel().tryLock();
+			if (probe == null)
+			{
+				return true;
+			}
+			probe.release();
+			return false;
+		}
+		catch (OverlappingFileLockException e)
+		{
+			return true;
+		}
+		catch (IOException e)
+		{
+			return false;
+		}
+	}
+	
+	/**
+	 * Empties the rings and frees the segment for the next client.
+	 * Called by the server once the client is gone
+	 */
+	public void reset()
+	{
+		jobRing.clear();
+		resultRing.clear();
+		setClientState(CLIENT_FREE);
+		setServerState(SERVER_READY);
+	}
+	
+	/**
+	 * Closes the file of this segment. A client tells the server
+	 * it closed the connection and releases the lock of the file
+	 * @throws IOException if the file could not be closed
+	 */
+	@Override
+	public synchronized void close() throws IOException
+	{
+		if (closed)
+		{
+			return;
+		}
+		closed = true;
+		
+		if (lock != null)
+		{
+			setClientState(CLIENT_CLOSED);
+			lock.release();
+		}
+		randomAccessFile.close();
+	}
+}
@@ -0,0 +1,113 @@
+/*
+ * This source file is part of Grideasy
+ * For the latest info, see https://code.google.com/p/grideasy/
+ * 
+ * Grideasy is free software: you can redistribute it
+ * and/or modify it under the terms of the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.grideasy.client.io;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Waits for the other side of a {@link SharedMemoryRing}: it busy spins
+ * first, so a quick answer is seen within nanoseconds, then yields and
+ * finally parks for growing times, so an idle side costs no CPU.
+ * An instance is owned by a single thread
+ * 
+ * @author Felipe Santos
+ * @email felchs@gmail.com
+ */
+public class SpinParkIdler
+{
+	/**
+	 * The number of idle rounds spent spinning, none on a single
+	 * processor, where spinning only delays the other side
+	 */
+	private static final int MAX_SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 10000 : 0;
+	
+	/**
+	 * The number of idle rounds spent yielding, after the spins
+	 */
+	private static final int MAX_YIELDS = 100;
+	
+	/**
+	 * The first park time in nanoseconds
+	 */
+	private static final long MIN_PARK_NANOS = 1000;
+	
+	/**
+	 * The longest park time in nanoseconds
+	 */
+	private static final long MAX_PARK_NANOS = 1000 * 1000;
+	
+	///////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * The number of idle rounds since the last work
+	 */
+	private int idleRounds;
+	
+	/**
+	 * The next park time in nanoseconds
+	 */
+	private long parkNanos = MIN_PARK_NANOS;
+	
+	/**
+	 * Waits a round without work, spinning, yielding or parking
+	 * by how long there was no work
+	 */
+	public void idle()
+	{
+		if (idleRounds < MAX_SPINS)
+		{
+			idleRounds++;
+		}
+		else if (idleRounds < MAX_SPINS + MAX_YIELDS)
+		{
+			idleRounds++;
+			Thread.yield();
+		}
+		else
+		{
+			LockSupport.parkNanos(parkNanos);
+			parkNanos = Math.min(parkNanos * 2, MAX_PARK_NANOS);
+		}
+	}
+	
+	/**
+	 * Gets whether the waiting already parks the thread or not
+	 * @return whether the waiting already parks the thread or not
+	 */
+	public boolean isParking()
+	{
+		return idleRounds >= MAX_SPINS + MAX_YIELDS;
+	}
+	
+	/**
+	 * Tells there was work, so the next wait spins again
+	 */
+	public void reset()
+	{
+		idleRounds = 0;
+		parkNanos = MIN_PARK_NANOS;
+	}
+}
@@ -0,0 +1,113 @@
+/*
+ * This source file is part of Grideasy
+ * For the latest info, see https://code.google.com/p/grideasy/
+ * 
+ * Grideasy is free software: you can redistribute it
+ * and/or modify it under the terms of the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.grideasy.client.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Opens the channels of the Unix domain sockets, which connect the grid
+ * server and the clients of the same host without the TCP stack.
+ * The channels are opened with {@link StandardProtocolFamily#UNIX}, which
+ * throws an {@link UnsupportedOperationException} on the platforms without
+ * Unix domain sockets
+ *
+ * @author Felipe Santos
+ * @email felchs@gmail.com
+ */
+public class UnixDomainSockets
+{
+	/**
+	 * Gets the address of a Unix domain socket
+	 * @param path the path of the socket file
+	 * @return the address of the socket
+	 */
+	public static UnixDomainSocketAddress getAddress(String path)
+	{
+		return UnixDomainSocketAddress.of(path);
+	}
+
+	/**
+	 * Opens a blocking channel connected to a Unix domain socket
+	 * @param path the path of the socket file
+	 * @return the connected channel
+	 * @throws IOException if the channel could not be connected
+	 */
+	public static SocketChannel connect(String path) throws IOException
+	{
+		SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+		try
+		{
+			channel.connect(getAddress(path));
+		}
+		catch (IOException e)
+		{
+			channel.close();
+			throw e;
+		}
+		return channel;
+	}
+
+	/**
+	 * Opens a server channel bound to a Unix domain socket.
+	 * The socket file left by a previous server is replaced,
+	 * the new one is deleted when the JVM exits
+	 *
+	 * @param path the path of the socket file
+	 * @return the bound server channel
+	 * @throws IOException if the channel could not be bound
+	 */
+	public static ServerSocketChannel bind(String path) throws IOException
+	{
+		ServerSocketChannel serverChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+		try
+		{
+			File socketFile = new File(path);
+			socketFile.delete();
+			serverChannel.bind(getAddress(path));
+			socketFile.deleteOnExit();
+		}
+		catch (IOException e)
+		{
+			serverChannel.close();
+			throw e;
+		}
+		return serverChannel;
+	}
+
+	///////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Private constructor, the methods are static
+	 */
+	private UnixDomainSockets()
+	{
+	}
+}
@@ -0,0 +1,93 @@
+/*
+ * This source file is part of Grideasy
+ * For the latest info, see https://code.google.com/p/grideasy/
+ * 
+ * Grideasy is free software: you can redistribute it
+ * and/or modify it under the terms of the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.grideasy.client.serializer;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The input of the {@link BinarySerializer}: the primitives of a
+ * {@link DataInputStream} plus the values of the types the serializer knows
+ *
+ * @author Felipe Santos
+ * @email felchs@gmail.com
+ */
+public class BinaryInput extends DataInputStream
+{
+	/**
+	 * The {@link BinarySerializer} reading the values
+	 */
+	private final BinarySerializer serializer;
+
+	/**
+	 * The {@link ClassLoader} of the classes of the values
+	 */
+	private ClassLoader loader;
+
+	/**
+	 * Constructor passing fields
+	 * @param serializer the {@link BinarySerializer} reading the values
+	 * @param in the underlying {@link InputStream}
+	 * @param loader the {@link ClassLoader} of the classes of the values
+	 */
+	BinaryInput(BinarySerializer serializer, InputStream in, ClassLoader loader)
+	{
+		super(in);
+		this.serializer = serializer;
+		this.loader = loader;
+	}
+
+	/**
+	 * Sets the underlying {@link InputStream}, so the input is reused for many messages
+	 * @param in the underlying {@link InputStream}
+	 * @param loader the {@link ClassLoader} of the classes of the values
+	 */
+	void setInput(InputStream in, ClassLoader loader)
+	{
+		this.in = in;
+		this.loader = loader;
+	}
+
+	/**
+	 * Gets the {@link ClassLoader} of the classes of the values
+	 * @return the {@link ClassLoader} of the classes of the values
+	 */
+	public ClassLoader getLoader()
+	{
+		return loader;
+	}
+
+	/**
+	 * Reads a value written by {@link BinaryOutput#writeValue(Object)}
+	 * @return the value read, can be null
+	 * @throws IOException if the value could not be read
+	 */
+	public Object readValue() throws IOException
+	{
+		return serializer.readValue(this);
+	}
+}
@@ -0,0 +1,76 @@
+/*
+ * This source file is part of Grideasy
+ * For the latest info, see https://code.google.com/p/grideasy/
+ * 
+ * Grideasy is free software: you can redistribute it
+ * and/or modify it under the terms of the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.grideasy.client.serializer;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * The output of the {@link BinarySerializer}: the primitives of a
+ * {@link DataOutputStream} plus the values of the types the serializer knows
+ *
+ * @author Felipe Santos
+ * @email felchs@gmail.com
+ */
+public class BinaryOutput extends DataOutputStream
+{
+	/**
+	 * The {@link BinarySerializer} writing the values
+	 */
+	private final BinarySerializer serializer;
+
+	/**
+	 * Constructor passing fields
+	 * @param serializer the {@link BinarySerializer} writing the values
+	 * @param out the underlying {@link OutputStream}
+	 */
+	BinaryOutput(BinarySerializer serializer, OutputStream out)
+	{
+		super(out);
+		this.serializer = serializer;
+	}
+
+	/**
+	 * Sets the underlying {@link OutputStream}, so the output is reused for many messages
+	 * @param out the underlying {@link OutputStream}
+	 */
+	void setOutput(OutputStream out)
+	{
+		this.out = out;
+	}
+
+	/**
+	 * Writes a value of any type, tagged with its type.
+	 * The types unknown by the {@link BinarySerializer} are written by Java serialization
+	 * @param value the value to be written, can be null
+	 * @throws IOException if the value could not be written
+	 */
+	public void writeValue(Object value) throws IOException
+	{
+		serializer.writeValue(this, value);
+	}
+}
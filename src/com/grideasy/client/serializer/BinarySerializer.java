@@ -0,0 +1,958 @@
+/*
+ * This source file is part of Grideasy
+ * For the latest info, see https://code.google.com/p/grideasy/
+ * 
+ * Grideasy is free software: you can redistribute it
+ * and/or modify it under the terms of the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.grideasy.client.serializer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.Map;
+
+import com.grideasy.client.JobResult;
+import com.grideasy.client.SessionCodec;
+import com.grideasy.client.io.ByteBufferInputStream;
+
+/**
+ * A compact binary {@link GridSerializer}.
+ * Primitives, strings, primitive arrays, object arrays, the common lists,
+ * sets and maps and the {@link JobResult}'s are written tagged with their
+ * type, the primitive arrays in bulk through a scratch buffer of the
+ * serializer, so no value needs a temporary array of its own. The
+ * {@link GridCodable} objects write their own fields after the id of their
+ * class, sent by name only once per reset interval and again after a message
+ * that failed halfway. Any other object is written by Java serialization,
+ * through a {@link SessionCodec} of the same connection.
+ * The identity of the objects is not kept: an object referenced twice is
+ * read as two copies and a cycle overflows the stack, so the jobs and the
+ * results of this serializer must be trees of values
+ *
+ * @author Felipe Santos
+ * @email felchs@gmail.com
+ */
+public class BinarySerializer implements GridSerializer
+{
+	/**
+	 * The name of this serializer
+	 */
+	public static final String NAME = "binary";
+
+	/**
+	 * The charset of the strings
+	 */
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * The tag of a null value
+	 */
+	private static final byte NULL = 0;
+
+	/**
+	 * The tag of a {@link Boolean}
+	 */
+	private static final byte BOOLEAN = 1;
+
+	/**
+	 * The tag of a {@link Byte}
+	 */
+	private static final byte BYTE = 2;
+
+	/**
+	 * The tag of a {@link Short}
+	 */
+	private static final byte SHORT = 3;
+
+	/**
+	 * The tag of a {@link Character}
+	 */
+	private static final byte CHAR = 4;
+
+	/**
+	 * The tag of an {@link Integer}
+	 */
+	private static final byte INT = 5;
+
+	/**
+	 * The tag of a {@link Long}
+	 */
+	private static final byte LONG = 6;
+
+	/**
+	 * The tag of a {@link Float}
+	 */
+	private static final byte FLOAT = 7;
+
+	/**
+	 * The tag of a {@link Double}
+	 */
+	private static final byte DOUBLE = 8;
+
+	/**
+	 * The tag of a {@link String}
+	 */
+	private static final byte STRING = 9;
+
+	/**
+	 * The tag of a byte array
+	 */
+	private static final byte BYTE_ARRAY = 10;
+
+	/**
+	 * The tag of an int array
+	 */
+	private static final byte INT_ARRAY = 11;
+
+	/**
+	 * The tag of a long array
+	 */
+	private static final byte LONG_ARRAY = 12;
+
+	/**
+	 * The tag of a float array
+	 */
+	private static final byte FLOAT_ARRAY = 13;
+
+	/**
+	 * The tag of a double array
+	 */
+	private static final byte DOUBLE_ARRAY = 14;
+
+	/**
+	 * The tag of a boolean array
+	 */
+	private static final byte BOOLEAN_ARRAY = 15;
+
+	/**
+	 * The tag of an Object array
+	 */
+	private static final byte OBJECT_ARRAY = 16;
+
+	/**
+	 * The tag of an {@link ArrayList}
+	 */
+	private static final byte ARRAY_LIST = 17;
+
+	/**
+	 * The tag of a {@link LinkedList}
+	 */
+	private static final byte LINKED_LIST = 18;
+
+	/**
+	 * The tag of a {@link HashSet}
+	 */
+	private static final byte HASH_SET = 19;
+
+	/**
+	 * The tag of a {@link LinkedHashSet}
+	 */
+	private static final byte LINKED_HASH_SET = 20;
+
+	/**
+	 * The tag of a {@link HashMap}
+	 */
+	private static final byte HASH_MAP = 21;
+
+	/**
+	 * The tag of a {@link LinkedHashMap}
+	 */
+	private static final byte LINKED_HASH_MAP = 22;
+
+	/**
+	 * The tag of a {@link JobResult}
+	 */
+	private static final byte JOB_RESULT = 23;
+
+	/**
+	 * The tag of a {@link GridCodable}
+	 */
+	private static final byte CODABLE = 24;
+
+	/**
+	 * The tag of a value written by Java serialization
+	 */
+	private static final byte JAVA = 25;
+
+	/**
+	 * The size of the scratch buffer the primitive arrays are written and read through
+	 */
+	private static final int CHUNK_SIZE = 8192;
+
+	///////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * The number of messages encoded before the class names are sent again
+	 */
+	private final int resetInterval;
+
+	/**
+	 * The number of messages encoded since the last reset
+	 */
+	private int numEncodedMessages;
+
+	/**
+	 * The ids of the {@link GridCodable} classes sent since the last reset
+	 */
+	private final Map<Class<?>, Integer> writtenClasses = new HashMap<Class<?>, Integer>();
+
+	/**
+	 * The names of the {@link GridCodable} classes received by id
+	 */
+	private final Map<Integer, String> readClassNames = new HashMap<Integer, String>();
+
+	/**
+	 * The {@link GridCodable} classes loaded by id, by the {@link ClassLoader} of the last loaded class
+	 */
+	private final Map<Integer, Class<?>> readClasses = new HashMap<Integer, Class<?>>();
+
+	/**
+	 * The {@link ClassLoader} of the loaded {@link GridCodable} classes
+	 */
+	private ClassLoader readClassesLoader;
+
+	/**
+	 * The output of the encoded messages, set to the stream of each message
+	 */
+	private final BinaryOutput output = new BinaryOutput(this, null);
+
+	/**
+	 * The input of the decoded messages, set to the stream of each message
+	 */
+	private final BinaryInput input = new BinaryInput(this, null, null);
+
+	/**
+	 * The buffer of the values written by Java serialization, preceded by their length
+	 */
+	private final ByteArrayOutputStream javaBuffer = new ByteArrayOutputStream();
+
+	/**
+	 * The Java serialization of the values of unknown types
+	 */
+	private final SessionCodec javaCodec;
+
+	/**
+	 * The scratch buffer a primitive array is written and read through, a chunk at a time
+	 */
+	private final ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+
+	/**
+	 * The int view of the scratch buffer
+	 */
+	private final IntBuffer intChunk = chunk.asIntBuffer();
+
+	/**
+	 * The long view of the scratch buffer
+	 */
+	private final LongBuffer longChunk = chunk.asLongBuffer();
+
+	/**
+	 * The float view of the scratch buffer
+	 */
+	private final FloatBuffer floatChunk = chunk.asFloatBuffer();
+
+	/**
+	 * The double view of the scratch buffer
+	 */
+	private final DoubleBuffer doubleChunk = chunk.asDoubleBuffer();
+
+	/**
+	 * The buffer the strings and the values written by Java serialization
+	 * are read into, grown to the largest value read
+	 */
+	private ByteBuffer readBuffer = ByteBuffer.allocate(CHUNK_SIZE);
+
+	/**
+	 * The input of the values written by Java serialization, set to the {@link #readBuffer}
+	 */
+	private final ByteBufferInputStream javaInput = new ByteBufferInputStream();
+
+	/**
+	 * Constructor passing the reset interval
+	 * @param resetInterval the number of messages encoded before the class names are sent again
+	 */
+	public BinarySerializer(int resetInterval)
+	{
+		if (resetInterval < 1)
+		{
+			throw new IllegalArgumentException("The reset interval must be at least one");
+		}
+		this.resetInterval = resetInterval;
+		this.javaCodec = new SessionCodec(resetInterval);
+	}
+
+	@Override
+	public void encode(Object object, OutputStream out) throws IOException
+	{
+		if (numEncodedMessages++ >= resetInterval)
+		{
+			writtenClasses.clear();
+			numEncodedMessages = 1;
+		}
+
+		output.setOutput(out);
+		boolean encoded = false;
+		try
+		{
+			writeValue(output, object);
+			output.flush();
+			encoded = true;
+		}
+		finally
+		{
+			output.setOutput(null);
+			if (!encoded)
+			{
+				// the message is dropped, the classes it named never reach the other side
+				reset();
+			}
+		}
+	}
+
+	/**
+	 * Forgets the classes named and the class descriptors sent, so the next message names them again
+	 */
+	@Override
+	public void reset()
+	{
+		writtenClasses.clear();
+		numEncodedMessages = 0;
+		javaCodec.reset();
+	}
+
+	@Override
+	public Object decode(InputStream in, ClassLoader loader) throws IOException, ClassNotFoundException
+	{
+		if (loader == null)
+		{
+			loader = getClass().getClassLoader();
+		}
+
+		input.setInput(in, loader);
+		try
+		{
+			return readValue(input);
+		}
+		catch (ClassNotFoundIOException e)
+		{
+			throw e.getCause();
+		}
+		finally
+		{
+			input.setInput(null, null);
+		}
+	}
+
+	/**
+	 * Writes a value tagged with its type
+	 * @param out the {@link BinaryOutput} where the value is written
+	 * @param value the value to be written
+	 * @throws IOException if the value could not be written
+	 */
+	void writeValue(BinaryOutput out, Object value) throws IOException
+	{
+		if (value == null)
+		{
+			out.writeByte(NULL);
+			return;
+		}
+
+		Class<?> type = value.getClass();
+		if (type == String.class)
+		{
+			out.writeByte(STRING);
+			writeBytes(out, ((String) value).getBytes(UTF_8));
+		}
+		else if (type == Integer.class)
+		{
+			out.writeByte(INT);
+			out.writeInt((Integer) value);
+		}
+		else if (type == Long.class)
+		{
+			out.writeByte(LONG);
+			out.writeLong((Long) value);
+		}
+		else if (type == Double.class)
+		{
+			out.writeByte(DOUBLE);
+			out.writeDouble((Double) value);
+		}
+		else if (type == Float.class)
+		{
+			out.writeByte(FLOAT);
+			out.writeFloat((Float) value);
+		}
+		else if (type == Boolean.class)
+		{
+			out.writeByte(BOOLEAN);
+			out.writeBoolean((Boolean) value);
+		}
+		else if (type == Byte.class)
+		{
+			out.writeByte(BYTE);
+			out.writeByte((Byte) value);
+		}
+		else if (type == Short.class)
+		{
+			out.writeByte(SHORT);
+			out.writeShort((Short) value);
+		}
+		else if (type == Character.class)
+		{
+			out.writeByte(CHAR);
+			out.writeChar((Character) value);
+		}
+		else if (type == byte[].class)
+		{
+			out.writeByte(BYTE_ARRAY);
+			writeBytes(out, (byte[]) value);
+		}
+		else if (type == int[].class)
+		{
+			out.writeByte(INT_ARRAY);
+			writeArray(out, value, ((int[]) value).length, 4);
+		}
+		else if (type == long[].class)
+		{
+			out.writeByte(LONG_ARRAY);
+			writeArray(out, value, ((long[]) value).length, 8);
+		}
+		else if (type == float[].class)
+		{
+			out.writeByte(FLOAT_ARRAY);
+			writeArray(out, value, ((float[]) value).length, 4);
+		}
+		else if (type == double[].class)
+		{
+			out.writeByte(DOUBLE_ARRAY);
+			writeArray(out, value, ((double[]) value).length, 8);
+		}
+		else if (type == boolean[].class)
+		{
+			out.writeByte(BOOLEAN_ARRAY);
+			writeArray(out, value, ((boolean[]) value).length, 1);
+		}
+		else if (type == Object[].class)
+		{
+			Object[] array = (Object[]) value;
+			out.writeByte(OBJECT_ARRAY);
+			out.writeInt(array.length);
+			for (Object element : array)
+			{
+				writeValue(out, element);
+			}
+		}
+		else if (type == ArrayList.class || type == LinkedList.class || type == HashSet.class || type == LinkedHashSet.class)
+		{
+			Collection<?> collection = (Collection<?>) value;
+			out.writeByte(type == ArrayList.class ? ARRAY_LIST : type == LinkedList.class ? LINKED_LIST : type == HashSet.class ? HASH_SET : LINKED_HASH_SET);
+			out.writeInt(collection.size());
+			for (Object element : collection)
+			{
+				writeValue(out, element);
+			}
+		}
+		else if (type == HashMap.class || type == LinkedHashMap.class)
+		{
+			Map<?, ?> map = (Map<?, ?>) value;
+			out.writeByte(type == HashMap.class ? HASH_MAP : LINKED_HASH_MAP);
+			out.writeInt(map.size());
+			for (Map.Entry<?, ?> entry : map.entrySet())
+			{
+				writeValue(out, entry.getKey());
+				writeValue(out, entry.getValue());
+			}
+		}
+		else if (type == JobResult.class)
+		{
+			JobResult jobResult = (JobResult) value;
+			out.writeByte(JOB_RESULT);
+			out.writeLong(jobResult.requestId);
+			writeValue(out, jobResult.missingBundleHash);
+			out.writeBoolean(jobResult.unread);
+			writeValue(out, jobResult.error);
+			writeValue(out, jobResult.object);
+		}
+		else if (value instanceof GridCodable)
+		{
+			out.writeByte(CODABLE);
+			writeClass(out, type);
+			((GridCodable) value).writeTo(out);
+		}
+		else
+		{
+			javaBuffer.reset();
+			javaCodec.encode(value, javaBuffer);
+			out.writeByte(JAVA);
+			out.writeInt(javaBuffer.size());
+			javaBuffer.writeTo(out);
+		}
+	}
+
+	/**
+	 * Reads a value tagged with its type
+	 * @param in the {@link BinaryInput} where the value is read from
+	 * @return the value read
+	 * @throws IOException if the value could not be read
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	Object readValue(BinaryInput in) throws IOException
+	{
+		byte tag = in.readByte();
+		switch (tag)
+		{
+			case NULL:
+				return null;
+			case STRING:
+			{
+				ByteBuffer bytes = readBuffered(in);
+				return new String(bytes.array(), 0, bytes.limit(), UTF_8);
+			}
+			case INT:
+				return in.readInt();
+			case LONG:
+				return in.readLong();
+			case DOUBLE:
+				return in.readDouble();
+			case FLOAT:
+				return in.readFloat();
+			case BOOLEAN:
+				return in.readBoolean();
+			case BYTE:
+				return in.readByte();
+			case SHORT:
+				return in.readShort();
+			case CHAR:
+				return in.readChar();
+			case BYTE_ARRAY:
+				return readBytes(in);
+			case INT_ARRAY:
+			{
+				int length = readLength(in, 4);
+				return readArray(in, new int[length], length, 4);
+			}
+			case LONG_ARRAY:
+			{
+				int length = readLength(in, 8);
+				return readArray(in, new long[length], length, 8);
+			}
+			case FLOAT_ARRAY:
+			{
+				int length = readLength(in, 4);
+				return readArray(in, new float[length], length, 4);
+			}
+			case DOUBLE_ARRAY:
+			{
+				int length = readLength(in, 8);
+				return readArray(in, new double[length], length, 8);
+			}
+			case BOOLEAN_ARRAY:
+			{
+				int length = readLength(in, 1);
+				return readArray(in, new boolean[length], length, 1);
+			}
+			case OBJECT_ARRAY:
+			{
+				Object[] array = new Object[in.readInt()];
+				for (int i = 0; i < array.length; i++)
+				{
+					array[i] = readValue(in);
+				}
+				return array;
+			}
+			case ARRAY_LIST:
+			case LINKED_LIST:
+			case HASH_SET:
+			case LINKED_HASH_SET:
+			{
+				int size = in.readInt();
+				Collection collection = tag == ARRAY_LIST ? new ArrayList(size) : tag == LINKED_LIST ? new LinkedList() : tag == HASH_SET ? new HashSet(size * 2) : new LinkedHashSet(size * 2);
+				for (int i = 0; i < size; i++)
+				{
+					collection.add(readValue(in));
+				}
+				return collection;
+			}
+			case HASH_MAP:
+			case LINKED_HASH_MAP:
+			{
+				int size = in.readInt();
+				Map map = tag == HASH_MAP ? new HashMap(size * 2) : new LinkedHashMap(size * 2);
+				for (int i = 0; i < size; i++)
+				{
+					Object key = readValue(in);
+					map.put(key, readValue(in));
+				}
+				return map;
+			}
+			case JOB_RESULT:
+			{
+				long requestId = in.readLong();
+				String missingBundleHash = (String) readValue(in);
+				boolean unread = in.readBoolean();
+				String error = (String) readValue(in);
+				JobResult jobResult = new JobResult(requestId, readValue(in));
+				jobResult.missingBundleHash = missingBundleHash;
+				jobResult.unread = unread;
+				jobResult.error = error;
+				return jobResult;
+			}
+			case CODABLE:
+			{
+				GridCodable codable = newCodable(readClass(in));
+				codable.readFrom(in);
+				return codable;
+			}
+			case JAVA:
+			{
+				try
+				{
+					javaInput.reset(readBuffered(in));
+					return javaCodec.decode(javaInput, in.getLoader());
+				}
+				catch (ClassNotFoundException e)
+				{
+					throw new ClassNotFoundIOException(e);
+				}
+			}
+			default:
+				throw new StreamCorruptedException("Unknown type tag: " + tag);
+		}
+	}
+
+	/**
+	 * Writes an array of bytes preceded by its length
+	 * @param out the {@link BinaryOutput} where the bytes are written
+	 * @param bytes the bytes to be written
+	 * @throws IOException if the bytes could not be written
+	 */
+	private void writeBytes(BinaryOutput out, byte[] bytes) throws IOException
+	{
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Reads an array of bytes preceded by its length
+	 * @param in the {@link BinaryInput} where the bytes are read from
+	 * @return the bytes read
+	 * @throws IOException if the bytes could not be read
+	 */
+	private byte[] readBytes(BinaryInput in) throws IOException
+	{
+		byte[] bytes = new byte[readLength(in, 1)];
+		in.readFully(bytes);
+		return bytes;
+	}
+
+	/**
+	 * Reads an array of bytes preceded by its length into the {@link #readBuffer},
+	 * grown when the bytes do not fit
+	 * @param in the {@link BinaryInput} where the bytes are read from
+	 * @return the {@link #readBuffer}, from its start to the end of the bytes read
+	 * @throws IOException if the bytes could not be read
+	 */
+	private ByteBuffer readBuffered(BinaryInput in) throws IOException
+	{
+		int length = readLength(in, 1);
+		if (length > readBuffer.capacity())
+		{
+			readBuffer = ByteBuffer.allocate(length);
+		}
+		in.readFully(readBuffer.array(), 0, length);
+		readBuffer.clear();
+		readBuffer.limit(length);
+		return readBuffer;
+	}
+
+	/**
+	 * Writes a primitive array preceded by its length in bytes, a chunk at a time
+	 * through the scratch buffer, each element big endian and each boolean a byte
+	 * @param out the {@link BinaryOutput} where the array is written
+	 * @param array the primitive array to be written
+	 * @param length the number of elements of the array
+	 * @param elementSize the number of bytes of an element
+	 * @throws IOException if the array could not be written
+	 */
+	private void writeArray(BinaryOutput out, Object array, int length, int elementSize) throws IOException
+	{
+		out.writeInt(length * elementSize);
+		int chunkLength = CHUNK_SIZE / elementSize;
+		for (int offset = 0; offset < length; offset += chunkLength)
+		{
+			int count = Math.min(chunkLength, length - offset);
+			if (array instanceof int[])
+			{
+				intChunk.clear();
+				intChunk.put((int[]) array, offset, count);
+			}
+			else if (array instanceof long[])
+			{
+				longChunk.clear();
+				longChunk.put((long[]) array, offset, count);
+			}
+			else if (array instanceof float[])
+			{
+				floatChunk.clear();
+				floatChunk.put((float[]) array, offset, count);
+			}
+			else if (array instanceof double[])
+			{
+				doubleChunk.clear();
+				doubleChunk.put((double[]) array, offset, count);
+			}
+			else
+			{
+				putBooleans((boolean[]) array, offset, count);
+			}
+			out.write(chunk.array(), 0, count * elementSize);
+		}
+	}
+
+	/**
+	 * Reads the elements of a primitive array written by
+	 * {@link #writeArray(BinaryOutput, Object, int, int)}, a chunk at a time
+	 * through the scratch buffer
+	 * @param in the {@link BinaryInput} where the array is read from
+	 * @param array the primitive array to be filled
+	 * @param length the number of elements of the array
+	 * @param elementSize the number of bytes of an element
+	 * @return the array filled
+	 * @throws IOException if the array could not be read
+	 */
+	private Object readArray(BinaryInput in, Object array, int length, int elementSize) throws IOException
+	{
+		int chunkLength = CHUNK_SIZE / elementSize;
+		for (int offset = 0; offset < length; offset += chunkLength)
+		{
+			int count = Math.min(chunkLength, length - offset);
+			in.readFully(chunk.array(), 0, count * elementSize);
+			if (array instanceof int[])
+			{
+				intChunk.clear();
+				intChunk.get((int[]) array, offset, count);
+			}
+			else if (array instanceof long[])
+			{
+				longChunk.clear();
+				longChunk.get((long[]) array, offset, count);
+			}
+			else if (array instanceof float[])
+			{
+				floatChunk.clear();
+				floatChunk.get((float[]) array, offset, count);
+			}
+			else if (array instanceof double[])
+			{
+				doubleChunk.clear();
+				doubleChunk.get((double[]) array, offset, count);
+			}
+			else
+			{
+				getBooleans((boolean[]) array, offset, count);
+			}
+		}
+		return array;
+	}
+
+	/**
+	 * Puts booleans in the scratch buffer, a byte each
+	 * @param booleans the booleans to be put
+	 * @param offset the index of the first boolean to be put
+	 * @param count the number of booleans to be put
+	 */
+	private void putBooleans(boolean[] booleans, int offset, int count)
+	{
+		byte[] bytes = chunk.array();
+		for (int i = 0; i < count; i++)
+		{
+			bytes[i] = (byte) (booleans[offset + i] ? 1 : 0);
+		}
+	}
+
+	/**
+	 * Gets booleans from the scratch buffer, a byte each
+	 * @param booleans the booleans to be filled
+	 * @param offset the index of the first boolean to be filled
+	 * @param count the number of booleans to be filled
+	 */
+	private void getBooleans(boolean[] booleans, int offset, int count)
+	{
+		byte[] bytes = chunk.array();
+		for (int i = 0; i < count; i++)
+		{
+			booleans[offset + i] = bytes[i] != 0;
+		}
+	}
+
+	/**
+	 * Reads the length in bytes of an array and turns it into its number of elements
+	 * @param in the {@link BinaryInput} where the length is read from
+	 * @param elementSize the number of bytes of an element
+	 * @return the number of elements of the array
+	 * @throws IOException if the length could not be read or is not a number of elements
+	 */
+	private int readLength(BinaryInput in, int elementSize) throws IOException
+	{
+		int length = in.readInt();
+		if (length < 0 || length % elementSize != 0)
+		{
+			throw new StreamCorruptedException("Invalid length: " + length);
+		}
+		return length / elementSize;
+	}
+
+	/**
+	 * Writes the id of a {@link GridCodable} class, with its name the first time
+	 * @param out the {@link BinaryOutput} where the class is written
+	 * @param type the class to be written
+	 * @throws IOException if the class could not be written
+	 */
+	private void writeClass(BinaryOutput out, Class<?> type) throws IOException
+	{
+		Integer id = writtenClasses.get(type);
+		if (id != null)
+		{
+			out.writeInt(id);
+			out.writeBoolean(false);
+			return;
+		}
+
+		id = writtenClasses.size();
+		writtenClasses.put(type, id);
+		out.writeInt(id);
+		out.writeBoolean(true);
+		out.writeUTF(type.getName());
+	}
+
+	/**
+	 * Reads the id of a {@link GridCodable} class, loading the class the first time
+	 * by the {@link ClassLoader} of the message. The name of the class is kept even
+	 * when the class could not be loaded, so the next messages can refer to it
+	 * @param in the {@link BinaryInput} where the class is read from
+	 * @return the class read
+	 * @throws IOException if the class could not be read or loaded
+	 */
+	private Class<?> readClass(BinaryInput in) throws IOException
+	{
+		int id = in.readInt();
+		if (in.readBoolean())
+		{
+			readClassNames.put(id, in.readUTF());
+			readClasses.remove(id);
+		}
+
+		if (in.getLoader() != readClassesLoader)
+		{
+			readClasses.clear();
+			readClassesLoader = in.getLoader();
+		}
+
+		Class<?> type = readClasses.get(id);
+		if (type != null)
+		{
+			return type;
+		}
+
+		String className = readClassNames.get(id);
+		if (className == null)
+		{
+			throw new UnknownDescriptorException("Unknown class id: " + id);
+		}
+		try
+		{
+			type = Class.forName(className, false, in.getLoader());
+		}
+		catch (ClassNotFoundException e)
+		{
+			throw new ClassNotFoundIOException(e);
+		}
+		readClasses.put(id, type);
+		return type;
+	}
+
+	/**
+	 * Creates a {@link GridCodable} by its constructor without arguments
+	 * @param type the {@link GridCodable} class
+	 * @return a new instance of the class
+	 * @throws IOException if the instance could not be created
+	 */
+	private GridCodable newCodable(Class<?> type) throws IOException
+	{
+		try
+		{
+			Constructor<?> constructor = type.getDeclaredConstructor();
+			constructor.setAccessible(true);
+			return (GridCodable) constructor.newInstance();
+		}
+		catch (Exception e)
+		{
+			IOException ioException = new IOException("Could not create the GridCodable: " + type.getName());
+			ioException.initCause(e);
+			throw ioException;
+		}
+	}
+
+	/**
+	 * Carries a {@link ClassNotFoundException} through the methods that only throw {@link IOException}
+	 */
+	private static class ClassNotFoundIOException extends IOException
+	{
+		/**
+		 * Default serial version UID
+		 */
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * Constructor passing the cause
+		 * @param cause the {@link ClassNotFoundException} carried
+		 */
+		private ClassNotFoundIOException(ClassNotFoundException cause)
+		{
+			super(cause.getMessage());
+			initCause(cause);
+		}
+
+		@Override
+		public synchronized ClassNotFoundException getCause()
+		{
+			return (ClassNotFoundException) super.getCause();
+		}
+	}
+}
@@ -0,0 +1,55 @@
+/*
+ * This source file is part of Grideasy
+ * For the latest info, see https://code.google.com/p/grideasy/
+ * 
+ * Grideasy is free software: you can redistribute it
+ * and/or modify it under the terms of the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.grideasy.client.serializer;
+
+import java.io.IOException;
+
+/**
+ * An object that writes and reads its own fields with the {@link BinarySerializer},
+ * instead of going through Java serialization.
+ * A {@link com.grideasy.client.GridJob} or a result implementing it is sent as
+ * its class id followed by the bytes it writes, the class must have a
+ * constructor without arguments, used to create the instance that reads them
+ *
+ * @author Felipe Santos
+ * @email felchs@gmail.com
+ */
+public interface GridCodable
+{
+	/**
+	 * Writes the fields of this object
+	 * @param out the {@link BinaryOutput} where the fields are written
+	 * @throws IOException if a field could not be written
+	 */
+	void writeTo(BinaryOutput out) throws IOException;
+
+	/**
+	 * Reads the fields of this object, in the order they were written
+	 * @param in the {@link BinaryInput} where the fields are read from
+	 * @throws IOException if a field could not be read
+	 */
+	void readFrom(BinaryInput in) throws IOException;
+}
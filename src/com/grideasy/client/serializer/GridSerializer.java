@@ -0,0 +1,69 @@
+/*
+ * This source file is part of Grideasy
+ * For the latest info, see https://code.google.com/p/grideasy/
+ * 
+ * Grideasy is free software: you can redistribute it
+ * and/or modify it under the terms of the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.grideasy.client.serializer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Serializes the jobs and the results of a connection between the grid
+ * server and a {@link com.grideasy.client.GridClient}.
+ * An instance belongs to a single connection, so it can keep state for the
+ * lifetime of the connection. The encoding and the decoding are independent:
+ * each one must be used by a single thread at a time.
+ * The messages are written to and read from streams over the buffers of
+ * the frames, so a message is never copied to an array of its own.
+ *
+ * @author Felipe Santos
+ * @email felchs@gmail.com
+ */
+public interface GridSerializer
+{
+	/**
+	 * Encodes the object of a message
+	 * @param object the object of the message
+	 * @param out the stream where the bytes of the message are written
+	 * @throws IOException if the object could not be serialized
+	 */
+	void encode(Object object, OutputStream out) throws IOException;
+
+	/**
+	 * Forgets the state kept by the encoding, so the next message
+	 * refers to nothing sent before it, as the first one of the connection
+	 */
+	void reset();
+
+	/**
+	 * Decodes the object of a message
+	 * @param in the stream of the bytes of the message, ending with the message
+	 * @param loader the {@link ClassLoader} of the classes of the object or null for the default one
+	 * @return the object of the message
+	 * @throws IOException if the object could not be deserialized
+	 * @throws ClassNotFoundException if a class of the object was not found
+	 */
+	Object decode(InputStream in, ClassLoader loader) throws IOException, ClassNotFoundException;
+}
@@ -0,0 +1,51 @@
+/*
+ * This source file is part of Grideasy
+ * For the latest info, see https://code.google.com/p/grideasy/
+ * 
+ * Grideasy is free software: you can redistribute it
+ * and/or modify it under the terms of the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.grideasy.client.serializer;
+
+/**
+ * Provides a kind of {@link GridSerializer}, known by its name on both sides
+ * of a connection. Providers besides the built-in ones are registered in the
+ * {@link Serializers} or found as services, listing their classes in a
+ * META-INF/services/com.grideasy.client.serializer.SerializerProvider file
+ *
+ * @author Felipe Santos
+ * @email felchs@gmail.com
+ */
+public interface SerializerProvider
+{
+	/**
+	 * Gets the name of the serializer, agreed by the server and the client at connection time
+	 * @return the name of the serializer
+	 */
+	String getName();
+
+	/**
+	 * Creates a serializer for a new connection
+	 * @param resetInterval the number of messages encoded before the cached class information is sent again
+	 * @return a new {@link GridSerializer}
+	 */
+	GridSerializer newSerializer(int resetInterval);
+}
@@ -0,0 +1,234 @@
+/*
+ * This source file is part of Grideasy
+ * For the latest info, see https://code.google.com/p/grideasy/
+ * 
+ * Grideasy is free software: you can redistribute it
+ * and/or modify it under the terms of the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.grideasy.client.serializer;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+import com.grideasy.client.SessionCodec;
+
+/**
+ * The registry of the {@link SerializerProvider}'s known by this JVM.
+ * The built-in providers are the {@link BinarySerializer} and the Java
+ * serialization of the {@link SessionCodec}, the fallback every side knows.
+ * The server and a client agree on a serializer when the client connects:
+ * the client offers the names it knows, in its order of preference, and the
+ * server picks the first one of its own preference the client offered
+ *
+ * @author Felipe Santos
+ * @email felchs@gmail.com
+ */
+public class Serializers
+{
+	/**
+	 * The name of the Java serialization, known by every side
+	 */
+	public static final String JAVA = "java";
+
+	/**
+	 * The default preference of serializers: the Java serialization keeps
+	 * the shared references and the cycles of any object graph, so the
+	 * {@link BinarySerializer} is used only when the server puts it first
+	 */
+	public static final String DEFAULT_PREFERENCE = JAVA + "," + BinarySerializer.NAME;
+
+	/**
+	 * Singleton instance
+	 */
+	private static Serializers instance;
+
+	/**
+	 * Gets the singleton instance
+	 * @return the singleton instance
+	 */
+	public static synchronized Serializers getInstance()
+	{
+		if (instance == null)
+		{
+			instance = new Serializers();
+		}
+
+		return instance;
+	}
+
+	/**
+	 * Parses a comma separated preference of serializers
+	 * @param preference the comma separated names of serializers
+	 * @return the names of the serializers in the order of preference
+	 */
+	public static List<String> parsePreference(String preference)
+	{
+		List<String> names = new ArrayList<String>();
+		for (String name : preference.split(","))
+		{
+			name = name.trim();
+			if (name.length() > 0)
+			{
+				names.add(name);
+			}
+		}
+		return names;
+	}
+
+	///////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * The providers by name
+	 */
+	private final Map<String, SerializerProvider> providers = new LinkedHashMap<String, SerializerProvider>();
+
+	/**
+	 * Constructor: registers the built-in providers and the ones found as services
+	 */
+	private Serializers()
+	{
+		register(new SerializerProvider()
+		{
+			@Override
+			public String getName()
+			{
+				return BinarySerializer.NAME;
+			}
+
+			@Override
+			public GridSerializer newSerializer(int resetInterval)
+			{
+				return new BinarySerializer(resetInterval);
+			}
+		});
+
+		register(new SerializerProvider()
+		{
+			@Override
+			public String getName()
+			{
+				return JAVA;
+			}
+
+			@Override
+			public GridSerializer newSerializer(int resetInterval)
+			{
+				return new SessionCodec(resetInterval);
+			}
+		});
+
+		Iterator<SerializerProvider> it = ServiceLoader.load(SerializerProvider.class).iterator();
+		while (true)
+		{
+			try
+			{
+				if (!it.hasNext())
+				{
+					break;
+				}
+				register(it.next());
+			}
+			catch (ServiceConfigurationError e)
+			{
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Registers a {@link SerializerProvider}, replacing the one with the same name
+	 * @param provider the {@link SerializerProvider} to be registered
+	 */
+	public synchronized void register(SerializerProvider provider)
+	{
+		providers.put(provider.getName(), provider);
+	}
+
+	/**
+	 * Gets whether a serializer is known or not
+	 * @param name the name of the serializer
+	 * @return whether the serializer is known or not
+	 */
+	public synchronized boolean isKnown(String name)
+	{
+		return providers.containsKey(name);
+	}
+
+	/**
+	 * Gets the known serializers of a preference, in its order
+	 * @param preference the names of the serializers in the order of preference
+	 * @return the names of the known serializers of the preference
+	 */
+	public synchronized List<String> getKnown(List<String> preference)
+	{
+		List<String> names = new ArrayList<String>();
+		for (String name : preference)
+		{
+			if (providers.containsKey(name))
+			{
+				names.add(name);
+			}
+		}
+		return names;
+	}
+
+	/**
+	 * Chooses the serializer of a connection: the first one of the
+	 * preference that is offered by the other side and known here,
+	 * the Java serialization when there is none
+	 * @param preference the names of the serializers in the order of preference of this side
+	 * @param offered the names of the serializers offered by the other side
+	 * @return the name of the chosen serializer
+	 */
+	public synchronized String choose(List<String> preference, List<String> offered)
+	{
+		for (String name : preference)
+		{
+			if (offered.contains(name) && providers.containsKey(name))
+			{
+				return name;
+			}
+		}
+		return JAVA;
+	}
+
+	/**
+	 * Creates a serializer for a new connection
+	 * @param name the name of the serializer
+	 * @param resetInterval the number of messages encoded before the cached class information is sent again
+	 * @return a new {@link GridSerializer}
+	 * @throws IllegalArgumentException if the serializer is not known
+	 */
+	public synchronized GridSerializer newSerializer(String name, int resetInterval)
+	{
+		SerializerProvider provider = providers.get(name);
+		if (provider == null)
+		{
+			throw new IllegalArgumentException("Unknown serializer: " + name);
+		}
+		return provider.newSerializer(resetInterval);
+	}
+}
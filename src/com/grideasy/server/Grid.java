@@ -26,6 +26,7 @@
 package com.grideasy.server;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -53,7 +54,7 @@ public class Grid
 	 * @return the instance of the grid
 	 * @throws IOException
 	 */
-	public static Grid getInstance() throws IOException
+	public static synchronized Grid getInstance() throws IOException
 	{
 		if (instance == null)
 		{
@@ -97,6 +98,82 @@ public class Grid
 		
 		return task.execute();
 	}
+	
+	/**
+	 * Execute a task on a previous mapped grid, waiting for it until a timeout.
+	 * When the task does not complete in time, the outcome holds the partial
+	 * result of the jobs completed until then
+	 * 
+	 * @param task the {@link GridTask} to be executed 
+	 * @param argsParams the arguments of the task
+	 * @param timeoutMillis the maximum time to wait, in milliseconds
+	 * @return the outcome of the task, complete or timed out
+	 * 
+	 * @throws IOException
+	 */
+	public static GridTaskOutcome execute(GridTask task, Object[] argsParams, long timeoutMillis) throws IOException
+	{
+		List<GridNode> gridNodeList = getInstance().getGridNodeList();
+
+		Map<GridJob, GridNode> jobsMap = task.map(gridNodeList, argsParams);
+		task.setJobsMap(jobsMap);
+		
+		return task.execute(timeoutMillis);
+	}
+	
+	/**
+	 * Execute a task on a previous mapped grid without waiting for it.
+	 * No thread is held while the jobs run: the returned {@link GridTaskFuture}
+	 * is completed by the thread that reduces the last job result
+	 * 
+	 * @param task the {@link GridTask} to be executed 
+	 * @param argsParams the arguments of the task
+	 * @return the pending result of the task
+	 * 
+	 * @throws IOException
+	 */
+	public static GridTaskFuture executeAsync(GridTask task, Object[] argsParams) throws IOException
+	{
+		return executeAsync(task, argsParams, getInstance().getGridNodeList());
+	}
+	
+	/**
+	 * Execute many tasks on a previous mapped grid without waiting for them,
+	 * all mapped on the same {@link GridNode}'s
+	 * 
+	 * @param tasks the {@link GridTask}'s to be executed 
+	 * @param argsParams the arguments of the tasks
+	 * @return the pending results of the tasks, in the order of the tasks
+	 * 
+	 * @throws IOException
+	 */
+	public static List<GridTaskFuture> executeAsync(List<? extends GridTask> tasks, Object[] argsParams) throws IOException
+	{
+		List<GridNode> gridNodeList = getInstance().getGridNodeList();
+		
+		List<GridTaskFuture> futures = new ArrayList<GridTaskFuture>(tasks.size());
+		for (GridTask task : tasks)
+		{
+			futures.add(executeAsync(task, argsParams, gridNodeList));
+		}
+		return futures;
+	}
+	
+	/**
+	 * Maps a task on the given {@link GridNode}'s and executes it without waiting for it
+	 * 
+	 * @param task the {@link GridTask} to be executed 
+	 * @param argsParams the arguments of the task
+	 * @param gridNodeList the {@link GridNode}'s of the grid
+	 * @return the pending result of the task
+	 */
+	private static GridTaskFuture executeAsync(GridTask task, Object[] argsParams, List<GridNode> gridNodeList)
+	{
+		Map<GridJob, GridNode> jobsMap = task.map(gridNodeList, argsParams);
+		task.setJobsMap(jobsMap);
+		
+		return task.executeAsync();
+	}
 
 	///////////////////////////////////////////////////////////////////////////
 	
@@ -135,12 +212,21 @@ public class Grid
 	}
 	
 	/**
-	 * Starts the {@link Grid} mapping the associated {@link GridNode} 
+	 * Starts the {@link Grid} mapping the associated {@link GridNode}.
+	 * The local nodes run in the process of the {@link GridServer} unless
+	 * they are configured to connect by socket
 	 */
 	public void startUp()
 	{
-		int numNodes = ServerHostProperties.getInstance().getNumLocalNodes();
-		LocalGrids.getInstance().initNewLocalGridNode(numNodes);
+		if (ServerHostProperties.getInstance().isInProcessLocalNodes())
+		{
+			LocalGrids.getInstance().initInProcessGridNodes(gridServer.getLocalNodeList());
+		}
+		else
+		{
+			int numNodes = ServerHostProperties.getInstance().getNumLocalNodes();
+			LocalGrids.getInstance().initNewLocalGridNode(numNodes);
+		}
 		int minNodesToStart = ServerHostProperties.getInstance().getMinNodesToStart();
 		gridServer.waitForNodesStart(minNodesToStart);
 	}
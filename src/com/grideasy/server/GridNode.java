@@ -25,22 +25,41 @@
  */
 package com.grideasy.server;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.OutputStream;
 import java.nio.ByteBuffer;
-import java.rmi.server.ServerCloneException;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
+import com.grideasy.client.ClientHostProperties;
 import com.grideasy.client.GridJob;
+import com.grideasy.client.GridProtocol;
+import com.grideasy.client.JobExecutionEngine;
 import com.grideasy.client.JobResult;
-import com.grideasy.server.loader.JarBuilder;
+import com.grideasy.client.JobResultListener;
+import com.grideasy.client.io.BufferPool;
+import com.grideasy.client.io.ByteBufferInputStream;
+import com.grideasy.client.io.ByteBufferOutputStream;
+import com.grideasy.client.io.FrameCompression;
+import com.grideasy.client.serializer.GridSerializer;
+import com.grideasy.client.serializer.Serializers;
+import com.grideasy.server.loader.CodeBundle;
+import com.grideasy.server.loader.CodeBundleCache;
+import com.grideasy.server.nio.Connection;
+import com.grideasy.server.nio.ConnectionListener;
 
 /**
  * GridNode represents a instance or processing
@@ -49,7 +68,11 @@ import com.grideasy.server.loader.JarBuilder;
  * The nodes can be located locally or can be put in different machines allowing you
  * to distribute processing power.
  * The communications between {@link GridNode} and {@link GridServer} is
- * done using a socket connection.
+ * done using a {@link Connection}: a non-blocking socket, whose reads and
+ * writes are done by an event loop shared with other {@link GridNode}'s, or
+ * a shared memory segment of a client of the same host, polled by its own thread.
+ * A local node can run in the process of the {@link GridServer} instead:
+ * its jobs are handed as objects to the threads of a {@link JobExecutionEngine}.
  * The host and port configuration is found by default in 
  * the file /config/gridservermapproperties
  * The GridNode get all the the java code located in the {@link GridServer} and distribute
@@ -62,25 +85,164 @@ import com.grideasy.server.loader.JarBuilder;
  * @author Felipe Santos
  * @email felchs@gmail.com
  */
-public class GridNode
+public class GridNode implements ConnectionListener
 {
 	/**
 	 * The packages which the {@link GridServer} will pass trhough the {@link GridNode}
+	 * with the jobs of every task, besides the packages of the task of the jobs
 	 */
-	private Set<String> packageNames = new HashSet<String>();
+	private Set<String> packageNames = new CopyOnWriteArraySet<String>();
 	
 	/**
-	 * Whether this {@link GridNode} instance is available for a new {@link GridJob} or not
+	 * The hashes of the code bundles already received by the client of this {@link GridNode}
 	 */
-	private boolean available = true;
+	private Set<String> acknowledgedBundles = Collections.synchronizedSet(new HashSet<String>());
 	
 	/**
-	 * The {@link ServerSocketConnection} maintained by this instance 
+	 * The number of frames of jobs that can still be written on the connection of this {@link GridNode},
+	 * each frame a batch of jobs of a task, or the number of jobs of a node in the process of the server.
+	 * It opens when the client tells its parallelism and is only changed by the I/O thread
 	 */
-	private ServerSocketConnection serverSocketConnection = new ServerSocketConnection();
+	private volatile int jobWindow;
 	
 	/**
-	 * {@link ExecutorService} used to spread jobs 
+	 * The number of jobs the client of this {@link GridNode} executes at the same time,
+	 * zero until the client tells it
+	 */
+	private volatile int parallelism;
+	
+	/**
+	 * The jobs in flight on the connection of this {@link GridNode} by request id
+	 */
+	private Map<Long, JobDispatch> inFlightJobs = new ConcurrentHashMap<Long, JobDispatch>();
+	
+	/**
+	 * The id of the next request written on the connection
+	 */
+	private AtomicLong nextRequestId = new AtomicLong();
+	
+	/**
+	 * The {@link JobScheduler} holding the jobs waiting to be written on this {@link GridNode}
+	 */
+	private final JobScheduler scheduler;
+	
+	/**
+	 * Whether the writing of the pending jobs is scheduled on the I/O thread or not
+	 */
+	private final AtomicBoolean dispatchScheduled = new AtomicBoolean();
+	
+	/**
+	 * Writes the pending jobs on the I/O thread
+	 */
+	private final Runnable dispatchTask = new Runnable()
+	{
+		@Override
+		public void run()
+		{
+			dispatchScheduled.set(false);
+			dispatchJobs();
+		}
+	};
+	
+	/**
+	 * The {@link Connection} of this instance, null until the client connects
+	 */
+	private volatile Connection connection;
+	
+	/**
+	 * The {@link GridSerializer} of the connection, agreed with the client
+	 * when it says hello and used by the I/O thread
+	 */
+	private GridSerializer codec;
+	
+	/**
+	 * Whether the {@link GridSerializer} of the connection was reset since the last batch
+	 * of jobs was written, so the next batch is flagged. Used by the I/O thread
+	 */
+	private boolean codecReset;
+	
+	/**
+	 * The {@link FrameCompression} of the connection, agreed with the client
+	 * when it says hello, null if the frames are not compressed
+	 */
+	private FrameCompression compression;
+	
+	/**
+	 * The stream of the headers of the frames written by the I/O thread
+	 */
+	private ByteBufferOutputStream headerStream;
+	
+	/**
+	 * The primitives of the headers of the frames written by the I/O thread
+	 */
+	private DataOutputStream headerOutput;
+	
+	/**
+	 * The stream of the payloads of the frames written by the I/O thread
+	 */
+	private ByteBufferOutputStream payloadStream;
+	
+	/**
+	 * The primitives of the payloads of the frames written by the I/O thread
+	 */
+	private DataOutputStream payloadOutput;
+	
+	/**
+	 * The stream of the frames read by the I/O thread
+	 */
+	private final ByteBufferInputStream frameStream = new ByteBufferInputStream();
+	
+	/**
+	 * The primitives of the frames read by the I/O thread
+	 */
+	private final DataInputStream frameInput = new DataInputStream(frameStream);
+	
+	/**
+	 * The {@link JobExecutionEngine} of a node in the process of the server, null for a connected node
+	 */
+	private volatile JobExecutionEngine localEngine;
+	
+	/**
+	 * Lock of the writing of the jobs of a node in the process of the server
+	 */
+	private final Object localDispatchLock = new Object();
+	
+	/**
+	 * The {@link GridSerializer} copying the jobs of a node in the process of the server, null without isolation
+	 */
+	private GridSerializer localJobCopier;
+	
+	/**
+	 * The {@link GridSerializer} copying the results of a node in the process of the server, null without isolation
+	 */
+	private GridSerializer localResultCopier;
+	
+	/**
+	 * The {@link GridSerializer} copying the jobs duplicated as stragglers on a node in the process
+	 * of the server without isolation, so two threads never run the same job instance
+	 */
+	private GridSerializer speculativeJobCopier;
+	
+	/**
+	 * Listens the results of the {@link JobExecutionEngine} of a node in the process of the server
+	 */
+	private final JobResultListener localResultListener = new JobResultListener()
+	{
+		@Override
+		public void onJobResult(JobResult jobResult)
+		{
+			onLocalJobResult(jobResult);
+		}
+		
+		@Override
+		public void onJobError(long requestId, Throwable e)
+		{
+			onLocalJobError(requestId, e);
+		}
+	};
+	
+	/**
+	 * {@link ExecutorService} used to handle the jobs results
 	 */
 	private ExecutorService executor;
 	
@@ -92,17 +254,32 @@ public class GridNode
 	/**
 	 * Whether this {@link GridNode} instance of closed or not
 	 */
-	private boolean closed;
+	private volatile boolean closed;
 
 	/**
 	 * Constructor passing params
+	 * The node has its own {@link JobScheduler}, so its jobs are not
+	 * stolen by other nodes
 	 *  
-	 * @param executor {@link ExecutorService} for jobs processing
+	 * @param executor {@link ExecutorService} for jobs results processing
 	 * @param localNode whether this node is local or not  
 	 */
 	public GridNode(ExecutorService executor, boolean localNode)
+	{
+		this(executor, new JobScheduler(), localNode);
+	}
+	
+	/**
+	 * Constructor passing params
+	 *  
+	 * @param executor {@link ExecutorService} for jobs results processing
+	 * @param scheduler the {@link JobScheduler} shared by the nodes that steal jobs from each other
+	 * @param localNode whether this node is local or not  
+	 */
+	public GridNode(ExecutorService executor, JobScheduler scheduler, boolean localNode)
 	{
 		this.executor = executor;
+		this.scheduler = scheduler;
 		this.localNode = localNode;
 	}
 	
@@ -120,15 +297,6 @@ public class GridNode
 		packageNames.add(packageName);
 	}
 	
-	/**
-	 * Returns whether this {@link GridNode} is available for a new {@link GridJob} or not
-	 * @param whether this {@link GridNode} is available for a new {@link GridJob} or not
-	 */
-	public synchronized void setAvailable(boolean available)
-	{
-		this.available = available;
-	}
-	
 	/**
 	 * Whether this {@link GridJob} is local to the {@link GridServer} instance or not
 	 * @return
@@ -140,21 +308,41 @@ public class GridNode
 	
 	/**
 	 * Check if this {@link GridNode} is available or not.
-	 * If the {@link GridNode} is available it sets to not available
-	 * because a new {@link GridJob} is going to be processed.
+	 * A {@link GridNode} is available while it has less jobs
+	 * in flight than its job window allows
 	 * 
 	 * @return whether this {@link GridNode} is available or not
 	 */
-	public synchronized boolean checkAndSetIsAvailable()
+	public boolean isAvailable()
 	{
-		boolean availableRet = available;
-		
-		if (available)
-		{
-			setAvailable(false);
-		}
-		
-		return availableRet;
+		return jobWindow > 0;
+	}
+	
+	/**
+	 * Gets the number of jobs the client of this {@link GridNode} executes at the same time
+	 * @return the number of jobs the client of this {@link GridNode} executes at the same time
+	 */
+	public int getParallelism()
+	{
+		return parallelism;
+	}
+	
+	/**
+	 * Gets the number of jobs in flight on the connection of this {@link GridNode}
+	 * @return the number of jobs in flight on the connection of this {@link GridNode}
+	 */
+	public int getNumJobsInFlight()
+	{
+		return inFlightJobs.size();
+	}
+	
+	/**
+	 * Gets the number of jobs waiting to be written on the connection of this {@link GridNode}
+	 * @return the number of jobs waiting to be written on the connection of this {@link GridNode}
+	 */
+	public int getNumPendingJobs()
+	{
+		return scheduler.getNumPendingJobs(this);
 	}
 
 	/**
@@ -176,45 +364,73 @@ public class GridNode
 	}
 
 	/**
-	 * Starts up this {@link GridNode} maintaining a connection
-	 * with the {@link GridServer} through a {@link ServerSocketConnection}
-	 */
-	public void startUp()
-	{
-		serverSocketConnection.accept();
-	}
-	
-	/**
-	 * Returns the {@link DataOutputStream} of a {@link ServerSocketConnection} of this {@link GridNode}
-	 * @return the {@link DataOutputStream} of a {@link ServerSocketConnection} of this {@link GridNode}
-	 * @throws IOException
+	 * Starts up this {@link GridNode} with the connection of its client,
+	 * accepted by the {@link GridServer}
+	 * @param connection the {@link Connection} of the client
 	 */
-	private DataOutputStream getOuputStream() throws IOException
+	public void startUp(Connection connection)
 	{
-		return serverSocketConnection.getClientOuputStream();
+		BufferPool bufferPool = connection.getBufferPool();
+		headerStream = new ByteBufferOutputStream(bufferPool);
+		headerOutput = new DataOutputStream(headerStream);
+		payloadStream = new ByteBufferOutputStream(bufferPool);
+		payloadOutput = new DataOutputStream(payloadStream);
+		this.connection = connection;
+		ServerHostProperties.getInstance().onClientConnected();
 	}
 	
 	/**
-	 * Returns the {@link InputStream} of a {@link ServerCloneException} of this {@link GridNode}
-	 * @return the {@link InputStream} of a {@link ServerCloneException} of this {@link GridNode}
-	 * @throws IOException
+	 * Starts up this local {@link GridNode} in the process of the {@link GridServer}.
+	 * The jobs are handed to the threads of a {@link JobExecutionEngine} through its
+	 * queue and their results come back as objects, with no connection, no code
+	 * bundle and, unless the isolation is configured, no serialization but
+	 * for the jobs duplicated as stragglers
+	 * 
+	 * @param clientProperties the configuration of the execution of the jobs
 	 */
-	public InputStream getInputStream() throws IOException
+	public void startUpInProcess(ClientHostProperties clientProperties)
 	{
-		return serverSocketConnection.getClientInputStream();
+		ServerHostProperties hostProperties = ServerHostProperties.getInstance();
+		Serializers serializers = Serializers.getInstance();
+		String serializer = serializers.choose(hostProperties.getSerializers(), serializers.getKnown(hostProperties.getSerializers()));
+		if (hostProperties.isLocalIsolation())
+		{
+			localJobCopier = serializers.newSerializer(serializer, hostProperties.getSessionResetInterval());
+			localResultCopier = serializers.newSerializer(serializer, hostProperties.getSessionResetInterval());
+		}
+		else
+		{
+			speculativeJobCopier = serializers.newSerializer(serializer, hostProperties.getSessionResetInterval());
+		}
+		
+		parallelism = clientProperties.parallelism;
+		jobWindow = parallelism + hostProperties.getJobWindow();
+		
+		JobExecutionEngine engine = new JobExecutionEngine(localResultListener, parallelism, jobWindow, clientProperties.virtualThreads);
+		engine.start();
+		localEngine = engine;
+		hostProperties.onClientConnected();
+		
+		onJobsAvailable();
 	}
 	
 	/**
-	 * Whether the {@link ServerSocketConnection} of this {@link GridNode} instance is connected to the {@link GridServer} or not 
-	 * @return the {@link ServerSocketConnection} of this {@link GridNode} instance is connected to the {@link GridServer} or not
+	 * Whether the {@link Connection} of this {@link GridNode} instance is connected to the {@link GridServer} or not,
+	 * never again once the {@link GridNode} is closed
+	 * @return the {@link Connection} of this {@link GridNode} instance is connected to the {@link GridServer} or not
 	 */
 	public boolean isConnected()
 	{
-		return serverSocketConnection.isConnected();
+		return !closed && (connection != null || localEngine != null);
 	}
 
 	/**
 	 * Executes a given job on this {@link GridNode}
+	 * The job is submitted to the {@link JobScheduler} and written by the
+	 * I/O thread of this {@link GridNode} as soon as the job window allows,
+	 * without waiting the results of the jobs already in flight.
+	 * The jobs of a {@link SchedulingMode#DYNAMIC} task can be written
+	 * by another {@link GridNode} that steals them
 	 * 
 	 * @param job the {@link GridJob} to be executed
 	 * @param gridTask the {@link GridTask} which this {@link Grid} belongs to
@@ -222,114 +438,819 @@ public class GridNode
 	 */
 	public void executeJob(final GridJob job, final GridTask gridTask, final GridTaskCompletionManager taskCompletionManager)
 	{
-		final GridNode node = this;
-		executor.execute(new Runnable()
+		executeJob(job, gridTask, taskCompletionManager, taskCompletionManager.getEpoch());
+	}
+	
+	/**
+	 * Executes a given job on this {@link GridNode} for an execution of its
+	 * task, as {@link #executeJob(GridJob, GridTask, GridTaskCompletionManager)}.
+	 * A retry of a job of a previous execution of the task is dropped
+	 * 
+	 * @param job the {@link GridJob} to be executed
+	 * @param gridTask the {@link GridTask} which this {@link Grid} belongs to
+	 * @param taskCompletionManager a callback object to notify the server whether the jobs had completed or not
+	 * @param epoch the epoch of the execution of the task the job is executed for
+	 */
+	public void executeJob(GridJob job, GridTask gridTask, GridTaskCompletionManager taskCompletionManager, int epoch)
+	{
+		executeJob(new JobDispatch(job, gridTask, taskCompletionManager, epoch));
+	}
+	
+	/**
+	 * Executes the {@link JobDispatch} of a job on this {@link GridNode},
+	 * as {@link #executeJob(GridJob, GridTask, GridTaskCompletionManager, int)}
+	 * @param dispatch the {@link JobDispatch} of the job to be executed
+	 */
+	private void executeJob(JobDispatch dispatch)
+	{
+		if (!dispatch.getTaskCompletionManager().isCurrentEpoch(dispatch.getEpoch()))
 		{
-			@Override
-			public void run() 
+			return;
+		}
+		if (isClosed())
+		{
+			System.err.println("This node is finished: " + this);
+			notifyJobError(dispatch, new RuntimeException("The GridNode is finished."));
+			return;
+		}
+		
+		scheduler.submit(this, dispatch);
+		
+		if (isClosed())
+		{
+			failPendingJobs(new RuntimeException("The GridNode is finished."));
+		}
+	}
+	
+	/**
+	 * Tells this {@link GridNode} there may be pending or stolen jobs to write.
+	 * The jobs are written by the I/O thread of the connection, the
+	 * writing is scheduled once however many jobs are submitted meanwhile
+	 */
+	void onJobsAvailable()
+	{
+		if (localEngine != null)
+		{
+			dispatchLocalJobs();
+			return;
+		}
+		
+		Connection connection = this.connection;
+		if (connection == null || isClosed())
+		{
+			return;
+		}
+		
+		if (dispatchScheduled.compareAndSet(false, true))
+		{
+			connection.execute(dispatchTask);
+		}
+	}
+	
+	/**
+	 * Writes pending or stolen jobs while the job window allows, in batches
+	 * of the jobs of a task that follow each other, each batch taking a single
+	 * place in the window. It runs on the I/O thread when jobs are submitted
+	 * and when results free places in the window, so no thread waits for a job
+	 */
+	private void dispatchJobs()
+	{
+		while (!isClosed() && jobWindow > 0)
+		{
+			JobDispatch dispatch = scheduler.poll(this);
+			if (dispatch == null)
+			{
+				return;
+			}
+			
+			jobWindow--;
+			try
+			{
+				writeJobs(dispatch);
+			} 
+			catch (IOException e)
+			{
+				connection.close(e);
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Hands pending or stolen jobs to the {@link JobExecutionEngine} of a node in
+	 * the process of the server while the job window allows. The queue of the
+	 * engine holds the whole window, so the handing never blocks.
+	 * Without isolation a job duplicated as a straggler is still copied,
+	 * since its other copy may be running on another thread.
+	 * A job that cannot be copied fails its task, without being retried
+	 */
+	private void dispatchLocalJobs()
+	{
+		synchronized (localDispatchLock)
+		{
+			while (!isClosed() && jobWindow > 0)
 			{
-				if (isClosed())
+				JobDispatch dispatch = scheduler.poll(this);
+				if (dispatch == null)
 				{
-					System.err.println("This node is finished: " + this);
-					taskCompletionManager.onJobError(job, node, new RuntimeException("The GridNode is finished."));
 					return;
 				}
 				
-				while (!checkAndSetIsAvailable())
-				{
-					Thread.yield();
-				}
-
+				jobWindow--;
+				GridJob job = dispatch.getJob();
 				try
 				{
-					OutputStream outputStream = getOuputStream();
-
-					// jar
-					if (packageNames.size() > 0)
+					if (localJobCopier != null)
 					{
-						outputStream.write(new byte[] { 1 } );
-						JarBuilder.createJar(packageNames, null, outputStream);
+						job = (GridJob) copyObject(localJobCopier, job, job.getClass().getClassLoader());
 					}
-					else
+					else if (dispatch.getTaskCompletionManager().isSpeculated(job))
 					{
-						outputStream.write(new byte[] { 0 } );
+						job = (GridJob) copyObject(speculativeJobCopier, job, job.getClass().getClassLoader());
 					}
-
-					// object to run
-					{
-						ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-						ObjectOutputStream objOutput = new ObjectOutputStream(byteArrayOutputStream);
-						objOutput.writeObject(job);
-						int sz = byteArrayOutputStream.size();
-						byte[] intAsArr = ByteBuffer.allocate(4).putInt(sz).array();
-						outputStream.write(intAsArr);
-						byte[] byteArray = byteArrayOutputStream.toByteArray();
-						outputStream.write(byteArray);
-					}
-					
-					outputStream.flush();
-					
-					readClientResponse(node, job, gridTask, taskCompletionManager);
-					
-					setAvailable(true);
-				} 
-				catch (IOException e)
+				}
+				catch (Exception e)
 				{
-					e.printStackTrace();
-					setAvailable(true);
-					taskCompletionManager.onJobError(job, node, e);
+					// a job that cannot be copied cannot be serialized to any node either
+					jobWindow++;
+					notifyJobFailure(dispatch, e);
+					continue;
+				}
+				
+				dispatch.setRequestId(nextRequestId.incrementAndGet());
+				inFlightJobs.put(dispatch.getRequestId(), dispatch);
+				dispatch.getTaskCompletionManager().onJobDispatched(dispatch.getJob(), this, dispatch.getEpoch());
+				try
+				{
+					localEngine.submit(dispatch.getRequestId(), job);
+				}
+				catch (Exception e)
+				{
+					inFlightJobs.remove(dispatch.getRequestId());
+					jobWindow++;
+					notifyJobError(dispatch, e);
 				}
 			}
-		});
+		}
 	}
 	
 	/**
-	 * Close all the connections from the {@link ServerSocketConnection} of this
-	 * {@link GridNode} instance
-	 *  
+	 * Copies an object by serialization, so a node in the process of the server
+	 * does not share the objects of the jobs and of the results
+	 * 
+	 * @param copier the {@link GridSerializer} of the copy
+	 * @param object the object to be copied
+	 * @param loader the {@link ClassLoader} of the classes of the object
+	 * @return the copy of the object
+	 * @throws IOException if the object could not be serialized
+	 * @throws ClassNotFoundException if a class of the object was not found
+	 */
+	private static Object copyObject(GridSerializer copier, Object object, ClassLoader loader) throws IOException, ClassNotFoundException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		copier.encode(object, bytes);
+		return copier.decode(new ByteArrayInputStream(bytes.toByteArray()), loader);
+	}
+	
+	/**
+	 * Handles the result of a job executed in the process of the server.
+	 * The place of the job in the window is given to the next job before
+	 * the result is reduced, on the thread of the job
+	 * 
+	 * @param jobResult the {@link JobResult} of the job
+	 */
+	private void onLocalJobResult(JobResult jobResult)
+	{
+		if (localResultCopier != null)
+		{
+			try
+			{
+				synchronized (localResultCopier)
+				{
+					jobResult = (JobResult) copyObject(localResultCopier, jobResult, null);
+				}
+			}
+			catch (Exception e)
+			{
+				onLocalJobError(jobResult.requestId, e);
+				return;
+			}
+		}
+		
+		JobDispatch dispatch = inFlightJobs.remove(jobResult.requestId);
+		if (dispatch == null)
+		{
+			System.err.println("Unknown request id: " + jobResult.requestId);
+			return;
+		}
+		releaseLocalJob();
+		
+		try
+		{
+			reduceJobResult(dispatch, jobResult);
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Handles the failure of a job executed in the process of the server,
+	 * notified as an error so it can be retried
+	 * 
+	 * @param requestId the id of the request of the job
+	 * @param e the error thrown by the job
+	 */
+	private void onLocalJobError(long requestId, Throwable e)
+	{
+		e.printStackTrace();
+		
+		JobDispatch dispatch = inFlightJobs.remove(requestId);
+		if (dispatch == null)
+		{
+			return;
+		}
+		releaseLocalJob();
+		
+		notifyJobError(dispatch, e instanceof Exception ? (Exception) e : new RuntimeException(e));
+	}
+	
+	/**
+	 * Gives back the place of a finished job in the window of a node in
+	 * the process of the server, handing the next jobs to the engine
+	 */
+	private void releaseLocalJob()
+	{
+		synchronized (localDispatchLock)
+		{
+			jobWindow++;
+		}
+		dispatchLocalJobs();
+	}
+	
+	/**
+	 * Writes a batch of jobs to the client of this {@link GridNode}, without blocking.
+	 * The batch starts with a job and takes the next jobs of the same task
+	 * polled from the {@link JobScheduler}, up to the batch size of the task
+	 * or until the batch reaches the batch bytes of the task.
+	 * The number of jobs, the flags of the batch and the code bundle of the package names go first:
+	 * the full jar when the client has not received the bundle yet, otherwise
+	 * only its hash. The client reads the jobs in the order they are written,
+	 * so once the full jar is written the next jobs of the connection only
+	 * reference it. Each job follows with its request id and its size.
+	 * The jobs are serialized straight into a pooled buffer and written with
+	 * the header in a single gathering write, without copying them.
+	 * A job is in flight only once it is serialized: a job that cannot be
+	 * serialized is dropped from the batch and fails its task, since no
+	 * {@link GridNode} can run it, and the connection stays open
+	 * 
+	 * @param first the {@link JobDispatch} of the first job of the batch
 	 * @throws IOException
 	 */
-	public void closeAllConnections() throws IOException
+	private void writeJobs(JobDispatch first) throws IOException
 	{
-		serverSocketConnection.closeAllConnections();
+		ServerHostProperties hostProperties = ServerHostProperties.getInstance();
+		GridTask gridTask = first.getGridTask();
+		int batchSize = gridTask.getBatchSize() > 0 ? gridTask.getBatchSize() : hostProperties.getJobBatchSize();
+		int batchBytes = gridTask.getBatchBytes() > 0 ? gridTask.getBatchBytes() : hostProperties.getJobBatchBytes();
+		
+		// objects to run
+		payloadStream.reset(BufferPool.MIN_BUFFER_SIZE);
+		int numJobs = 0;
+		JobDispatch dispatch = first;
+		while (dispatch != null)
+		{
+			if (encodeJob(dispatch))
+			{
+				inFlightJobs.put(dispatch.getRequestId(), dispatch);
+				numJobs++;
+				dispatch.getTaskCompletionManager().onJobDispatched(dispatch.getJob(), this, dispatch.getEpoch());
+			}
+			
+			if (numJobs >= batchSize || payloadStream.size() >= batchBytes)
+			{
+				break;
+			}
+			dispatch = scheduler.poll(this, first);
+		}
+		
+		if (numJobs == 0)
+		{
+			jobWindow++;
+			return;
+		}
+		
+		// built when the task was submitted, unless the job moved to a node with package names of its own
+		CodeBundle bundle = null;
+		Set<String> bundlePackageNames = getBundlePackageNames(gridTask);
+		if (bundlePackageNames.size() > 0)
+		{
+			bundle = CodeBundleCache.getInstance().getBundle(bundlePackageNames);
+		}
+		
+		headerStream.reset(BufferPool.MIN_BUFFER_SIZE);
+		if (compression != null)
+		{
+			headerOutput.writeByte(FrameCompression.RAW);
+		}
+		headerOutput.writeInt(numJobs);
+		headerOutput.writeByte((gridTask.isLowLatency() ? GridProtocol.LOW_LATENCY : 0) | (codecReset ? GridProtocol.SESSION_RESET : 0));
+		codecReset = false;
+		
+		// jar
+		if (bundle != null)
+		{
+			String bundleHash = bundle.getHash();
+			if (acknowledgedBundles.contains(bundleHash))
+			{
+				headerOutput.writeByte(GridProtocol.BUNDLE_REF);
+				headerOutput.writeUTF(bundleHash);
+			}
+			else
+			{
+				byte[] jarBytes = bundle.getJarBytes();
+				headerOutput.writeByte(GridProtocol.BUNDLE_FULL);
+				headerOutput.writeUTF(bundleHash);
+				headerOutput.writeInt(jarBytes.length);
+				headerOutput.write(jarBytes);
+				acknowledgedBundles.add(bundleHash);
+			}
+		}
+		else
+		{
+			headerOutput.writeByte(GridProtocol.NO_BUNDLE);
+		}
+		
+		ByteBuffer header = headerStream.finish();
+		ByteBuffer payload = payloadStream.finish();
+		if (compression != null && compression.shouldCompress(header.remaining() - 1 + payload.remaining()))
+		{
+			ByteBuffer message = compressJobs(header, payload);
+			if (message != null)
+			{
+				connection.write(message);
+				return;
+			}
+		}
+		connection.write(header, payload);
 	}
-
+	
 	/**
-	 * Waits for a client response when putting a job in execution
+	 * Serializes a job of a batch with its request id and its size.
+	 * When the job cannot be serialized its bytes are dropped from the
+	 * batch and the job fails its task, without being retried
 	 * 
-	 * @param gridNode the {@link GridNode} with the job will be spread into
-	 * @param job the executing {@link GridJob} 
-	 * @param gridTask the {@link GridTask} which the {@link GridJob} came from 
-	 * @param taskCompletionManager a callback object to notify the server whether the jobs had completed or not
+	 * @param dispatch the {@link JobDispatch} of the job
+	 * @return whether the job was serialized or not
+	 * @throws IOException if the request id or the size could not be written
+	 */
+	private boolean encodeJob(JobDispatch dispatch) throws IOException
+	{
+		dispatch.setRequestId(nextRequestId.incrementAndGet());
+		int jobPosition = payloadStream.size();
+		payloadOutput.writeLong(dispatch.getRequestId());
+		int sizePosition = payloadStream.size();
+		payloadOutput.writeInt(0);
+		try
+		{
+			codec.encode(dispatch.getJob(), payloadStream);
+		}
+		catch (IOException e)
+		{
+			payloadStream.truncate(jobPosition);
+			notifyJobFailure(dispatch, e);
+			return false;
+		}
+		catch (RuntimeException e)
+		{
+			payloadStream.truncate(jobPosition);
+			notifyJobFailure(dispatch, e);
+			return false;
+		}
+		payloadStream.getBuffer().putInt(sizePosition, payloadStream.size() - sizePosition - 4);
+		return true;
+	}
+	
+	/**
+	 * Compresses the header and the payload of a batch of jobs in a single
+	 * message: the compressed flag, the compressed and the raw sizes and the
+	 * compressed bytes of the header, after its raw flag, and the payload,
+	 * which are released to the {@link BufferPool} of the connection.
+	 * When the compressed bytes are not smaller the header and the payload
+	 * are kept, rewound to be sent raw
+	 * 
+	 * @param header the header of the batch, starting with the raw flag
+	 * @param payload the payload of the batch
+	 * @return the pooled buffer of the compressed message, flipped to be read,
+	 * or null when the batch is to be sent raw
 	 * @throws IOException
 	 */
-	private void readClientResponse(GridNode gridNode, GridJob job, GridTask gridTask, GridTaskCompletionManager taskCompletionManager) throws IOException
+	private ByteBuffer compressJobs(ByteBuffer header, ByteBuffer payload) throws IOException
 	{
-		InputStream is = gridNode.getInputStream();
+		int payloadPosition = payload.position();
+		header.position(1);
+		int rawSize = header.remaining() + payload.remaining();
 		
-		ObjectInputStream objectInputStream = new ObjectInputStream(is);
+		headerStream.reset(BufferPool.MIN_BUFFER_SIZE);
+		headerOutput.writeByte(FrameCompression.DEFLATED);
+		headerOutput.writeInt(0);
+		headerOutput.writeInt(rawSize);
+		BufferPool bufferPool = connection.getBufferPool();
+		if (!compression.compress(new ByteBuffer[] { header, payload }, headerStream))
+		{
+			bufferPool.release(headerStream.finish());
+			header.position(0);
+			payload.position(payloadPosition);
+			return null;
+		}
+		
+		bufferPool.release(header);
+		bufferPool.release(payload);
+		
+		ByteBuffer message = headerStream.finish();
+		message.putInt(1, message.remaining() - 9);
+		return message;
+	}
+	
+	/**
+	 * Builds the code bundle of the jobs of a task on this {@link GridNode}
+	 * into the {@link CodeBundleCache}, on the thread that submits the task,
+	 * so the event loop of the connection finds it built when it writes the jobs
+	 * 
+	 * @param gridTask the {@link GridTask} of the jobs
+	 * @throws IOException if the jar of the bundle could not be built
+	 */
+	void prepareBundle(GridTask gridTask) throws IOException
+	{
+		Set<String> bundlePackageNames = getBundlePackageNames(gridTask);
+		if (bundlePackageNames.size() > 0)
+		{
+			CodeBundleCache.getInstance().getBundle(bundlePackageNames);
+		}
+	}
+	
+	/**
+	 * Gets the package names of the code bundle of the jobs of a task:
+	 * the package names of the task and the ones set to this {@link GridNode},
+	 * so the tasks running at the same time do not spread each other's code
+	 * 
+	 * @param gridTask the {@link GridTask} of the jobs
+	 * @return the package names of the code bundle of the jobs
+	 */
+	private Set<String> getBundlePackageNames(GridTask gridTask)
+	{
+		Set<String> taskPackageNames = gridTask.getPackageNames();
+		if (packageNames.isEmpty())
+		{
+			return taskPackageNames;
+		}
+		if (taskPackageNames.isEmpty())
+		{
+			return packageNames;
+		}
+		
+		Set<String> bundlePackageNames = new HashSet<String>(taskPackageNames);
+		bundlePackageNames.addAll(packageNames);
+		return bundlePackageNames;
+	}
+	
+	/**
+	 * Close all the connections from the {@link Connection} of this
+	 * {@link GridNode} instance, or stops the {@link JobExecutionEngine}
+	 * of a node in the process of the server
+	 *  
+	 * @throws IOException
+	 */
+	public void closeAllConnections() throws IOException
+	{
+		if (connection != null)
+		{
+			connection.close(null);
+		}
 		
-		Object resultObject = null;
+		JobExecutionEngine engine = localEngine;
+		if (engine != null)
+		{
+			setClosed(true);
+			engine.shutdown();
+			failPendingJobs(new IOException("The GridNode was shut down."));
+		}
+	}
 
+	/**
+	 * Handles a frame read by the I/O thread from the client.
+	 * The client says hello first, with its parallelism and its serializers.
+	 * Each next frame holds the {@link JobResult}'s of a batch of jobs, each one
+	 * matched with its {@link JobDispatch} by the request id, so results can come
+	 * back in any order. The batch gives its place in the window back
+	 * 
+	 * @param connection the {@link Connection} of the client
+	 * @param frame the frame read from the client
+	 * @throws IOException if the frame could not be read
+	 */
+	@Override
+	public void onFrame(Connection connection, ByteBuffer frame) throws IOException
+	{
+		frameStream.reset(frame);
+		if (parallelism == 0)
+		{
+			onHello();
+			return;
+		}
+		
+		jobWindow++;
+		ByteBuffer inflated = null;
 		try
 		{
-			Object readObject = objectInputStream.readObject();
-			JobResult jobResult = (JobResult) readObject;
-			resultObject = jobResult.object;
+			if (compression != null && frameInput.readByte() == FrameCompression.DEFLATED)
+			{
+				inflated = decompressFrame(frame);
+				frameStream.reset(inflated);
+			}
+			
+			int numResults = frameInput.readInt();
+			for (int i = 0; i < numResults; i++)
+			{
+				onClientResponse((JobResult) codec.decode(frameStream, null));
+			}
 		}
 		catch (ClassNotFoundException e)
 		{
 			e.printStackTrace();
 		}
+		finally
+		{
+			if (inflated != null)
+			{
+				connection.getBufferPool().release(inflated);
+			}
+		}
+		
+		dispatchJobs();
+	}
+	
+	/**
+	 * Decompresses the rest of a compressed frame, after its flag, into
+	 * a buffer of the {@link BufferPool} of the connection
+	 * 
+	 * @param frame the compressed frame, at its raw size
+	 * @return the pooled buffer of the decompressed frame, flipped to be read
+	 * @throws IOException if the frame is not a valid compressed frame
+	 */
+	private ByteBuffer decompressFrame(ByteBuffer frame) throws IOException
+	{
+		int rawSize = frameInput.readInt();
+		ByteBuffer inflated = connection.getBufferPool().acquire(rawSize);
+		try
+		{
+			inflated.limit(rawSize);
+			compression.decompress(frame, inflated);
+			inflated.flip();
+			return inflated;
+		}
+		catch (IOException e)
+		{
+			connection.getBufferPool().release(inflated);
+			throw e;
+		}
+	}
+	
+	/**
+	 * Handles the hello of the client.
+	 * The serializer of the connection is the first one of the preference
+	 * of the server offered by the client and the frames are compressed only
+	 * when both sides offer the compression, both told back to the client
+	 * before any job. The parallelism of the client opens the job window for the
+	 * jobs it executes at the same time plus the configured job window
+	 * that hides the latency of the connection
+	 * 
+	 * @throws IOException if the hello could not be read
+	 */
+	private void onHello() throws IOException
+	{
+		ServerHostProperties hostProperties = ServerHostProperties.getInstance();
+		
+		int clientParallelism = frameInput.readInt();
+		int numSerializers = frameInput.readInt();
+		List<String> offeredSerializers = new ArrayList<String>(numSerializers);
+		for (int i = 0; i < numSerializers; i++)
+		{
+			offeredSerializers.add(frameInput.readUTF());
+		}
+		
+		String offeredCompression = frameInput.readUTF();
+		
+		String serializer = Serializers.getInstance().choose(hostProperties.getSerializers(), offeredSerializers);
+		codec = Serializers.getInstance().newSerializer(serializer, hostProperties.getSessionResetInterval());
+		String chosenCompression = FrameCompression.choose(hostProperties.getCompression(), offeredCompression);
+		compression = FrameCompression.create(chosenCompression, hostProperties.getCompressionThreshold(), hostProperties.getCompressionLevel());
+		
+		headerStream.reset(BufferPool.MIN_BUFFER_SIZE);
+		headerOutput.writeUTF(serializer);
+		headerOutput.writeUTF(chosenCompression);
+		connection.write(headerStream.finish());
+		
+		parallelism = clientParallelism;
+		jobWindow = parallelism + hostProperties.getJobWindow();
+		dispatchJobs();
+	}
+	
+	/**
+	 * Handles the close of the connection of the client:
+	 * the jobs in flight and the pending ones are notified as errors
+	 * and the native memory of the compression is released
+	 * 
+	 * @param connection the closed {@link Connection}
+	 * @param e the {@link IOException} that closed the connection or null if it was closed locally
+	 */
+	@Override
+	public void onClosed(Connection connection, IOException e)
+	{
+		if (e != null && !isClosed())
+		{
+			e.printStackTrace();
+		}
+		setClosed(true);
+		if (compression != null)
+		{
+			compression.close();
+		}
+		
+		Exception cause = e != null ? e : new IOException("The connection of the GridNode was closed.");
+		failJobsInFlight(cause);
+		failPendingJobs(cause);
+	}
+	
+	/**
+	 * Handles a client response of a job in flight.
+	 * The reduce of the result is done by the {@link ExecutorService},
+	 * so the I/O thread is free to read the next responses.
+	 * A job the client skipped or could not read is sent again. A skipped job
+	 * resets the {@link GridSerializer} of the connection, since the classes
+	 * first named by it were never seen by the client. A job still unread after
+	 * as many resends as the retries of its task, and a job that threw on
+	 * the client, are notified as an error, so they can be retried
+	 * 
+	 * @param jobResult the {@link JobResult} of the job
+	 */
+	private void onClientResponse(final JobResult jobResult)
+	{
+		final JobDispatch dispatch = inFlightJobs.remove(jobResult.requestId);
+		if (dispatch == null)
+		{
+			System.err.println("Unknown request id: " + jobResult.requestId);
+			return;
+		}
+		
+		if (jobResult.isBundleMissing() || jobResult.isUnread())
+		{
+			if (jobResult.isBundleMissing())
+			{
+				// the client skipped the job, not seeing the classes first named by it
+				acknowledgedBundles.remove(jobResult.missingBundleHash);
+				codec.reset();
+				codecReset = true;
+			}
+			
+			JobDispatch resent = new JobDispatch(dispatch.getJob(), dispatch.getGridTask(), dispatch.getTaskCompletionManager(), dispatch.getEpoch());
+			resent.setNumUnreadResends(dispatch.getNumUnreadResends() + (jobResult.isUnread() ? 1 : 0));
+			if (resent.getNumUnreadResends() > dispatch.getTaskCompletionManager().getMaxRetries())
+			{
+				notifyJobError(dispatch, new RuntimeException("The job could not be read by the client."));
+				return;
+			}
+			executeJob(resent);
+			return;
+		}
+		
+		if (jobResult.isFailed())
+		{
+			notifyJobError(dispatch, new RuntimeException("The job failed on the client: " + jobResult.error));
+			return;
+		}
+
+		executor.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					reduceJobResult(dispatch, jobResult);
+				}
+				catch (IOException e)
+				{
+					e.printStackTrace();
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Reduces the result of a job on its {@link GridTask}.
+	 * A job is reduced only once, even if its result is received again,
+	 * and the result of a job of a previous execution of the task is dropped.
+	 * When the reduce of the result fails the task fails, so no one waits
+	 * for a job that is completed but never counted
+	 * 
+	 * @param dispatch the {@link JobDispatch} of the job
+	 * @param jobResult the {@link JobResult} of the job
+	 * @throws IOException
+	 */
+	private void reduceJobResult(JobDispatch dispatch, JobResult jobResult) throws IOException
+	{
+		GridJob job = dispatch.getJob();
+		GridTask gridTask = dispatch.getGridTask();
+		GridTaskCompletionManager taskCompletionManager = dispatch.getTaskCompletionManager();
+
+		if (!taskCompletionManager.markJobComplete(job, dispatch.getEpoch()))
+		{
+			return;
+		}
 
 		job.setComplete(true);
 		
-		gridTask.notifyTaskJobReduce(job, resultObject);
+		try
+		{
+			gridTask.notifyTaskJobReduce(job, jobResult.object);
+		}
+		catch (RuntimeException e)
+		{
+			e.printStackTrace();
+			taskCompletionManager.onJobFailure(job, dispatch.getEpoch(), e);
+			return;
+		}
 		
-		taskCompletionManager.onJobComplete(job);
-		if (gridTask.isAllJobsComplete())
+		taskCompletionManager.onJobComplete(job, dispatch.getEpoch());
+	}
+	
+	/**
+	 * Notifies a job as an error, so it can be retried.
+	 * The notification is done by the {@link ExecutorService}
+	 * 
+	 * @param dispatch the {@link JobDispatch} of the job that failed
+	 * @param e the {@link Exception} that made the job to fail
+	 */
+	private void notifyJobError(final JobDispatch dispatch, final Exception e)
+	{
+		final GridNode node = this;
+		executor.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				dispatch.getTaskCompletionManager().onJobError(dispatch.getJob(), node, e, dispatch.getEpoch());
+			}
+		});
+	}
+	
+	/**
+	 * Notifies a job as a failure that cannot be retried, failing its task.
+	 * The notification is done by the {@link ExecutorService}
+	 * 
+	 * @param dispatch the {@link JobDispatch} of the job that failed
+	 * @param e the {@link Exception} that made the job to fail
+	 */
+	private void notifyJobFailure(final JobDispatch dispatch, final Exception e)
+	{
+		executor.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				e.printStackTrace();
+				dispatch.getTaskCompletionManager().onJobFailure(dispatch.getJob(), dispatch.getEpoch(), e);
+			}
+		});
+	}
+	
+	/**
+	 * Notifies all the jobs in flight as errors, so they can be retried
+	 * @param e the {@link Exception} that made the jobs to fail
+	 */
+	private void failJobsInFlight(Exception e)
+	{
+		Iterator<Long> it = inFlightJobs.keySet().iterator();
+		while (it.hasNext())
+		{
+			JobDispatch dispatch = inFlightJobs.remove(it.next());
+			if (dispatch != null)
+			{
+				notifyJobError(dispatch, e);
+			}
+		}
+	}
+	
+	/**
+	 * Notifies all the jobs waiting to be written as errors, so they can be retried
+	 * @param e the {@link Exception} that made the jobs to fail
+	 */
+	private void failPendingJobs(Exception e)
+	{
+		for (JobDispatch dispatch : scheduler.drain(this))
 		{
-			taskCompletionManager.onAllJobsComplete();
+			notifyJobError(dispatch, e);
 		}
 	}
-}
\ No newline at end of file
+}
@@ -31,9 +31,20 @@ import java.util.Vector;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
+import com.grideasy.server.nio.Connection;
+import com.grideasy.server.nio.ConnectionAcceptor;
+import com.grideasy.server.nio.ConnectionListener;
+import com.grideasy.server.nio.EventLoop;
+import com.grideasy.server.nio.NioServer;
+import com.grideasy.server.shm.SharedMemoryServer;
+
 /**
  * The Grid Server is a collector of {@link GridNode}'s
  * The execution of grid nodes is spread through the {@link GridServer} 
+ * The connections of the nodes are accepted, read and written by a small
+ * number of {@link EventLoop}'s, or by the threads of the shared memory slots
+ * for the nodes of the same host, the threads of the {@link #executor} only
+ * reduce the results of the jobs
  * 
  * @author Felipe Santos
  * @email felchs@gmail.com
@@ -50,6 +61,22 @@ public class GridServer
 	 * spread of works 
 	 */
 	private final ExecutorService executor;
+	
+	/**
+	 * The {@link JobScheduler} shared by the {@link GridNode}'s, so
+	 * idle nodes can steal the jobs waiting on the busy ones
+	 */
+	private final JobScheduler scheduler = new JobScheduler();
+	
+	/**
+	 * The {@link NioServer} accepting the connections of the {@link GridNode}'s
+	 */
+	private NioServer nioServer;
+	
+	/**
+	 * The {@link SharedMemoryServer} accepting the {@link GridNode}'s of the same host, null if there are no slots
+	 */
+	private SharedMemoryServer sharedMemoryServer;
 
 	/**
 	 * Constructor of {@link GridServer}
@@ -76,7 +103,8 @@ public class GridServer
 	}
 
 	/**
-	 * Returns a list of {@link GridNode}'s that are now connected to this {@link GridServer}
+	 * Returns a list of {@link GridNode}'s that are now connected to this {@link GridServer},
+	 * leaving out the ones whose connection is closed
 	 * @return a list of {@link GridNode}'s that are now connected to this {@link GridServer}
 	 */
 	public List<GridNode> getConnectedNodeList()
@@ -96,9 +124,27 @@ public class GridServer
 	}
 	
 	/**
-	 * Initializes the {@link GridNode}'s doing connections from
-	 * the {@link GridServer} to the host that the {@link GridNode}'s are
-	 * connected to
+	 * Returns the list of the local {@link GridNode}'s
+	 * @return the list of the local {@link GridNode}'s
+	 */
+	public List<GridNode> getLocalNodeList()
+	{
+		List<GridNode> localNodes = new Vector<GridNode>();
+		for (GridNode gridNode : gridNodeList)
+		{
+			if (gridNode.isLocalNode())
+			{
+				localNodes.add(gridNode);
+			}
+		}
+		return localNodes;
+	}
+	
+	/**
+	 * Initializes the {@link GridNode}'s and starts the {@link NioServer}
+	 * that accepts their connections. Each accepted connection starts up
+	 * the next {@link GridNode} not connected yet, the connections beyond
+	 * the configured nodes start up new external {@link GridNode}'s
 	 * @throws IOException
 	 */
 	protected void setupGridNodes() throws IOException
@@ -112,18 +158,56 @@ public class GridServer
 		
 		for (int i = 0; i < totalNodes; i++)
 		{
-			final boolean localNode = i < numLocalNodes;
-			
-			new Thread()
+			boolean localNode = i < numLocalNodes;
+			gridNodeList.add(new GridNode(executor, scheduler, localNode));
+		}
+		
+		ConnectionAcceptor acceptor = new ConnectionAcceptor()
+		{
+			@Override
+			public ConnectionListener onAccepted(Connection connection)
+			{
+				System.out.println("New node connected: " + connection.getRemoteAddress());
+				GridNode gridNode = getNodeToConnect();
+				gridNode.startUp(connection);
+				return gridNode;
+			}
+		};
+		
+		nioServer = new NioServer(hostProperties.getIoThreads(), hostProperties.isDirectBuffers(), acceptor);
+		nioServer.start(hostProperties.getPort(), hostProperties.getUnixSocketPath());
+		
+		if (hostProperties.getSharedMemorySlots() > 0)
+		{
+			sharedMemoryServer = new SharedMemoryServer(hostProperties.isDirectBuffers(), acceptor);
+			sharedMemoryServer.start(hostProperties.getSharedMemoryDirectory(), hostProperties.getPort(),
+					hostProperties.getSharedMemorySlots(), hostProperties.getSharedMemoryRingSize());
+		}
+	}
+	
+	/**
+	 * Gets the first {@link GridNode} not connected yet, adding a new external
+	 * one when all are connected. The local nodes run in the process of the
+	 * server, when configured so, and are never given to a connection, nor
+	 * the closed nodes, which keep the state of their lost connection
+	 * @return a {@link GridNode} not connected yet
+	 */
+	private GridNode getNodeToConnect()
+	{
+		boolean inProcessLocalNodes = ServerHostProperties.getInstance().isInProcessLocalNodes();
+		synchronized (gridNodeList)
+		{
+			for (GridNode gridNode : gridNodeList)
 			{
-				public void run() 
+				if (!gridNode.isConnected() && !gridNode.isClosed() && !(inProcessLocalNodes && gridNode.isLocalNode()))
 				{
-					System.out.println("trying start new node...");
-					GridNode gridNode = new GridNode(executor, localNode);
-					gridNodeList.add(gridNode);
-					gridNode.startUp();
+					return gridNode;
 				}
-			}.start();
+			}
+			
+			GridNode gridNode = new GridNode(executor, scheduler, false);
+			gridNodeList.add(gridNode);
+			return gridNode;
 		}
 	}
 	
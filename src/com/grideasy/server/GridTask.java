@@ -26,7 +26,8 @@
 package com.grideasy.server;
 
 import java.io.IOException;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
@@ -35,8 +36,14 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collector;
 
 import com.grideasy.client.GridJob;
+import com.grideasy.server.loader.CodeBundleCache;
 
 /**
  * The tasks for processing is aggregated in this class
@@ -49,11 +56,52 @@ import com.grideasy.client.GridJob;
  */
 public abstract class GridTask
 {
+	/**
+	 * A partial accumulator of the {@link Collector}, folding the
+	 * results handled by the threads that hash to it
+	 */
+	private static class Stripe
+	{
+		/**
+		 * The partial accumulator, null until the first result is folded
+		 */
+		private Object accumulator;
+	}
+	
+	/**
+	 * The priority of the batch work, written after the waiting jobs of the other priorities
+	 */
+	public static final int LOW_PRIORITY = -10;
+	
+	/**
+	 * The default priority of a task
+	 */
+	public static final int NORMAL_PRIORITY = 0;
+	
+	/**
+	 * The priority of the latency-sensitive work, written before the waiting jobs of the other priorities
+	 */
+	public static final int HIGH_PRIORITY = 10;
+	
+	/**
+	 * The number of partial accumulators, a power of two above the
+	 * number of threads that can handle results at the same time
+	 */
+	private static final int NUM_STRIPES = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1) << 1;
+	
+	///////////////////////////////////////////////////////////////////////////
+	
 	/**
 	 * The object result of a task
 	 */
 	private Object taskResult;
 	
+	/**
+	 * Whether the reduction of the current execution was claimed, either by its last
+	 * job or by a timeout that abandons it, so the task is reduced only once
+	 */
+	private final AtomicBoolean reductionClaimed = new AtomicBoolean();
+	
 	/**
 	 * All jobs from this task 
 	 */
@@ -66,9 +114,19 @@ public abstract class GridTask
 	private GridTaskCompletionManager taskCompletionManager = new GridTaskCompletionManager(this);
 	
 	/**
-	 * An array of {@link GridJob}'s results
+	 * The list of {@link GridJob}'s results, kept when the task has no {@link Collector}
 	 */
-	private Object[] jobReducedResults = new Object[0];
+	private List<Object> jobReducedResults = new ArrayList<Object>();
+	
+	/**
+	 * The {@link Collector} folding the results of the {@link GridJob}'s as they arrive
+	 */
+	private Collector<Object, Object, Object> collector;
+	
+	/**
+	 * The partial accumulators of the {@link Collector}, merged once when all jobs are complete
+	 */
+	private Stripe[] stripes;
 
 	/**
 	 * The list of {@link GridJob}'s
@@ -80,6 +138,43 @@ public abstract class GridTask
 	 */
 	private Set<String> packageNames = new HashSet<String>();
 	
+	/**
+	 * How the jobs of this task are scheduled on the {@link GridNode}'s
+	 */
+	private SchedulingMode schedulingMode = SchedulingMode.STATIC;
+	
+	/**
+	 * The maximum number of jobs of this task written to a {@link GridNode} in a single frame,
+	 * 0 to use the configuration of the server
+	 */
+	private int batchSize;
+	
+	/**
+	 * The number of bytes of the jobs of this task that closes a batch,
+	 * 0 to use the configuration of the server
+	 */
+	private int batchBytes;
+	
+	/**
+	 * Whether the results of the jobs of this task are sent back as soon as they complete or not
+	 */
+	private boolean lowLatency;
+	
+	/**
+	 * The share of the {@link GridNode}'s this task gets against the other tasks running at the same time
+	 */
+	private int weight = 1;
+	
+	/**
+	 * The priority of the dispatch of the jobs of this task
+	 */
+	private int priority = NORMAL_PRIORITY;
+	
+	/**
+	 * Whether the straggler jobs of this task are duplicated on idle {@link GridNode}'s or not
+	 */
+	private boolean speculative;
+	
 	/**
 	 * Constructor passing {@link GridJob}'s list
 	 * @param jobsList a List of {@link GridJob}'s
@@ -120,6 +215,186 @@ public abstract class GridTask
 		return jobsList;
 	}
 
+	/**
+	 * Gets how the jobs of this task are scheduled on the {@link GridNode}'s
+	 * @return how the jobs of this task are scheduled on the {@link GridNode}'s
+	 */
+	public SchedulingMode getSchedulingMode()
+	{
+		return schedulingMode;
+	}
+	
+	/**
+	 * Sets how the jobs of this task are scheduled on the {@link GridNode}'s.
+	 * With {@link SchedulingMode#DYNAMIC} an idle {@link GridNode} steals the
+	 * jobs waiting on the busy ones, so a slow node does not hold the task
+	 * @param schedulingMode how the jobs of this task are scheduled
+	 */
+	public void setSchedulingMode(SchedulingMode schedulingMode)
+	{
+		this.schedulingMode = schedulingMode;
+	}
+	
+	/**
+	 * Gets the maximum number of jobs of this task written to a {@link GridNode} in a single frame
+	 * @return the maximum number of jobs in a frame or 0 to use the configuration of the server
+	 */
+	public int getBatchSize()
+	{
+		return batchSize;
+	}
+	
+	/**
+	 * Sets the maximum number of jobs of this task written to a {@link GridNode} in a single frame.
+	 * The jobs of a batch are answered in a single frame too, once all of them
+	 * are executed, so batching suits many small jobs: a batch of one job
+	 * keeps each job on its own frame
+	 * @param batchSize the maximum number of jobs in a frame or 0 to use the configuration of the server
+	 */
+	public void setBatchSize(int batchSize)
+	{
+		this.batchSize = batchSize;
+	}
+	
+	/**
+	 * Gets the number of bytes of the jobs of this task that closes a batch
+	 * @return the number of bytes that closes a batch or 0 to use the configuration of the server
+	 */
+	public int getBatchBytes()
+	{
+		return batchBytes;
+	}
+	
+	/**
+	 * Sets the number of bytes of the jobs of this task that closes a batch,
+	 * so a batch of large jobs is not held by the size of the frame
+	 * @param batchBytes the number of bytes that closes a batch or 0 to use the configuration of the server
+	 */
+	public void setBatchBytes(int batchBytes)
+	{
+		this.batchBytes = batchBytes;
+	}
+	
+	/**
+	 * Gets whether the results of the jobs of this task are sent back as soon as they complete or not
+	 * @return whether the results of the jobs of this task are sent back as soon as they complete or not
+	 */
+	public boolean isLowLatency()
+	{
+		return lowLatency;
+	}
+	
+	/**
+	 * Sets whether the results of the jobs of this task are sent back as soon as
+	 * they complete, bypassing the coalescing of the results by the clients,
+	 * which otherwise wait a little for other results to send them together
+	 * @param lowLatency whether the results are sent back as soon as they complete
+	 */
+	public void setLowLatency(boolean lowLatency)
+	{
+		this.lowLatency = lowLatency;
+	}
+	
+	/**
+	 * Gets the share of the {@link GridNode}'s this task gets against the other tasks running at the same time
+	 * @return the share of the {@link GridNode}'s this task gets
+	 */
+	public int getWeight()
+	{
+		return weight;
+	}
+	
+	/**
+	 * Sets the share of the {@link GridNode}'s this task gets against the other
+	 * tasks running at the same time: while their jobs wait for the same
+	 * {@link GridNode}'s, a task of weight 2 gets twice the jobs written of a
+	 * task of weight 1. The share is fair by default, so the jobs of a small
+	 * task are not held behind all the waiting jobs of a large one
+	 * @param weight the share of the {@link GridNode}'s this task gets, at least 1
+	 */
+	public void setWeight(int weight)
+	{
+		if (weight < 1)
+		{
+			throw new IllegalArgumentException("The weight must be at least one");
+		}
+		this.weight = weight;
+	}
+	
+	/**
+	 * Gets the priority of the dispatch of the jobs of this task
+	 * @return the priority of the dispatch of the jobs of this task
+	 */
+	public int getPriority()
+	{
+		return priority;
+	}
+	
+	/**
+	 * Sets the priority of the dispatch of the jobs of this task. On every
+	 * {@link GridNode} the waiting jobs of a higher priority are written before
+	 * the ones of a lower priority, whatever their weights, while the tasks
+	 * of the same priority share the {@link GridNode}'s by their weights.
+	 * A {@link GridJob} can override the priority of its task
+	 * @param priority the priority of the dispatch of the jobs, {@link #NORMAL_PRIORITY} by default
+	 */
+	public void setPriority(int priority)
+	{
+		this.priority = priority;
+	}
+	
+	/**
+	 * Gets whether the straggler jobs of this task are duplicated on idle {@link GridNode}'s or not
+	 * @return whether the straggler jobs of this task are duplicated or not
+	 */
+	public boolean isSpeculative()
+	{
+		return speculative;
+	}
+	
+	/**
+	 * Sets whether the straggler jobs of this task are duplicated on idle {@link GridNode}'s.
+	 * Once most of the jobs are completed, a job running much longer than the median
+	 * is executed again on a {@link GridNode} without waiting jobs: the first result
+	 * is reduced and the other one is ignored, so {@link #jobReduce(GridJob, Object)}
+	 * is still called once per job. The jobs of a speculative task must be safe to
+	 * execute twice
+	 * @param speculative whether the straggler jobs are duplicated or not
+	 */
+	public void setSpeculative(boolean speculative)
+	{
+		this.speculative = speculative;
+	}
+	
+	/**
+	 * Gets the {@link Collector} folding the results of the {@link GridJob}'s
+	 * @return the {@link Collector} or null if the results are reduced by {@link #reduce(Object[])}
+	 */
+	public Collector<?, ?, ?> getCollector()
+	{
+		return collector;
+	}
+	
+	/**
+	 * Sets the {@link Collector} folding the results of the {@link GridJob}'s
+	 * as they arrive. When it is set, the results are not kept, so the memory
+	 * of the reduction is the memory of its accumulators whatever the number
+	 * of jobs is, and the task result is given by {@link Collector#finisher()}
+	 * instead of {@link #reduce(Object[])}. The results of the jobs must be
+	 * of the type the collector accepts.
+	 * The results are folded concurrently into partial accumulators, one
+	 * for the threads that hash to it, each one used by a thread at a time
+	 * and merged by {@link Collector#combiner()} at the end of the task, and
+	 * {@link #jobReduce(GridJob, Object)} is called concurrently too, so it
+	 * must be thread-safe
+	 * @param collector the {@link Collector} of the results
+	 */
+	@SuppressWarnings("unchecked")
+	public void setCollector(Collector<?, ?, ?> collector)
+	{
+		this.collector = (Collector<Object, Object, Object>) collector;
+	}
+	
 	/**
 	 * Add a package name to be used when spreading
 	 * code among {@link GridNode}'s
@@ -137,16 +412,25 @@ public abstract class GridTask
 	 */
 	public void addPackageNames(Set<String> packageNames)
 	{
-		for (String packageName : packageNames)
-		{
-			packageNames.add(packageName);
-		}
+		this.packageNames.addAll(packageNames);
+	}
+	
+	/**
+	 * Gets the package names of the code of this task, spread
+	 * to the {@link GridNode}'s with the jobs of this task
+	 * @return the package names of the code of this task
+	 */
+	public Set<String> getPackageNames()
+	{
+		return Collections.unmodifiableSet(packageNames);
 	}
 	
 	/**
 	 * Set a package name to a given {@link GridNode} 
 	 * The package name is used to spread code from 
-	 * the server machine to {@link GridNode}'s instances
+	 * the server machine to {@link GridNode}'s instances.
+	 * The jobs of this task carry its package names anyway, the
+	 * package names set to a node are spread with the jobs of every task
 	 * @param node the {@link GridNode} which the package name is set  
 	 */
 	protected void addPackageNameToNode(GridNode node) 
@@ -166,6 +450,141 @@ public abstract class GridTask
 	 */
 	public Object execute()
 	{
+		executeAsync();
+		
+		taskCompletionManager.doWaitAllJobsToComplete();
+		
+		return taskResult;
+	}
+	
+	/**
+	 * Execute all jobs from this task, waiting for them until a timeout.
+	 * When the jobs do not complete in time the outcome holds a partial
+	 * result: the {@link #reduce(Object[])} of the results received until
+	 * then or, with a {@link Collector}, the finisher of their accumulators.
+	 * The jobs still running are not cancelled, their results keep
+	 * being reduced by {@link #jobReduce(GridJob, Object)}, but the timed out
+	 * execution is abandoned: the task is not reduced again when they complete,
+	 * so {@link #reduce(Object[])} is called once per execution either way, and
+	 * its {@link GridTaskFuture} fails with a {@link TimeoutException}.
+	 * Once the task is executed again the results of the abandoned jobs are dropped.
+	 * When the reduce of the task fails the outcome is failed with its error
+	 * @param timeoutMillis the maximum time to wait, in milliseconds
+	 * @return the outcome of the task, complete, timed out or failed
+	 */
+	public GridTaskOutcome execute(long timeoutMillis)
+	{
+		int numJobs = jobsMap.size();
+		GridTaskFuture future = executeAsync();
+		
+		if (!taskCompletionManager.doWaitAllJobsToComplete(timeoutMillis, TimeUnit.MILLISECONDS))
+		{
+			if (reductionClaimed.compareAndSet(false, true))
+			{
+				int numCompletedJobs = numJobs - taskCompletionManager.getNumRemainingJobs();
+				GridTaskOutcome outcome;
+				try
+				{
+					outcome = new GridTaskOutcome(false, reducePartialResults(), numJobs, numCompletedJobs);
+				}
+				catch (RuntimeException e)
+				{
+					outcome = new GridTaskOutcome(e, numJobs, numCompletedJobs);
+				}
+				future.completeExceptionally(new TimeoutException("The task did not complete in " + timeoutMillis + " ms"));
+				return outcome;
+			}
+			// the last job completed meanwhile and is reducing the task
+		}
+		
+		try
+		{
+			return new GridTaskOutcome(true, future.get(), numJobs, numJobs);
+		}
+		catch (ExecutionException e)
+		{
+			return new GridTaskOutcome(e.getCause(), numJobs, numJobs - taskCompletionManager.getNumRemainingJobs());
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			return new GridTaskOutcome(e, numJobs, numJobs - taskCompletionManager.getNumRemainingJobs());
+		}
+	}
+	
+	/**
+	 * Reduces the results received until now, while the jobs are still running.
+	 * The partial accumulators of a {@link Collector} are combined into
+	 * a new one, so they keep folding the next results
+	 * @return the partial result of the task
+	 */
+	private Object reducePartialResults()
+	{
+		Stripe[] currentStripes = stripes;
+		if (collector != null)
+		{
+			Object accumulator = collector.supplier().get();
+			if (currentStripes != null)
+			{
+				for (Stripe stripe : currentStripes)
+				{
+					synchronized (stripe)
+					{
+						if (stripe.accumulator != null)
+						{
+							accumulator = collector.combiner().apply(accumulator, stripe.accumulator);
+						}
+					}
+				}
+			}
+			return collector.finisher().apply(accumulator);
+		}
+		
+		Object[] results;
+		synchronized (this)
+		{
+			results = jobReducedResults.toArray();
+		}
+		return reduce(results);
+	}
+	
+	/**
+	 * Execute all jobs from this task without waiting for them.
+	 * The returned {@link GridTaskFuture} is completed with the task
+	 * result by the thread that reduces the last job result.
+	 * The code bundles of the jobs are built by the calling thread before
+	 * the jobs are dispatched, and the future fails when they cannot be
+	 * @return the pending result of the task
+	 */
+	public GridTaskFuture executeAsync()
+	{
+		GridTaskFuture future = new GridTaskFuture(this);
+		try
+		{
+			prepareBundles();
+		}
+		catch (IOException e)
+		{
+			future.completeExceptionally(e);
+			return future;
+		}
+
+		taskResult = null;
+		reductionClaimed.set(false);
+		if (collector != null)
+		{
+			stripes = new Stripe[NUM_STRIPES];
+			for (int i = 0; i < NUM_STRIPES; i++)
+			{
+				stripes[i] = new Stripe();
+			}
+		}
+		else
+		{
+			jobReducedResults = new ArrayList<Object>(jobsMap.size());
+		}
+		taskCompletionManager.startJobs(jobsMap.size(), future);
+		
 		Set<GridJob> jobsSet = jobsMap.keySet();
 		for (GridJob gridJob : jobsSet)
 		{
@@ -174,8 +593,37 @@ public abstract class GridTask
 			gridNode.executeJob(gridJob, this, taskCompletionManager);
 		}
 		
-		taskCompletionManager.doWaitAllJobsToComplete();
-		
+		if (speculative)
+		{
+			SpeculationMonitor.getInstance().watch(taskCompletionManager);
+		}
+		return future;
+	}
+	
+	/**
+	 * Builds the code bundles of the jobs of this task, the one of its own
+	 * package names and the ones of the {@link GridNode}'s its jobs are
+	 * mapped on, so the event loops writing the jobs never build a jar
+	 * @throws IOException if the jar of a bundle could not be built
+	 */
+	private void prepareBundles() throws IOException
+	{
+		if (packageNames.size() > 0)
+		{
+			CodeBundleCache.getInstance().getBundle(packageNames);
+		}
+		for (GridNode gridNode : new HashSet<GridNode>(jobsMap.values()))
+		{
+			gridNode.prepareBundle(this);
+		}
+	}
+	
+	/**
+	 * Gets the result of the last execution of this task
+	 * @return the result of the last execution of this task
+	 */
+	Object getTaskResult()
+	{
 		return taskResult;
 	}
 	
@@ -185,23 +633,30 @@ public abstract class GridTask
 	 */
 	public boolean isAllJobsComplete()
 	{
-		boolean allJobsComplete = true;
-		
-		Set<GridJob> jobsSet = jobsMap.keySet();
-		for (GridJob gridJob : jobsSet)
+		return taskCompletionManager.getNumRemainingJobs() == 0;
+	}
+	
+	/**
+	 * Internal update of the job results, folding the result into
+	 * the partial accumulator of the current thread
+	 * @param result the result to be updated 
+	 */
+	private void updateCollectedResults(Object result)
+	{
+		Stripe stripe = stripes[(int) Thread.currentThread().getId() & (NUM_STRIPES - 1)];
+		synchronized (stripe)
 		{
-			if (!gridJob.isComplete())
+			if (stripe.accumulator == null)
 			{
-				allJobsComplete = false;
-				break;
+				stripe.accumulator = collector.supplier().get();
 			}
+			collector.accumulator().accept(stripe.accumulator, result);
 		}
-		return allJobsComplete;
 	}
 	
 	/**
-	 * Internal copy of job results updating the 
-	 * job results array
+	 * Internal update of the job results, keeping 
+	 * the result for the final {@link #reduce(Object[])}
 	 * @param result the result to be updated 
 	 */
 	private void updateReducedResutls(Object result)
@@ -211,27 +666,80 @@ public abstract class GridTask
 			return;
 		}
 		
-		int lastSz = jobReducedResults.length;
-		int newLength = lastSz + 1;
-		jobReducedResults = Arrays.copyOf(jobReducedResults, newLength);
-		jobReducedResults[lastSz] = result;
+		jobReducedResults.add(result);
 	}
 	
 	/**
-	 * Notifies this task that a job was reduced
+	 * Notifies this task that a job was reduced.
+	 * With a {@link Collector} the results are reduced concurrently,
+	 * otherwise they are reduced one at a time
 	 * @param job the {@link GridJob} reduced
 	 * @param result the result from a {@link GridJob}
 	 * @throws IOException if a exception was thrown 
 	 */
 	public void notifyTaskJobReduce(GridJob job, Object result) throws IOException
 	{
-		updateReducedResutls(result);
+		if (collector != null)
+		{
+			updateCollectedResults(result);
+			
+			jobReduce(job, result);
+			return;
+		}
 		
-		jobReduce(job, result);
+		synchronized (this)
+		{
+			updateReducedResutls(result);
+			
+			jobReduce(job, result);
+		}
+	}
+	
+	/**
+	 * Merges the partial accumulators of the {@link Collector}
+	 * @return the accumulator of all the results
+	 */
+	private Object combineStripes()
+	{
+		Object accumulator = null;
+		for (Stripe stripe : stripes)
+		{
+			synchronized (stripe)
+			{
+				if (stripe.accumulator == null)
+				{
+					continue;
+				}
+				accumulator = accumulator == null ? stripe.accumulator : collector.combiner().apply(accumulator, stripe.accumulator);
+			}
+		}
 		
-		if (isAllJobsComplete())
+		return accumulator != null ? accumulator : collector.supplier().get();
+	}
+	
+	/**
+	 * Notifies this task that all its jobs were reduced,
+	 * so the task result is reduced from the results of the jobs,
+	 * unless the execution was abandoned by a timeout
+	 */
+	void notifyTaskReduce()
+	{
+		boolean abandoned = !reductionClaimed.compareAndSet(false, true);
+		if (collector != null)
 		{
-			this.taskResult = reduce(jobReducedResults);
+			if (!abandoned)
+			{
+				this.taskResult = collector.finisher().apply(combineStripes());
+			}
+			this.stripes = null;
+		}
+		else
+		{
+			if (!abandoned)
+			{
+				this.taskResult = reduce(jobReducedResults.toArray());
+			}
+			this.jobReducedResults = new ArrayList<Object>();
 		}
 	}
 
@@ -273,8 +781,6 @@ public abstract class GridTask
 		{
         	GridNode node = topology.get(gridIdx++);
         	
-        	addPackageNameToNode(node);
-        	
             GridJob job = jobsListIt.next();
             
         	jobMapping.put(job, node);
@@ -290,6 +796,7 @@ public abstract class GridTask
 
 	/**
 	 * The notification of a {@link GridJob} reducing
+	 * It is called concurrently when the task has a {@link Collector}
 	 * @param job {@link GridJob} that finished and reduced
 	 * @param result the result of the {@link GridJob}
 	 */
@@ -297,6 +804,7 @@ public abstract class GridTask
 	
 	/**
 	 * This final {@link GridTask} reduce
+	 * It is not called when the task has a {@link Collector}
 	 *   
 	 * @param results the reduced results
 	 * @return the return from this {@link GridTask} reducing
@@ -25,21 +25,149 @@
  */
 package com.grideasy.server;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.grideasy.client.GridJob;
 
 /**
  * This class manage the completion of a a task
  * It handles the occasional problems that can
- * occur in a job excecution
+ * occur in a job excecution.
+ * The completion of each execution is a {@link CountDownLatch} released
+ * once, so a task that completes before its caller waits is not missed.
+ * The jobs of a speculative task that run much longer than the others
+ * are duplicated on idle {@link GridNode}'s: the first result of a job
+ * is reduced and the others are ignored.
+ * Each execution has its own epoch, which tags its {@link JobDispatch}'s,
+ * and its own state, published at once when it starts: the results and
+ * the errors of the jobs of a previous execution, abandoned by a timeout,
+ * only reach the state of that execution, so they never count in the new one
  * 
  * @author Felipe Santos
  * @email felchs@gmail.com
  */
 public class GridTaskCompletionManager implements GridJobListener
 {
+	/**
+	 * A {@link GridJob} written to a {@link GridNode} and not completed yet
+	 */
+	private static class RunningJob
+	{
+		/**
+		 * The {@link GridNode} the job was written to
+		 */
+		private final GridNode node;
+		
+		/**
+		 * The time the job was written, in nanoseconds
+		 */
+		private final long startNanos;
+		
+		/**
+		 * Constructor passing fields
+		 * @param node the {@link GridNode} the job was written to
+		 * @param startNanos the time the job was written, in nanoseconds
+		 */
+		private RunningJob(GridNode node, long startNanos)
+		{
+			this.node = node;
+			this.startNanos = startNanos;
+		}
+	}
+	
+	/**
+	 * The state of an execution of the task, replaced as a whole when the
+	 * task is executed again, so a job of a previous execution never
+	 * changes the state of the current one
+	 */
+	private static class Execution
+	{
+		/**
+		 * The epoch of the execution
+		 */
+		private final int epoch;
+		
+		/**
+		 * The number of {@link GridJob}'s of the execution
+		 */
+		private final int numJobs;
+		
+		/**
+		 * The pending result of the execution
+		 */
+		private final GridTaskFuture taskFuture;
+		
+		/**
+		 * Released when the execution completes or fails
+		 */
+		private final CountDownLatch completion;
+		
+		/**
+		 * The number of {@link GridJob}'s not completed yet
+		 */
+		private final AtomicInteger remainingJobs;
+		
+		/**
+		 * The set of completed {@link GridJob}'s
+		 */
+		private final Set<GridJob> completedJobs = Collections.newSetFromMap(new ConcurrentHashMap<GridJob, Boolean>());
+		
+		/**
+		 * The {@link GridJob}'s written to a {@link GridNode} and not completed yet, by the first write
+		 */
+		private final ConcurrentMap<GridJob, RunningJob> runningJobs = new ConcurrentHashMap<GridJob, RunningJob>();
+		
+		/**
+		 * The times in nanoseconds the completed {@link GridJob}'s took, from their write to their result
+		 */
+		private final List<Long> jobDurations = Collections.synchronizedList(new ArrayList<Long>());
+		
+		/**
+		 * The {@link GridJob}'s duplicated as stragglers
+		 */
+		private final Set<GridJob> speculatedJobs = Collections.newSetFromMap(new ConcurrentHashMap<GridJob, Boolean>());
+		
+		/**
+		 * The {@link GridJob}'s duplicated as stragglers whose first copy failed, while the other one still runs
+		 */
+		private final Set<GridJob> failedCopies = Collections.newSetFromMap(new ConcurrentHashMap<GridJob, Boolean>());
+		
+		/**
+		 * The wrong tries of {@link GridJob} execution
+		 */
+		private final Hashtable<GridJob, Integer> wrongJobTries = new Hashtable<GridJob, Integer>();
+		
+		/**
+		 * Constructor passing fields
+		 * @param epoch the epoch of the execution
+		 * @param numJobs the number of {@link GridJob}'s of the execution
+		 * @param taskFuture the pending result of the execution, null if there is none
+		 * @param completion released when the execution completes or fails
+		 */
+		private Execution(int epoch, int numJobs, GridTaskFuture taskFuture, CountDownLatch completion)
+		{
+			this.epoch = epoch;
+			this.numJobs = numJobs;
+			this.taskFuture = taskFuture;
+			this.completion = completion;
+			this.remainingJobs = new AtomicInteger(numJobs);
+		}
+	}
+	
+	///////////////////////////////////////////////////////////////////////////
+	
 	/**
 	 * The max retries of a job to be executed in
 	 * a {@link GridNode} when it fails
@@ -56,25 +184,15 @@ public class GridTaskCompletionManager implements GridJobListener
 	 */
 	private Vector<GridNode> gridNodes = new Vector<GridNode>();
 	
-	/**
-	 * A list of completed {@link GridJob}'s
-	 */
-	private Vector<GridJob> completedJobs = new Vector<GridJob>();
-
-	/**
-	 * The wrong tries of {@link GridJob} execution
-	 */
-	private Hashtable<GridJob, Integer> wrongJobTries = new Hashtable<GridJob, Integer>();
-
 	/**
 	 * The {@link GridTask} to be managed
 	 */
 	private GridTask gridTask;
 	
 	/**
-	 * Sets whether the task was complete or not
+	 * The state of the current execution of the task, completed until the task is executed
 	 */
-	private boolean taskComplete;
+	private volatile Execution execution = new Execution(0, 0, null, new CountDownLatch(0));
 	
 	/**
 	 * A constructor passing the {@link GridTask} to be managed
@@ -98,6 +216,15 @@ public class GridTaskCompletionManager implements GridJobListener
 		this.gridTask = gridTask;
 	}
 	
+	/**
+	 * Gets the max retries of a job to be executed in a {@link GridNode} when it fails
+	 * @return the max retries of a job to be executed in a {@link GridNode} when it fails
+	 */
+	public int getMaxRetries()
+	{
+		return MAX_RETRIES;
+	}
+	
 	/**
 	 * Sets the {@link GridNode}'s to be handled
 	 * @param gridNodes the {@link GridNode}'s to be handled
@@ -111,18 +238,220 @@ public class GridTaskCompletionManager implements GridJobListener
 	 * Gets whether the task was completed or not
 	 * @return whether the task was completed or not
 	 */
-	public synchronized boolean isTaskComplete()
+	public boolean isTaskComplete()
 	{
-		return taskComplete;
+		return execution.completion.getCount() == 0;
 	}
 	
 	/**
-	 * Sets the task flag of completion
-	 * @param taskComplete the flag of completion
+	 * Starts the tracking of the completion of the jobs of the task.
+	 * Must be called before the first job is executed, so the
+	 * task does not complete before all its jobs are executed
+	 * @param numJobs the number of jobs of the task
+	 * @param taskFuture the pending result of the execution, completed with the task
 	 */
-	public synchronized void setTaskComplete(boolean taskComplete)
+	public void startJobs(int numJobs, GridTaskFuture taskFuture)
 	{
-		this.taskComplete = taskComplete;
+		execution = new Execution(execution.epoch + 1, numJobs, taskFuture, new CountDownLatch(1));
+	}
+	
+	/**
+	 * Gets the epoch of the current execution of the task
+	 * @return the epoch of the current execution of the task
+	 */
+	public int getEpoch()
+	{
+		return execution.epoch;
+	}
+	
+	/**
+	 * Gets whether an epoch is the one of the current execution of the task or not
+	 * @param epoch the epoch of an execution of the task
+	 * @return whether the epoch is the one of the current execution or not
+	 */
+	public boolean isCurrentEpoch(int epoch)
+	{
+		return execution.epoch == epoch;
+	}
+	
+	/**
+	 * Gets the state of the current execution of the task, if it has an epoch
+	 * @param epoch the epoch of an execution of the task
+	 * @return the state of the current execution or null if the epoch is a previous one
+	 */
+	private Execution getExecution(int epoch)
+	{
+		Execution current = execution;
+		return current.epoch == epoch ? current : null;
+	}
+	
+	/**
+	 * Gets the number of {@link GridJob}'s duplicated as stragglers in the current execution of the task
+	 * @return the number of {@link GridJob}'s duplicated as stragglers
+	 */
+	public int getNumSpeculatedJobs()
+	{
+		return execution.speculatedJobs.size();
+	}
+	
+	/**
+	 * Gets whether a {@link GridJob} was duplicated as a straggler or not, so a
+	 * {@link GridNode} in the process of the server runs its own copy of the job
+	 * @param gridJob the {@link GridJob}
+	 * @return whether the {@link GridJob} was duplicated as a straggler or not
+	 */
+	public boolean isSpeculated(GridJob gridJob)
+	{
+		return execution.speculatedJobs.contains(gridJob);
+	}
+	
+	/**
+	 * Notifies a {@link GridJob} was written to a {@link GridNode}, starting
+	 * its running time. A job duplicated as a straggler keeps the time of its first write
+	 * @param gridJob the written {@link GridJob}
+	 * @param node the {@link GridNode} the job was written to
+	 * @param epoch the epoch of the execution the job was dispatched for
+	 */
+	public void onJobDispatched(GridJob gridJob, GridNode node, int epoch)
+	{
+		Execution current = getExecution(epoch);
+		if (current != null && !current.completedJobs.contains(gridJob))
+		{
+			current.runningJobs.putIfAbsent(gridJob, new RunningJob(node, System.nanoTime()));
+		}
+	}
+	
+	/**
+	 * Gets the number of {@link GridJob}'s not completed yet
+	 * @return the number of {@link GridJob}'s not completed yet
+	 */
+	public int getNumRemainingJobs()
+	{
+		return execution.remainingJobs.get();
+	}
+	
+	/**
+	 * Marks a {@link GridJob} as completed.
+	 * A job is completed only once, so a result received again for
+	 * a job already completed (by a retry, for instance) is ignored,
+	 * as well as the result of a job of a previous execution
+	 * @param gridJob the completed {@link GridJob}
+	 * @param epoch the epoch of the execution the job was dispatched for
+	 * @return true if the job was not completed yet, false otherwise
+	 */
+	public boolean markJobComplete(GridJob gridJob, int epoch)
+	{
+		Execution current = getExecution(epoch);
+		if (current == null || !current.completedJobs.add(gridJob))
+		{
+			return false;
+		}
+		
+		RunningJob runningJob = current.runningJobs.remove(gridJob);
+		if (runningJob != null)
+		{
+			current.jobDurations.add(System.nanoTime() - runningJob.startNanos);
+		}
+		return true;
+	}
+	
+	/**
+	 * Fails the current execution of the task when its stragglers could not
+	 * be checked, since the state of its jobs can no longer be trusted
+	 * @param e the {@link Exception} thrown by {@link #speculate(double, double, long)}
+	 */
+	public void onSpeculationError(Exception e)
+	{
+		onTaskError(execution, e);
+	}
+	
+	/**
+	 * Duplicates the stragglers of the task on idle {@link GridNode}'s, once a
+	 * fraction of its jobs is completed: the jobs running longer than a multiple of
+	 * the median time of the completed jobs, each one only once and never on the
+	 * {@link GridNode} it runs on. The first result of a job is reduced, the
+	 * result of the other copy is ignored
+	 * 
+	 * @param quantile the fraction of the jobs completed before the stragglers are duplicated
+	 * @param multiplier the number of times the median job time a job runs to be a straggler
+	 * @param minNanos the minimum time in nanoseconds a job runs to be a straggler
+	 * @return whether the task is still running or not
+	 */
+	public boolean speculate(double quantile, double multiplier, long minNanos)
+	{
+		Execution current = execution;
+		if (current.completion.getCount() == 0)
+		{
+			return false;
+		}
+		
+		int numCompletedJobs = current.numJobs - current.remainingJobs.get();
+		if (numCompletedJobs == 0 || numCompletedJobs < Math.ceil(current.numJobs * quantile))
+		{
+			return true;
+		}
+		
+		long stragglerNanos = Math.max(minNanos, (long) (getMedianDuration(current) * multiplier));
+		long now = System.nanoTime();
+		for (Map.Entry<GridJob, RunningJob> entry : current.runningJobs.entrySet())
+		{
+			GridJob gridJob = entry.getKey();
+			RunningJob runningJob = entry.getValue();
+			if (now - runningJob.startNanos < stragglerNanos || current.speculatedJobs.contains(gridJob) || current.completedJobs.contains(gridJob))
+			{
+				continue;
+			}
+			
+			GridNode idleNode = getIdleNode(runningJob.node);
+			if (idleNode == null)
+			{
+				break;
+			}
+			current.speculatedJobs.add(gridJob);
+			idleNode.executeJob(gridJob, gridTask, this, current.epoch);
+		}
+		return true;
+	}
+	
+	/**
+	 * Gets the median time of the completed {@link GridJob}'s of an execution
+	 * @param current the state of the execution
+	 * @return the median time of the completed {@link GridJob}'s, in nanoseconds
+	 */
+	private long getMedianDuration(Execution current)
+	{
+		Long[] durations;
+		synchronized (current.jobDurations)
+		{
+			durations = current.jobDurations.toArray(new Long[current.jobDurations.size()]);
+		}
+		if (durations.length == 0)
+		{
+			return 0;
+		}
+		
+		Arrays.sort(durations);
+		return durations[durations.length / 2];
+	}
+	/**
+	 * Gets a {@link GridNode} of the task with no job waiting and room in its
+	 * window, other than the {@link GridNode} of a straggler
+	 * @param node the {@link GridNode} of the straggler
+	 * @return an idle {@link GridNode} or null if there is none
+	 */
+	private GridNode getIdleNode(GridNode node)
+	{
+		synchronized (gridNodes)
+		{
+			for (GridNode gridNode : gridNodes)
+			{
+				if (gridNode != node && !gridNode.isClosed() && gridNode.isAvailable() && gridNode.getNumPendingJobs() == 0)
+				{
+					return gridNode;
+				}
+			}
+		}
+		return null;
 	}
 	
 	/**
@@ -142,52 +471,96 @@ public class GridTaskCompletionManager implements GridJobListener
 	}
 
 	/**
-	 * The notification of a job completeness
+	 * The notification of a job completeness, after its result was reduced.
+	 * The last job to complete reduces the task and notifies the completion
+	 * of all jobs, or fails the result of the task when the reduce fails
 	 * @param gridJob the {@link GridJob} that completed
 	 */
 	@Override
 	public void onJobComplete(GridJob gridJob)
 	{
-		completedJobs.add(gridJob);
+		onJobComplete(gridJob, execution.epoch);
+	}
+	
+	/**
+	 * The notification of a job completeness, as {@link #onJobComplete(GridJob)},
+	 * ignored when the job belongs to a previous execution of the task
+	 * or when the task already failed
+	 * @param gridJob the {@link GridJob} that completed
+	 * @param epoch the epoch of the execution the job was dispatched for
+	 */
+	public void onJobComplete(GridJob gridJob, int epoch)
+	{
+		Execution current = getExecution(epoch);
+		if (current != null && current.remainingJobs.decrementAndGet() == 0 && current.completion.getCount() != 0)
+		{
+			try
+			{
+				gridTask.notifyTaskReduce();
+			}
+			catch (RuntimeException e)
+			{
+				e.printStackTrace();
+				onTaskError(current, e);
+				return;
+			}
+			onAllJobsComplete(current);
+		}
+	}
+	
+	/**
+	 * The notification of a job failure that cannot be retried: the result of
+	 * the job could not be reduced by the task or the job could not be serialized.
+	 * The job would never be counted, so the task fails at once
+	 * @param gridJob the {@link GridJob} that failed
+	 * @param epoch the epoch of the execution the job was dispatched for
+	 * @param e the {@link Exception} that made the job to fail
+	 */
+	public void onJobFailure(GridJob gridJob, int epoch, Exception e)
+	{
+		Execution current = getExecution(epoch);
+		if (current != null)
+		{
+			onTaskError(current, e);
+		}
 	}
 	
 	/**
 	 * Gets an available node to be used when an error 
-	 * is thrown
+	 * is thrown: another open {@link GridNode} or else the
+	 * one that failed, when it is still open
 	 * 
 	 * @param node the {@link GridNode} that failed
-	 * @return gridNode an available {@link GridNode}
+	 * @return gridNode an available {@link GridNode} or null when all of them are closed
 	 */
 	private GridNode getAnAvailableNode(GridNode node)
 	{
-		int sz = gridNodes.size();
-		if (sz > 1)
+		List<GridNode> openNodes = new ArrayList<GridNode>();
+		synchronized (gridNodes)
 		{
-			int gridNodeIdx = (int) (Math.random()  * (sz - 1));
-			GridNode gridNode = gridNodes.get(gridNodeIdx);
-			if (gridNode != node)
+			for (GridNode gridNode : gridNodes)
 			{
-				return gridNode;
-			}
-			else
-			{
-				if (++gridNodeIdx > sz)
+				if (gridNode != node && !gridNode.isClosed())
 				{
-					gridNodeIdx = 0;
+					openNodes.add(gridNode);
 				}
-				return gridNodes.get(gridNodeIdx);
 			}
 		}
-		else
+		
+		if (openNodes.isEmpty())
 		{
-			return gridNodes.get(0);
+			return node.isClosed() ? null : node;
 		}
+		return openNodes.get((int) (Math.random() * openNodes.size()));
 	}
 	
 	/**
 	 * A notification of a error in a job
 	 * This method handles the retry of a erroneous {@link GridNode} with 
-	 * another available {@link GridNode}
+	 * another available {@link GridNode}.
+	 * A job duplicated as a straggler is retried only when both copies failed,
+	 * and the task fails when all the {@link GridNode}'s are closed or when
+	 * the job still fails after as many retries on another node
 	 * 
 	 * @param gridJob the {@link GridJob} that failed
 	 * @param node the {@link GridNode} that failed
@@ -196,7 +569,39 @@ public class GridTaskCompletionManager implements GridJobListener
 	@Override
 	public void onJobError(GridJob gridJob, GridNode node, Exception e)
 	{
-		Integer tries = wrongJobTries.get(gridJob);
+		onJobError(gridJob, node, e, execution.epoch);
+	}
+	
+	/**
+	 * A notification of a error in a job, as {@link #onJobError(GridJob, GridNode, Exception)},
+	 * ignored when the job belongs to a previous execution of the task,
+	 * so it is not retried
+	 * 
+	 * @param gridJob the {@link GridJob} that failed
+	 * @param node the {@link GridNode} that failed
+	 * @param e the {@link Exception} thrown when {@link GridJob} failed
+	 * @param epoch the epoch of the execution the job was dispatched for
+	 */
+	public void onJobError(GridJob gridJob, GridNode node, Exception e, int epoch)
+	{
+		Execution current = getExecution(epoch);
+		if (current == null)
+		{
+			return;
+		}
+		if (current.completedJobs.contains(gridJob))
+		{
+			// the other copy of a straggler won
+			return;
+		}
+		if (current.speculatedJobs.contains(gridJob) && current.failedCopies.add(gridJob))
+		{
+			// the other copy of a straggler is still running
+			return;
+		}
+		current.runningJobs.remove(gridJob);
+		
+		Integer tries = current.wrongJobTries.get(gridJob);
 		if (tries != null)
 		{
 			tries = tries + 1;
@@ -206,57 +611,114 @@ public class GridTaskCompletionManager implements GridJobListener
 			tries = 1;
 		}
 		
-		wrongJobTries.put(gridJob, tries);
+		current.wrongJobTries.put(gridJob, tries);
 		
-		if (tries < MAX_RETRIES)
+		if (tries >= 2 * MAX_RETRIES)
 		{
-			node.executeJob(gridJob, gridTask, this);
+			// the job failed on another node too, so it fails by itself
+			onTaskError(current, e);
+			return;
 		}
-		else
+		
+		if (tries < MAX_RETRIES && !node.isClosed())
 		{
-			GridNode availableNode = getAnAvailableNode(node);
-			availableNode.executeJob(gridJob, gridTask, this);
+			node.executeJob(gridJob, gridTask, this, epoch);
+			return;
 		}
+		
+		GridNode availableNode = getAnAvailableNode(node);
+		if (availableNode == null)
+		{
+			// no node is left to run the job
+			onTaskError(current, e);
+			return;
+		}
+		availableNode.executeJob(gridJob, gridTask, this, epoch);
 	}
 
 	/**
 	 * A waiter of jobs completion
 	 * This methods holds this current thread (the thread that
 	 * launch the {@link GridJob}'s) to wait until all
-	 * the {@link GridJob}'s to be completed.
+	 * the {@link GridJob}'s to be completed, returning at once
+	 * when they are already completed.
 	 * When it completes the caller method: {@link GridTask#execute()} 
 	 * gather the results of the {@link GridJob}'s to be returned 
-	 * and passed through
+	 * and passed through.
+	 * An interrupted wait returns keeping the interrupt status of the thread
 	 */
-	public synchronized void doWaitAllJobsToComplete()
+	public void doWaitAllJobsToComplete()
 	{
-		if (!isTaskComplete())
+		try
 		{
-			try
-			{
-				this.wait();
-			} 
-			catch (InterruptedException e)
-			{
-				e.printStackTrace();
-			}
+			execution.completion.await();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * A waiter of jobs completion, as {@link #doWaitAllJobsToComplete()},
+	 * giving up after a timeout
+	 * @param timeout the maximum time to wait
+	 * @param unit the unit of the timeout
+	 * @return whether all the jobs were completed or not
+	 */
+	public boolean doWaitAllJobsToComplete(long timeout, TimeUnit unit)
+	{
+		try
+		{
+			return execution.completion.await(timeout, unit);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			return isTaskComplete();
 		}
 	}
 
 	/**
-	 * When all the jobs were completed this method
-	 * calls notify() for the waiting thread to be awaked
-	 * The awaked thread comes from the {@link GridNode} object that
+	 * When all the jobs were completed this method releases the
+	 * waiting threads and completes the result of the task,
+	 * running its dependent stages.
+	 * The released thread comes from the {@link GridNode} object that
 	 * calls waits for the client response.
 	 */
 	@Override
 	public void onAllJobsComplete()
 	{
-		synchronized (this)
+		onAllJobsComplete(execution);
+	}
+	
+	/**
+	 * Completes an execution of the task, as {@link #onAllJobsComplete()}
+	 * @param current the state of the completed execution
+	 */
+	private void onAllJobsComplete(Execution current)
+	{
+		current.completion.countDown();
+		
+		if (current.taskFuture != null)
 		{
-			this.notify();
+			current.taskFuture.complete(gridTask.getTaskResult());
 		}
+	}
+	
+	/**
+	 * When the task failed this method releases the waiting
+	 * threads and fails the result of the task, running its dependent stages
+	 * @param current the state of the failed execution
+	 * @param e the {@link Throwable} that made the task to fail
+	 */
+	private void onTaskError(Execution current, Throwable e)
+	{
+		current.completion.countDown();
 		
-		setTaskComplete(true);
+		if (current.taskFuture != null)
+		{
+			current.taskFuture.completeExceptionally(e);
+		}
 	}
-}
\ No newline at end of file
+}
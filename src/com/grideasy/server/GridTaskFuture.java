@@ -0,0 +1,77 @@
+/*
+ * This source file is part of Grideasy
+ * For the latest info, see https://code.google.com/p/grideasy/
+ * 
+ * Grideasy is free software: you can redistribute it
+ * and/or modify it under the terms of the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.grideasy.server;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The pending result of a {@link GridTask} executed asynchronously.
+ * It is completed by the thread that reduces the last result of the task,
+ * with no thread waiting for the task meanwhile, so tasks can be chained
+ * without blocking through the stages of the {@link CompletableFuture}.
+ * The stages added with no executor run on that thread, so the ones that
+ * block must be added through the asynchronous methods.
+ * The jobs of a task cannot be cancelled once they are dispatched
+ * 
+ * @author Felipe Santos
+ * @email felchs@gmail.com
+ */
+public class GridTaskFuture extends CompletableFuture<Object>
+{
+	/**
+	 * The {@link GridTask} of this result
+	 */
+	private final GridTask gridTask;
+	
+	/**
+	 * Constructor passing the {@link GridTask} of this result
+	 * @param gridTask the {@link GridTask} of this result
+	 */
+	public GridTaskFuture(GridTask gridTask)
+	{
+		this.gridTask = gridTask;
+	}
+	
+	/**
+	 * Gets the {@link GridTask} of this result
+	 * @return the {@link GridTask} of this result
+	 */
+	public GridTask getGridTask()
+	{
+		return gridTask;
+	}
+	
+	/**
+	 * The jobs of a task cannot be cancelled once they are dispatched
+	 * @param mayInterruptIfRunning ignored
+	 * @return false, always
+	 */
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning)
+	{
+		return false;
+	}
+}
@@ -0,0 +1,170 @@
+/*
+ * This source file is part of Grideasy
+ * For the latest info, see https://code.google.com/p/grideasy/
+ * 
+ * Grideasy is free software: you can redistribute it
+ * and/or modify it under the terms of the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.grideasy.server;
+
+/**
+ * The outcome of a {@link GridTask} executed with a timeout: the result of
+ * the task when all its jobs completed in time, otherwise a partial result
+ * reduced from the results of the jobs completed until the timeout.
+ * A timed out execution is abandoned: the jobs still running are not
+ * reduced into a full result of the task afterwards. When the reduce of
+ * the task fails the outcome is failed, with the error of the reduce
+ * 
+ * @author Felipe Santos
+ * @email felchs@gmail.com
+ */
+public class GridTaskOutcome
+{
+	/**
+	 * Whether all the jobs of the task completed in time or not
+	 */
+	private final boolean complete;
+	
+	/**
+	 * The result of the task or the partial result when it timed out
+	 */
+	private final Object result;
+	
+	/**
+	 * The {@link Throwable} that made the task to fail, null if it did not fail
+	 */
+	private final Throwable error;
+	
+	/**
+	 * The number of jobs of the task
+	 */
+	private final int numJobs;
+	
+	/**
+	 * The number of jobs of the task completed in time
+	 */
+	private final int numCompletedJobs;
+	
+	/**
+	 * Constructor passing fields
+	 * @param complete whether all the jobs of the task completed in time or not
+	 * @param result the result of the task or the partial result when it timed out
+	 * @param numJobs the number of jobs of the task
+	 * @param numCompletedJobs the number of jobs of the task completed in time
+	 */
+	public GridTaskOutcome(boolean complete, Object result, int numJobs, int numCompletedJobs)
+	{
+		this.complete = complete;
+		this.result = result;
+		this.error = null;
+		this.numJobs = numJobs;
+		this.numCompletedJobs = numCompletedJobs;
+	}
+	
+	/**
+	 * Constructor of a failed outcome
+	 * @param error the {@link Throwable} that made the task to fail
+	 * @param numJobs the number of jobs of the task
+	 * @param numCompletedJobs the number of jobs of the task completed in time
+	 */
+	public GridTaskOutcome(Throwable error, int numJobs, int numCompletedJobs)
+	{
+		this.complete = false;
+		this.result = null;
+		this.error = error;
+		this.numJobs = numJobs;
+		this.numCompletedJobs = numCompletedJobs;
+	}
+	
+	/**
+	 * Gets whether all the jobs of the task completed in time or not
+	 * @return whether all the jobs of the task completed in time or not
+	 */
+	public boolean isComplete()
+	{
+		return complete;
+	}
+	
+	/**
+	 * Gets whether the task timed out or not
+	 * @return whether the task timed out or not
+	 */
+	public boolean isTimedOut()
+	{
+		return !complete && error == null;
+	}
+	
+	/**
+	 * Gets whether the task failed or not
+	 * @return whether the task failed or not
+	 */
+	public boolean isFailed()
+	{
+		return error != null;
+	}
+	
+	/**
+	 * Gets the {@link Throwable} that made the task to fail
+	 * @return the {@link Throwable} that made the task to fail or null if it did not fail
+	 */
+	public Throwable getError()
+	{
+		return error;
+	}
+	
+	/**
+	 * Gets the result of the task or, when it timed out, the partial
+	 * result reduced from the results of the jobs completed in time
+	 * @return the result or the partial result of the task
+	 */
+	public Object getResult()
+	{
+		return result;
+	}
+	
+	/**
+	 * Gets the number of jobs of the task
+	 * @return the number of jobs of the task
+	 */
+	public int getNumJobs()
+	{
+		return numJobs;
+	}
+	
+	/**
+	 * Gets the number of jobs of the task completed in time
+	 * @return the number of jobs of the task completed in time
+	 */
+	public int getNumCompletedJobs()
+	{
+		return numCompletedJobs;
+	}
+	
+	@Override
+	public String toString()
+	{
+		if (error != null)
+		{
+			return "Failed with " + numCompletedJobs + " of " + numJobs + " jobs: " + error;
+		}
+		return (complete ? "Complete" : "Timed out") + " with " + numCompletedJobs + " of " + numJobs + " jobs: " + result;
+	}
+}
@@ -0,0 +1,231 @@
+/*
+ * This source file is part of Grideasy
+ * For the latest info, see https://code.google.com/p/grideasy/
+ * 
+ * Grideasy is free software: you can redistribute it
+ * and/or modify it under the terms of the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.grideasy.server;
+
+import com.grideasy.client.GridJob;
+
+/**
+ * A dispatch of a {@link GridJob} to a {@link GridNode}.
+ * It holds the {@link GridTask} and the {@link GridTaskCompletionManager}
+ * of the job and the request id that tags the job and its result on the
+ * connection, so many jobs can be in flight on the same connection and
+ * their results can come back in any order.
+ * It is tagged with the execution of the task it was dispatched for, so the
+ * late results of an execution abandoned by a timeout do not reach the next one.
+ *
+ * @author Felipe Santos
+ * @email felchs@gmail.com
+ */
+public class JobDispatch
+{
+	/**
+	 * The dispatched {@link GridJob}
+	 */
+	private final GridJob job;
+
+	/**
+	 * The {@link GridTask} which the {@link GridJob} belongs to
+	 */
+	private final GridTask gridTask;
+
+	/**
+	 * The callback object to notify whether the job had completed or not
+	 */
+	private final GridTaskCompletionManager taskCompletionManager;
+
+	/**
+	 * The execution of the {@link GridTask} the job was dispatched for
+	 */
+	private final int epoch;
+
+	/**
+	 * The id of the request on the connection
+	 */
+	private long requestId;
+
+	/**
+	 * The order of the submission of the job to the {@link JobScheduler}
+	 */
+	private long sequence;
+
+	/**
+	 * The priority of the dispatch of the job
+	 */
+	private final int priority;
+
+	/**
+	 * The time the job was submitted to the {@link JobScheduler}, in nanoseconds
+	 */
+	private long submitNanos;
+
+	/**
+	 * The number of times the job was sent again because the client could not read it
+	 */
+	private int numUnreadResends;
+
+	/**
+	 * Constructor passing fields
+	 *
+	 * @param job the dispatched {@link GridJob}
+	 * @param gridTask the {@link GridTask} which the {@link GridJob} belongs to
+	 * @param taskCompletionManager the callback object to notify whether the job had completed or not
+	 * @param epoch the execution of the {@link GridTask} the job is dispatched for
+	 */
+	public JobDispatch(GridJob job, GridTask gridTask, GridTaskCompletionManager taskCompletionManager, int epoch)
+	{
+		this.job = job;
+		this.gridTask = gridTask;
+		this.taskCompletionManager = taskCompletionManager;
+		this.epoch = epoch;
+		this.priority = job.getPriority() != null ? job.getPriority().intValue() : gridTask.getPriority();
+	}
+
+	/**
+	 * Gets the dispatched {@link GridJob}
+	 * @return the dispatched {@link GridJob}
+	 */
+	public GridJob getJob()
+	{
+		return job;
+	}
+
+	/**
+	 * Gets the {@link GridTask} which the {@link GridJob} belongs to
+	 * @return the {@link GridTask} which the {@link GridJob} belongs to
+	 */
+	public GridTask getGridTask()
+	{
+		return gridTask;
+	}
+
+	/**
+	 * Gets the callback object to notify whether the job had completed or not
+	 * @return the callback object to notify whether the job had completed or not
+	 */
+	public GridTaskCompletionManager getTaskCompletionManager()
+	{
+		return taskCompletionManager;
+	}
+
+	/**
+	 * Gets the execution of the {@link GridTask} the job was dispatched for
+	 * @return the execution of the {@link GridTask} the job was dispatched for
+	 */
+	public int getEpoch()
+	{
+		return epoch;
+	}
+
+	/**
+	 * Gets the id of the request on the connection
+	 * @return the id of the request on the connection
+	 */
+	public long getRequestId()
+	{
+		return requestId;
+	}
+
+	/**
+	 * Sets the id of the request on the connection
+	 * @param requestId the id of the request on the connection
+	 */
+	public void setRequestId(long requestId)
+	{
+		this.requestId = requestId;
+	}
+
+	/**
+	 * Gets the order of the submission of the job to the {@link JobScheduler}
+	 * @return the order of the submission of the job to the {@link JobScheduler}
+	 */
+	public long getSequence()
+	{
+		return sequence;
+	}
+
+	/**
+	 * Sets the order of the submission of the job to the {@link JobScheduler}
+	 * @param sequence the order of the submission of the job to the {@link JobScheduler}
+	 */
+	public void setSequence(long sequence)
+	{
+		this.sequence = sequence;
+	}
+
+	/**
+	 * Gets the priority of the dispatch of the job: the priority of the job or else of its task
+	 * @return the priority of the dispatch of the job
+	 */
+	public int getPriority()
+	{
+		return priority;
+	}
+
+	/**
+	 * Gets the time the job was submitted to the {@link JobScheduler}, in nanoseconds
+	 * @return the time the job was submitted to the {@link JobScheduler}
+	 */
+	public long getSubmitNanos()
+	{
+		return submitNanos;
+	}
+
+	/**
+	 * Sets the time the job was submitted to the {@link JobScheduler}, in nanoseconds
+	 * @param submitNanos the time the job was submitted to the {@link JobScheduler}
+	 */
+	public void setSubmitNanos(long submitNanos)
+	{
+		this.submitNanos = submitNanos;
+	}
+
+	/**
+	 * Gets the number of times the job was sent again because the client could not read it
+	 * @return the number of times the job was sent again because the client could not read it
+	 */
+	public int getNumUnreadResends()
+	{
+		return numUnreadResends;
+	}
+
+	/**
+	 * Sets the number of times the job was sent again because the client could not read it
+	 * @param numUnreadResends the number of times the job was sent again because the client could not read it
+	 */
+	public void setNumUnreadResends(int numUnreadResends)
+	{
+		this.numUnreadResends = numUnreadResends;
+	}
+
+	/**
+	 * Gets whether the job can be stolen by another {@link GridNode} or not
+	 * @return whether the job can be stolen by another {@link GridNode} or not
+	 */
+	public boolean isStealable()
+	{
+		return gridTask.getSchedulingMode() == SchedulingMode.DYNAMIC;
+	}
+}
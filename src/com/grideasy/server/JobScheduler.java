@@ -0,0 +1,644 @@
+/*
+ * This source file is part of Grideasy
+ * For the latest info, see https://code.google.com/p/grideasy/
+ * 
+ * Grideasy is free software: you can redistribute it
+ * and/or modify it under the terms of the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.grideasy.server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Holds the jobs waiting to be written on each {@link GridNode}.
+ * A {@link GridNode} polls its own jobs first and, when it has none,
+ * steals the jobs of {@link SchedulingMode#DYNAMIC} tasks waiting on
+ * the {@link GridNode} with most of them, so an idle {@link GridNode}
+ * keeps working while there is work anywhere in the grid.
+ * The jobs wait in lanes by the priority of their dispatch: a job of a
+ * higher priority is polled before the waiting jobs of a lower one, and
+ * is stolen before the own jobs of a lower priority.
+ * The tasks of a lane share the {@link GridNode}'s by their weights, in
+ * the manner of a stride scheduler: each task has a pass that advances
+ * by the inverse of its weight for each of its jobs polled, and the next
+ * job is taken from the task with the lowest pass, so a small task
+ * submitted while a large one runs is not queued behind all the jobs of
+ * the large one. The wait of each polled job is counted by the
+ * {@link QueueWaitStatistics}.
+ * Nothing waits on the scheduler: a {@link GridNode} that found no job
+ * is told by {@link GridNode#onJobsAvailable()} when there is one again.
+ *
+ * @author Felipe Santos
+ * @email felchs@gmail.com
+ */
+public class JobScheduler
+{
+	/**
+	 * The pass a task of weight one advances for each of its polled jobs
+	 */
+	private static final long STRIDE = 1 << 20;
+
+	/**
+	 * Orders the jobs by their submission
+	 */
+	private static final Comparator<JobDispatch> SEQUENCE_ORDER = new Comparator<JobDispatch>()
+	{
+		@Override
+		public int compare(JobDispatch d1, JobDispatch d2)
+		{
+			return d1.getSequence() < d2.getSequence() ? -1 : (d1.getSequence() == d2.getSequence() ? 0 : 1);
+		}
+	};
+
+	/**
+	 * The share of the {@link GridNode}'s of a task with jobs waiting
+	 */
+	private static class TaskShare
+	{
+		/**
+		 * The pass of the task, the lowest one is polled next
+		 */
+		private long pass;
+
+		/**
+		 * The advance of the pass for each polled job, the inverse of the weight of the task
+		 */
+		private final long stride;
+
+		/**
+		 * The number of jobs of the task waiting on any {@link GridNode}
+		 */
+		private int numJobs;
+
+		/**
+		 * Constructor passing fields
+		 * @param pass the starting pass of the task
+		 * @param weight the weight of the task
+		 */
+		private TaskShare(long pass, int weight)
+		{
+			this.pass = pass;
+			this.stride = STRIDE / Math.max(1, weight);
+		}
+	}
+
+	/**
+	 * The jobs of a task and a priority waiting on a {@link GridNode}
+	 */
+	private static class TaskJobs
+	{
+		/**
+		 * The jobs that must be executed by the {@link GridNode}
+		 */
+		private LinkedList<JobDispatch> pinnedJobs = new LinkedList<JobDispatch>();
+
+		/**
+		 * The jobs that can be stolen by the other {@link GridNode}'s
+		 */
+		private LinkedList<JobDispatch> stealableJobs = new LinkedList<JobDispatch>();
+
+		/**
+		 * Gets whether there is no job of the task waiting on the {@link GridNode}
+		 * @return whether there is no job of the task waiting on the {@link GridNode}
+		 */
+		private boolean isEmpty()
+		{
+			return pinnedJobs.isEmpty() && stealableJobs.isEmpty();
+		}
+
+		/**
+		 * Takes the oldest job of the task waiting on the {@link GridNode}
+		 * @return the oldest job of the task or null if there is none
+		 */
+		private JobDispatch poll()
+		{
+			JobDispatch pinned = pinnedJobs.peek();
+			JobDispatch stealable = stealableJobs.peek();
+			if (pinned == null || (stealable != null && stealable.getSequence() < pinned.getSequence()))
+			{
+				return stealableJobs.poll();
+			}
+			return pinnedJobs.poll();
+		}
+	}
+
+	/**
+	 * The jobs of a priority waiting on a {@link GridNode}, by task
+	 */
+	private static class Lane
+	{
+		/**
+		 * The jobs by task, only of the tasks with jobs waiting
+		 */
+		private Map<GridTask, TaskJobs> taskJobs = new LinkedHashMap<GridTask, TaskJobs>();
+	}
+
+	/**
+	 * The jobs waiting on a {@link GridNode}, by priority
+	 */
+	private static class NodeQueue
+	{
+		/**
+		 * The lanes by priority, from the highest one, only of the priorities with jobs waiting
+		 */
+		private TreeMap<Integer, Lane> lanes = new TreeMap<Integer, Lane>(Collections.reverseOrder());
+
+		/**
+		 * The number of jobs waiting on the {@link GridNode}
+		 */
+		private int size;
+	}
+
+	///////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Lock of all the queues
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/**
+	 * The queues by {@link GridNode}
+	 */
+	private Map<GridNode, NodeQueue> queues = new HashMap<GridNode, NodeQueue>();
+
+	/**
+	 * The shares of the tasks with jobs waiting
+	 */
+	private Map<GridTask, TaskShare> shares = new HashMap<GridTask, TaskShare>();
+
+	/**
+	 * The number of stealable jobs waiting by priority, from the highest one,
+	 * only of the priorities with stealable jobs waiting
+	 */
+	private TreeMap<Integer, int[]> stealableJobs = new TreeMap<Integer, int[]>(Collections.reverseOrder());
+
+	/**
+	 * The {@link GridNode}'s that found no job to poll
+	 */
+	private Set<GridNode> idleNodes = new LinkedHashSet<GridNode>();
+
+	/**
+	 * The sequence of the submitted jobs, keeping the order of the jobs of a {@link GridNode}
+	 */
+	private long sequence;
+
+	/**
+	 * The pass of the last polled job, where the pass of a task that starts waiting starts
+	 */
+	private long virtualTime;
+
+	/**
+	 * Gets the queue of a {@link GridNode}, creating it for the first job submitted to it.
+	 * Must be called holding the lock
+	 * @param node the {@link GridNode} of the queue
+	 * @return the queue of the {@link GridNode}
+	 */
+	private NodeQueue getQueue(GridNode node)
+	{
+		NodeQueue queue = queues.get(node);
+		if (queue == null)
+		{
+			queue = new NodeQueue();
+			queues.put(node, queue);
+		}
+		return queue;
+	}
+
+	/**
+	 * Submits a job to wait on a {@link GridNode}, which is told there is a job.
+	 * When the job can be stolen and the {@link GridNode} is busy,
+	 * an idle {@link GridNode} is told too, so it can steal the job
+	 *
+	 * @param node the {@link GridNode} which the job was mapped to
+	 * @param dispatch the {@link JobDispatch} of the job
+	 */
+	public void submit(GridNode node, JobDispatch dispatch)
+	{
+		GridNode thief = null;
+		
+		lock.lock();
+		try
+		{
+			dispatch.setSequence(sequence++);
+			dispatch.setSubmitNanos(System.nanoTime());
+
+			GridTask gridTask = dispatch.getGridTask();
+			TaskShare share = shares.get(gridTask);
+			if (share == null)
+			{
+				share = new TaskShare(virtualTime, gridTask.getWeight());
+				shares.put(gridTask, share);
+			}
+			share.numJobs++;
+
+			NodeQueue queue = getQueue(node);
+			Lane lane = queue.lanes.get(dispatch.getPriority());
+			if (lane == null)
+			{
+				lane = new Lane();
+				queue.lanes.put(dispatch.getPriority(), lane);
+			}
+			TaskJobs jobs = lane.taskJobs.get(gridTask);
+			if (jobs == null)
+			{
+				jobs = new TaskJobs();
+				lane.taskJobs.put(gridTask, jobs);
+			}
+			queue.size++;
+			
+			if (dispatch.isStealable())
+			{
+				jobs.stealableJobs.add(dispatch);
+				countStealable(dispatch.getPriority(), 1);
+				if (!idleNodes.contains(node) && !idleNodes.isEmpty())
+				{
+					thief = idleNodes.iterator().next();
+					idleNodes.remove(thief);
+				}
+			}
+			else
+			{
+				jobs.pinnedJobs.add(dispatch);
+			}
+			
+			idleNodes.remove(node);
+		}
+		finally
+		{
+			lock.unlock();
+		}
+		
+		node.onJobsAvailable();
+		if (thief != null)
+		{
+			thief.onJobsAvailable();
+		}
+	}
+
+	/**
+	 * Polls the next job to be written on a {@link GridNode}: the oldest job
+	 * of the highest priority waiting on it, of the task with the lowest pass.
+	 * A job of a higher priority waiting on another {@link GridNode} is stolen
+	 * first, as any job is when the {@link GridNode} has none.
+	 * When there is no job the {@link GridNode} is kept as idle, to be told
+	 * by {@link GridNode#onJobsAvailable()} when a job is submitted to it
+	 * or can be stolen
+	 *
+	 * @param node the {@link GridNode} that will write the job
+	 * @return the {@link JobDispatch} of the job or null if there is none
+	 */
+	public JobDispatch poll(GridNode node)
+	{
+		lock.lock();
+		try
+		{
+			NodeQueue queue = queues.get(node);
+			Integer priority = queue != null && queue.size > 0 ? queue.lanes.firstKey() : null;
+			Integer stealablePriority = stealableJobs.isEmpty() ? null : stealableJobs.firstKey();
+			
+			JobDispatch dispatch = null;
+			if (stealablePriority != null && (priority == null || stealablePriority > priority))
+			{
+				dispatch = steal(node, null, stealablePriority);
+			}
+			if (dispatch == null && priority != null)
+			{
+				dispatch = take(queue, priority, lowestPass(queue.lanes.get(priority).taskJobs.keySet()));
+			}
+			
+			if (dispatch == null)
+			{
+				idleNodes.add(node);
+			}
+			else
+			{
+				idleNodes.remove(node);
+			}
+			return dispatch;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Polls the next job to be written on a {@link GridNode} in the same batch as
+	 * the jobs just polled, only of the same {@link GridTask} and priority and
+	 * only while no job of a higher priority waits: its oldest job waiting on
+	 * the {@link GridNode} or, when the {@link GridNode} has no job at all, a
+	 * stolen one. The jobs of a batch are charged to the pass of the task as
+	 * they are polled, so a batch delays the other tasks only once.
+	 * The {@link GridNode} is not kept as idle when there is none, since
+	 * it polls again with {@link #poll(GridNode)} after writing the batch
+	 *
+	 * @param node the {@link GridNode} that will write the job
+	 * @param first the {@link JobDispatch} of the first job of the batch
+	 * @return the {@link JobDispatch} of the job or null if there is none
+	 */
+	public JobDispatch poll(GridNode node, JobDispatch first)
+	{
+		lock.lock();
+		try
+		{
+			GridTask gridTask = first.getGridTask();
+			int priority = first.getPriority();
+			if (!stealableJobs.isEmpty() && stealableJobs.firstKey() > priority)
+			{
+				return null;
+			}
+			
+			NodeQueue queue = queues.get(node);
+			if (queue != null && queue.size > 0)
+			{
+				Lane lane = queue.lanes.get(priority);
+				if (queue.lanes.firstKey() > priority || lane == null || !lane.taskJobs.containsKey(gridTask))
+				{
+					return null;
+				}
+				return take(queue, priority, gridTask);
+			}
+			return steal(node, gridTask, priority);
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Gets the task with the lowest pass, the one whose jobs are polled next.
+	 * Must be called holding the lock
+	 *
+	 * @param gridTasks the tasks with jobs waiting
+	 * @return the task with the lowest pass or null if there is none
+	 */
+	private GridTask lowestPass(Iterable<GridTask> gridTasks)
+	{
+		GridTask lowest = null;
+		long lowestPass = 0;
+		for (GridTask gridTask : gridTasks)
+		{
+			long pass = shares.get(gridTask).pass;
+			if (lowest == null || pass < lowestPass)
+			{
+				lowest = gridTask;
+				lowestPass = pass;
+			}
+		}
+		return lowest;
+	}
+
+	/**
+	 * Takes the oldest job of a task and a priority waiting on a {@link GridNode}.
+	 * Must be called holding the lock
+	 *
+	 * @param queue the queue of the {@link GridNode}
+	 * @param priority the priority of the job
+	 * @param gridTask the task of the job
+	 * @return the {@link JobDispatch} of the job
+	 */
+	private JobDispatch take(NodeQueue queue, int priority, GridTask gridTask)
+	{
+		Lane lane = queue.lanes.get(priority);
+		TaskJobs jobs = lane.taskJobs.get(gridTask);
+		JobDispatch dispatch = jobs.poll();
+		removeIfEmpty(queue, lane, jobs, priority, gridTask);
+		if (dispatch.isStealable())
+		{
+			countStealable(priority, -1);
+		}
+		onPolled(dispatch);
+		return dispatch;
+	}
+
+	/**
+	 * Removes the jobs of a task and its lane from the queue of a {@link GridNode}
+	 * when they are empty, counting a job less in the queue.
+	 * Must be called holding the lock
+	 *
+	 * @param queue the queue of the {@link GridNode}
+	 * @param lane the lane of the priority of the job
+	 * @param jobs the jobs of the task of the job
+	 * @param priority the priority of the job
+	 * @param gridTask the task of the job
+	 */
+	private void removeIfEmpty(NodeQueue queue, Lane lane, TaskJobs jobs, int priority, GridTask gridTask)
+	{
+		if (jobs.isEmpty())
+		{
+			lane.taskJobs.remove(gridTask);
+			if (lane.taskJobs.isEmpty())
+			{
+				queue.lanes.remove(priority);
+			}
+		}
+		queue.size--;
+	}
+
+	/**
+	 * Counts stealable jobs of a priority as submitted or polled.
+	 * Must be called holding the lock
+	 *
+	 * @param priority the priority of the jobs
+	 * @param delta the number of jobs submitted, negative when they are polled
+	 */
+	private void countStealable(int priority, int delta)
+	{
+		int[] count = stealableJobs.get(priority);
+		if (count == null)
+		{
+			count = new int[1];
+			stealableJobs.put(priority, count);
+		}
+		count[0] += delta;
+		if (count[0] == 0)
+		{
+			stealableJobs.remove(priority);
+		}
+	}
+
+	/**
+	 * Advances the pass of the task of a polled job, forgetting the task
+	 * when it has no job waiting anymore, and counts the wait of the job.
+	 * Must be called holding the lock
+	 *
+	 * @param dispatch the {@link JobDispatch} of the polled job
+	 */
+	private void onPolled(JobDispatch dispatch)
+	{
+		GridTask gridTask = dispatch.getGridTask();
+		TaskShare share = shares.get(gridTask);
+		virtualTime = Math.max(virtualTime, share.pass);
+		share.pass += share.stride;
+		if (--share.numJobs == 0)
+		{
+			shares.remove(gridTask);
+		}
+		
+		QueueWaitStatistics.getInstance().onJobPolled(dispatch.getPriority(), System.nanoTime() - dispatch.getSubmitNanos());
+	}
+
+	/**
+	 * Steals the newest stealable job of a priority of the {@link GridNode} with
+	 * most stealable jobs of a task: the given {@link GridTask} or, when there is
+	 * none, the task with the lowest pass among the ones with stealable jobs.
+	 * Must be called holding the lock
+	 *
+	 * @param thief the {@link GridNode} that steals the job
+	 * @param gridTask the {@link GridTask} of the stolen job or null for the task with the lowest pass
+	 * @param priority the priority of the stolen job
+	 * @return the {@link JobDispatch} of the stolen job or null if there is none
+	 */
+	private JobDispatch steal(GridNode thief, GridTask gridTask, int priority)
+	{
+		if (gridTask == null)
+		{
+			Set<GridTask> stealableTasks = new LinkedHashSet<GridTask>();
+			for (Map.Entry<GridNode, NodeQueue> entry : queues.entrySet())
+			{
+				Lane lane = entry.getValue().lanes.get(priority);
+				if (entry.getKey() == thief || lane == null)
+				{
+					continue;
+				}
+				for (Map.Entry<GridTask, TaskJobs> jobs : lane.taskJobs.entrySet())
+				{
+					if (!jobs.getValue().stealableJobs.isEmpty())
+					{
+						stealableTasks.add(jobs.getKey());
+					}
+				}
+			}
+			gridTask = lowestPass(stealableTasks);
+			if (gridTask == null)
+			{
+				return null;
+			}
+		}
+		
+		NodeQueue victim = null;
+		Lane victimLane = null;
+		TaskJobs victimJobs = null;
+		for (Map.Entry<GridNode, NodeQueue> entry : queues.entrySet())
+		{
+			Lane lane = entry.getValue().lanes.get(priority);
+			TaskJobs jobs = lane != null ? lane.taskJobs.get(gridTask) : null;
+			if (entry.getKey() != thief && jobs != null && !jobs.stealableJobs.isEmpty()
+					&& (victimJobs == null || jobs.stealableJobs.size() > victimJobs.stealableJobs.size()))
+			{
+				victim = entry.getValue();
+				victimLane = lane;
+				victimJobs = jobs;
+			}
+		}
+		if (victim == null)
+		{
+			return null;
+		}
+		
+		JobDispatch dispatch = victimJobs.stealableJobs.pollLast();
+		removeIfEmpty(victim, victimLane, victimJobs, priority, gridTask);
+		countStealable(priority, -1);
+		onPolled(dispatch);
+		return dispatch;
+	}
+
+	/**
+	 * Removes all the jobs waiting on a {@link GridNode}, which is not
+	 * kept as idle anymore, and its queue, since a closed {@link GridNode}
+	 * is drained and never polls again
+	 * @param node the {@link GridNode} of the jobs
+	 * @return the removed jobs in the order they were submitted
+	 */
+	public List<JobDispatch> drain(GridNode node)
+	{
+		lock.lock();
+		try
+		{
+			idleNodes.remove(node);
+			
+			NodeQueue queue = queues.remove(node);
+			if (queue == null)
+			{
+				return new ArrayList<JobDispatch>();
+			}
+			List<JobDispatch> drained = new ArrayList<JobDispatch>(queue.size);
+			for (Map.Entry<Integer, Lane> lane : queue.lanes.entrySet())
+			{
+				for (Map.Entry<GridTask, TaskJobs> entry : lane.getValue().taskJobs.entrySet())
+				{
+					TaskJobs jobs = entry.getValue();
+					TaskShare share = shares.get(entry.getKey());
+					share.numJobs -= jobs.pinnedJobs.size() + jobs.stealableJobs.size();
+					if (share.numJobs == 0)
+					{
+						shares.remove(entry.getKey());
+					}
+					if (!jobs.stealableJobs.isEmpty())
+					{
+						countStealable(lane.getKey(), -jobs.stealableJobs.size());
+					}
+					
+					drained.addAll(jobs.pinnedJobs);
+					drained.addAll(jobs.stealableJobs);
+				}
+			}
+			
+			Collections.sort(drained, SEQUENCE_ORDER);
+			return drained;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Gets the number of jobs waiting on a {@link GridNode}
+	 * @param node the {@link GridNode} of the jobs
+	 * @return the number of jobs waiting on the {@link GridNode}
+	 */
+	public int getNumPendingJobs(GridNode node)
+	{
+		lock.lock();
+		try
+		{
+			NodeQueue queue = queues.get(node);
+			return queue != null ? queue.size : 0;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+}
@@ -25,14 +25,19 @@
  */
 package com.grideasy.server;
 
+import java.io.IOException;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Vector;
 
+import com.grideasy.client.ClientHostProperties;
 import com.grideasy.client.GridClient;
 import com.grideasy.client.NetDiscoverException;
 
 /**
- * Gather local {@link GridNode}'s instances
+ * Gather local {@link GridNode}'s instances.
+ * The local nodes run in the process of the {@link GridServer} or, when
+ * configured so, connect to it by socket as {@link GridClient}'s
  * 
  * @author Felipe Santos
  * @email felchs@gmail.com
@@ -65,6 +70,11 @@ public class LocalGrids
 	 */
 	private Vector<GridClient> localGridClientsList = new Vector<GridClient>();
 	
+	/**
+	 * The {@link GridNode}'s running in the process of the {@link GridServer}
+	 */
+	private Vector<GridNode> inProcessNodesList = new Vector<GridNode>();
+	
 	/**
 	 * Private constructor for singleton behavior
 	 */
@@ -121,7 +131,22 @@ public class LocalGrids
 	}
 	
 	/**
-	 * Force all local {@link GridClient}'s to be shutdown
+	 * Starts up local {@link GridNode}'s in the process of the {@link GridServer},
+	 * executing their jobs with the configuration of the clients
+	 * @param localNodes the local {@link GridNode}'s to be started up
+	 */
+	public void initInProcessGridNodes(List<GridNode> localNodes)
+	{
+		ClientHostProperties clientProperties = new ClientHostProperties();
+		for (GridNode gridNode : localNodes)
+		{
+			gridNode.startUpInProcess(clientProperties);
+			inProcessNodesList.add(gridNode);
+		}
+	}
+	
+	/**
+	 * Force all local {@link GridClient}'s and {@link GridNode}'s to be shutdown
 	 */
 	public void shutdownAllNodes()
 	{
@@ -131,5 +156,17 @@ public class LocalGrids
 			GridClient gridClient = it.next();
 			gridClient.shutdown();
 		}
+		
+		for (GridNode gridNode : inProcessNodesList)
+		{
+			try
+			{
+				gridNode.closeAllConnections();
+			}
+			catch (IOException e)
+			{
+				e.printStackTrace();
+			}
+		}
 	}
 }
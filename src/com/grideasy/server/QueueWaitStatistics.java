@@ -0,0 +1,171 @@
+/*
+ * This source file is part of Grideasy
+ * For the latest info, see https://code.google.com/p/grideasy/
+ * 
+ * Grideasy is free software: you can redistribute it
+ * and/or modify it under the terms of the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.grideasy.server;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the time the jobs wait in the {@link JobScheduler} before they are
+ * written to a {@link GridNode}, by the priority of their dispatch, so it can be
+ * seen how long each priority waits behind the others
+ * 
+ * @author Felipe Santos
+ * @email felchs@gmail.com
+ */
+public class QueueWaitStatistics
+{
+	/**
+	 * The waits of the jobs of a priority
+	 */
+	private static class PriorityWaits
+	{
+		/**
+		 * The number of jobs polled
+		 */
+		private final AtomicLong numJobs = new AtomicLong();
+		
+		/**
+		 * The sum of the waits of the jobs, in nanoseconds
+		 */
+		private final AtomicLong totalNanos = new AtomicLong();
+		
+		/**
+		 * The longest wait of a job, in nanoseconds
+		 */
+		private final AtomicLong maxNanos = new AtomicLong();
+	}
+	
+	/**
+	 * Singleton instance
+	 */
+	private static final QueueWaitStatistics instance = new QueueWaitStatistics();
+	
+	/**
+	 * Gets the singleton instance
+	 * @return the singleton instance
+	 */
+	public static QueueWaitStatistics getInstance()
+	{
+		return instance;
+	}
+	
+	///////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * The waits by priority
+	 */
+	private final ConcurrentSkipListMap<Integer, PriorityWaits> waits = new ConcurrentSkipListMap<Integer, PriorityWaits>();
+	
+	/**
+	 * Private constructor of the singleton
+	 */
+	private QueueWaitStatistics()
+	{
+	}
+	
+	/**
+	 * Counts the wait of a job polled from the {@link JobScheduler}
+	 * @param priority the priority of the dispatch of the job
+	 * @param waitNanos the time the job waited, in nanoseconds
+	 */
+	void onJobPolled(int priority, long waitNanos)
+	{
+		PriorityWaits priorityWaits = waits.get(priority);
+		if (priorityWaits == null)
+		{
+			waits.putIfAbsent(priority, new PriorityWaits());
+			priorityWaits = waits.get(priority);
+		}
+		
+		priorityWaits.numJobs.incrementAndGet();
+		priorityWaits.totalNanos.addAndGet(waitNanos);
+		long max = priorityWaits.maxNanos.get();
+		while (waitNanos > max && !priorityWaits.maxNanos.compareAndSet(max, waitNanos))
+		{
+			max = priorityWaits.maxNanos.get();
+		}
+	}
+	
+	/**
+	 * Gets the number of jobs of a priority polled from the {@link JobScheduler}
+	 * @param priority the priority of the dispatch of the jobs
+	 * @return the number of jobs of the priority
+	 */
+	public long getNumJobs(int priority)
+	{
+		PriorityWaits priorityWaits = waits.get(priority);
+		return priorityWaits != null ? priorityWaits.numJobs.get() : 0;
+	}
+	
+	/**
+	 * Gets the mean wait of the jobs of a priority, in microseconds
+	 * @param priority the priority of the dispatch of the jobs
+	 * @return the mean wait of the jobs of the priority, in microseconds
+	 */
+	public long getMeanWaitMicros(int priority)
+	{
+		PriorityWaits priorityWaits = waits.get(priority);
+		if (priorityWaits == null || priorityWaits.numJobs.get() == 0)
+		{
+			return 0;
+		}
+		return priorityWaits.totalNanos.get() / priorityWaits.numJobs.get() / 1000;
+	}
+	
+	/**
+	 * Gets the longest wait of a job of a priority, in microseconds
+	 * @param priority the priority of the dispatch of the jobs
+	 * @return the longest wait of a job of the priority, in microseconds
+	 */
+	public long getMaxWaitMicros(int priority)
+	{
+		PriorityWaits priorityWaits = waits.get(priority);
+		return priorityWaits != null ? priorityWaits.maxNanos.get() / 1000 : 0;
+	}
+	
+	/**
+	 * Forgets the waits counted until now
+	 */
+	public void clear()
+	{
+		waits.clear();
+	}
+	
+	@Override
+	public String toString()
+	{
+		StringBuilder sb = new StringBuilder("Queue wait:");
+		for (Map.Entry<Integer, PriorityWaits> entry : waits.descendingMap().entrySet())
+		{
+			int priority = entry.getKey();
+			sb.append(" priority ").append(priority).append(": ").append(getNumJobs(priority)).append(" jobs, mean ")
+					.append(getMeanWaitMicros(priority)).append(" us, max ").append(getMaxWaitMicros(priority)).append(" us;");
+		}
+		return sb.toString();
+	}
+}
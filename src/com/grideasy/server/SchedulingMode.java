@@ -25,41 +25,22 @@
  */
 package com.grideasy.server;
 
-import java.io.IOException;
-import java.net.ServerSocket;
-
 /**
- * Handles Singleton instance of {@link ServerSocket}
- * 
+ * How the jobs of a {@link GridTask} are scheduled on the {@link GridNode}'s
+ *
  * @author Felipe Santos
  * @email felchs@gmail.com
- * 
  */
-public class ServerSocketInstance
+public enum SchedulingMode
 {
 	/**
-	 * Singleton instance of {@link ServerSocket}
+	 * Each job is executed on the {@link GridNode} it was mapped to
 	 */
-	private static ServerSocket serverSocket;
-	
+	STATIC,
+
 	/**
-	 * Gets the singleton instance of {@link ServerSocket}
-	 * @return the singleton instance of {@link ServerSocket}
+	 * The jobs are mapped to the {@link GridNode}'s, but a {@link GridNode}
+	 * without jobs to execute steals the jobs waiting on the other ones
 	 */
-	public synchronized static ServerSocket getServerSocket()
-	{
-		if (serverSocket == null)
-		{
-			int port = ServerHostProperties.getInstance().getPort();
-			try
-			{
-				serverSocket = new ServerSocket(port);
-			}
-			catch (IOException e)
-			{
-				e.printStackTrace();
-			}
-		}
-		return serverSocket;
-	}
+	DYNAMIC
 }
@@ -29,8 +29,14 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.List;
 import java.util.Properties;
 
+import com.grideasy.client.SessionCodec;
+import com.grideasy.client.io.FrameCompression;
+import com.grideasy.client.io.SharedMemorySegment;
+import com.grideasy.client.serializer.Serializers;
+
 /**
  * This class has the server info about nodes, host and ports
  * 
@@ -82,6 +88,143 @@ public class ServerHostProperties
 	 */
 	private int minNodesToStart;
 	
+	/**
+	 * The default number of jobs that can be in flight on the connection
+	 * of a {@link GridNode} besides the jobs its client executes at the same time
+	 */
+	public static final int DEFAULT_JOB_WINDOW = 4;
+	
+	/**
+	 * The default maximum number of jobs of a task written in a single frame
+	 */
+	public static final int DEFAULT_JOB_BATCH_SIZE = 1;
+	
+	/**
+	 * The default number of bytes of the jobs that closes a batch
+	 */
+	public static final int DEFAULT_JOB_BATCH_BYTES = 64 * 1024;
+	
+	/**
+	 * The default fraction of the jobs of a speculative task completed before its stragglers are duplicated
+	 */
+	public static final double DEFAULT_SPECULATION_QUANTILE = 0.75;
+	
+	/**
+	 * The default number of times the median job time a job runs to be a straggler
+	 */
+	public static final double DEFAULT_SPECULATION_MULTIPLIER = 2.0;
+	
+	/**
+	 * The default interval in milliseconds between the checks of the stragglers
+	 */
+	public static final int DEFAULT_SPECULATION_INTERVAL = 100;
+	
+	/**
+	 * The default minimum time in milliseconds a job runs to be a straggler
+	 */
+	public static final int DEFAULT_SPECULATION_MIN_TIME = 100;
+	
+	/**
+	 * The number of jobs that can be in flight on the connection of a
+	 * {@link GridNode} besides the jobs its client executes at the same time
+	 */
+	private int jobWindow;
+	
+	/**
+	 * The maximum number of jobs of a task written to a {@link GridNode} in a single frame
+	 */
+	private int jobBatchSize;
+	
+	/**
+	 * The number of bytes of the jobs that closes a batch
+	 */
+	private int jobBatchBytes;
+	
+	/**
+	 * The number of threads that accept, read and write the connections of the {@link GridNode}'s
+	 */
+	private int ioThreads;
+	
+	/**
+	 * Whether the buffers of the frames of the connections are direct or not
+	 */
+	private boolean directBuffers;
+	
+	/**
+	 * The path of the Unix domain socket of the clients of the same host, null if there is none
+	 */
+	private String unixSocketPath;
+	
+	/**
+	 * The number of shared memory slots of the clients of the same host, 0 if there are none
+	 */
+	private int sharedMemorySlots;
+	
+	/**
+	 * The directory of the files of the shared memory slots
+	 */
+	private String sharedMemoryDirectory;
+	
+	/**
+	 * The number of bytes of each ring of a shared memory slot
+	 */
+	private int sharedMemoryRingSize;
+	
+	/**
+	 * The compression of the frames offered to the clients, {@link FrameCompression#NONE} or {@link FrameCompression#DEFLATE}
+	 */
+	private String compression;
+	
+	/**
+	 * The size from which the frames are compressed
+	 */
+	private int compressionThreshold;
+	
+	/**
+	 * The level of the compression of the frames, from 1 to 9
+	 */
+	private int compressionLevel;
+	
+	/**
+	 * Whether the local nodes execute their jobs in the process of the server or connect by socket
+	 */
+	private boolean inProcessLocalNodes;
+	
+	/**
+	 * Whether the jobs and the results of the local nodes are copied by serialization or not
+	 */
+	private boolean localIsolation;
+	
+	/**
+	 * The number of jobs written on a connection before the class descriptors are sent again
+	 */
+	private int sessionResetInterval;
+	
+	/**
+	 * The fraction of the jobs of a speculative task completed before its stragglers are duplicated
+	 */
+	private double speculationQuantile;
+	
+	/**
+	 * The number of times the median job time a job runs to be a straggler
+	 */
+	private double speculationMultiplier;
+	
+	/**
+	 * The interval in milliseconds between the checks of the stragglers
+	 */
+	private int speculationInterval;
+	
+	/**
+	 * The minimum time in milliseconds a job runs to be a straggler, however short the other jobs are
+	 */
+	private int speculationMinTime;
+	
+	/**
+	 * The names of the serializers of the connections, in the order of preference of the server
+	 */
+	private List<String> serializers;
+	
 	/**
 	 * The number of accepted connections to the server
 	 */
@@ -109,6 +252,31 @@ public class ServerHostProperties
 		numExternalNodes = Integer.parseInt(prop.getProperty("numExternalNodes"));
 		numLocalNodes = Integer.parseInt(prop.getProperty("numLocalNodes"));
 		minNodesToStart = Integer.parseInt(prop.getProperty("minNodesToStart"));
+		jobWindow = Integer.parseInt(prop.getProperty("jobWindow", String.valueOf(DEFAULT_JOB_WINDOW)));
+		jobBatchSize = Math.max(1, Integer.parseInt(prop.getProperty("jobBatchSize", String.valueOf(DEFAULT_JOB_BATCH_SIZE))));
+		jobBatchBytes = Integer.parseInt(prop.getProperty("jobBatchBytes", String.valueOf(DEFAULT_JOB_BATCH_BYTES)));
+		int defaultIoThreads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+		ioThreads = Integer.parseInt(prop.getProperty("ioThreads", String.valueOf(defaultIoThreads)));
+		directBuffers = Boolean.parseBoolean(prop.getProperty("directBuffers", "false"));
+		unixSocketPath = prop.getProperty("unixSocketPath", "").trim();
+		if (unixSocketPath.length() == 0)
+		{
+			unixSocketPath = null;
+		}
+		sharedMemorySlots = Integer.parseInt(prop.getProperty("sharedMemorySlots", "0"));
+		sharedMemoryDirectory = prop.getProperty("sharedMemoryDirectory", SharedMemorySegment.DEFAULT_DIRECTORY).trim();
+		sharedMemoryRingSize = Integer.highestOneBit(Integer.parseInt(prop.getProperty("sharedMemoryRingSize", String.valueOf(SharedMemorySegment.DEFAULT_RING_CAPACITY))));
+		compression = prop.getProperty("compression", FrameCompression.NONE).trim();
+		compressionThreshold = Integer.parseInt(prop.getProperty("compressionThreshold", String.valueOf(FrameCompression.DEFAULT_THRESHOLD)));
+		compressionLevel = Integer.parseInt(prop.getProperty("compressionLevel", String.valueOf(FrameCompression.DEFAULT_LEVEL)));
+		inProcessLocalNodes = Boolean.parseBoolean(prop.getProperty("inProcessLocalNodes", "true"));
+		localIsolation = Boolean.parseBoolean(prop.getProperty("localIsolation", "false"));
+		serializers = Serializers.parsePreference(prop.getProperty("serializers", Serializers.DEFAULT_PREFERENCE));
+		sessionResetInterval = Integer.parseInt(prop.getProperty("sessionResetInterval", String.valueOf(SessionCodec.DEFAULT_RESET_INTERVAL)));
+		speculationQuantile = Double.parseDouble(prop.getProperty("speculationQuantile", String.valueOf(DEFAULT_SPECULATION_QUANTILE)));
+		speculationMultiplier = Double.parseDouble(prop.getProperty("speculationMultiplier", String.valueOf(DEFAULT_SPECULATION_MULTIPLIER)));
+		speculationInterval = Integer.parseInt(prop.getProperty("speculationInterval", String.valueOf(DEFAULT_SPECULATION_INTERVAL)));
+		speculationMinTime = Integer.parseInt(prop.getProperty("speculationMinTime", String.valueOf(DEFAULT_SPECULATION_MIN_TIME)));
 	}
 	
 	/**
@@ -157,6 +325,189 @@ public class ServerHostProperties
 		return minNodesToStart;
 	}
 	
+	/**
+	 * Gets the number of jobs that can be in flight on the connection of a
+	 * {@link GridNode} besides the jobs its client executes at the same time
+	 * @return the number of jobs that can be in flight on a {@link GridNode} besides its parallelism
+	 */
+	public int getJobWindow()
+	{
+		return jobWindow;
+	}
+	
+	/**
+	 * Gets the maximum number of jobs of a task written to a {@link GridNode} in a single frame,
+	 * used by the tasks that do not set their own
+	 * @return the maximum number of jobs of a task written in a single frame
+	 */
+	public int getJobBatchSize()
+	{
+		return jobBatchSize;
+	}
+	
+	/**
+	 * Gets the number of bytes of the jobs that closes a batch,
+	 * used by the tasks that do not set their own
+	 * @return the number of bytes of the jobs that closes a batch
+	 */
+	public int getJobBatchBytes()
+	{
+		return jobBatchBytes;
+	}
+	
+	/**
+	 * Gets the number of threads that accept, read and write the connections of the {@link GridNode}'s
+	 * @return the number of threads doing the I/O of the {@link GridNode}'s
+	 */
+	public int getIoThreads()
+	{
+		return ioThreads;
+	}
+	
+	/**
+	 * Gets whether the buffers of the frames of the connections are direct or not
+	 * @return whether the buffers of the frames of the connections are direct or not
+	 */
+	public boolean isDirectBuffers()
+	{
+		return directBuffers;
+	}
+	
+	/**
+	 * Gets the path of the Unix domain socket of the clients of the same host
+	 * @return the path of the Unix domain socket of the clients of the same host or null if there is none
+	 */
+	public String getUnixSocketPath()
+	{
+		return unixSocketPath;
+	}
+	
+	/**
+	 * Gets the number of shared memory slots of the clients of the same host
+	 * @return the number of shared memory slots of the clients of the same host, 0 if there are none
+	 */
+	public int getSharedMemorySlots()
+	{
+		return sharedMemorySlots;
+	}
+	
+	/**
+	 * Gets the directory of the files of the shared memory slots
+	 * @return the directory of the files of the shared memory slots
+	 */
+	public String getSharedMemoryDirectory()
+	{
+		return sharedMemoryDirectory;
+	}
+	
+	/**
+	 * Gets the number of bytes of each ring of a shared memory slot
+	 * @return the number of bytes of each ring of a shared memory slot, a power of two
+	 */
+	public int getSharedMemoryRingSize()
+	{
+		return sharedMemoryRingSize;
+	}
+	
+	/**
+	 * Gets the compression of the frames offered to the clients
+	 * @return the compression of the frames offered to the clients
+	 */
+	public String getCompression()
+	{
+		return compression;
+	}
+	
+	/**
+	 * Gets the size from which the frames are compressed
+	 * @return the size from which the frames are compressed
+	 */
+	public int getCompressionThreshold()
+	{
+		return compressionThreshold;
+	}
+	
+	/**
+	 * Gets the level of the compression of the frames, from 1 to 9
+	 * @return the level of the compression of the frames
+	 */
+	public int getCompressionLevel()
+	{
+		return compressionLevel;
+	}
+	
+	/**
+	 * Gets whether the local nodes execute their jobs in the process of the server or connect by socket
+	 * @return whether the local nodes execute their jobs in the process of the server or connect by socket
+	 */
+	public boolean isInProcessLocalNodes()
+	{
+		return inProcessLocalNodes;
+	}
+	
+	/**
+	 * Gets whether the jobs and the results of the local nodes are copied by serialization or not
+	 * @return whether the jobs and the results of the local nodes are copied by serialization or not
+	 */
+	public boolean isLocalIsolation()
+	{
+		return localIsolation;
+	}
+	
+	/**
+	 * Gets the number of jobs written on a connection before the class descriptors are sent again
+	 * @return the number of jobs written on a connection before the class descriptors are sent again
+	 */
+	public int getSessionResetInterval()
+	{
+		return sessionResetInterval;
+	}
+	
+	/**
+	 * Gets the fraction of the jobs of a speculative task completed before its stragglers are duplicated
+	 * @return the fraction of the jobs completed before the stragglers are duplicated
+	 */
+	public double getSpeculationQuantile()
+	{
+		return speculationQuantile;
+	}
+	
+	/**
+	 * Gets the number of times the median job time a job runs to be a straggler
+	 * @return the number of times the median job time a job runs to be a straggler
+	 */
+	public double getSpeculationMultiplier()
+	{
+		return speculationMultiplier;
+	}
+	
+	/**
+	 * Gets the interval in milliseconds between the checks of the stragglers
+	 * @return the interval in milliseconds between the checks of the stragglers
+	 */
+	public int getSpeculationInterval()
+	{
+		return speculationInterval;
+	}
+	
+	/**
+	 * Gets the minimum time in milliseconds a job runs to be a straggler, however short the other jobs are
+	 * @return the minimum time in milliseconds a job runs to be a straggler
+	 */
+	public int getSpeculationMinTime()
+	{
+		return speculationMinTime;
+	}
+	
+	/**
+	 * Gets the names of the serializers of the connections, in the order of preference of the server
+	 * @return the names of the serializers of the connections, in the order of preference of the server
+	 */
+	public List<String> getSerializers()
+	{
+		return serializers;
+	}
+	
 	/**
 	 * Gets the number of clients connected to the server
 	 * @return the number of clients connected to the server
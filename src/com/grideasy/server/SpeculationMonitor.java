@@ -0,0 +1,138 @@
+/*
+ * This source file is part of Grideasy
+ * For the latest info, see https://code.google.com/p/grideasy/
+ * 
+ * Grideasy is free software: you can redistribute it
+ * and/or modify it under the terms of the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.grideasy.server;
+
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks the speculative tasks running for stragglers, by a single daemon
+ * thread that wakes at the configured interval: once most of the jobs of
+ * a task are completed, its jobs running much longer than the median, and
+ * at least the configured minimum time, are duplicated on idle {@link GridNode}'s
+ * by its {@link GridTaskCompletionManager}
+ * 
+ * @author Felipe Santos
+ * @email felchs@gmail.com
+ */
+public class SpeculationMonitor implements Runnable
+{
+	/**
+	 * Singleton instance
+	 */
+	private static final SpeculationMonitor instance = new SpeculationMonitor();
+	
+	/**
+	 * Gets the singleton instance
+	 * @return the singleton instance
+	 */
+	public static SpeculationMonitor getInstance()
+	{
+		return instance;
+	}
+	
+	///////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * The completion managers of the speculative tasks running
+	 */
+	private final Set<GridTaskCompletionManager> managers = new CopyOnWriteArraySet<GridTaskCompletionManager>();
+	
+	/**
+	 * The thread of the checks, started by the first speculative task
+	 */
+	private ScheduledExecutorService executor;
+	
+	/**
+	 * Private constructor of the singleton
+	 */
+	private SpeculationMonitor()
+	{
+	}
+	
+	/**
+	 * Watches the stragglers of a speculative task until it completes
+	 * @param manager the {@link GridTaskCompletionManager} of the task
+	 */
+	public void watch(GridTaskCompletionManager manager)
+	{
+		managers.add(manager);
+		
+		synchronized (this)
+		{
+			if (executor == null)
+			{
+				long interval = ServerHostProperties.getInstance().getSpeculationInterval();
+				executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+				{
+					@Override
+					public Thread newThread(Runnable runnable)
+					{
+						Thread thread = new Thread(runnable, "GridServer speculation monitor");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+				executor.scheduleWithFixedDelay(this, interval, interval, TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+	
+	/**
+	 * Checks the stragglers of the watched tasks, forgetting the completed ones.
+	 * A task whose check throws is forgotten too and fails with the error,
+	 * so its caller is told instead of the monitor failing at every interval
+	 */
+	@Override
+	public void run()
+	{
+		ServerHostProperties hostProperties = ServerHostProperties.getInstance();
+		double quantile = hostProperties.getSpeculationQuantile();
+		double multiplier = hostProperties.getSpeculationMultiplier();
+		long minNanos = TimeUnit.MILLISECONDS.toNanos(hostProperties.getSpeculationMinTime());
+		
+		for (GridTaskCompletionManager manager : managers)
+		{
+			try
+			{
+				if (!manager.speculate(quantile, multiplier, minNanos))
+				{
+					managers.remove(manager);
+				}
+			}
+			catch (RuntimeException e)
+			{
+				e.printStackTrace();
+				managers.remove(manager);
+				manager.onSpeculationError(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ * This source file is part of Grideasy
+ * For the latest info, see https://code.google.com/p/grideasy/
+ * 
+ * Grideasy is free software: you can redistribute it
+ * and/or modify it under the terms of the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.grideasy.server.loader;
+
+/**
+ * A code bundle is a jar built from a set of package names
+ * identified by the hash of its content.
+ * Nodes that already received a bundle are referenced only
+ * by its hash, so the jar bytes travel once per node.
+ *
+ * @author Felipe Santos
+ * @email felchs@gmail.com
+ */
+public class CodeBundle
+{
+	/**
+	 * The hash of the jar content
+	 */
+	private final String hash;
+
+	/**
+	 * The bytes of the jar
+	 */
+	private final byte[] jarBytes;
+
+	/**
+	 * Constructor passing fields
+	 *
+	 * @param hash the hash of the jar content
+	 * @param jarBytes the bytes of the jar
+	 */
+	public CodeBundle(String hash, byte[] jarBytes)
+	{
+		this.hash = hash;
+		this.jarBytes = jarBytes;
+	}
+
+	/**
+	 * Gets the hash of the jar content
+	 * @return the hash of the jar content
+	 */
+	public String getHash()
+	{
+		return hash;
+	}
+
+	/**
+	 * Gets the bytes of the jar
+	 * @return the bytes of the jar
+	 */
+	public byte[] getJarBytes()
+	{
+		return jarBytes;
+	}
+}
@@ -0,0 +1,156 @@
+/*
+ * This source file is part of Grideasy
+ * For the latest info, see https://code.google.com/p/grideasy/
+ * 
+ * Grideasy is free software: you can redistribute it
+ * and/or modify it under the terms of the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.grideasy.server.loader;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Hashtable;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Cache of {@link CodeBundle}'s by package set.
+ * The jar of a package set is built only once by the {@link JarBuilder}
+ * and then reused for every job dispatched with the same packages.
+ *
+ * @author Felipe Santos
+ * @email felchs@gmail.com
+ */
+public class CodeBundleCache
+{
+	/**
+	 * Singleton instance
+	 */
+	private static CodeBundleCache instance;
+
+	/**
+	 * Gets the singleton instance of {@link CodeBundleCache}
+	 * @return the singleton instance of {@link CodeBundleCache}
+	 */
+	public static synchronized CodeBundleCache getInstance()
+	{
+		if (instance == null)
+		{
+			instance = new CodeBundleCache();
+		}
+		return instance;
+	}
+
+	///////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * The built bundles by the key of its package set
+	 */
+	private Hashtable<String, CodeBundle> bundles = new Hashtable<String, CodeBundle>();
+
+	/**
+	 * Private constructor for singleton behavior
+	 */
+	private CodeBundleCache()
+	{
+	}
+
+	/**
+	 * Gets the {@link CodeBundle} of a set of package names,
+	 * building its jar when it was not built yet
+	 *
+	 * @param packageNames the package names of the bundle
+	 * @return the {@link CodeBundle} of the package names
+	 * @throws IOException
+	 */
+	public CodeBundle getBundle(Set<String> packageNames) throws IOException
+	{
+		String key = getKey(packageNames);
+
+		CodeBundle bundle = bundles.get(key);
+		if (bundle != null)
+		{
+			return bundle;
+		}
+
+		synchronized (this)
+		{
+			bundle = bundles.get(key);
+			if (bundle == null)
+			{
+				byte[] jarBytes = JarBuilder.buildJar(new TreeSet<String>(packageNames), null);
+				bundle = new CodeBundle(hash(jarBytes), jarBytes);
+				bundles.put(key, bundle);
+			}
+		}
+
+		return bundle;
+	}
+
+	/**
+	 * Removes all the built bundles, forcing the jars to be built again
+	 * (e.g. when the classes of the packages had changed)
+	 */
+	public void clear()
+	{
+		bundles.clear();
+	}
+
+	/**
+	 * Gets the key of a set of package names, independent of the set order
+	 * @param packageNames the package names
+	 * @return the key of the package names
+	 */
+	private String getKey(Set<String> packageNames)
+	{
+		StringBuilder key = new StringBuilder();
+		for (String packageName : new TreeSet<String>(packageNames))
+		{
+			key.append(packageName).append(';');
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Hashes the content of a jar
+	 * @param jarBytes the bytes of the jar
+	 * @return the hexadecimal SHA-1 hash of the jar
+	 */
+	private static String hash(byte[] jarBytes)
+	{
+		try
+		{
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(jarBytes);
+			StringBuilder hex = new StringBuilder(digest.length * 2);
+			for (byte b : digest)
+			{
+				hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+				hex.append(Character.forDigit(b & 0xF, 16));
+			}
+			return hex.toString();
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -57,6 +57,23 @@ public class JarBuilder
 	 * @throws IOException
 	 */
 	public static void createJar(Set<String> packageNames, Class<?> mainClass, OutputStream outputStream) throws IOException
+	{
+		byte[] byteArray = buildJar(packageNames, mainClass);
+		int sz = byteArray.length;
+		byte[] intAsArr = ByteBuffer.allocate(4).putInt(sz).array();
+		outputStream.write(intAsArr);
+		outputStream.write(byteArray);
+	}
+
+	/**
+	 * Builds a jar in memory with a list of package names
+	 * 
+	 * @param packageNames the packages names to be used when generating the jar
+	 * @param mainClass the main class of the jar file
+	 * @return the bytes of the generated jar
+	 * @throws IOException
+	 */
+	public static byte[] buildJar(Set<String> packageNames, Class<?> mainClass) throws IOException
 	{
 		ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
 		Manifest manifest = new Manifest();
@@ -80,11 +97,7 @@ public class JarBuilder
 		jarOutputStream.close();
 		byteArrayOutputStream.close();
 		
-		byte[] byteArray = byteArrayOutputStream.toByteArray();
-		int sz = byteArray.length;
-		byte[] intAsArr = ByteBuffer.allocate(4).putInt(sz).array();
-		outputStream.write(intAsArr);
-		outputStream.write(byteArray);
+		return byteArrayOutputStream.toByteArray();
 	}
 
 	/**
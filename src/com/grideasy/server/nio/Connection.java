@@ -0,0 +1,93 @@
+/*
+ * This source file is part of Grideasy
+ * For the latest info, see https://code.google.com/p/grideasy/
+ * 
+ * Grideasy is free software: you can redistribute it
+ * and/or modify it under the terms of the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.grideasy.server.nio;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+import com.grideasy.client.io.BufferPool;
+
+/**
+ * A connection of a client to the server, carrying frames made of an
+ * int length followed by the payload. The frames are read and written
+ * by a single I/O thread of the connection, which also runs the tasks
+ * given to it, so the listener and the writers never need a lock
+ * 
+ * @author Felipe Santos
+ * @email felchs@gmail.com
+ */
+public interface Connection
+{
+	/**
+	 * Gets the address of the peer of this connection
+	 * @return the address of the peer of this connection or null if it is unknown
+	 */
+	SocketAddress getRemoteAddress();
+	
+	/**
+	 * Gets the {@link BufferPool} of the I/O thread of this connection
+	 * @return the {@link BufferPool} of the I/O thread of this connection
+	 */
+	BufferPool getBufferPool();
+	
+	/**
+	 * Runs a task on the I/O thread of this connection.
+	 * Can be called from any thread
+	 * @param task the task to be run
+	 */
+	void execute(Runnable task);
+	
+	/**
+	 * Writes a buffer to the connection, releasing it to the {@link BufferPool}
+	 * once it is written. Must be called on the I/O thread
+	 * @param buffer the buffer to be written, acquired from the {@link BufferPool}
+	 * @throws IOException if the connection could not be written
+	 */
+	void write(ByteBuffer buffer) throws IOException;
+	
+	/**
+	 * Writes the header and the payload of a frame to the connection, releasing
+	 * them to the {@link BufferPool} once they are written. Must be called on the I/O thread
+	 * @param header the header of the frame, acquired from the {@link BufferPool}
+	 * @param payload the payload of the frame, acquired from the {@link BufferPool}
+	 * @throws IOException if the connection could not be written
+	 */
+	void write(ByteBuffer header, ByteBuffer payload) throws IOException;
+	
+	/**
+	 * Gets whether this connection is closed or not
+	 * @return whether this connection is closed or not
+	 */
+	boolean isClosed();
+	
+	/**
+	 * Closes this connection, notifying the listener once.
+	 * Can be called from any thread
+	 * @param e the {@link IOException} that closed the connection or null if it was closed locally
+	 */
+	void close(IOException e);
+}
@@ -0,0 +1,57 @@
+/*
+ * This source file is part of Grideasy
+ * For the latest info, see https://code.google.com/p/grideasy/
+ * 
+ * Grideasy is free software: you can redistribute it
+ * and/or modify it under the terms of the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.grideasy.server.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Listens the events of a {@link Connection}.
+ * The events are notified by the I/O thread of the connection,
+ * so a listener must not block
+ * 
+ * @author Felipe Santos
+ * @email felchs@gmail.com
+ */
+public interface ConnectionListener
+{
+	/**
+	 * Listens a frame read from the connection.
+	 * The frame is read in place from the buffer of the connection,
+	 * so it must be consumed before this method returns
+	 * @param connection the {@link Connection} which the frame came from
+	 * @param frame the payload of the frame, without its length, from its position to its limit
+	 * @throws IOException if the frame could not be handled, closing the connection
+	 */
+	void onFrame(Connection connection, ByteBuffer frame) throws IOException;
+	
+	/**
+	 * Listens the close of the connection
+	 * @param connection the closed {@link Connection}
+	 * @param e the {@link IOException} that closed the connection or null if it was closed locally
+	 */
+	void onClosed(Connection connection, IOException e);
+}
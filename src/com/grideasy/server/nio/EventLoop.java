@@ -0,0 +1,269 @@
+/*
+ * This source file is part of Grideasy
+ * For the latest info, see https://code.google.com/p/grideasy/
+ * 
+ * Grideasy is free software: you can redistribute it
+ * and/or modify it under the terms of the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.grideasy.server.nio;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import com.grideasy.client.io.BufferPool;
+
+/**
+ * A thread that does the I/O of many connections through a {@link Selector}.
+ * The channels of a loop are only read, written and registered by its thread,
+ * other threads hand work to it by {@link #execute(Runnable)}.
+ * The loop owns the {@link BufferPool} of the frames of its connections
+ * 
+ * @author Felipe Santos
+ * @email felchs@gmail.com
+ */
+public class EventLoop implements Runnable
+{
+	/**
+	 * The {@link Selector} of the channels of this loop
+	 */
+	private final Selector selector;
+	
+	/**
+	 * The tasks waiting to run on the thread of this loop
+	 */
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+	
+	/**
+	 * The thread of this loop
+	 */
+	private final Thread thread;
+	
+	/**
+	 * The {@link BufferPool} of the frames, only used by the thread of this loop
+	 */
+	private final BufferPool bufferPool;
+	
+	/**
+	 * Whether this loop is running or not
+	 */
+	private volatile boolean running = true;
+	
+	/**
+	 * Constructor passing fields
+	 * @param name the name of the thread of the loop
+	 * @param directBuffers whether the buffers of the frames are direct or not
+	 * @throws IOException if the {@link Selector} could not be opened
+	 */
+	public EventLoop(String name, boolean directBuffers) throws IOException
+	{
+		this.selector = Selector.open();
+		this.bufferPool = new BufferPool(directBuffers);
+		this.thread = new Thread(this, name);
+		this.thread.setDaemon(true);
+	}
+	
+	/**
+	 * Gets the {@link BufferPool} of the frames, only used by the thread of this loop
+	 * @return the {@link BufferPool} of the frames
+	 */
+	public BufferPool getBufferPool()
+	{
+		return bufferPool;
+	}
+	
+	/**
+	 * Gets the {@link Selector} of the channels of this loop
+	 * @return the {@link Selector} of the channels of this loop
+	 */
+	Selector getSelector()
+	{
+		return selector;
+	}
+	
+	/**
+	 * Starts the thread of this loop
+	 */
+	public void start()
+	{
+		thread.start();
+	}
+	
+	/**
+	 * Stops the thread of this loop, closing its {@link Selector}
+	 */
+	public void shutdown()
+	{
+		running = false;
+		selector.wakeup();
+	}
+	
+	/**
+	 * Gets whether the current thread is the thread of this loop or not
+	 * @return whether the current thread is the thread of this loop or not
+	 */
+	public boolean inEventLoop()
+	{
+		return Thread.currentThread() == thread;
+	}
+	
+	/**
+	 * Runs a task on the thread of this loop.
+	 * The task runs after the current I/O of the loop, so it is
+	 * queued even when called from the thread of this loop
+	 * @param task the task to be run
+	 */
+	public void execute(Runnable task)
+	{
+		tasks.add(task);
+		if (!inEventLoop())
+		{
+			selector.wakeup();
+		}
+	}
+	
+	/**
+	 * Loop of the thread: waits for ready channels, handles
+	 * their I/O and then runs the queued tasks
+	 */
+	@Override
+	public void run()
+	{
+		while (running)
+		{
+			try
+			{
+				if (tasks.isEmpty())
+				{
+					selector.select();
+				}
+				else
+				{
+					selector.selectNow();
+				}
+			}
+			catch (IOException e)
+			{
+				e.printStackTrace();
+				break;
+			}
+			
+			Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+			while (it.hasNext())
+			{
+				SelectionKey key = it.next();
+				it.remove();
+				handleKey(key);
+			}
+			
+			runTasks();
+		}
+		
+		try
+		{
+			selector.close();
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Handles the I/O of a ready channel. A failure of the connection, even
+	 * a {@link RuntimeException} of its listener, closes only that connection
+	 * and never stops the loop
+	 * @param key the {@link SelectionKey} of the channel
+	 */
+	private void handleKey(SelectionKey key)
+	{
+		Object attachment = key.attachment();
+		if (attachment instanceof NioServer)
+		{
+			try
+			{
+				((NioServer) attachment).accept((ServerSocketChannel) key.channel());
+			}
+			catch (RuntimeException e)
+			{
+				e.printStackTrace();
+			}
+			return;
+		}
+		
+		NioConnection connection = (NioConnection) attachment;
+		try
+		{
+			if (key.isReadable())
+			{
+				connection.onReadable();
+			}
+			if (key.isValid() && key.isWritable())
+			{
+				connection.onWritable();
+			}
+		}
+		catch (CancelledKeyException e)
+		{
+			connection.close(null);
+		}
+		catch (IOException e)
+		{
+			connection.close(e);
+		}
+		catch (RuntimeException e)
+		{
+			// a frame the listener could not handle closes only its connection
+			connection.close(new IOException("The frame could not be handled: " + e, e));
+		}
+	}
+	
+	/**
+	 * Runs the tasks queued until now, the tasks queued
+	 * by them run on the next turn of the loop
+	 */
+	private void runTasks()
+	{
+		int numTasks = tasks.size();
+		for (int i = 0; i < numTasks; i++)
+		{
+			Runnable task = tasks.poll();
+			if (task == null)
+			{
+				break;
+			}
+			
+			try
+			{
+				task.run();
+			}
+			catch (RuntimeException e)
+			{
+				e.printStackTrace();
+			}
+		}
+	}
+}
@@ -0,0 +1,330 @@
+/*
+ * This source file is part of Grideasy
+ * For the latest info, see https://code.google.com/p/grideasy/
+ * 
+ * Grideasy is free software: you can redistribute it
+ * and/or modify it under the terms of the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.grideasy.server.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+
+import com.grideasy.client.io.BufferPool;
+
+/**
+ * The frames of a {@link Connection}, shared by its transports.
+ * The frames read are made of an int length followed by the payload and
+ * are notified in place, from a buffer of the {@link BufferPool} of the
+ * I/O thread. The written buffers wait in order until the transport takes
+ * them and then go back to the pool. A transport only moves the bytes:
+ * it reads into the buffer of the frames and writes the waiting buffers.
+ * Everything but {@link #close(IOException)} runs on the I/O thread
+ * 
+ * @author Felipe Santos
+ * @email felchs@gmail.com
+ */
+public abstract class FrameConnection implements Connection
+{
+	/**
+	 * The initial size of the buffer of the read frames
+	 */
+	private static final int READ_BUFFER_SIZE = 64 * 1024;
+	
+	/**
+	 * The size of the length of a frame
+	 */
+	private static final int FRAME_HEADER_SIZE = 4;
+	
+	/**
+	 * The initial number of buffers waiting to be written
+	 */
+	private static final int WRITE_QUEUE_SIZE = 16;
+	
+	///////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * The {@link BufferPool} of the I/O thread
+	 */
+	private final BufferPool bufferPool;
+	
+	/**
+	 * The listener of the events of this connection
+	 */
+	private ConnectionListener listener;
+	
+	/**
+	 * The buffer of the frames being read, null until the frames are read
+	 */
+	private ByteBuffer readBuffer;
+	
+	/**
+	 * The buffers waiting to be written, in order
+	 */
+	private ByteBuffer[] writeQueue = new ByteBuffer[WRITE_QUEUE_SIZE];
+	
+	/**
+	 * The number of buffers waiting to be written
+	 */
+	private int writeQueueSize;
+	
+	/**
+	 * Whether this connection is closed or not
+	 */
+	private volatile boolean closed;
+	
+	/**
+	 * Constructor passing fields
+	 * @param bufferPool the {@link BufferPool} of the I/O thread
+	 */
+	protected FrameConnection(BufferPool bufferPool)
+	{
+		this.bufferPool = bufferPool;
+	}
+	
+	@Override
+	public BufferPool getBufferPool()
+	{
+		return bufferPool;
+	}
+	
+	@Override
+	public boolean isClosed()
+	{
+		return closed;
+	}
+	
+	/**
+	 * Starts to read the frames, notifying them to a listener.
+	 * Must be called on the I/O thread, the only one using its
+	 * {@link BufferPool}, which gives the buffer of the read frames
+	 * @param listener the listener of the events of this connection
+	 */
+	protected void startReading(ConnectionListener listener)
+	{
+		this.listener = listener;
+		this.readBuffer = bufferPool.acquire(READ_BUFFER_SIZE);
+	}
+	
+	@Override
+	public void write(ByteBuffer buffer) throws IOException
+	{
+		enqueue(buffer);
+		flush();
+	}
+	
+	@Override
+	public void write(ByteBuffer header, ByteBuffer payload) throws IOException
+	{
+		enqueue(header);
+		enqueue(payload);
+		flush();
+	}
+	
+	/**
+	 * Puts a buffer at the end of the buffers waiting to be written
+	 * @param buffer the buffer to be written
+	 * @throws ClosedChannelException if this connection is closed
+	 */
+	private void enqueue(ByteBuffer buffer) throws ClosedChannelException
+	{
+		if (closed)
+		{
+			bufferPool.release(buffer);
+			throw new ClosedChannelException();
+		}
+		
+		if (writeQueueSize == writeQueue.length)
+		{
+			ByteBuffer[] largerQueue = new ByteBuffer[writeQueue.length * 2];
+			System.arraycopy(writeQueue, 0, largerQueue, 0, writeQueueSize);
+			writeQueue = largerQueue;
+		}
+		writeQueue[writeQueueSize++] = buffer;
+	}
+	
+	/**
+	 * Gets whether buffers are waiting to be written or not
+	 * @return whether buffers are waiting to be written or not
+	 */
+	protected boolean hasPendingWrites()
+	{
+		return writeQueueSize > 0;
+	}
+	
+	/**
+	 * Hands the waiting buffers to the transport, releasing the written ones.
+	 * The rest waits for the next flush
+	 * @return whether a byte was written or not
+	 * @throws IOException if the transport could not be written
+	 */
+	protected boolean flush() throws IOException
+	{
+		boolean wrote = writeBuffers(writeQueue, writeQueueSize);
+		
+		int written = 0;
+		while (written < writeQueueSize && !writeQueue[written].hasRemaining())
+		{
+			bufferPool.release(writeQueue[written]);
+			written++;
+		}
+		System.arraycopy(writeQueue, written, writeQueue, 0, writeQueueSize - written);
+		for (int i = writeQueueSize - written; i < writeQueueSize; i++)
+		{
+			writeQueue[i] = null;
+		}
+		writeQueueSize -= written;
+		
+		onFlushed();
+		return wrote;
+	}
+	
+	/**
+	 * Writes as many of the waiting buffers as the transport takes, in order,
+	 * moving their positions past the written bytes
+	 * @param buffers the waiting buffers
+	 * @param count the number of waiting buffers
+	 * @return whether a byte was written or not
+	 * @throws IOException if the transport could not be written
+	 */
+	protected abstract boolean writeBuffers(ByteBuffer[] buffers, int count) throws IOException;
+	
+	/**
+	 * Called after each flush, once the written buffers are released
+	 */
+	protected void onFlushed()
+	{
+	}
+	
+	/**
+	 * Reads the available bytes, notifying each complete frame to the listener
+	 * @return the number of bytes read, 0 if there was none, -1 at the end of the stream
+	 * @throws IOException if the transport could not be read or a frame is invalid
+	 */
+	protected int readFrames() throws IOException
+	{
+		int read = readBytes(readBuffer);
+		if (read <= 0)
+		{
+			return read;
+		}
+		
+		readBuffer.flip();
+		while (readBuffer.remaining() >= FRAME_HEADER_SIZE && !closed)
+		{
+			int frameSize = readBuffer.getInt(readBuffer.position());
+			if (frameSize < 0)
+			{
+				throw new IOException("Invalid frame size: " + frameSize);
+			}
+			
+			if (readBuffer.remaining() < FRAME_HEADER_SIZE + frameSize)
+			{
+				if (FRAME_HEADER_SIZE + frameSize > readBuffer.capacity())
+				{
+					ByteBuffer largerBuffer = bufferPool.acquire(FRAME_HEADER_SIZE + frameSize);
+					largerBuffer.put(readBuffer);
+					largerBuffer.flip();
+					bufferPool.release(readBuffer);
+					readBuffer = largerBuffer;
+				}
+				break;
+			}
+			
+			int frameEnd = readBuffer.position() + FRAME_HEADER_SIZE + frameSize;
+			int limit = readBuffer.limit();
+			readBuffer.position(readBuffer.position() + FRAME_HEADER_SIZE);
+			readBuffer.limit(frameEnd);
+			try
+			{
+				listener.onFrame(this, readBuffer);
+			}
+			finally
+			{
+				readBuffer.limit(limit);
+				readBuffer.position(frameEnd);
+			}
+		}
+		readBuffer.compact();
+		return read;
+	}
+	
+	/**
+	 * Reads the available bytes of the transport into the remaining space of a buffer
+	 * @param buffer the buffer of the read bytes, whose position is moved past them
+	 * @return the number of bytes read, 0 if there was none, -1 at the end of the stream
+	 * @throws IOException if the transport could not be read
+	 */
+	protected abstract int readBytes(ByteBuffer buffer) throws IOException;
+	
+	/**
+	 * Closes this connection, notifying the listener once.
+	 * Can be called from any thread, the close runs on the I/O thread
+	 * @param e the {@link IOException} that closed the connection or null if it was closed locally
+	 */
+	@Override
+	public void close(final IOException e)
+	{
+		if (!inIoThread())
+		{
+			execute(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					close(e);
+				}
+			});
+			return;
+		}
+		
+		if (closed)
+		{
+			return;
+		}
+		closed = true;
+		
+		closeTransport();
+		for (int i = 0; i < writeQueueSize; i++)
+		{
+			bufferPool.release(writeQueue[i]);
+			writeQueue[i] = null;
+		}
+		writeQueueSize = 0;
+		
+		if (listener != null)
+		{
+			listener.onClosed(this, e);
+		}
+	}
+	
+	/**
+	 * Gets whether the current thread is the I/O thread of this connection or not
+	 * @return whether the current thread is the I/O thread of this connection or not
+	 */
+	protected abstract boolean inIoThread();
+	
+	/**
+	 * Closes the transport of this connection, on the I/O thread and only once
+	 */
+	protected abstract void closeTransport();
+}
@@ -0,0 +1,205 @@
+/*
+ * This source file is part of Grideasy
+ * For the latest info, see https://code.google.com/p/grideasy/
+ * 
+ * Grideasy is free software: you can redistribute it
+ * and/or modify it under the terms of the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.grideasy.server.nio;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+import com.grideasy.client.io.BufferPool;
+
+/**
+ * A non-blocking connection of a {@link NioServer}.
+ * The connection reads frames made of an int length followed by the
+ * payload and writes the buffers given to it, both on the thread of
+ * its {@link EventLoop}, so a slow peer never blocks another thread.
+ * The buffers come from the {@link BufferPool} of the loop: the frames
+ * are read in place and the written buffers go back to the pool, and
+ * the buffers of a frame leave in a single gathering write
+ * 
+ * @author Felipe Santos
+ * @email felchs@gmail.com
+ */
+public class NioConnection extends FrameConnection
+{
+	/**
+	 * The channel of this connection
+	 */
+	private final SocketChannel channel;
+	
+	/**
+	 * The address of the peer of this connection
+	 */
+	private final SocketAddress remoteAddress;
+	
+	/**
+	 * The {@link EventLoop} of this connection
+	 */
+	private final EventLoop eventLoop;
+	
+	/**
+	 * The {@link SelectionKey} of the channel, null until it is registered
+	 */
+	private SelectionKey key;
+	
+	/**
+	 * Whether the channel is selected for writes or not
+	 */
+	private boolean writeInterest;
+	
+	/**
+	 * Constructor passing fields
+	 * @param channel the channel of this connection
+	 * @param remoteAddress the address of the peer of this connection
+	 * @param eventLoop the {@link EventLoop} of this connection
+	 */
+	public NioConnection(SocketChannel channel, SocketAddress remoteAddress, EventLoop eventLoop)
+	{
+		super(eventLoop.getBufferPool());
+		this.channel = channel;
+		this.remoteAddress = remoteAddress;
+		this.eventLoop = eventLoop;
+	}
+	
+	/**
+	 * Gets the {@link EventLoop} of this connection
+	 * @return the {@link EventLoop} of this connection
+	 */
+	public EventLoop getEventLoop()
+	{
+		return eventLoop;
+	}
+	
+	@Override
+	public void execute(Runnable task)
+	{
+		eventLoop.execute(task);
+	}
+	
+	@Override
+	public SocketAddress getRemoteAddress()
+	{
+		return remoteAddress;
+	}
+	
+	/**
+	 * Registers the channel of this connection to its {@link EventLoop},
+	 * starting to read the frames. Must be called on the thread of the loop,
+	 * the only one using its {@link BufferPool}, so the buffer of the read
+	 * frames is taken here and not where the connection is accepted
+	 * @param listener the listener of the events of this connection
+	 * @throws ClosedChannelException if the channel is closed
+	 */
+	void register(ConnectionListener listener) throws ClosedChannelException
+	{
+		startReading(listener);
+		this.key = channel.register(eventLoop.getSelector(), SelectionKey.OP_READ, this);
+		if (hasPendingWrites())
+		{
+			writeInterest = true;
+			key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+		}
+	}
+	
+	/**
+	 * Writes the waiting buffers with a gathering write
+	 */
+	@Override
+	protected boolean writeBuffers(ByteBuffer[] buffers, int count) throws IOException
+	{
+		return channel.write(buffers, 0, count) > 0;
+	}
+	
+	/**
+	 * Selects the channel for writes while buffers are waiting, so
+	 * the rest is written when the channel becomes writable
+	 */
+	@Override
+	protected void onFlushed()
+	{
+		if (key != null && hasPendingWrites() != writeInterest)
+		{
+			writeInterest = hasPendingWrites();
+			key.interestOps(writeInterest ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+		}
+	}
+	
+	/**
+	 * Writes the waiting buffers as the channel becomes writable
+	 * @throws IOException if the channel could not be written
+	 */
+	void onWritable() throws IOException
+	{
+		flush();
+	}
+	
+	/**
+	 * Reads the available bytes, notifying each complete frame to the listener
+	 * @throws IOException if the channel could not be read or the peer closed it
+	 */
+	void onReadable() throws IOException
+	{
+		if (readFrames() < 0)
+		{
+			throw new IOException("Connection closed by the peer: " + getRemoteAddress());
+		}
+	}
+	
+	@Override
+	protected int readBytes(ByteBuffer buffer) throws IOException
+	{
+		return channel.read(buffer);
+	}
+	
+	@Override
+	protected boolean inIoThread()
+	{
+		return eventLoop.inEventLoop();
+	}
+	
+	/**
+	 * Cancels the key of the channel and closes it
+	 */
+	@Override
+	protected void closeTransport()
+	{
+		if (key != null)
+		{
+			key.cancel();
+		}
+		try
+		{
+			channel.close();
+		}
+		catch (IOException closeException)
+		{
+			closeException.printStackTrace();
+		}
+	}
+}
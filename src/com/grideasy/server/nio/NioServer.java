@@ -0,0 +1,262 @@
+/*
+ * This source file is part of Grideasy
+ * For the latest info, see https://code.google.com/p/grideasy/
+ * 
+ * Grideasy is free software: you can redistribute it
+ * and/or modify it under the terms of the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.grideasy.server.nio;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import com.grideasy.client.io.UnixDomainSockets;
+
+/**
+ * A non-blocking server of connections.
+ * A small number of {@link EventLoop}'s accept the connections and do
+ * their I/O, the connections are spread among the loops as they are accepted.
+ * Besides the TCP port, the server can accept the connections of the same
+ * host on a Unix domain socket, which skips the TCP stack
+ * 
+ * @author Felipe Santos
+ * @email felchs@gmail.com
+ */
+public class NioServer
+{
+	/**
+	 * The {@link EventLoop}'s of the connections, the first one also accepts them
+	 */
+	private final EventLoop[] eventLoops;
+	
+	/**
+	 * The {@link ConnectionAcceptor} of the accepted connections
+	 */
+	private final ConnectionAcceptor acceptor;
+	
+	/**
+	 * The channel of the accepted TCP connections
+	 */
+	private ServerSocketChannel serverChannel;
+	
+	/**
+	 * The channel of the accepted Unix domain socket connections, null if there is none
+	 */
+	private ServerSocketChannel unixServerChannel;
+	
+	/**
+	 * The address of the Unix domain socket, null if there is none
+	 */
+	private SocketAddress unixAddress;
+	
+	/**
+	 * The index of the {@link EventLoop} of the next accepted connection
+	 */
+	private int nextEventLoop;
+	
+	/**
+	 * Constructor passing fields
+	 * @param numEventLoops the number of {@link EventLoop}'s of the connections
+	 * @param directBuffers whether the buffers of the frames are direct or not
+	 * @param acceptor the {@link ConnectionAcceptor} of the accepted connections
+	 * @throws IOException if a {@link EventLoop} could not be created
+	 */
+	public NioServer(int numEventLoops, boolean directBuffers, ConnectionAcceptor acceptor) throws IOException
+	{
+		if (numEventLoops < 1)
+		{
+			throw new IllegalArgumentException("The server must have at least one event loop");
+		}
+		
+		this.acceptor = acceptor;
+		this.eventLoops = new EventLoop[numEventLoops];
+		for (int i = 0; i < numEventLoops; i++)
+		{
+			eventLoops[i] = new EventLoop("GridServer event loop " + (i + 1), directBuffers);
+		}
+	}
+	
+	/**
+	 * Binds the server to a port and starts the {@link EventLoop}'s
+	 * @param port the port which the connections are accepted on
+	 * @throws IOException if the port could not be bound
+	 */
+	public void start(int port) throws IOException
+	{
+		start(port, null);
+	}
+	
+	/**
+	 * Binds the server to a port and to a Unix domain socket and starts the {@link EventLoop}'s.
+	 * When the JVM does not support the Unix domain sockets only the port is bound
+	 * @param port the port which the connections are accepted on
+	 * @param unixSocketPath the path of the Unix domain socket or null for none
+	 * @throws IOException if the port or the socket could not be bound
+	 */
+	public void start(int port, String unixSocketPath) throws IOException
+	{
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.socket().setReuseAddress(true);
+		serverChannel.socket().bind(new InetSocketAddress(port));
+		serverChannel.configureBlocking(false);
+		
+		final List<ServerSocketChannel> channels = new ArrayList<ServerSocketChannel>();
+		channels.add(serverChannel);
+		if (unixSocketPath != null)
+		{
+			try
+			{
+				unixServerChannel = UnixDomainSockets.bind(unixSocketPath);
+				unixServerChannel.configureBlocking(false);
+				unixAddress = UnixDomainSockets.getAddress(unixSocketPath);
+				channels.add(unixServerChannel);
+			}
+			catch (UnsupportedOperationException e)
+			{
+				System.err.println("Unix domain sockets are not supported by this platform, accepting TCP connections only.");
+			}
+		}
+		
+		for (EventLoop eventLoop : eventLoops)
+		{
+			eventLoop.start();
+		}
+		
+		final EventLoop acceptLoop = eventLoops[0];
+		acceptLoop.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				for (ServerSocketChannel channel : channels)
+				{
+					try
+					{
+						channel.register(acceptLoop.getSelector(), SelectionKey.OP_ACCEPT, NioServer.this);
+					}
+					catch (ClosedChannelException e)
+					{
+						e.printStackTrace();
+					}
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Accepts the pending connections, handing each one to the next
+	 * {@link EventLoop}. Called on the thread of the first loop
+	 * @param acceptingChannel the server channel with pending connections
+	 */
+	void accept(ServerSocketChannel acceptingChannel)
+	{
+		boolean tcp = acceptingChannel == serverChannel;
+		while (true)
+		{
+			SocketChannel channel;
+			SocketAddress remoteAddress;
+			try
+			{
+				channel = acceptingChannel.accept();
+				if (channel == null)
+				{
+					return;
+				}
+				channel.configureBlocking(false);
+				if (tcp)
+				{
+					channel.socket().setTcpNoDelay(true);
+					remoteAddress = channel.socket().getRemoteSocketAddress();
+				}
+				else
+				{
+					remoteAddress = unixAddress;
+				}
+			}
+			catch (IOException e)
+			{
+				e.printStackTrace();
+				return;
+			}
+			
+			EventLoop eventLoop = eventLoops[nextEventLoop];
+			nextEventLoop = (nextEventLoop + 1) % eventLoops.length;
+			
+			final NioConnection connection = new NioConnection(channel, remoteAddress, eventLoop);
+			final ConnectionListener listener = acceptor.onAccepted(connection);
+			if (listener == null)
+			{
+				connection.close(null);
+				continue;
+			}
+			
+			eventLoop.execute(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						connection.register(listener);
+					}
+					catch (ClosedChannelException e)
+					{
+						connection.close(e);
+					}
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Closes the server channels and stops the {@link EventLoop}'s
+	 */
+	public void shutdown()
+	{
+		try
+		{
+			if (serverChannel != null)
+			{
+				serverChannel.close();
+			}
+			if (unixServerChannel != null)
+			{
+				unixServerChannel.close();
+			}
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+		
+		for (EventLoop eventLoop : eventLoops)
+		{
+			eventLoop.shutdown();
+		}
+	}
+}
@@ -0,0 +1,204 @@
+/*
+ * This source file is part of Grideasy
+ * For the latest info, see https://code.google.com/p/grideasy/
+ * 
+ * Grideasy is free software: you can redistribute it
+ * and/or modify it under the terms of the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.grideasy.server.shm;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+import com.grideasy.client.io.SharedMemoryRing;
+import com.grideasy.client.io.SharedMemorySegment;
+import com.grideasy.server.nio.ConnectionListener;
+import com.grideasy.server.nio.FrameConnection;
+
+/**
+ * A connection of a client of the same host on a {@link SharedMemorySegment}.
+ * The frames are written to the ring of the jobs and read from the ring
+ * of the results by the thread of its {@link SharedMemorySlot}, laid out
+ * as on a socket: an int length followed by the payload
+ * 
+ * @author Felipe Santos
+ * @email felchs@gmail.com
+ */
+public class SharedMemoryConnection extends FrameConnection
+{
+	/**
+	 * The address of a connection, the file of its segment
+	 */
+	private static class SegmentAddress extends SocketAddress
+	{
+		/**
+		 * Serial version
+		 */
+		private static final long serialVersionUID = 1L;
+		
+		/**
+		 * The path of the file of the segment
+		 */
+		private final String path;
+		
+		/**
+		 * Constructor passing fields
+		 * @param path the path of the file of the segment
+		 */
+		private SegmentAddress(String path)
+		{
+			this.path = path;
+		}
+		
+		@Override
+		public String toString()
+		{
+			return "shm:" + path;
+		}
+	}
+	
+	///////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * The slot of this connection
+	 */
+	private final SharedMemorySlot slot;
+	
+	/**
+	 * The segment of this connection
+	 */
+	private final SharedMemorySegment segment;
+	
+	/**
+	 * The ring of the written jobs
+	 */
+	private final SharedMemoryRing jobRing;
+	
+	/**
+	 * The ring of the read results
+	 */
+	private final SharedMemoryRing resultRing;
+	
+	/**
+	 * The address of the peer of this connection
+	 */
+	private final SocketAddress remoteAddress;
+	
+	/**
+	 * Constructor passing fields
+	 * @param slot the slot of this connection
+	 * @param segment the segment of this connection
+	 */
+	SharedMemoryConnection(SharedMemorySlot slot, SharedMemorySegment segment)
+	{
+		super(slot.getBufferPool());
+		this.slot = slot;
+		this.segment = segment;
+		this.jobRing = segment.getJobRing();
+		this.resultRing = segment.getResultRing();
+		this.remoteAddress = new SegmentAddress(segment.getFile().getPath());
+	}
+	
+	/**
+	 * Sets the listener of the events of this connection, starting to read the frames.
+	 * Called by the thread of the slot
+	 * @param listener the listener of the events of this connection
+	 */
+	void setListener(ConnectionListener listener)
+	{
+		startReading(listener);
+	}
+	
+	@Override
+	public SocketAddress getRemoteAddress()
+	{
+		return remoteAddress;
+	}
+	
+	@Override
+	public void execute(Runnable task)
+	{
+		slot.execute(task);
+	}
+	
+	/**
+	 * Copies the waiting buffers to the ring of the jobs.
+	 * When the ring is full, the rest is copied as the client reads it
+	 */
+	@Override
+	protected boolean writeBuffers(ByteBuffer[] buffers, int count)
+	{
+		boolean wrote = false;
+		for (int i = 0; i < count; i++)
+		{
+			wrote |= jobRing.offer(buffers[i]) > 0;
+			if (buffers[i].hasRemaining())
+			{
+				break;
+			}
+		}
+		return wrote;
+	}
+	
+	/**
+	 * Moves the frames of this connection: writes the waiting buffers and reads
+	 * the available results, notifying each complete frame to the listener.
+	 * Called by the thread of the slot
+	 * @return whether a byte was moved or not
+	 * @throws IOException if a frame is invalid or the client closed the connection
+	 */
+	boolean poll() throws IOException
+	{
+		boolean busy = hasPendingWrites() && flush();
+		
+		if (readFrames() == 0)
+		{
+			if (segment.getClientState() != SharedMemorySegment.CLIENT_CONNECTED && resultRing.isEmpty())
+			{
+				throw new IOException("Connection closed by the peer: " + remoteAddress);
+			}
+			return busy;
+		}
+		return true;
+	}
+	
+	@Override
+	protected int readBytes(ByteBuffer buffer)
+	{
+		return resultRing.poll(buffer);
+	}
+	
+	@Override
+	protected boolean inIoThread()
+	{
+		return slot.inSlotThread();
+	}
+	
+	/**
+	 * Tells the client the server closed the connection
+	 */
+	@Override
+	protected void closeTransport()
+	{
+		segment.setServerState(SharedMemorySegment.SERVER_CLOSED);
+	}
+}
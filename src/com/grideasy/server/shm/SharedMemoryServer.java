@@ -0,0 +1,104 @@
+/*
+ * This source file is part of Grideasy
+ * For the latest info, see https://code.google.com/p/grideasy/
+ * 
+ * Grideasy is free software: you can redistribute it
+ * and/or modify it under the terms of the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.grideasy.server.shm;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.grideasy.client.io.SharedMemorySegment;
+import com.grideasy.server.nio.ConnectionAcceptor;
+
+/**
+ * Accepts the clients of the same host on {@link SharedMemorySegment}'s,
+ * the lowest latency transport: the jobs and the results never cross
+ * the kernel. The server creates a fixed number of slots, each one a
+ * segment with its own thread, and a client claims a free slot
+ * 
+ * @author Felipe Santos
+ * @email felchs@gmail.com
+ */
+public class SharedMemoryServer
+{
+	/**
+	 * The accepter of the connections
+	 */
+	private final ConnectionAcceptor acceptor;
+	
+	/**
+	 * Whether the buffers of the frames are direct or not
+	 */
+	private final boolean directBuffers;
+	
+	/**
+	 * The slots of the clients
+	 */
+	private final List<SharedMemorySlot> slots = new ArrayList<SharedMemorySlot>();
+	
+	/**
+	 * Constructor passing fields
+	 * @param directBuffers whether the buffers of the frames are direct or not
+	 * @param acceptor the accepter of the connections
+	 */
+	public SharedMemoryServer(boolean directBuffers, ConnectionAcceptor acceptor)
+	{
+		this.directBuffers = directBuffers;
+		this.acceptor = acceptor;
+	}
+	
+	/**
+	 * Creates the segments of the slots and starts their threads
+	 * @param directory the directory of the files of the segments
+	 * @param port the port of the server, which names the files
+	 * @param numSlots the number of slots
+	 * @param ringCapacity the number of bytes of each ring of a segment, a power of two
+	 * @throws IOException if a segment could not be created
+	 */
+	public void start(String directory, int port, int numSlots, int ringCapacity) throws IOException
+	{
+		for (int i = 0; i < numSlots; i++)
+		{
+			File file = SharedMemorySegment.getFile(directory, port, i);
+			SharedMemorySegment segment = SharedMemorySegment.create(file, ringCapacity);
+			SharedMemorySlot slot = new SharedMemorySlot("GridServer SharedMemory " + i, segment, directBuffers, acceptor);
+			slots.add(slot);
+			slot.start();
+		}
+		System.out.println("Shared memory slots: " + numSlots + " at " + directory);
+	}
+	
+	/**
+	 * Stops the threads of the slots
+	 */
+	public void shutdown()
+	{
+		for (SharedMemorySlot slot : slots)
+		{
+			slot.shutdown();
+		}
+	}
+}
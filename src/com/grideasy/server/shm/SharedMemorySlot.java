@@ -0,0 +1,323 @@
+/*
+ * This source file is part of Grideasy
+ * For the latest info, see https://code.google.com/p/grideasy/
+ * 
+ * Grideasy is free software: you can redistribute it
+ * and/or modify it under the terms of the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.grideasy.server.shm;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+import com.grideasy.client.io.BufferPool;
+import com.grideasy.client.io.SharedMemorySegment;
+import com.grideasy.client.io.SpinParkIdler;
+import com.grideasy.server.nio.ConnectionAcceptor;
+import com.grideasy.server.nio.ConnectionListener;
+
+/**
+ * A slot of a {@link SharedMemoryServer}: a {@link SharedMemorySegment}
+ * and the thread that polls it. The thread accepts the client that claims
+ * the segment, moves the frames of its {@link SharedMemoryConnection} and
+ * runs the tasks given to the connection, spinning while there is work and
+ * parking when there is none, and frees the segment once the client is gone
+ * 
+ * @author Felipe Santos
+ * @email felchs@gmail.com
+ */
+class SharedMemorySlot implements Runnable
+{
+	/**
+	 * The time between the checks of a client that may have died, in milliseconds
+	 */
+	private static final long CLIENT_CHECK_INTERVAL = 1000;
+	
+	///////////////////////////////////////////////////////////////////////////
+	
+	/**
+	 * The segment of this slot
+	 */
+	private final SharedMemorySegment segment;
+	
+	/**
+	 * The accepter of the connections
+	 */
+	private final ConnectionAcceptor acceptor;
+	
+	/**
+	 * The {@link BufferPool} of the frames, only used by the thread of this slot
+	 */
+	private final BufferPool bufferPool;
+	
+	/**
+	 * The tasks to be run on the thread of this slot
+	 */
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+	
+	/**
+	 * The waiting of the thread while there is no work
+	 */
+	private final SpinParkIdler idler = new SpinParkIdler();
+	
+	/**
+	 * The thread of this slot
+	 */
+	private final Thread thread;
+	
+	/**
+	 * The connection of the client, null while the slot is free
+	 */
+	private SharedMemoryConnection connection;
+	
+	/**
+	 * The time of the last check of the client, in milliseconds
+	 */
+	private long lastClientCheck;
+	
+	/**
+	 * Whether this slot is running or not
+	 */
+	private volatile boolean running = true;
+	
+	/**
+	 * Constructor passing fields
+	 * @param name the name of the thread of the slot
+	 * @param segment the segment of the slot
+	 * @param directBuffers whether the buffers of the frames are direct or not
+	 * @param acceptor the accepter of the connections
+	 */
+	SharedMemorySlot(String name, SharedMemorySegment segment, boolean directBuffers, ConnectionAcceptor acceptor)
+	{
+		this.segment = segment;
+		this.acceptor = acceptor;
+		this.bufferPool = new BufferPool(directBuffers);
+		this.thread = new Thread(this, name);
+		this.thread.setDaemon(true);
+	}
+	
+	/**
+	 * Gets the {@link BufferPool} of the frames, only used by the thread of this slot
+	 * @return the {@link BufferPool} of the frames
+	 */
+	BufferPool getBufferPool()
+	{
+		return bufferPool;
+	}
+	
+	/**
+	 * Starts the thread of this slot, freeing the segment
+	 */
+	void start()
+	{
+		segment.reset();
+		thread.start();
+	}
+	
+	/**
+	 * Stops the thread of this slot
+	 */
+	void shutdown()
+	{
+		running = false;
+		LockSupport.unpark(thread);
+	}
+	
+	/**
+	 * Gets whether the current thread is the thread of this slot or not
+	 * @return whether the current thread is the thread of this slot or not
+	 */
+	boolean inSlotThread()
+	{
+		return Thread.currentThread() == thread;
+	}
+	
+	/**
+	 * Runs a task on the thread of this slot, waking it up if it is parked
+	 * @param task the task to be run
+	 */
+	void execute(Runnable task)
+	{
+		tasks.add(task);
+		if (!inSlotThread())
+		{
+			LockSupport.unpark(thread);
+		}
+	}
+	
+	/**
+	 * Loop of the thread: runs the queued tasks, accepts a client or moves
+	 * the frames of its connection, and waits when there was nothing to do
+	 */
+	@Override
+	public void run()
+	{
+		while (running)
+		{
+			boolean busy = runTasks();
+			try
+			{
+				if (connection == null)
+				{
+					busy |= accept();
+				}
+				else if (!connection.isClosed())
+				{
+					busy |= connection.poll();
+				}
+				else
+				{
+					busy |= free();
+				}
+			}
+			catch (IOException e)
+			{
+				connection.close(e);
+				busy = true;
+			}
+			catch (RuntimeException e)
+			{
+				if (connection != null && !connection.isClosed())
+				{
+					// a frame the listener could not handle closes only the connection
+					connection.close(new IOException("The frame could not be handled: " + e, e));
+				}
+				else
+				{
+					e.printStackTrace();
+				}
+				busy = true;
+			}
+			
+			if (busy)
+			{
+				idler.reset();
+			}
+			else
+			{
+				if (idler.isParking())
+				{
+					checkClient();
+				}
+				idler.idle();
+			}
+		}
+	}
+	
+	/**
+	 * Runs the tasks queued until now
+	 * @return whether a task was run or not
+	 */
+	private boolean runTasks()
+	{
+		int numTasks = tasks.size();
+		for (int i = 0; i < numTasks; i++)
+		{
+			Runnable task = tasks.poll();
+			if (task == null)
+			{
+				break;
+			}
+			
+			try
+			{
+				task.run();
+			}
+			catch (RuntimeException e)
+			{
+				e.printStackTrace();
+			}
+		}
+		return numTasks > 0;
+	}
+	
+	/**
+	 * Accepts the client that claimed the segment, if any
+	 * @return whether a client was accepted or not
+	 */
+	private boolean accept()
+	{
+		if (segment.getClientState() != SharedMemorySegment.CLIENT_CONNECTED)
+		{
+			return false;
+		}
+		
+		connection = new SharedMemoryConnection(this, segment);
+		ConnectionListener listener = acceptor.onAccepted(connection);
+		if (listener == null)
+		{
+			connection.close(null);
+		}
+		else
+		{
+			connection.setListener(listener);
+		}
+		return true;
+	}
+	
+	/**
+	 * Frees the segment for the next client once the client of the closed connection is gone
+	 * @return whether the segment was freed or not
+	 */
+	private boolean free()
+	{
+		if (segment.getClientState() == SharedMemorySegment.CLIENT_CONNECTED && !isClientCheckDue())
+		{
+			return false;
+		}
+		if (segment.getClientState() == SharedMemorySegment.CLIENT_CONNECTED && segment.isClaimed())
+		{
+			return false;
+		}
+		
+		segment.reset();
+		connection = null;
+		return true;
+	}
+	
+	/**
+	 * Closes the connection of a client that died without closing it
+	 */
+	private void checkClient()
+	{
+		if (connection != null && !connection.isClosed() && isClientCheckDue() && !segment.isClaimed())
+		{
+			connection.close(new IOException("Shared memory client is gone: " + segment.getFile()));
+		}
+	}
+	
+	/**
+	 * Gets whether it is time to check the client again or not, starting a new interval
+	 * @return whether it is time to check the client again or not
+	 */
+	private boolean isClientCheckDue()
+	{
+		long now = System.currentTimeMillis();
+		if (now - lastClientCheck < CLIENT_CHECK_INTERVAL)
+		{
+			return false;
+		}
+		lastClientCheck = now;
+		return true;
+	}
+}
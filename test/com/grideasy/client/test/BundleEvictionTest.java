@@ -0,0 +1,390 @@
+/*
+ * This source file is part of Grideasy
+ * For the latest info, see https://code.google.com/p/grideasy/
+ * 
+ * Grideasy is free software: you can redistribute it
+ * and/or modify it under the terms of the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.grideasy.client.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import com.grideasy.client.ClassLoaderCache;
+import com.grideasy.client.ClientHostProperties;
+import com.grideasy.client.ClientProcessExecuter;
+import com.grideasy.client.GridJob;
+import com.grideasy.client.GridProtocol;
+import com.grideasy.client.JobResult;
+import com.grideasy.client.SessionCodec;
+import com.grideasy.client.io.FrameCompression;
+import com.grideasy.client.serializer.BinaryInput;
+import com.grideasy.client.serializer.BinaryOutput;
+import com.grideasy.client.serializer.BinarySerializer;
+import com.grideasy.client.serializer.GridCodable;
+import com.grideasy.client.serializer.GridSerializer;
+import com.grideasy.client.serializer.Serializers;
+
+/**
+ * Plays the server of a client with room for a single code bundle: a job of
+ * bundle A, a job of bundle B evicting A, a job of a new class referring to
+ * A, answered as missing its bundle, and the same job resent with A, whose
+ * class descriptors were sent only with the missing one.
+ * Then a codable job only in the jar of A, skipped while A is evicted, followed
+ * by a job of B naming no class first named inside the skipped one: the second
+ * job is answered as unread, and both are read once sent again after the
+ * serializer of the server is reset
+ */
+public class BundleEvictionTest
+{
+	public static class FirstJob extends GridJob
+	{
+		private static final long serialVersionUID = 1L;
+
+		protected Object execute()
+		{
+			return "first";
+		}
+	}
+
+	public static class Payload implements Serializable
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final String text;
+
+		public Payload(String text)
+		{
+			this.text = text;
+		}
+	}
+
+	public static class SecondJob extends GridJob
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final Payload payload = new Payload("second");
+
+		protected Object execute()
+		{
+			return payload.text;
+		}
+	}
+
+	public static class Nested implements GridCodable, Serializable
+	{
+		private static final long serialVersionUID = 1L;
+
+		private int value;
+
+		public Nested()
+		{
+		}
+
+		public Nested(int value)
+		{
+			this.value = value;
+		}
+
+		public int getValue()
+		{
+			return value;
+		}
+
+		public void writeTo(BinaryOutput out) throws IOException
+		{
+			out.writeInt(value);
+		}
+
+		public void readFrom(BinaryInput in) throws IOException
+		{
+			value = in.readInt();
+		}
+	}
+
+	public static class CodableJob extends GridJob implements GridCodable
+	{
+		private static final long serialVersionUID = 1L;
+
+		private Nested nested = new Nested(3);
+
+		private Serializable payload = new Payload("codable");
+
+		public void writeTo(BinaryOutput out) throws IOException
+		{
+			out.writeValue(nested);
+			out.writeValue(payload);
+		}
+
+		public void readFrom(BinaryInput in) throws IOException
+		{
+			nested = (Nested) in.readValue();
+			payload = (Serializable) in.readValue();
+		}
+
+		protected Object execute()
+		{
+			return "codable" + nested.getValue();
+		}
+	}
+
+	public static class NestedJob extends GridJob implements GridCodable
+	{
+		private static final long serialVersionUID = 1L;
+
+		private Nested nested = new Nested(3);
+
+		private Payload payload = new Payload("nested");
+
+		public void writeTo(BinaryOutput out) throws IOException
+		{
+			out.writeValue(nested);
+			out.writeValue(payload);
+		}
+
+		public void readFrom(BinaryInput in) throws IOException
+		{
+			nested = (Nested) in.readValue();
+			payload = (Payload) in.readValue();
+		}
+
+		protected Object execute()
+		{
+			return payload.text + nested.getValue();
+		}
+	}
+
+	private static final int TIMEOUT = 10000;
+
+	/**
+	 * The name of a copy of {@link CodableJob} found only in the jar of the
+	 * bundle A, so the client cannot read it while A is evicted
+	 */
+	private static final String BUNDLED_JOB = CodableJob.class.getName().replaceAll("Job$", "Joc");
+
+	public static void main(String[] args) throws Exception
+	{
+		boolean passed = run(Serializers.JAVA) & run(BinarySerializer.NAME);
+		System.out.println(passed ? "PASSED" : "FAILED");
+		System.exit(passed ? 0 : 1);
+	}
+
+	private static boolean run(String serializer) throws Exception
+	{
+		ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+		startClient(serverSocket.getLocalPort());
+		Socket socket = serverSocket.accept();
+		socket.setSoTimeout(TIMEOUT);
+		DataInputStream in = new DataInputStream(socket.getInputStream());
+		DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+
+		// hello
+		in.readFully(new byte[in.readInt()]);
+		out.writeUTF(serializer);
+		out.writeUTF(FrameCompression.NONE);
+		GridSerializer codec = Serializers.getInstance().newSerializer(serializer, SessionCodec.DEFAULT_RESET_INTERVAL);
+
+		boolean passed;
+		try
+		{
+			passed = expect(serializer, "first job of A", send(in, out, codec, 1, "A", true, new FirstJob()), "first")
+					& expect(serializer, "first job of B", send(in, out, codec, 2, "B", true, new FirstJob()), "first")
+					& expect(serializer, "second job of evicted A", send(in, out, codec, 3, "A", false, new SecondJob()), null)
+					& expect(serializer, "second job resent with A", send(in, out, codec, 3, "A", true, new SecondJob()), "second")
+					& expect(serializer, "first job of B evicting A", send(in, out, codec, 4, "B", true, new FirstJob()), "first");
+
+			// a job only in the evicted A and a job of B written before the server knows
+			write(out, codec, 5, "A", false, 0, newBundledJob());
+			write(out, codec, 6, "B", false, 0, new NestedJob());
+			JobResult bundledResult = read(in, codec);
+			JobResult nestedResult = read(in, codec);
+			if (bundledResult.requestId != 5)
+			{
+				JobResult result = bundledResult;
+				bundledResult = nestedResult;
+				nestedResult = result;
+			}
+			passed &= expect(serializer, "bundled job of evicted A", bundledResult, null);
+			codec.reset();
+
+			passed &= expect(serializer, "bundled job resent with A", send(in, out, codec, 5, "A", true, GridProtocol.SESSION_RESET, newBundledJob()), "codable3");
+			if (nestedResult.isUnread())
+			{
+				System.out.println(serializer + ": job of B after the skipped one unread");
+				nestedResult = send(in, out, codec, 6, "A", false, 0, new NestedJob());
+			}
+			passed &= expect(serializer, "job of B after the skipped one", nestedResult, "nested3");
+		}
+		catch (IOException e)
+		{
+			System.out.println(serializer + ": the client dropped the connection: " + e);
+			passed = false;
+		}
+
+		socket.close();
+		serverSocket.close();
+		return passed;
+	}
+
+	private static void startClient(final int port)
+	{
+		final ClientHostProperties properties = new ClientHostProperties();
+		properties.parallelism = 1;
+		properties.compression = FrameCompression.NONE;
+
+		Thread client = new Thread()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					Socket socket = new Socket(InetAddress.getByName("127.0.0.1"), port);
+					new ClientProcessExecuter(properties, new ClassLoaderCache(1)).execute(new DataInputStream(socket.getInputStream()),
+							new DataOutputStream(socket.getOutputStream()), socket);
+				}
+				catch (IOException e)
+				{
+					// the test is over
+				}
+			}
+		};
+		client.setDaemon(true);
+		client.start();
+	}
+
+	private static JobResult send(DataInputStream in, DataOutputStream out, GridSerializer codec, long requestId, String bundleHash, boolean full, GridJob job)
+			throws Exception
+	{
+		return send(in, out, codec, requestId, bundleHash, full, 0, job);
+	}
+
+	private static JobResult send(DataInputStream in, DataOutputStream out, GridSerializer codec, long requestId, String bundleHash, boolean full, int flags,
+			GridJob job) throws Exception
+	{
+		write(out, codec, requestId, bundleHash, full, flags, job);
+		return read(in, codec);
+	}
+
+	private static void write(DataOutputStream out, GridSerializer codec, long requestId, String bundleHash, boolean full, int flags, GridJob job)
+			throws IOException
+	{
+		out.writeInt(1);
+		out.writeByte(GridProtocol.LOW_LATENCY | flags);
+		if (full)
+		{
+			byte[] jarBytes = bundleJar(bundleHash);
+			out.writeByte(GridProtocol.BUNDLE_FULL);
+			out.writeUTF(bundleHash);
+			out.writeInt(jarBytes.length);
+			out.write(jarBytes);
+		}
+		else
+		{
+			out.writeByte(GridProtocol.BUNDLE_REF);
+			out.writeUTF(bundleHash);
+		}
+
+		ByteArrayOutputStream jobBytes = new ByteArrayOutputStream();
+		codec.encode(job, jobBytes);
+		out.writeLong(requestId);
+		out.writeInt(jobBytes.size());
+		jobBytes.writeTo(out);
+		out.flush();
+	}
+
+	private static JobResult read(DataInputStream in, GridSerializer codec) throws Exception
+	{
+		byte[] frame = new byte[in.readInt()];
+		in.readFully(frame);
+		DataInputStream frameInput = new DataInputStream(new ByteArrayInputStream(frame));
+		frameInput.readInt();
+		return (JobResult) codec.decode(frameInput, null);
+	}
+
+	private static byte[] bundleJar(String bundleHash) throws IOException
+	{
+		ByteArrayOutputStream jar = new ByteArrayOutputStream();
+		JarOutputStream jarOutput = new JarOutputStream(jar);
+		if (bundleHash.equals("A"))
+		{
+			jarOutput.putNextEntry(new JarEntry(BUNDLED_JOB.replace('.', '/') + ".class"));
+			jarOutput.write(bundledJobBytes());
+			jarOutput.closeEntry();
+		}
+		jarOutput.close();
+		return jar.toByteArray();
+	}
+
+	/**
+	 * Gets the bytes of {@link CodableJob} renamed, the new name as long as the old one
+	 */
+	private static byte[] bundledJobBytes() throws IOException
+	{
+		InputStream classInput = BundleEvictionTest.class.getResourceAsStream("BundleEvictionTest$CodableJob.class");
+		ByteArrayOutputStream classBytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		for (int n; (n = classInput.read(buffer)) > 0;)
+		{
+			classBytes.write(buffer, 0, n);
+		}
+		classInput.close();
+
+		String oldName = CodableJob.class.getName().replace('.', '/');
+		String newName = BUNDLED_JOB.replace('.', '/');
+		return new String(classBytes.toByteArray(), "ISO-8859-1").replace(oldName, newName).getBytes("ISO-8859-1");
+	}
+
+	private static GridJob newBundledJob() throws Exception
+	{
+		final byte[] bytes = bundledJobBytes();
+		ClassLoader loader = new ClassLoader(BundleEvictionTest.class.getClassLoader())
+		{
+			@Override
+			protected Class<?> findClass(String name) throws ClassNotFoundException
+			{
+				if (!name.equals(BUNDLED_JOB))
+				{
+					throw new ClassNotFoundException(name);
+				}
+				return defineClass(name, bytes, 0, bytes.length);
+			}
+		};
+		return (GridJob) loader.loadClass(BUNDLED_JOB).getConstructor().newInstance();
+	}
+
+	private static boolean expect(String serializer, String step, JobResult jobResult, Object expected)
+	{
+		boolean passed = expected == null ? jobResult.isBundleMissing() : !jobResult.isBundleMissing() && !jobResult.isUnread() && expected.equals(jobResult.object);
+		System.out.println(serializer + ": " + step + (passed ? " ok" : " failed: " + jobResult.object + " missing bundle " + jobResult.missingBundleHash));
+		return passed;
+	}
+}
@@ -0,0 +1,199 @@
+/*
+ * This source file is part of Grideasy
+ * For the latest info, see https://code.google.com/p/grideasy/
+ * 
+ * Grideasy is free software: you can redistribute it
+ * and/or modify it under the terms of the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.grideasy.client.test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+
+import com.grideasy.client.io.SharedMemoryInputStream;
+import com.grideasy.client.io.SharedMemoryOutputStream;
+import com.grideasy.client.io.SharedMemoryRing;
+import com.grideasy.client.io.SharedMemorySegment;
+import com.grideasy.client.io.SpinParkIdler;
+
+/**
+ * Measures the round trip of a small frame through a shared memory
+ * segment and through a TCP loopback socket, both echoed by another thread
+ */
+public class SharedMemoryLatencyTest
+{
+	private static final int FRAME_SIZE = 64;
+	
+	private static final int WARMUP = 20000;
+	
+	private static final int ROUND_TRIPS = 100000;
+	
+	public static void main(String[] args) throws Exception
+	{
+		String directory = args.length > 0 ? args[0] : SharedMemorySegment.DEFAULT_DIRECTORY;
+		
+		long[] sharedMemory = measureSharedMemory(directory);
+		long[] tcp = measureTcp();
+		
+		print("shm", sharedMemory);
+		print("tcp", tcp);
+		System.exit(0);
+	}
+	
+	private static long[] measureSharedMemory(String directory) throws IOException
+	{
+		File file = SharedMemorySegment.getFile(directory, 0, 0);
+		SharedMemorySegment server = SharedMemorySegment.create(file, 64 * 1024);
+		server.reset();
+		
+		final SharedMemorySegment client = SharedMemorySegment.claim(directory, 0);
+		Thread echo = new Thread()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					echo(new DataInputStream(new SharedMemoryInputStream(client)), new DataOutputStream(new SharedMemoryOutputStream(client)));
+				}
+				catch (IOException e)
+				{
+					// the test is over
+				}
+			}
+		};
+		echo.setDaemon(true);
+		echo.start();
+		
+		SharedMemoryRing out = server.getJobRing();
+		SharedMemoryRing in = server.getResultRing();
+		SpinParkIdler idler = new SpinParkIdler();
+		byte[] frame = new byte[FRAME_SIZE];
+		long[] times = new long[ROUND_TRIPS];
+		for (int i = -WARMUP; i < ROUND_TRIPS; i++)
+		{
+			long start = System.nanoTime();
+			int written = 0;
+			while (written < FRAME_SIZE)
+			{
+				written += out.offer(frame, written, FRAME_SIZE - written);
+			}
+			int read = 0;
+			while (read < FRAME_SIZE)
+			{
+				int count = in.poll(frame, read, FRAME_SIZE - read);
+				if (count == 0)
+				{
+					idler.idle();
+				}
+				else
+				{
+					read += count;
+					idler.reset();
+				}
+			}
+			if (i >= 0)
+			{
+				times[i] = System.nanoTime() - start;
+			}
+		}
+		
+		server.setServerState(SharedMemorySegment.SERVER_CLOSED);
+		client.close();
+		server.close();
+		file.delete();
+		return times;
+	}
+	
+	private static long[] measureTcp() throws IOException
+	{
+		final ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+		Thread echo = new Thread()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					Socket socket = serverSocket.accept();
+					socket.setTcpNoDelay(true);
+					echo(new DataInputStream(socket.getInputStream()), new DataOutputStream(socket.getOutputStream()));
+				}
+				catch (IOException e)
+				{
+					// the test is over
+				}
+			}
+		};
+		echo.setDaemon(true);
+		echo.start();
+		
+		Socket socket = new Socket(InetAddress.getByName("127.0.0.1"), serverSocket.getLocalPort());
+		socket.setTcpNoDelay(true);
+		DataInputStream in = new DataInputStream(socket.getInputStream());
+		DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+		byte[] frame = new byte[FRAME_SIZE];
+		long[] times = new long[ROUND_TRIPS];
+		for (int i = -WARMUP; i < ROUND_TRIPS; i++)
+		{
+			long start = System.nanoTime();
+			out.write(frame);
+			in.readFully(frame);
+			if (i >= 0)
+			{
+				times[i] = System.nanoTime() - start;
+			}
+		}
+		
+		socket.close();
+		serverSocket.close();
+		return times;
+	}
+	
+	private static void echo(DataInputStream in, DataOutputStream out) throws IOException
+	{
+		byte[] frame = new byte[FRAME_SIZE];
+		while (true)
+		{
+			in.readFully(frame);
+			out.write(frame);
+		}
+	}
+	
+	private static void print(String transport, long[] times)
+	{
+		Arrays.sort(times);
+		System.out.println(transport + " round trip (us): p50=" + percentile(times, 0.50) + " p90=" + percentile(times, 0.90)
+				+ " p99=" + percentile(times, 0.99) + " p99.9=" + percentile(times, 0.999));
+	}
+	
+	private static String percentile(long[] sortedTimes, double percentile)
+	{
+		long nanos = sortedTimes[(int) Math.min(sortedTimes.length - 1, sortedTimes.length * percentile)];
+		return String.format("%.1f", nanos / 1000.0);
+	}
+}
@@ -0,0 +1,195 @@
+/*
+ * This source file is part of Grideasy
+ * For the latest info, see https://code.google.com/p/grideasy/
+ * 
+ * Grideasy is free software: you can redistribute it
+ * and/or modify it under the terms of the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.grideasy.server.test;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.grideasy.client.GridJob;
+import com.grideasy.server.GridNode;
+import com.grideasy.server.GridTask;
+import com.grideasy.server.GridTaskCompletionManager;
+import com.grideasy.server.JobDispatch;
+import com.grideasy.server.JobScheduler;
+
+/**
+ * Plays a {@link GridNode} that answers every job of a task twice, from
+ * several threads at the same time, as a retried or duplicated job does:
+ * each job is reduced once and the task is reduced once with all the
+ * results, then its execution returns with no job left
+ */
+public class CompletionCountTest
+{
+	public static class NumberJob extends GridJob
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final int number;
+
+		public NumberJob(int number)
+		{
+			this.number = number;
+		}
+
+		protected Object execute()
+		{
+			return number;
+		}
+	}
+
+	private static final int NUM_JOBS = 1000;
+
+	private static final int NUM_THREADS = 4;
+
+	public static void main(String[] args) throws Exception
+	{
+		ExecutorService executor = Executors.newCachedThreadPool();
+		final JobScheduler scheduler = new JobScheduler();
+		final GridNode node = new GridNode(executor, scheduler, false);
+
+		LinkedList<GridJob> jobs = new LinkedList<GridJob>();
+		Map<GridJob, GridNode> jobsMap = new HashMap<GridJob, GridNode>();
+		for (int i = 0; i < NUM_JOBS; i++)
+		{
+			NumberJob job = new NumberJob(i);
+			jobs.add(job);
+			jobsMap.put(job, node);
+		}
+
+		final AtomicInteger numJobReduces = new AtomicInteger();
+		final AtomicInteger numReduces = new AtomicInteger();
+		final GridTask task = new GridTask(jobs)
+		{
+			@Override
+			public void jobReduce(GridJob job, Object result)
+			{
+				numJobReduces.incrementAndGet();
+			}
+
+			@Override
+			public Object reduce(Object[] results)
+			{
+				numReduces.incrementAndGet();
+				long sum = 0;
+				for (Object result : results)
+				{
+					sum += (Integer) result;
+				}
+				return sum;
+			}
+		};
+		task.setJobsMap(jobsMap);
+
+		final Object[] taskResult = new Object[1];
+		Thread execution = new Thread()
+		{
+			@Override
+			public void run()
+			{
+				taskResult[0] = task.execute();
+			}
+		};
+		execution.start();
+
+		// each job is answered twice, once by the thread that polled it and once by another one
+		final AtomicInteger numPolled = new AtomicInteger();
+		final ConcurrentLinkedQueue<JobDispatch> answered = new ConcurrentLinkedQueue<JobDispatch>();
+		Thread[] threads = new Thread[NUM_THREADS];
+		for (int i = 0; i < NUM_THREADS; i++)
+		{
+			threads[i] = new Thread()
+			{
+				@Override
+				public void run()
+				{
+					while (numPolled.get() < NUM_JOBS || !answered.isEmpty())
+					{
+						JobDispatch dispatch = scheduler.poll(node);
+						if (dispatch != null)
+						{
+							numPolled.incrementAndGet();
+							answer(dispatch);
+							answered.add(dispatch);
+						}
+						JobDispatch again = answered.poll();
+						if (again != null)
+						{
+							answer(again);
+						}
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread thread : threads)
+		{
+			thread.join();
+		}
+		execution.join(10000);
+
+		boolean passed = expect("jobs reduced once", numJobReduces.get(), NUM_JOBS)
+				& expect("task reduced once", numReduces.get(), 1)
+				& expect("task result", taskResult[0], (long) NUM_JOBS * (NUM_JOBS - 1) / 2)
+				& expect("no job left", task.isAllJobsComplete(), true);
+		System.out.println(passed ? "PASSED" : "FAILED");
+		System.exit(passed ? 0 : 1);
+	}
+
+	/**
+	 * Answers a job as its {@link GridNode} does with the result of the job
+	 */
+	private static void answer(JobDispatch dispatch)
+	{
+		NumberJob job = (NumberJob) dispatch.getJob();
+		GridTaskCompletionManager manager = dispatch.getTaskCompletionManager();
+		if (!manager.markJobComplete(job, dispatch.getEpoch()))
+		{
+			return;
+		}
+
+		try
+		{
+			dispatch.getGridTask().notifyTaskJobReduce(job, job.number);
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+		}
+		manager.onJobComplete(job, dispatch.getEpoch());
+	}
+
+	private static boolean expect(String step, Object actual, Object expected)
+	{
+		boolean passed = expected.equals(actual);
+		System.out.println(step + (passed ? " ok" : " failed: " + actual + " instead of " + expected));
+		return passed;
+	}
+}
@@ -0,0 +1,309 @@
+/*
+ * This source file is part of Grideasy
+ * For the latest info, see https://code.google.com/p/grideasy/
+ * 
+ * Grideasy is free software: you can redistribute it
+ * and/or modify it under the terms of the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.grideasy.server.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.grideasy.client.GridJob;
+import com.grideasy.client.GridProtocol;
+import com.grideasy.client.JobResult;
+import com.grideasy.client.io.BufferPool;
+import com.grideasy.client.io.ByteBufferInputStream;
+import com.grideasy.client.io.FrameCompression;
+import com.grideasy.client.serializer.GridSerializer;
+import com.grideasy.client.serializer.Serializers;
+import com.grideasy.server.GridNode;
+import com.grideasy.server.GridTask;
+import com.grideasy.server.JobScheduler;
+import com.grideasy.server.ServerHostProperties;
+import com.grideasy.server.nio.Connection;
+
+/**
+ * Plays the client of a {@link GridNode} over a {@link Connection} that keeps
+ * the frames written to it: the small jobs of a task are written in batches
+ * of the batch size of the task, each batch in a single frame, and each frame
+ * is answered with a single frame holding the results of its jobs.
+ * Run from the directory holding config/gridservermapproperties
+ */
+public class JobBatchTest
+{
+	public static class NumberJob extends GridJob
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final int number;
+
+		public NumberJob(int number)
+		{
+			this.number = number;
+		}
+
+		protected Object execute()
+		{
+			return number;
+		}
+	}
+
+	/**
+	 * A {@link Connection} whose I/O thread is a single thread executor,
+	 * keeping a copy of each frame written to it
+	 */
+	private static class RecordingConnection implements Connection
+	{
+		private final ExecutorService ioThread = Executors.newSingleThreadExecutor();
+
+		private final BufferPool bufferPool = new BufferPool(false);
+
+		private final BlockingQueue<byte[]> frames = new LinkedBlockingQueue<byte[]>();
+
+		public SocketAddress getRemoteAddress()
+		{
+			return null;
+		}
+
+		public BufferPool getBufferPool()
+		{
+			return bufferPool;
+		}
+
+		public void execute(final Runnable task)
+		{
+			ioThread.execute(new Runnable()
+			{
+				public void run()
+				{
+					try
+					{
+						task.run();
+					}
+					catch (RuntimeException e)
+					{
+						e.printStackTrace();
+					}
+				}
+			});
+		}
+
+		public void write(ByteBuffer buffer) throws IOException
+		{
+			write(buffer, null);
+		}
+
+		public void write(ByteBuffer header, ByteBuffer payload) throws IOException
+		{
+			ByteArrayOutputStream frame = new ByteArrayOutputStream();
+			for (ByteBuffer buffer : new ByteBuffer[] { header, payload })
+			{
+				if (buffer != null)
+				{
+					byte[] bytes = new byte[buffer.remaining()];
+					buffer.get(bytes);
+					frame.write(bytes);
+					bufferPool.release(buffer);
+				}
+			}
+			frames.add(frame.toByteArray());
+		}
+
+		public boolean isClosed()
+		{
+			return false;
+		}
+
+		public void close(IOException e)
+		{
+			if (e != null)
+			{
+				e.printStackTrace();
+			}
+		}
+
+		/**
+		 * Hands a frame of the client to the {@link GridNode} on the I/O thread
+		 */
+		void read(final GridNode node, byte[] frame)
+		{
+			final ByteBuffer buffer = ByteBuffer.wrap(frame);
+			execute(new Runnable()
+			{
+				public void run()
+				{
+					try
+					{
+						node.onFrame(RecordingConnection.this, buffer);
+					}
+					catch (IOException e)
+					{
+						e.printStackTrace();
+					}
+				}
+			});
+		}
+
+		byte[] nextFrame() throws InterruptedException
+		{
+			return frames.poll(10, TimeUnit.SECONDS);
+		}
+	}
+
+	private static final int NUM_JOBS = 64;
+
+	private static final int BATCH_SIZE = 16;
+
+	public static void main(String[] args) throws Exception
+	{
+		ExecutorService executor = Executors.newCachedThreadPool();
+		final GridNode node = new GridNode(executor, new JobScheduler(), false);
+		RecordingConnection connection = new RecordingConnection();
+		node.startUp(connection);
+
+		// hello: parallelism, offered serializers and compression
+		ByteArrayOutputStream hello = new ByteArrayOutputStream();
+		DataOutputStream helloOutput = new DataOutputStream(hello);
+		helloOutput.writeInt(1);
+		helloOutput.writeInt(1);
+		helloOutput.writeUTF(Serializers.JAVA);
+		helloOutput.writeUTF(FrameCompression.NONE);
+		connection.read(node, hello.toByteArray());
+		DataInputStream reply = new DataInputStream(new ByteArrayInputStream(connection.nextFrame()));
+		boolean passed = expect("serializer", reply.readUTF(), Serializers.JAVA);
+
+		LinkedList<GridJob> jobs = new LinkedList<GridJob>();
+		Map<GridJob, GridNode> jobsMap = new HashMap<GridJob, GridNode>();
+		for (int i = 0; i < NUM_JOBS; i++)
+		{
+			NumberJob job = new NumberJob(i);
+			jobs.add(job);
+			jobsMap.put(job, node);
+		}
+
+		final AtomicInteger numJobReduces = new AtomicInteger();
+		final GridTask task = new GridTask(jobs)
+		{
+			@Override
+			public void jobReduce(GridJob job, Object result)
+			{
+				numJobReduces.incrementAndGet();
+			}
+
+			@Override
+			public Object reduce(Object[] results)
+			{
+				long sum = 0;
+				for (Object result : results)
+				{
+					sum += (Integer) result;
+				}
+				return sum;
+			}
+		};
+		task.setJobsMap(jobsMap);
+		task.setBatchSize(BATCH_SIZE);
+
+		final Object[] taskResult = new Object[1];
+		Thread execution = new Thread()
+		{
+			@Override
+			public void run()
+			{
+				taskResult[0] = task.execute();
+			}
+		};
+		execution.start();
+
+		// each frame of jobs is answered with a frame of their results
+		Serializers serializers = Serializers.getInstance();
+		int resetInterval = ServerHostProperties.getInstance().getSessionResetInterval();
+		GridSerializer decoder = serializers.newSerializer(Serializers.JAVA, resetInterval);
+		GridSerializer encoder = serializers.newSerializer(Serializers.JAVA, resetInterval);
+		ByteBufferInputStream frameStream = new ByteBufferInputStream();
+		DataInputStream frameInput = new DataInputStream(frameStream);
+		int numFrames = 0;
+		int numAnswered = 0;
+		boolean batched = true;
+		boolean bundled = false;
+		while (numAnswered < NUM_JOBS)
+		{
+			byte[] frame = connection.nextFrame();
+			if (frame == null)
+			{
+				System.out.println("no frame of jobs after " + numAnswered + " jobs");
+				break;
+			}
+			numFrames++;
+			frameStream.reset(ByteBuffer.wrap(frame));
+			int numJobs = frameInput.readInt();
+			batched &= numJobs == BATCH_SIZE;
+			frameInput.readByte();
+			bundled |= frameInput.readByte() != GridProtocol.NO_BUNDLE;
+
+			ByteArrayOutputStream results = new ByteArrayOutputStream();
+			DataOutputStream resultsOutput = new DataOutputStream(results);
+			resultsOutput.writeInt(numJobs);
+			for (int i = 0; i < numJobs; i++)
+			{
+				long requestId = frameInput.readLong();
+				byte[] jobBytes = new byte[frameInput.readInt()];
+				frameInput.readFully(jobBytes);
+				NumberJob job = (NumberJob) decoder.decode(new ByteArrayInputStream(jobBytes), null);
+				encoder.encode(new JobResult(requestId, job.number), results);
+			}
+			connection.read(node, results.toByteArray());
+			numAnswered += numJobs;
+		}
+		execution.join(10000);
+
+		passed &= expect("jobs per frame", batched, true)
+				& expect("no bundle", bundled, false)
+				& expect("frames of jobs", numFrames, NUM_JOBS / BATCH_SIZE)
+				& expect("jobs reduced once", numJobReduces.get(), NUM_JOBS)
+				& expect("task result", taskResult[0], (long) NUM_JOBS * (NUM_JOBS - 1) / 2);
+		System.out.println(passed ? "PASSED" : "FAILED");
+		System.exit(passed ? 0 : 1);
+	}
+
+	private static boolean expect(String step, Object actual, Object expected)
+	{
+		boolean passed = expected.equals(actual);
+		System.out.println(step + (passed ? " ok" : " failed: " + actual + " instead of " + expected));
+		return passed;
+	}
+}
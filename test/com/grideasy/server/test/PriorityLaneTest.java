@@ -0,0 +1,162 @@
+/*
+ * This source file is part of Grideasy
+ * For the latest info, see https://code.google.com/p/grideasy/
+ * 
+ * Grideasy is free software: you can redistribute it
+ * and/or modify it under the terms of the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.grideasy.server.test;
+
+import java.util.LinkedList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.grideasy.client.GridJob;
+import com.grideasy.server.GridNode;
+import com.grideasy.server.GridTask;
+import com.grideasy.server.JobDispatch;
+import com.grideasy.server.JobScheduler;
+import com.grideasy.server.SchedulingMode;
+
+/**
+ * Submits jobs of several priorities to the {@link JobScheduler} of two
+ * unconnected {@link GridNode}'s and polls them as the {@link GridNode}'s do:
+ * a job of a higher priority is polled before the waiting jobs of a lower one,
+ * ends a batch of jobs of a lower one and is stolen before the own jobs of a
+ * lower priority, while the own jobs come before a stolen job of a lower one
+ */
+public class PriorityLaneTest
+{
+	public static class NumberJob extends GridJob
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final int number;
+
+		public NumberJob(int number)
+		{
+			this.number = number;
+		}
+
+		protected Object execute()
+		{
+			return number;
+		}
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		ExecutorService executor = Executors.newCachedThreadPool();
+		JobScheduler scheduler = new JobScheduler();
+		GridNode node = new GridNode(executor, scheduler, false);
+		GridNode otherNode = new GridNode(executor, scheduler, false);
+
+		GridTask lowTask = newTask(GridTask.LOW_PRIORITY, SchedulingMode.STATIC);
+		GridTask highTask = newTask(GridTask.HIGH_PRIORITY, SchedulingMode.STATIC);
+
+		// the high lane before the low one, whatever the order of submission
+		submit(scheduler, node, lowTask, 1);
+		submit(scheduler, node, lowTask, 2);
+		submit(scheduler, node, highTask, 3);
+		submit(scheduler, node, highTask, 4);
+		boolean passed = expect("high job first", number(scheduler.poll(node)), 3)
+				& expect("high job second", number(scheduler.poll(node)), 4)
+				& expect("low job third", number(scheduler.poll(node)), 1)
+				& expect("low job fourth", number(scheduler.poll(node)), 2)
+				& expect("no job left", scheduler.poll(node), null);
+
+		// a batch of low jobs ends when a high job waits
+		submit(scheduler, node, lowTask, 5);
+		submit(scheduler, node, lowTask, 6);
+		JobDispatch first = scheduler.poll(node);
+		submit(scheduler, node, highTask, 7);
+		passed &= expect("batch first job", number(first), 5)
+				& expect("batch ended by a high job", scheduler.poll(node, first), null)
+				& expect("high job before the batch", number(scheduler.poll(node)), 7)
+				& expect("rest of the batch", number(scheduler.poll(node, first)), 6);
+
+		// the priority of a job overrides the one of its task
+		GridJob urgentJob = new NumberJob(8);
+		urgentJob.setPriority(GridTask.HIGH_PRIORITY);
+		submit(scheduler, node, lowTask, 9);
+		scheduler.submit(node, new JobDispatch(urgentJob, lowTask, null, 0));
+		passed &= expect("job priority", number(scheduler.poll(node)), 8)
+				& expect("task priority", number(scheduler.poll(node)), 9);
+
+		// a stealable high job of another node before the own low jobs
+		GridTask dynamicHighTask = newTask(GridTask.HIGH_PRIORITY, SchedulingMode.DYNAMIC);
+		submit(scheduler, node, lowTask, 10);
+		submit(scheduler, otherNode, dynamicHighTask, 11);
+		passed &= expect("high job stolen", number(scheduler.poll(node)), 11)
+				& expect("own low job", number(scheduler.poll(node)), 10);
+
+		// the own normal jobs before a stealable low job of another node
+		GridTask normalTask = newTask(GridTask.NORMAL_PRIORITY, SchedulingMode.STATIC);
+		GridTask dynamicLowTask = newTask(GridTask.LOW_PRIORITY, SchedulingMode.DYNAMIC);
+		submit(scheduler, otherNode, dynamicLowTask, 12);
+		submit(scheduler, node, normalTask, 13);
+		passed &= expect("own normal job", number(scheduler.poll(node)), 13)
+				& expect("low job stolen when idle", number(scheduler.poll(node)), 12)
+				& expect("no job left on the other node", scheduler.poll(otherNode), null);
+
+		System.out.println(passed ? "PASSED" : "FAILED");
+		System.exit(passed ? 0 : 1);
+	}
+
+	private static GridTask newTask(int priority, SchedulingMode schedulingMode)
+	{
+		LinkedList<GridJob> jobs = new LinkedList<GridJob>();
+		jobs.add(new NumberJob(0));
+		GridTask task = new GridTask(jobs)
+		{
+			@Override
+			public void jobReduce(GridJob job, Object result)
+			{
+			}
+
+			@Override
+			public Object reduce(Object[] results)
+			{
+				return null;
+			}
+		};
+		task.setPriority(priority);
+		task.setSchedulingMode(schedulingMode);
+		return task;
+	}
+
+	private static void submit(JobScheduler scheduler, GridNode node, GridTask task, int number)
+	{
+		scheduler.submit(node, new JobDispatch(new NumberJob(number), task, null, 0));
+	}
+
+	private static Integer number(JobDispatch dispatch)
+	{
+		return dispatch != null ? ((NumberJob) dispatch.getJob()).number : null;
+	}
+
+	private static boolean expect(String step, Object actual, Object expected)
+	{
+		boolean passed = expected == null ? actual == null : expected.equals(actual);
+		System.out.println(step + (passed ? " ok" : " failed: " + actual + " instead of " + expected));
+		return passed;
+	}
+}
@@ -0,0 +1,165 @@
+/*
+ * This source file is part of Grideasy
+ * For the latest info, see https://code.google.com/p/grideasy/
+ * 
+ * Grideasy is free software: you can redistribute it
+ * and/or modify it under the terms of the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.grideasy.server.test;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.grideasy.client.ClientHostProperties;
+import com.grideasy.client.GridJob;
+import com.grideasy.server.GridNode;
+import com.grideasy.server.GridTask;
+import com.grideasy.server.JobScheduler;
+
+/**
+ * Runs a speculative task on two {@link GridNode}'s in the process of the
+ * server, one of its jobs a straggler that sleeps the first time it runs:
+ * the straggler is duplicated on the other {@link GridNode} and the task
+ * completes with the result of the copy, long before the straggler wakes,
+ * each job reduced once and the task reduced once.
+ * Run from the directory holding config/gridservermapproperties
+ */
+public class SpeculationTest
+{
+	public static class NumberJob extends GridJob
+	{
+		private static final long serialVersionUID = 1L;
+
+		private static final AtomicBoolean stragglerRunning = new AtomicBoolean();
+
+		private static final AtomicInteger numRuns = new AtomicInteger();
+
+		private final int number;
+
+		private final boolean straggler;
+
+		public NumberJob(int number, boolean straggler)
+		{
+			this.number = number;
+			this.straggler = straggler;
+		}
+
+		protected Object execute()
+		{
+			numRuns.incrementAndGet();
+			// only the first run of the straggler sleeps, not its copy
+			if (straggler && stragglerRunning.compareAndSet(false, true))
+			{
+				try
+				{
+					Thread.sleep(STRAGGLER_SLEEP);
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+				}
+			}
+			return number;
+		}
+	}
+
+	private static final int NUM_JOBS = 8;
+
+	private static final long STRAGGLER_SLEEP = 5000;
+
+	public static void main(String[] args) throws Exception
+	{
+		ExecutorService executor = Executors.newCachedThreadPool();
+		JobScheduler scheduler = new JobScheduler();
+		GridNode node = new GridNode(executor, scheduler, true);
+		GridNode otherNode = new GridNode(executor, scheduler, true);
+		// a thread for each job, so no job waits behind the straggler
+		ClientHostProperties clientProperties = new ClientHostProperties();
+		clientProperties.parallelism = NUM_JOBS;
+		node.startUpInProcess(clientProperties);
+		otherNode.startUpInProcess(clientProperties);
+
+		LinkedList<GridJob> jobs = new LinkedList<GridJob>();
+		Map<GridJob, GridNode> jobsMap = new HashMap<GridJob, GridNode>();
+		for (int i = 0; i < NUM_JOBS; i++)
+		{
+			NumberJob job = new NumberJob(i, i == 0);
+			jobs.add(job);
+			jobsMap.put(job, i % 2 == 0 ? node : otherNode);
+		}
+
+		final AtomicInteger numJobReduces = new AtomicInteger();
+		final AtomicInteger numReduces = new AtomicInteger();
+		GridTask task = new GridTask(jobs)
+		{
+			@Override
+			public void jobReduce(GridJob job, Object result)
+			{
+				numJobReduces.incrementAndGet();
+			}
+
+			@Override
+			public Object reduce(Object[] results)
+			{
+				numReduces.incrementAndGet();
+				long sum = 0;
+				for (Object result : results)
+				{
+					sum += (Integer) result;
+				}
+				return sum;
+			}
+		};
+		task.setJobsMap(jobsMap);
+		task.setSpeculative(true);
+
+		long start = System.nanoTime();
+		Object taskResult = task.execute();
+		long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+		boolean passed = expect("completed before the straggler", elapsedMillis < STRAGGLER_SLEEP / 2, true)
+				& expect("jobs reduced once", numJobReduces.get(), NUM_JOBS)
+				& expect("task reduced once", numReduces.get(), 1)
+				& expect("task result", taskResult, (long) NUM_JOBS * (NUM_JOBS - 1) / 2);
+		System.out.println("completed in " + elapsedMillis + " ms");
+
+		// the result of the straggler, once it wakes, is ignored
+		Thread.sleep(STRAGGLER_SLEEP + 500);
+		passed &= expect("straggler run twice", NumberJob.numRuns.get(), NUM_JOBS + 1)
+				& expect("straggler result ignored", numJobReduces.get(), NUM_JOBS)
+				& expect("task still reduced once", numReduces.get(), 1);
+		System.out.println(passed ? "PASSED" : "FAILED");
+		System.exit(passed ? 0 : 1);
+	}
+
+	private static boolean expect(String step, Object actual, Object expected)
+	{
+		boolean passed = expected.equals(actual);
+		System.out.println(step + (passed ? " ok" : " failed: " + actual + " instead of " + expected));
+		return passed;
+	}
+}
@@ -0,0 +1,230 @@
+/*
+ * This source file is part of Grideasy
+ * For the latest info, see https://code.google.com/p/grideasy/
+ * 
+ * Grideasy is free software: you can redistribute it
+ * and/or modify it under the terms of the MIT License.
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.grideasy.server.test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collector;
+
+import com.grideasy.client.GridJob;
+import com.grideasy.server.GridNode;
+import com.grideasy.server.GridTask;
+import com.grideasy.server.GridTaskCompletionManager;
+import com.grideasy.server.JobDispatch;
+import com.grideasy.server.JobScheduler;
+
+/**
+ * Plays a {@link GridNode} that answers the jobs of a task with a collector
+ * from several threads at the same time: each partial accumulator, a list
+ * that is not thread-safe, is folded by a single thread at a time, and the
+ * partials merged at the end of the task hold every result once
+ */
+public class StripedReduceTest
+{
+	public static class NumberJob extends GridJob
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final int number;
+
+		public NumberJob(int number)
+		{
+			this.number = number;
+		}
+
+		protected Object execute()
+		{
+			return number;
+		}
+	}
+
+	/**
+	 * A partial accumulator counting the times two threads fold into it at once
+	 */
+	public static class Partial
+	{
+		private final List<Integer> numbers = new ArrayList<Integer>();
+
+		private final AtomicBoolean folding = new AtomicBoolean();
+
+		public void add(Object result)
+		{
+			if (!folding.compareAndSet(false, true))
+			{
+				numOverlaps.incrementAndGet();
+				return;
+			}
+			numbers.add((Integer) result);
+			folding.set(false);
+		}
+
+		public Partial merge(Partial other)
+		{
+			numbers.addAll(other.numbers);
+			return this;
+		}
+
+		public List<Integer> finish()
+		{
+			return numbers;
+		}
+	}
+
+	private static final int NUM_JOBS = 100000;
+
+	private static final int NUM_THREADS = 8;
+
+	private static final AtomicInteger numOverlaps = new AtomicInteger();
+
+	public static void main(String[] args) throws Exception
+	{
+		ExecutorService executor = Executors.newCachedThreadPool();
+		final JobScheduler scheduler = new JobScheduler();
+		final GridNode node = new GridNode(executor, scheduler, false);
+
+		LinkedList<GridJob> jobs = new LinkedList<GridJob>();
+		Map<GridJob, GridNode> jobsMap = new HashMap<GridJob, GridNode>();
+		for (int i = 0; i < NUM_JOBS; i++)
+		{
+			NumberJob job = new NumberJob(i);
+			jobs.add(job);
+			jobsMap.put(job, node);
+		}
+
+		final AtomicInteger numJobReduces = new AtomicInteger();
+		final GridTask task = new GridTask(jobs)
+		{
+			@Override
+			public void jobReduce(GridJob job, Object result)
+			{
+				numJobReduces.incrementAndGet();
+			}
+
+			@Override
+			public Object reduce(Object[] results)
+			{
+				throw new IllegalStateException("A task with a collector is not reduced");
+			}
+		};
+		task.setCollector(Collector.of(Partial::new, Partial::add, Partial::merge, Partial::finish));
+		task.setJobsMap(jobsMap);
+
+		final Object[] taskResult = new Object[1];
+		Thread execution = new Thread()
+		{
+			@Override
+			public void run()
+			{
+				taskResult[0] = task.execute();
+			}
+		};
+		execution.start();
+
+		final AtomicInteger numPolled = new AtomicInteger();
+		Thread[] threads = new Thread[NUM_THREADS];
+		for (int i = 0; i < NUM_THREADS; i++)
+		{
+			threads[i] = new Thread()
+			{
+				@Override
+				public void run()
+				{
+					while (numPolled.get() < NUM_JOBS)
+					{
+						JobDispatch dispatch = scheduler.poll(node);
+						if (dispatch != null)
+						{
+							numPolled.incrementAndGet();
+							answer(dispatch);
+						}
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread thread : threads)
+		{
+			thread.join();
+		}
+		execution.join(10000);
+
+		int numDistinct = 0;
+		List<?> collected = taskResult[0] instanceof List ? (List<?>) taskResult[0] : new ArrayList<Object>();
+		boolean[] seen = new boolean[NUM_JOBS];
+		for (Object number : collected)
+		{
+			if (!seen[(Integer) number])
+			{
+				seen[(Integer) number] = true;
+				numDistinct++;
+			}
+		}
+
+		boolean passed = expect("jobs reduced once", numJobReduces.get(), NUM_JOBS)
+				& expect("partials folded by two threads at once", numOverlaps.get(), 0)
+				& expect("results collected", collected.size(), NUM_JOBS)
+				& expect("distinct results collected", numDistinct, NUM_JOBS);
+		System.out.println(passed ? "PASSED" : "FAILED");
+		System.exit(passed ? 0 : 1);
+	}
+
+	/**
+	 * Answers a job as its {@link GridNode} does with the result of the job
+	 */
+	private static void answer(JobDispatch dispatch)
+	{
+		NumberJob job = (NumberJob) dispatch.getJob();
+		GridTaskCompletionManager manager = dispatch.getTaskCompletionManager();
+		if (!manager.markJobComplete(job, dispatch.getEpoch()))
+		{
+			return;
+		}
+
+		try
+		{
+			dispatch.getGridTask().notifyTaskJobReduce(job, job.number);
+		}
+		catch (Exception e)
+		{
+			e.printStackTrace();
+		}
+		manager.onJobComplete(job, dispatch.getEpoch());
+	}
+
+	private static boolean expect(String step, Object actual, Object expected)
+	{
+		boolean passed = expected.equals(actual);
+		System.out.println(step + (passed ? " ok" : " failed: " + actual + " instead of " + expected));
+		return passed;
+	}
+}